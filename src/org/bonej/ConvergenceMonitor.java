@@ -0,0 +1,267 @@
+package org.bonej;
+
+/**
+ * ConvergenceMonitor
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.geometry.Ellipsoid;
+import org.doube.util.Multithreader;
+import org.doube.util.PackedBinaryStack;
+
+/**
+ * <p>
+ * Tracks how an Ellipsoid Factor run converges as rounds of ellipsoids are
+ * added. Two statistics are maintained incrementally: the filling efficiency,
+ * which is the fraction of foreground voxels that lie inside at least one
+ * ellipsoid, and a volume-weighted histogram of ellipsoid factor. The run is
+ * considered converged once neither the filling efficiency nor the normalised
+ * histogram has changed by more than a tolerance for a given number of
+ * consecutive rounds.
+ * </p>
+ * <p>
+ * Coverage is kept as a bitmap of the stack. Each round of ellipsoids is
+ * rasterised into it in parallel, one slice per thread, so the cost of a round
+ * is proportional to the bounding volume of its ellipsoids rather than the
+ * whole stack.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+public class ConvergenceMonitor {
+
+	/** Number of EF histogram bins spanning -1 to 1 */
+	private static final int HISTOGRAM_BINS = 40;
+
+	private final PackedBinaryStack volume;
+
+	private final double pW, pH, pD;
+
+	private final double tolerance;
+
+	private final int stableRounds;
+
+	/** Filled foreground voxels, packed as in PackedBinaryStack */
+	private final long[][] filled;
+
+	private final int wordsPerRow;
+
+	private final long foregroundCount;
+
+	private long filledCount = 0;
+
+	/** Volume-weighted EF histogram of all ellipsoids added so far */
+	private final double[] histogram = new double[HISTOGRAM_BINS];
+
+	private double histogramSum = 0;
+
+	private double fillingEfficiency = 0;
+
+	private double fillingChange = Double.NaN;
+
+	private double histogramChange = Double.NaN;
+
+	private int nRounds = 0;
+
+	private int nEllipsoids = 0;
+
+	/** Number of consecutive rounds within tolerance */
+	private int nStable = 0;
+
+	/**
+	 * @param volume
+	 *            packed foreground of the image being analysed
+	 * @param pW
+	 *            pixel width
+	 * @param pH
+	 *            pixel height
+	 * @param pD
+	 *            pixel depth
+	 * @param tolerance
+	 *            maximum change in filling efficiency and in EF histogram
+	 *            (total variation distance) between rounds
+	 * @param stableRounds
+	 *            number of consecutive rounds which must be within tolerance
+	 */
+	public ConvergenceMonitor(PackedBinaryStack volume, double pW, double pH,
+			double pD, double tolerance, int stableRounds) {
+		this.volume = volume;
+		this.pW = pW;
+		this.pH = pH;
+		this.pD = pD;
+		this.tolerance = tolerance;
+		this.stableRounds = stableRounds;
+		this.wordsPerRow = (volume.getWidth() + 63) >>> 6;
+		this.filled = new long[volume.getDepth()][volume.getHeight()
+				* wordsPerRow];
+		this.foregroundCount = volume.countForeground();
+	}
+
+	/**
+	 * Add a round of ellipsoids and update the convergence statistics
+	 *
+	 * @param ellipsoids
+	 *            ellipsoids found in this round; null elements are ignored
+	 */
+	public void addRound(final Ellipsoid[] ellipsoids) {
+		final double previousFilling = fillingEfficiency;
+		final double[] previousHistogram = normalisedHistogram();
+
+		for (Ellipsoid e : ellipsoids) {
+			if (e == null)
+				continue;
+			final double ef = EllipsoidFactor.ellipsoidFactor(e);
+			int bin = (int) Math.floor((ef + 1) / 2 * HISTOGRAM_BINS);
+			bin = Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin));
+			histogram[bin] += e.getVolume();
+			histogramSum += e.getVolume();
+			nEllipsoids++;
+		}
+
+		filledCount += fill(ellipsoids);
+		fillingEfficiency = foregroundCount == 0 ? 0 : (double) filledCount
+				/ (double) foregroundCount;
+
+		nRounds++;
+		if (nRounds > 1) {
+			fillingChange = Math.abs(fillingEfficiency - previousFilling);
+			final double[] current = normalisedHistogram();
+			double sum = 0;
+			for (int i = 0; i < HISTOGRAM_BINS; i++)
+				sum += Math.abs(current[i] - previousHistogram[i]);
+			histogramChange = sum / 2;
+			if (fillingChange <= tolerance && histogramChange <= tolerance)
+				nStable++;
+			else
+				nStable = 0;
+		}
+	}
+
+	/**
+	 * Mark the foreground voxels inside the ellipsoids as filled
+	 *
+	 * @param ellipsoids
+	 * @return number of voxels newly filled
+	 */
+	private long fill(final Ellipsoid[] ellipsoids) {
+		final int w = volume.getWidth();
+		final int h = volume.getHeight();
+		final int d = volume.getDepth();
+		final long[] newlyFilled = new long[d];
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int z = ai.getAndIncrement(); z < d; z = ai
+							.getAndIncrement()) {
+						final long[] slice = filled[z];
+						final double zpD = z * pD;
+						long count = 0;
+						for (Ellipsoid e : ellipsoids) {
+							if (e == null)
+								continue;
+							final double[] zMinMax = e.getZMinAndMax();
+							if (zpD < zMinMax[0] || zpD > zMinMax[1])
+								continue;
+							final double[] yMinMax = e.getYMinAndMax();
+							final double[] xMinMax = e.getXMinAndMax();
+							final int yMin = Math.max(0,
+									(int) Math.ceil(yMinMax[0] / pH));
+							final int yMax = Math.min(h - 1,
+									(int) Math.floor(yMinMax[1] / pH));
+							final int xMin = Math.max(0,
+									(int) Math.ceil(xMinMax[0] / pW));
+							final int xMax = Math.min(w - 1,
+									(int) Math.floor(xMinMax[1] / pW));
+							for (int y = yMin; y <= yMax; y++) {
+								final int offset = y * wordsPerRow;
+								final double ypH = y * pH;
+								for (int x = xMin; x <= xMax; x++) {
+									final int i = offset + (x >>> 6);
+									final long bit = 1L << x;
+									if ((slice[i] & bit) != 0
+											|| !volume.isForeground(x, y, z))
+										continue;
+									if (e.contains(x * pW, ypH, zpD)) {
+										slice[i] |= bit;
+										count++;
+									}
+								}
+							}
+						}
+						newlyFilled[z] = count;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		long sum = 0;
+		for (long n : newlyFilled)
+			sum += n;
+		return sum;
+	}
+
+	private double[] normalisedHistogram() {
+		double[] normalised = new double[HISTOGRAM_BINS];
+		if (histogramSum > 0)
+			for (int i = 0; i < HISTOGRAM_BINS; i++)
+				normalised[i] = histogram[i] / histogramSum;
+		return normalised;
+	}
+
+	/**
+	 * @return true if the statistics have been within tolerance for the
+	 *         required number of consecutive rounds
+	 */
+	public boolean isConverged() {
+		return nStable >= stableRounds;
+	}
+
+	/**
+	 * @return fraction of foreground filled by the ellipsoids added so far
+	 */
+	public double getFillingEfficiency() {
+		return fillingEfficiency;
+	}
+
+	/**
+	 * @return change in filling efficiency over the last round, NaN until two
+	 *         rounds have been added
+	 */
+	public double getFillingChange() {
+		return fillingChange;
+	}
+
+	/**
+	 * @return total variation distance between the normalised EF histograms
+	 *         before and after the last round, NaN until two rounds have been
+	 *         added
+	 */
+	public double getHistogramChange() {
+		return histogramChange;
+	}
+
+	public int getRounds() {
+		return nRounds;
+	}
+
+	public int getEllipsoidCount() {
+		return nEllipsoids;
+	}
+}
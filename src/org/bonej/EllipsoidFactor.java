@@ -18,10 +18,13 @@ package org.bonej;
  *along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,6 +44,7 @@ import ij.measure.Calibration;
 //import ij.measure.ResultsTable;
 import ij3d.Image3DUniverse;
 
+import org.bonej.io.EllipsoidCheckpoint;
 import org.doube.geometry.Trig;
 import org.doube.geometry.Vectors;
 import org.doube.geometry.Ellipsoid;
@@ -48,6 +52,8 @@ import org.doube.skeleton.Skeletonize3D;
 import org.doube.util.ArrayHelper;
 import org.doube.util.ImageCheck;
 import org.doube.util.Multithreader;
+import org.doube.util.PackedBinaryStack;
+import org.doube.util.RandomStream;
 //import org.doube.util.ResultInserter;
 import org.doube.util.UsageReporter;
 
@@ -100,12 +106,48 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * diagonal length
 	 */
 	private double maxDrift = Math.sqrt(3);
+
+	/**
+	 * Seed for the random number generator. Each skeleton point draws from its
+	 * own substream, so results are repeatable for a given seed regardless of
+	 * the number of threads.
+	 */
+	private long randomSeed = 0;
+
+	/** Path of checkpoint file; empty for no checkpointing */
+	private String checkpointPath = "";
+
+	/** Minimum interval between checkpoint writes, in seconds */
+	private double checkpointInterval = 60;
+
+	/** Skip seeds which are already saved in the checkpoint file */
+	private boolean doResume = false;
+
+	/**
+	 * Visit seeds in a spatially stratified order and stop once the filling
+	 * efficiency and EF histogram have converged, rather than optimising every
+	 * skipRatio-th skeleton point
+	 */
+	private boolean doAdaptive = false;
+
+	/**
+	 * Maximum change in filling efficiency and in EF histogram between rounds
+	 * for adaptive sampling to be considered converged
+	 */
+	private double convergenceTolerance = 0.005;
+
+	/** Number of seeds optimised per round of adaptive sampling */
+	private int seedsPerRound = 256;
+
+	/** Consecutive rounds within tolerance required to stop */
+	private int stableRounds = 3;
 	// private ResultsTable rt;
 	private Image3DUniverse universe;
 
 	private double stackVolume;
 
-	private double[][] regularVectors;
+	/** Regularly-spaced unit vectors in structure-of-arrays form */
+	private double[] regularX, regularY, regularZ;
 
 	public void run(String arg) {
 		if (!ImageCheck.checkEnvironment())
@@ -138,6 +180,15 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		gd.addNumericField("Contact sensitivity", contactSensitivity, 0, 4, "");
 		gd.addNumericField("Maximum_iterations", maxIterations, 0);
 		gd.addNumericField("Maximum_drift", maxDrift, 5, 8, units);
+		gd.addNumericField("Random_seed", randomSeed, 0, 12, "");
+		gd.addCheckbox("Adaptive_seed_sampling", doAdaptive);
+		gd.addNumericField("Convergence_tolerance", convergenceTolerance, 4,
+				8, "");
+
+		gd.addMessage("\nCheckpoint options");
+		gd.addStringField("Checkpoint_file", checkpointPath, 30);
+		gd.addNumericField("Checkpoint_interval", checkpointInterval, 0, 6, "s");
+		gd.addCheckbox("Resume_from_checkpoint", doResume);
 
 		gd.addMessage("\nOutput options");
 		gd.addCheckbox("EF_image", true);
@@ -164,6 +215,13 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		contactSensitivity = (int) Math.round(gd.getNextNumber());
 		maxIterations = (int) Math.round(gd.getNextNumber());
 		maxDrift = gd.getNextNumber();
+		randomSeed = (long) gd.getNextNumber();
+		doAdaptive = gd.getNextBoolean();
+		convergenceTolerance = gd.getNextNumber();
+
+		checkpointPath = gd.getNextString().trim();
+		checkpointInterval = gd.getNextNumber();
+		doResume = gd.getNextBoolean();
 
 		boolean doEFImage = gd.getNextBoolean();
 		boolean doEllipsoidIDImage = gd.getNextBoolean();
@@ -176,20 +234,105 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		// }
 
 		final double[][] unitVectors = Vectors.regularVectors(nVectors);
-		regularVectors = unitVectors.clone();
-
-		int[][] skeletonPoints = skeletonPoints(imp);
-
-		IJ.log("Found " + skeletonPoints.length + " skeleton points");
+		regularX = new double[nVectors];
+		regularY = new double[nVectors];
+		regularZ = new double[nVectors];
+		for (int i = 0; i < nVectors; i++) {
+			regularX[i] = unitVectors[i][0];
+			regularY[i] = unitVectors[i][1];
+			regularZ[i] = unitVectors[i][2];
+		}
 
-		if (IJ.debugMode) {
-			universe = new Image3DUniverse();
-			universe.show();
+		EllipsoidCheckpoint checkpoint = null;
+		if (doResume) {
+			if (checkpointPath.length() == 0) {
+				IJ.error("Checkpoint file required to resume");
+				return;
+			}
+			try {
+				checkpoint = EllipsoidCheckpoint.open(new File(checkpointPath));
+			} catch (IOException e) {
+				IJ.error("Could not read checkpoint: " + e.getMessage());
+				return;
+			}
+			if (checkpoint.getWidth() != imp.getWidth()
+					|| checkpoint.getHeight() != imp.getHeight()
+					|| checkpoint.getDepth() != imp.getStackSize()) {
+				IJ.error("Checkpoint was made from an image of different size");
+				closeCheckpoint(checkpoint);
+				return;
+			}
+			final String difference = checkpoint.getSettings().difference(
+					checkpointSettings());
+			if (difference != null) {
+				IJ.error("Checkpoint was made with different settings:"
+						+ difference);
+				closeCheckpoint(checkpoint);
+				return;
+			}
+			IJ.log("Resuming from checkpoint with " + checkpoint.countDone()
+					+ " seeds done");
 		}
 
 		long start = System.currentTimeMillis();
-		Ellipsoid[] ellipsoids = findEllipsoids(imp, skeletonPoints,
-				unitVectors);
+		Ellipsoid[] ellipsoids;
+		if (checkpoint != null && checkpoint.isComplete()) {
+			// all seeds done: regenerate outputs without re-optimising
+			closeCheckpoint(checkpoint);
+			ellipsoids = ArrayHelper.removeNulls(checkpoint.getEllipsoids());
+			Arrays.sort(ellipsoids, this);
+		} else {
+			int[][] skeletonPoints = skeletonPoints(imp);
+
+			IJ.log("Found " + skeletonPoints.length + " skeleton points");
+
+			final int[] seeds = selectSeeds(imp, skeletonPoints);
+
+			try {
+				if (checkpoint == null && checkpointPath.length() > 0)
+					checkpoint = EllipsoidCheckpoint.create(new File(
+							checkpointPath), imp.getWidth(), imp.getHeight(),
+							imp.getStackSize(), skeletonPoints.length,
+							checkpointSettings(), seeds);
+			} catch (IOException e) {
+				IJ.error("Could not create checkpoint: " + e.getMessage());
+				return;
+			}
+			if (checkpoint != null) {
+				if (checkpoint.getNPoints() != skeletonPoints.length) {
+					IJ.error("Checkpoint has " + checkpoint.getNPoints()
+							+ " skeleton points but image has "
+							+ skeletonPoints.length);
+					closeCheckpoint(checkpoint);
+					return;
+				}
+				if (!Arrays.equals(checkpoint.getSeeds(), seeds)) {
+					IJ.error("Checkpoint seeds do not match the skeleton "
+							+ "of this image");
+					closeCheckpoint(checkpoint);
+					return;
+				}
+				checkpoint.setFlushInterval((long) (checkpointInterval * 1000));
+			}
+
+			if (IJ.debugMode) {
+				universe = new Image3DUniverse();
+				universe.show();
+			}
+
+			IJ.resetEscape();
+			start = System.currentTimeMillis();
+			ellipsoids = findEllipsoids(imp, skeletonPoints, unitVectors,
+					seeds, checkpoint);
+			closeCheckpoint(checkpoint);
+			if (ellipsoids == null) {
+				IJ.log("Ellipsoid Factor cancelled");
+				if (checkpoint != null)
+					IJ.log(checkpoint.countDone() + " seeds saved to "
+							+ checkpointPath);
+				return;
+			}
+		}
 		long stop = System.currentTimeMillis();
 
 		IJ.log("Found " + ellipsoids.length + " ellipsoids in "
@@ -261,6 +404,33 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		IJ.showStatus("Ellipsoid Factor completed");
 	}
 
+	/**
+	 * @return the settings which must match for a checkpoint to be resumed
+	 */
+	private EllipsoidCheckpoint.Settings checkpointSettings() {
+		return new EllipsoidCheckpoint.Settings(randomSeed, nVectors,
+				skipRatio, contactSensitivity, maxIterations, vectorIncrement,
+				maxDrift, doAdaptive, convergenceTolerance);
+	}
+
+	/**
+	 * Flush and close a checkpoint, logging rather than throwing any errors so
+	 * that a failed checkpoint does not lose the analysis
+	 * 
+	 * @param checkpoint
+	 *            may be null
+	 */
+	private void closeCheckpoint(EllipsoidCheckpoint checkpoint) {
+		if (checkpoint == null)
+			return;
+		try {
+			checkpoint.close();
+		} catch (IOException e) {
+			IJ.log("Could not write checkpoint " + checkpoint.getFile() + ": "
+					+ e.getMessage());
+		}
+	}
+
 	private double calculateFillingEfficiency(final int[][] maxIDs) {
 		final int l = maxIDs.length;
 		final long[] foregroundCount = new long[l];
@@ -793,40 +963,278 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @param imp
 	 * @param skeletonPoints
 	 * @param unitVectors
-	 * @return
+	 * @param seeds
+	 *            skeleton point indices to optimise, in processing order, from
+	 *            {@link #selectSeeds(ImagePlus, int[][])}
+	 * @param checkpoint
+	 *            seeds already done in the checkpoint are skipped, and newly
+	 *            optimised seeds are added to it. May be null.
+	 * @return ellipsoids sorted by descending volume, or null if cancelled
 	 */
 	private Ellipsoid[] findEllipsoids(final ImagePlus imp,
-			final int[][] skeletonPoints, final double[][] unitVectors) {
+			final int[][] skeletonPoints, final double[][] unitVectors,
+			final int[] seeds, final EllipsoidCheckpoint checkpoint) {
 		final int nPoints = skeletonPoints.length;
 		final Ellipsoid[] ellipsoids = new Ellipsoid[nPoints];
 
 		// make sure array contains null in the non-calculated elements
 		Arrays.fill(ellipsoids, null);
 
-		final AtomicInteger ai = new AtomicInteger(0);
-		final AtomicInteger counter = new AtomicInteger(0);
+		// pack the foreground once and share it between all threads
+		final PackedBinaryStack volume = new PackedBinaryStack(
+				imp.getImageStack());
+
+		final RandomStream random = new RandomStream(randomSeed);
+
+		int nSeedsUsed = seeds.length;
+		if (doAdaptive) {
+			nSeedsUsed = findEllipsoidsAdaptive(imp, volume, random,
+					skeletonPoints, unitVectors, seeds, ellipsoids, checkpoint);
+		} else {
+			optimiseSeeds(imp, volume, random, skeletonPoints, unitVectors,
+					seeds, 0, seeds.length, ellipsoids, checkpoint);
+		}
+
+		if (IJ.escapePressed())
+			return null;
+
+		if (checkpoint != null)
+			checkpoint.finish(nSeedsUsed);
+
+		Ellipsoid[] sortedEllipsoids = ArrayHelper.removeNulls(ellipsoids);
+
+		// Sort using this class' compare method
+		Arrays.sort(sortedEllipsoids, this);
+
+		return sortedEllipsoids;
+	}
+
+	/**
+	 * Optimise seeds in rounds, visiting the skeleton in a spatially stratified
+	 * order so that each round samples the whole structure. Stops when the
+	 * filling efficiency and EF histogram have converged, when all the seeds
+	 * have been optimised, or when the user presses Esc.
+	 *
+	 * @param imp
+	 * @param volume
+	 * @param random
+	 * @param skeletonPoints
+	 * @param unitVectors
+	 * @param seeds
+	 *            skeleton point indices in stratified order
+	 * @param ellipsoids
+	 *            receives the ellipsoids, indexed by skeleton point
+	 * @param checkpoint
+	 *            may be null
+	 * @return number of seeds optimised, from the start of seeds
+	 */
+	private int findEllipsoidsAdaptive(final ImagePlus imp,
+			final PackedBinaryStack volume, final RandomStream random,
+			final int[][] skeletonPoints, final double[][] unitVectors,
+			final int[] seeds, final Ellipsoid[] ellipsoids,
+			final EllipsoidCheckpoint checkpoint) {
+		final int nSeeds = seeds.length;
+		Calibration cal = imp.getCalibration();
+		ConvergenceMonitor monitor = new ConvergenceMonitor(volume,
+				cal.pixelWidth, cal.pixelHeight, cal.pixelDepth,
+				convergenceTolerance, stableRounds);
+		int from = 0;
+		while (from < nSeeds && !monitor.isConverged()) {
+			final int to = Math.min(from + seedsPerRound, nSeeds);
+			optimiseSeeds(imp, volume, random, skeletonPoints, unitVectors,
+					seeds, from, to, ellipsoids, checkpoint);
+			if (IJ.escapePressed())
+				return to;
+			Ellipsoid[] round = new Ellipsoid[to - from];
+			for (int s = from; s < to; s++)
+				round[s - from] = ellipsoids[seeds[s]];
+			monitor.addRound(round);
+			if (IJ.debugMode)
+				IJ.log("Round " + monitor.getRounds() + ": " + to
+						+ " seeds, filling efficiency = "
+						+ IJ.d2s(monitor.getFillingEfficiency(), 5)
+						+ ", EF histogram change = "
+						+ IJ.d2s(monitor.getHistogramChange(), 5));
+			from = to;
+		}
+		IJ.log("Adaptive sampling "
+				+ (monitor.isConverged() ? "converged" : "did not converge")
+				+ " after " + from + " of " + nSeeds + " seeds in "
+				+ monitor.getRounds() + " rounds");
+		IJ.log("Estimated filling efficiency = "
+				+ IJ.d2s(monitor.getFillingEfficiency() * 100, 3)
+				+ "%, change in last round = "
+				+ IJ.d2s(monitor.getFillingChange(), 5)
+				+ ", EF histogram change = "
+				+ IJ.d2s(monitor.getHistogramChange(), 5));
+		return from;
+	}
+
+	/**
+	 * Optimise ellipsoids at a range of seeds in parallel
+	 *
+	 * @param imp
+	 * @param volume
+	 * @param random
+	 *            root stream; each seed uses its own substream
+	 * @param skeletonPoints
+	 * @param unitVectors
+	 * @param seeds
+	 *            skeleton point indices in processing order
+	 * @param from
+	 *            first position in seeds to process
+	 * @param to
+	 *            position in seeds after the last to process
+	 * @param ellipsoids
+	 *            receives the ellipsoids, indexed by skeleton point
+	 * @param checkpoint
+	 *            seeds already done in the checkpoint are skipped, and newly
+	 *            optimised seeds are added to it. May be null.
+	 */
+	private void optimiseSeeds(final ImagePlus imp,
+			final PackedBinaryStack volume, final RandomStream random,
+			final int[][] skeletonPoints, final double[][] unitVectors,
+			final int[] seeds, final int from, final int to,
+			final Ellipsoid[] ellipsoids, final EllipsoidCheckpoint checkpoint) {
+		final int nSeeds = seeds.length;
+		final AtomicInteger ai = new AtomicInteger(from);
 		Thread[] threads = Multithreader.newThreads();
 		for (int thread = 0; thread < threads.length; thread++) {
 			threads[thread] = new Thread(new Runnable() {
 				public void run() {
-					for (int i = ai.getAndAdd(skipRatio); i < nPoints; i = ai
-							.getAndAdd(skipRatio)) {
-						ellipsoids[i] = optimiseEllipsoid(imp,
+					// scratch buffers are reused for every seed on this thread
+					final ContactPoints contactPoints = new ContactPoints(
+							nVectors);
+					for (int s = ai.getAndIncrement(); s < to; s = ai
+							.getAndIncrement()) {
+						if (IJ.escapePressed())
+							break;
+						final int i = seeds[s];
+						if (checkpoint != null && checkpoint.isDone(i)) {
+							ellipsoids[i] = checkpoint.getEllipsoid(i);
+							continue;
+						}
+						ellipsoids[i] = optimiseEllipsoid(imp, volume,
+								contactPoints, random.substream(i),
 								skeletonPoints[i], unitVectors, i);
-						IJ.showProgress(counter.getAndAdd(skipRatio), nPoints);
+						if (checkpoint != null)
+							checkpoint.add(i, ellipsoids[i]);
+						IJ.showProgress(s, nSeeds);
 						IJ.showStatus("Optimising ellipsoids...");
 					}
 				}
 			});
 		}
 		Multithreader.startAndJoin(threads);
+	}
 
-		Ellipsoid[] sortedEllipsoids = ArrayHelper.removeNulls(ellipsoids);
+	/**
+	 * Choose the skeleton points to use as seeds: every skipRatio-th point, or
+	 * for adaptive sampling the same number of points in stratified order
+	 *
+	 * @param imp
+	 * @param skeletonPoints
+	 * @return skeleton point indices in processing order
+	 */
+	private int[] selectSeeds(final ImagePlus imp,
+			final int[][] skeletonPoints) {
+		final int nPoints = skeletonPoints.length;
+		final int nSeeds = (nPoints + skipRatio - 1) / skipRatio;
+		if (doAdaptive) {
+			// index nPoints is never a seed, so its substream is free for
+			// ordering
+			return stratifiedSeeds(skeletonPoints, imp.getWidth(),
+					imp.getHeight(), imp.getStackSize(), nSeeds,
+					new RandomStream(randomSeed).substream(nPoints));
+		}
+		int[] seeds = new int[nSeeds];
+		for (int s = 0; s < nSeeds; s++)
+			seeds[s] = s * skipRatio;
+		return seeds;
+	}
 
-		// Sort using this class' compare method
-		Arrays.sort(sortedEllipsoids, this);
+	/**
+	 * Order skeleton points so that any prefix of the order is spread evenly
+	 * through the stack. The stack is divided into roughly nSeeds cubic cells
+	 * and the cells are visited round-robin, taking one point from each cell
+	 * per pass. Cells and the points within them are shuffled so that no part
+	 * of the stack is systematically favoured.
+	 *
+	 * @param skeletonPoints
+	 * @param width
+	 * @param height
+	 * @param depth
+	 *            stack dimensions in pixels
+	 * @param nSeeds
+	 *            number of seeds required
+	 * @param random
+	 * @return indices into skeletonPoints, of length nSeeds
+	 */
+	private int[] stratifiedSeeds(final int[][] skeletonPoints,
+			final int width, final int height, final int depth,
+			final int nSeeds, final RandomStream random) {
+		final int nPoints = skeletonPoints.length;
+		final double stackVoxels = (double) width * height * depth;
+		final int side = Math.max(1,
+				(int) Math.ceil(Math.cbrt(stackVoxels / Math.max(1, nSeeds))));
+		final int nx = (width + side - 1) / side;
+		final int ny = (height + side - 1) / side;
+
+		// group points by cell in a compact, shuffled layout
+		HashMap<Integer, ArrayList<Integer>> cellMap =
+				new HashMap<Integer, ArrayList<Integer>>();
+		for (int i = 0; i < nPoints; i++) {
+			final int[] p = skeletonPoints[i];
+			final int cell = (p[2] / side * ny + p[1] / side) * nx + p[0]
+					/ side;
+			ArrayList<Integer> members = cellMap.get(cell);
+			if (members == null) {
+				members = new ArrayList<Integer>();
+				cellMap.put(cell, members);
+			}
+			members.add(i);
+		}
+		final int nCells = cellMap.size();
+		final int[][] cells = new int[nCells][];
+		int c = 0;
+		for (ArrayList<Integer> members : cellMap.values()) {
+			final int n = members.size();
+			cells[c] = new int[n];
+			for (int j = 0; j < n; j++)
+				cells[c][j] = members.get(j);
+			shuffle(cells[c], random);
+			c++;
+		}
+		// HashMap iteration order is arbitrary, so sort before shuffling
+		Arrays.sort(cells, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				return a[0] - b[0];
+			}
+		});
+		for (int i = nCells - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int[] tmp = cells[i];
+			cells[i] = cells[j];
+			cells[j] = tmp;
+		}
 
-		return sortedEllipsoids;
+		final int[] seeds = new int[nSeeds];
+		int s = 0;
+		for (int pass = 0; s < nSeeds; pass++) {
+			for (int j = 0; j < nCells && s < nSeeds; j++)
+				if (pass < cells[j].length)
+					seeds[s++] = cells[j][pass];
+		}
+		return seeds;
+	}
+
+	private void shuffle(int[] a, RandomStream random) {
+		for (int i = a.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int tmp = a[i];
+			a[i] = a[j];
+			a[j] = tmp;
+		}
 	}
 
 	/**
@@ -834,14 +1242,22 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * structure
 	 * 
 	 * @param imp
-	 * @param is
+	 * @param volume
+	 *            packed foreground of imp, shared between threads
+	 * @param contactPoints
+	 *            scratch buffers owned by the calling thread
+	 * @param random
+	 *            random stream belonging to this skeleton point
+	 * @param skeletonPoint
 	 * @param unitVectors
 	 * @return ellipsoid fitting the point cloud of boundaries lying at the end
 	 *         of vectors surrounding the seed point. If ellipsoid fitting
 	 *         fails, returns null
 	 */
 	private Ellipsoid optimiseEllipsoid(final ImagePlus imp,
-			int[] skeletonPoint, double[][] unitVectors, final int index) {
+			final PackedBinaryStack volume, ContactPoints contactPoints,
+			final RandomStream random, int[] skeletonPoint,
+			double[][] unitVectors, final int index) {
 
 		long start = System.currentTimeMillis();
 
@@ -850,21 +1266,9 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		final double pH = cal.pixelHeight;
 		final double pD = cal.pixelDepth;
 
-		ImageStack stack = imp.getImageStack();
-		// final int stackSize = stack.getSize();
-		final int w = stack.getWidth();
-		final int h = stack.getHeight();
-		final int d = stack.getSize();
-
-		// cache slices into an array
-		// ByteProcessor[] ips = new ByteProcessor[stackSize + 1];
-		byte[][] pixels = new byte[d][w * h];
-		for (int i = 0; i < d; i++) {
-			// ips[i] = (ByteProcessor) stack.getProcessor(i);
-			pixels[i] = (byte[]) stack.getProcessor(i + 1).getPixels();
-		}
-
-		// final int d = ips.length - 1;
+		final int w = volume.getWidth();
+		final int h = volume.getHeight();
+		final int d = volume.getDepth();
 
 		// centre point of vector field
 		final double px = skeletonPoint[0] * pW;
@@ -882,17 +1286,15 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		volumeHistory.add(ellipsoid.getVolume());
 
 		// dilate the sphere until it hits the background
-		while (isContained(ellipsoid, pixels, pW, pH, pD, w, h, d)) {
+		while (isContained(ellipsoid, contactPoints, volume, pW, pH, pD, w, h,
+				d)) {
 			ellipsoid.dilate(vectorIncrement, vectorIncrement, vectorIncrement);
 		}
 
 		volumeHistory.add(ellipsoid.getVolume());
 
-		// instantiate the ArrayList
-		ArrayList<double[]> contactPoints = new ArrayList<double[]>();
-
 		// get the points of contact
-		contactPoints = findContactPoints(ellipsoid, contactPoints, pixels, pW,
+		contactPoints = findContactPoints(ellipsoid, contactPoints, volume, pW,
 				pH, pD, w, h, d);
 
 		// find the mean unit vector pointing to the points of contact from the
@@ -924,9 +1326,10 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		// int maxContacts = contactPoints.size() + contactSensitivity;
 		while (contactPoints.size() < contactSensitivity) {
 			ellipsoid.dilate(0, vectorIncrement, vectorIncrement);
-			contactPoints = findContactPoints(ellipsoid, contactPoints, pixels,
+			contactPoints = findContactPoints(ellipsoid, contactPoints, volume,
 					pW, pH, pD, w, h, d);
-			if (isInvalid(ellipsoid, pW, pH, pD, w, h, d, px, py, pz)) {
+			if (isInvalid(ellipsoid, contactPoints, pW, pH, pD, w, h, d, px,
+					py, pz)) {
 				IJ.log("Ellipsoid at (" + px + ", " + py + ", " + pz
 						+ ") is invalid, nullifying at initial oblation");
 				return null;
@@ -950,18 +1353,19 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 				&& noImprovementCount < maxIterations) {
 
 			// rotate a little bit
-			ellipsoid = wiggle(ellipsoid);
+			ellipsoid = wiggle(ellipsoid, random);
 
 			// contract until no contact
-			ellipsoid = shrinkToFit(ellipsoid, contactPoints, pixels, pW, pH,
+			ellipsoid = shrinkToFit(ellipsoid, contactPoints, volume, pW, pH,
 					pD, w, h, d);
 
 			// dilate an axis
-			double[] abc = threeWayShuffle();
+			double[] abc = threeWayShuffle(random);
 			ellipsoid = inflateToFit(ellipsoid, contactPoints, abc[0], abc[1],
-					abc[2], pixels, pW, pH, pD, w, h, d, px, py, pz);
+					abc[2], volume, pW, pH, pD, w, h, d, px, py, pz);
 
-			if (isInvalid(ellipsoid, pW, pH, pD, w, h, d, px, py, pz)) {
+			if (isInvalid(ellipsoid, contactPoints, pW, pH, pD, w, h, d, px,
+					py, pz)) {
 				IJ.log("Ellipsoid at (" + px + ", " + py + ", " + pz
 						+ ") is invalid, nullifying after " + totalIterations
 						+ " iterations");
@@ -972,24 +1376,25 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 				maximal = ellipsoid.copy();
 
 			// bump a little away from the sides
-			contactPoints = findContactPoints(ellipsoid, contactPoints, pixels,
+			contactPoints = findContactPoints(ellipsoid, contactPoints, volume,
 					pW, pH, pD, w, h, d);
 			if (contactPoints.size() > 0)
 				ellipsoid = bump(ellipsoid, contactPoints, px, py, pz);
 			// if can't bump then do a wiggle
 			else
-				ellipsoid = wiggle(ellipsoid);
+				ellipsoid = wiggle(ellipsoid, random);
 
 			// contract
-			ellipsoid = shrinkToFit(ellipsoid, contactPoints, pixels, pW, pH,
+			ellipsoid = shrinkToFit(ellipsoid, contactPoints, volume, pW, pH,
 					pD, w, h, d);
 
 			// dilate an axis
-			abc = threeWayShuffle();
+			abc = threeWayShuffle(random);
 			ellipsoid = inflateToFit(ellipsoid, contactPoints, abc[0], abc[1],
-					abc[2], pixels, pW, pH, pD, w, h, d, px, py, pz);
+					abc[2], volume, pW, pH, pD, w, h, d, px, py, pz);
 
-			if (isInvalid(ellipsoid, pW, pH, pD, w, h, d, px, py, pz)) {
+			if (isInvalid(ellipsoid, contactPoints, pW, pH, pD, w, h, d, px,
+					py, pz)) {
 				IJ.log("Ellipsoid at (" + px + ", " + py + ", " + pz
 						+ ") is invalid, nullifying after " + totalIterations
 						+ " iterations");
@@ -1000,19 +1405,20 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 				maximal = ellipsoid.copy();
 
 			// rotate a little bit
-			ellipsoid = turn(ellipsoid, contactPoints, 0.1, pixels, pW, pH, pD,
+			ellipsoid = turn(ellipsoid, contactPoints, 0.1, volume, pW, pH, pD,
 					w, h, d);
 
 			// contract until no contact
-			ellipsoid = shrinkToFit(ellipsoid, contactPoints, pixels, pW, pH,
+			ellipsoid = shrinkToFit(ellipsoid, contactPoints, volume, pW, pH,
 					pD, w, h, d);
 
 			// dilate an axis
-			abc = threeWayShuffle();
+			abc = threeWayShuffle(random);
 			ellipsoid = inflateToFit(ellipsoid, contactPoints, abc[0], abc[1],
-					abc[2], pixels, pW, pH, pD, w, h, d, px, py, pz);
+					abc[2], volume, pW, pH, pD, w, h, d, px, py, pz);
 
-			if (isInvalid(ellipsoid, pW, pH, pD, w, h, d, px, py, pz)) {
+			if (isInvalid(ellipsoid, contactPoints, pW, pH, pD, w, h, d, px,
+					py, pz)) {
 				IJ.log("Ellipsoid at (" + px + ", " + py + ", " + pz
 						+ ") is invalid, nullifying after " + totalIterations
 						+ " iterations");
@@ -1052,7 +1458,7 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		// debug output for this ellipsoid
 		if (IJ.debugMode) {
 			// show in the 3D viewer
-			display3D(ellipsoid, contactPoints, pixels, pW, pH, pD, w, h, d,
+			display3D(ellipsoid, contactPoints, volume, pW, pH, pD, w, h, d,
 					px, py, pz, px + " " + py + " " + pz);
 
 			// add history to the ResultsTable
@@ -1072,9 +1478,9 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		return ellipsoid;
 	}
 
-	private double[] threeWayShuffle() {
+	private double[] threeWayShuffle(RandomStream random) {
 		double[] a = { 0, 0, 0 };
-		double rand = Math.random();
+		double rand = random.nextDouble();
 		if (rand < 1.0 / 3.0)
 			a[0] = 1;
 		else if (rand >= 2.0 / 3.0)
@@ -1088,7 +1494,8 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * Check whether this ellipsoid is sensible
 	 * 
 	 * @param ellipsoid
-	 * @param ips
+	 * @param contactPoints
+	 *            buffers to use as scratch space for surface points
 	 * @param pW
 	 * @param pH
 	 * @param pD
@@ -1102,15 +1509,20 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 *         stack, or if the volume of the ellipsoid exceeds that of the
 	 *         image stack
 	 */
-	private boolean isInvalid(Ellipsoid ellipsoid, double pW, double pH,
-			double pD, int w, int h, int d, double px, double py, double pz) {
-
-		double[][] surfacePoints = ellipsoid.getSurfacePoints(nVectors);
+	private boolean isInvalid(Ellipsoid ellipsoid,
+			ContactPoints contactPoints, double pW, double pH, double pD,
+			int w, int h, int d, double px, double py, double pz) {
+
+		final double[] sx = contactPoints.sx;
+		final double[] sy = contactPoints.sy;
+		final double[] sz = contactPoints.sz;
+		ellipsoid.getSurfacePoints(regularX, regularY, regularZ, nVectors, sx,
+				sy, sz);
 		int outOfBoundsCount = 0;
 		final int half = nVectors / 2;
-		for (double[] p : surfacePoints) {
-			if (isOutOfBounds((int) (p[0] / pW), (int) (p[1] / pD),
-					(int) (p[2] / pH), w, h, d))
+		for (int p = 0; p < nVectors; p++) {
+			if (isOutOfBounds((int) (sx[p] / pW), (int) (sy[p] / pH),
+					(int) (sz[p] / pD), w, h, d))
 				outOfBoundsCount++;
 			if (outOfBoundsCount > half)
 				return true;
@@ -1139,16 +1551,16 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @param pz
 	 */
 	private void display3D(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, byte[][] pixels, double pW,
+			ContactPoints contactPoints, PackedBinaryStack volume, double pW,
 			double pH, double pD, int w, int h, int d, double px, double py,
 			double pz, String name) {
-		contactPoints = findContactPoints(ellipsoid, contactPoints, pixels, pW,
+		contactPoints = findContactPoints(ellipsoid, contactPoints, volume, pW,
 				pH, pD, w, h, d);
-		ArrayList<Point3f> contactPointsf = new ArrayList<Point3f>(
-				contactPoints.size());
-		for (double[] p : contactPoints) {
-			Point3f point = new Point3f((float) p[0], (float) p[1],
-					(float) p[2]);
+		final int nContacts = contactPoints.size();
+		ArrayList<Point3f> contactPointsf = new ArrayList<Point3f>(nContacts);
+		for (int i = 0; i < nContacts; i++) {
+			Point3f point = new Point3f((float) contactPoints.x[i],
+					(float) contactPoints.y[i], (float) contactPoints.z[i]);
 			contactPointsf.add(point);
 		}
 		double[][] pointCloud = ellipsoid.getSurfacePoints(100);
@@ -1258,11 +1670,11 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @param d
 	 * @return
 	 */
-	private Ellipsoid turn(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, double theta, byte[][] pixels,
-			double pW, double pH, double pD, int w, int h, int d) {
+	private Ellipsoid turn(Ellipsoid ellipsoid, ContactPoints contactPoints,
+			double theta, PackedBinaryStack volume, double pW, double pH,
+			double pD, int w, int h, int d) {
 
-		contactPoints = findContactPoints(ellipsoid, contactPoints, pixels, pW,
+		contactPoints = findContactPoints(ellipsoid, contactPoints, volume, pW,
 				pH, pD, w, h, d);
 		if (contactPoints.size() > 0) {
 			double[] torque = calculateTorque(ellipsoid, contactPoints);
@@ -1280,7 +1692,7 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @return
 	 */
 	private double[] contactPointUnitVector(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints) {
+			ContactPoints contactPoints) {
 
 		final int nPoints = contactPoints.size();
 
@@ -1295,11 +1707,13 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		double xSum = 0;
 		double ySum = 0;
 		double zSum = 0;
+		final double[] cpx = contactPoints.x;
+		final double[] cpy = contactPoints.y;
+		final double[] cpz = contactPoints.z;
 		for (int i = 0; i < nPoints; i++) {
-			final double[] p = contactPoints.get(i);
-			final double x = p[0] - cx;
-			final double y = p[1] - cy;
-			final double z = p[2] - cz;
+			final double x = cpx[i] - cx;
+			final double y = cpy[i] - cy;
+			final double z = cpz[i] - cz;
 			final double l = Trig.distance3D(x, y, z);
 
 			xSum += x / l;
@@ -1323,7 +1737,7 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @return
 	 */
 	private double[] calculateTorque(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints) {
+			ContactPoints contactPoints) {
 
 		final double[] pc = ellipsoid.getCentre();
 		final double cx = pc[0];
@@ -1347,14 +1761,15 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		double t2 = 0;
 
 		final int n = contactPoints.size();
+		final double[] cpx = contactPoints.x;
+		final double[] cpy = contactPoints.y;
+		final double[] cpz = contactPoints.z;
 
 		for (int i = 0; i < n; i++) {
-			double[] p = contactPoints.get(i);
-
 			// translate point to centre on origin
-			final double px = p[0] - cx;
-			final double py = p[1] - cy;
-			final double pz = p[2] - cz;
+			final double px = cpx[i] - cx;
+			final double py = cpy[i] - cy;
+			final double pz = cpz[i] - cz;
 
 			// derotate the point
 			final double x = inv[0][0] * px + inv[0][1] * py + inv[0][2] * pz;
@@ -1441,15 +1856,15 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @return
 	 */
 	private Ellipsoid shrinkToFit(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, byte[][] pixels, double pW,
+			ContactPoints contactPoints, PackedBinaryStack volume, double pW,
 			double pH, double pD, int w, int h, int d) {
 
 		// get the contact points
-		contactPoints = findContactPoints(ellipsoid, contactPoints, pixels, pW,
+		contactPoints = findContactPoints(ellipsoid, contactPoints, volume, pW,
 				pH, pD, w, h, d);
 
 		// get the unit vectors to the contact points
-		double[][] unitVectors = findContactUnitVectors(ellipsoid,
+		final int nUnitVectors = findContactUnitVectors(ellipsoid,
 				contactPoints);
 
 		// contract until no contact
@@ -1457,7 +1872,8 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		while (contactPoints.size() > 0 && safety < maxIterations) {
 			ellipsoid.contract(0.01);
 			contactPoints = findContactPoints(ellipsoid, contactPoints,
-					unitVectors, pixels, pW, pH, pD, w, h, d);
+					contactPoints.ux, contactPoints.uy, contactPoints.uz,
+					nUnitVectors, volume, pW, pH, pD, w, h, d);
 			safety++;
 		}
 
@@ -1466,28 +1882,33 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		return ellipsoid;
 	}
 
-	private double[][] findContactUnitVectors(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints) {
-		double[][] unitVectors = new double[contactPoints.size()][3];
+	/**
+	 * Calculate the unit vectors from the ellipsoid's centroid to each contact
+	 * point, storing them in the contact points' unit vector buffers
+	 * 
+	 * @param ellipsoid
+	 * @param contactPoints
+	 * @return number of unit vectors written
+	 */
+	private int findContactUnitVectors(Ellipsoid ellipsoid,
+			ContactPoints contactPoints) {
 		final double[] c = ellipsoid.getCentre();
 		final double cx = c[0];
 		final double cy = c[1];
 		final double cz = c[2];
 
-		for (int i = 0; i < contactPoints.size(); i++) {
-			double[] p = contactPoints.get(i);
-			final double px = p[0];
-			final double py = p[1];
-			final double pz = p[2];
+		final int n = contactPoints.size();
+		for (int i = 0; i < n; i++) {
+			final double px = contactPoints.x[i];
+			final double py = contactPoints.y[i];
+			final double pz = contactPoints.z[i];
 
 			final double l = Trig.distance3D(px, py, pz, cx, cy, cz);
-			final double x = (px - cx) / l;
-			final double y = (py - cy) / l;
-			final double z = (pz - cz) / l;
-			double[] u = { x, y, z };
-			unitVectors[i] = u;
+			contactPoints.ux[i] = (px - cx) / l;
+			contactPoints.uy[i] = (py - cy) / l;
+			contactPoints.uz[i] = (pz - cz) / l;
 		}
-		return unitVectors;
+		return n;
 	}
 
 	/**
@@ -1509,11 +1930,11 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @return
 	 */
 	private Ellipsoid inflateToFit(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, double a, double b, double c,
-			byte[][] pixels, double pW, double pH, double pD, int w, int h,
-			int d, double px, double py, double pz) {
+			ContactPoints contactPoints, double a, double b, double c,
+			PackedBinaryStack volume, double pW, double pH, double pD, int w,
+			int h, int d, double px, double py, double pz) {
 
-		contactPoints = findContactPoints(ellipsoid, contactPoints, pixels, pW,
+		contactPoints = findContactPoints(ellipsoid, contactPoints, volume, pW,
 				pH, pD, w, h, d);
 
 		final double av = a * vectorIncrement;
@@ -1524,7 +1945,7 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		while (contactPoints.size() < contactSensitivity
 				&& safety < maxIterations) {
 			ellipsoid.dilate(av, bv, cv);
-			contactPoints = findContactPoints(ellipsoid, contactPoints, pixels,
+			contactPoints = findContactPoints(ellipsoid, contactPoints, volume,
 					pW, pH, pD, w, h, d);
 			safety++;
 		}
@@ -1541,8 +1962,8 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @param pz
 	 * @return
 	 */
-	private Ellipsoid bump(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, double px, double py, double pz) {
+	private Ellipsoid bump(Ellipsoid ellipsoid, ContactPoints contactPoints,
+			double px, double py, double pz) {
 
 		final double displacement = vectorIncrement / 2;
 
@@ -1562,18 +1983,19 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * Rotate the ellipsoid by a small random amount
 	 * 
 	 * @param ellipsoid
+	 * @param random
 	 */
-	private Ellipsoid wiggle(Ellipsoid ellipsoid) {
+	private Ellipsoid wiggle(Ellipsoid ellipsoid, RandomStream random) {
 
-		double b = nudge(0.1);
-		double c = nudge(0.1);
+		double b = nudge(0.1, random);
+		double c = nudge(0.1, random);
 		double a = Math.sqrt(1 - b * b - c * c);
 
 		// zeroth column, should be very close to [1, 0, 0]^T (mostly x)
 		double[] zerothColumn = { a, b, c };
 
 		// form triangle in random plane
-		double[] vector = Vectors.randomVector();
+		double[] vector = Vectors.randomVector(random);
 
 		// first column, should be very close to [0, 1, 0]^T
 		double[] firstColumn = Vectors.norm(Vectors.crossProduct(zerothColumn,
@@ -1597,53 +2019,87 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * generate a random number between -a and +a
 	 * 
 	 * @param a
+	 * @param random
 	 * @return
 	 */
-	private double nudge(double a) {
-		return Math.random() * (a + a) - a;
+	private double nudge(double a, RandomStream random) {
+		return random.nextDouble() * (a + a) - a;
 	}
 
-	private ArrayList<double[]> findContactPoints(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, byte[][] pixels,
+	private ContactPoints findContactPoints(Ellipsoid ellipsoid,
+			ContactPoints contactPoints, PackedBinaryStack volume,
 			final double pW, final double pH, final double pD, final int w,
 			final int h, final int d) {
-		// final double[][] unitVectors = Vectors.regularVectors(nVectors);
-		// final double[][] unitVectors = regularVectors;
-		return findContactPoints(ellipsoid, contactPoints,
-				regularVectors.clone(), pixels, pW, pH, pD, w, h, d);
+		return findContactPoints(ellipsoid, contactPoints, regularX, regularY,
+				regularZ, nVectors, volume, pW, pH, pD, w, h, d);
 	}
 
-	private ArrayList<double[]> findContactPoints(Ellipsoid ellipsoid,
-			ArrayList<double[]> contactPoints, double[][] unitVectors,
-			byte[][] pixels, double pW, double pH, double pD, int w, int h,
-			int d) {
+	/**
+	 * Find the points on the ellipsoid's surface which lie in the background.
+	 * Surface points are generated from the supplied unit vectors into the
+	 * contact points' surface buffers, so the unit vector arrays must not be
+	 * the surface buffers.
+	 * 
+	 * @param ellipsoid
+	 * @param contactPoints
+	 *            buffers to be cleared and filled with the new contact points
+	 * @param ux
+	 *            x components of unit vectors
+	 * @param uy
+	 *            y components of unit vectors
+	 * @param uz
+	 *            z components of unit vectors
+	 * @param nUnitVectors
+	 *            number of unit vectors to sample
+	 * @param volume
+	 * @param pW
+	 * @param pH
+	 * @param pD
+	 * @param w
+	 * @param h
+	 * @param d
+	 * @return contactPoints, containing the points of contact
+	 */
+	private ContactPoints findContactPoints(Ellipsoid ellipsoid,
+			ContactPoints contactPoints, double[] ux, double[] uy,
+			double[] uz, int nUnitVectors, PackedBinaryStack volume, double pW,
+			double pH, double pD, int w, int h, int d) {
 		contactPoints.clear();
-		double[][] points = ellipsoid.getSurfacePoints(unitVectors);
-		final int nPoints = points.length;
-		for (int i = 0; i < nPoints; i++) {
-			final double[] p = points[i];
-			final int x = (int) Math.floor(p[0] / pW);
-			final int y = (int) Math.floor(p[1] / pH);
-			final int z = (int) Math.floor(p[2] / pD);
+		final double[] sx = contactPoints.sx;
+		final double[] sy = contactPoints.sy;
+		final double[] sz = contactPoints.sz;
+		ellipsoid.getSurfacePoints(ux, uy, uz, nUnitVectors, sx, sy, sz);
+		for (int i = 0; i < nUnitVectors; i++) {
+			final double px = sx[i];
+			final double py = sy[i];
+			final double pz = sz[i];
+			final int x = (int) Math.floor(px / pW);
+			final int y = (int) Math.floor(py / pH);
+			final int z = (int) Math.floor(pz / pD);
 			if (isOutOfBounds(x, y, z, w, h, d))
 				continue;
-			if (pixels[z][y * w + x] != -1)
-				contactPoints.add(p);
+			if (!volume.isForeground(x, y, z))
+				contactPoints.add(px, py, pz);
 		}
 		return contactPoints;
 	}
 
-	private boolean isContained(Ellipsoid ellipsoid, byte[][] pixels,
+	private boolean isContained(Ellipsoid ellipsoid,
+			ContactPoints contactPoints, PackedBinaryStack volume,
 			final double pW, final double pH, final double pD, final int w,
 			final int h, final int d) {
-		double[][] points = ellipsoid.getSurfacePoints(nVectors);
-		for (double[] p : points) {
-			final int x = (int) Math.floor(p[0] / pW);
-			final int y = (int) Math.floor(p[1] / pH);
-			final int z = (int) Math.floor(p[2] / pD);
+		final double[] sx = contactPoints.sx;
+		final double[] sy = contactPoints.sy;
+		final double[] sz = contactPoints.sz;
+		ellipsoid.getSurfacePoints(regularX, regularY, regularZ, nVectors, sx,
+				sy, sz);
+		for (int i = 0; i < nVectors; i++) {
+			final int x = (int) Math.floor(sx[i] / pW);
+			final int y = (int) Math.floor(sy[i] / pH);
+			final int z = (int) Math.floor(sz[i] / pD);
 			if (isOutOfBounds(x, y, z, w, h, d))
 				continue;
-			if (pixels[z][y * w + x] != -1)
+			if (!volume.isForeground(x, y, z))
 				return false;
 		}
 		return true;
@@ -1724,7 +2180,7 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 	 * @param ellipsoid
 	 * @return the ellipsoid factor
 	 */
-	private double ellipsoidFactor(Ellipsoid ellipsoid) {
+	static double ellipsoidFactor(Ellipsoid ellipsoid) {
 		double[] radii = ellipsoid.getSortedRadii();
 		final double a = radii[0];
 		final double b = radii[1];
@@ -1744,4 +2200,51 @@ public class EllipsoidFactor implements PlugIn, Comparator<Ellipsoid> {
 		return Double.compare(o2.getVolume(), o1.getVolume());
 	}
 
+
+	/**
+	 * Points of contact between an ellipsoid's surface and the background,
+	 * held in primitive structure-of-arrays buffers so that the optimisation
+	 * loop does not allocate. Also carries scratch buffers for sampled surface
+	 * points and for unit vectors pointing towards the contact points.
+	 */
+	private static final class ContactPoints {
+		/** Contact point coordinates; only the first size() are valid */
+		final double[] x, y, z;
+
+		/** Scratch buffers for surface points */
+		final double[] sx, sy, sz;
+
+		/** Scratch buffers for unit vectors */
+		final double[] ux, uy, uz;
+
+		/** Number of valid contact points */
+		private int n;
+
+		ContactPoints(final int capacity) {
+			x = new double[capacity];
+			y = new double[capacity];
+			z = new double[capacity];
+			sx = new double[capacity];
+			sy = new double[capacity];
+			sz = new double[capacity];
+			ux = new double[capacity];
+			uy = new double[capacity];
+			uz = new double[capacity];
+		}
+
+		int size() {
+			return n;
+		}
+
+		void clear() {
+			n = 0;
+		}
+
+		void add(final double px, final double py, final double pz) {
+			x[n] = px;
+			y[n] = py;
+			z[n] = pz;
+			n++;
+		}
+	}
 }
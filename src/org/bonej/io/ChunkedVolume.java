@@ -0,0 +1,628 @@
+package org.bonej.io;
+
+/**
+ * ChunkedVolume
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+
+import org.bonej.Help;
+import org.doube.util.Multithreader;
+
+/**
+ * <p>
+ * Chunked, compressed volume file for intermediate results such as particle
+ * labels, thickness maps and tagged skeletons, so that they can be reloaded
+ * instead of recalculated. The volume is divided into cubic chunks of
+ * {@link #CHUNK_SIZE} voxels, each compressed separately with
+ * {@link Deflater}, so that any chunk can be read without reading the rest of
+ * the file. Opened volumes read chunks only when they are needed and keep the
+ * most recently used in memory.
+ * </p>
+ * <p>
+ * File layout (big-endian): int magic, int version, byte type ({@link #BYTE},
+ * {@link #INT} or {@link #FLOAT}), int width, int height, int depth, int chunk
+ * size, 6 doubles: pixel width, height and depth and x, y and z origin, UTF
+ * unit, int number of metadata entries followed by each entry's UTF key and
+ * UTF value, then an index of long offset and int length for each chunk in x,
+ * y, z order, then the compressed chunks. Chunks at the far edges are clipped
+ * to the volume. Before compression, each chunk's values are split into byte
+ * planes (all the first bytes, then all the second bytes...) which makes
+ * smoothly varying int and float data much more compressible.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+public class ChunkedVolume {
+
+	/** Voxel types */
+	public static final byte BYTE = 0, INT = 1, FLOAT = 2;
+
+	/** Length of each side of a chunk, in voxels */
+	public static final int CHUNK_SIZE = 64;
+
+	/** Usual file name extension */
+	public static final String EXTENSION = ".bjv";
+
+	/** "BJCV" */
+	private static final int MAGIC = 0x424A4356;
+
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	private final byte type;
+
+	private final int width, height, depth, chunkSize;
+
+	/** Number of chunks in x, y and z */
+	private final int nX, nY, nZ;
+
+	private final Calibration cal;
+
+	private final Map<String, String> metadata;
+
+	/** Position and compressed length of each chunk */
+	private long[] offsets;
+	private int[] lengths;
+
+	/** Decompressed chunks by index, in order of use */
+	private Map<Integer, Object> cache;
+
+	private ChunkedVolume(File file, byte type, int width, int height,
+			int depth, int chunkSize, Calibration cal,
+			Map<String, String> metadata) {
+		this.file = file;
+		this.type = type;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.chunkSize = chunkSize;
+		this.nX = (width + chunkSize - 1) / chunkSize;
+		this.nY = (height + chunkSize - 1) / chunkSize;
+		this.nZ = (depth + chunkSize - 1) / chunkSize;
+		this.cal = cal;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Make the usual provenance metadata for a volume calculated from an image
+	 *
+	 * @param plugin
+	 *            name of the plugin which made the volume
+	 * @param source
+	 *            image the volume was calculated from
+	 * @return modifiable map, to which options may be added
+	 */
+	public static Map<String, String> provenance(String plugin,
+			ImagePlus source) {
+		Map<String, String> metadata = new LinkedHashMap<String, String>();
+		metadata.put("plugin", plugin);
+		metadata.put("bonej", Help.bonejVersion);
+		metadata.put("created", new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+		metadata.put("source", source.getTitle());
+		FileInfo fi = source.getOriginalFileInfo();
+		if (fi != null && fi.directory != null && fi.fileName != null)
+			metadata.put("source.path", fi.directory + fi.fileName);
+		return metadata;
+	}
+
+	/**
+	 * Write an 8-bit or 32-bit stack
+	 *
+	 * @param file
+	 * @param imp
+	 * @param metadata
+	 *            provenance and options, or null
+	 * @throws IOException
+	 */
+	public static void write(File file, ImagePlus imp,
+			Map<String, String> metadata) throws IOException {
+		final int bitDepth = imp.getBitDepth();
+		if (bitDepth != 8 && bitDepth != 32)
+			throw new IllegalArgumentException(
+					"Only 8-bit and 32-bit images can be written");
+		ImageStack stack = imp.getImageStack();
+		Object[] slices = new Object[stack.getSize()];
+		for (int z = 0; z < slices.length; z++)
+			slices[z] = stack.getPixels(z + 1);
+		write(file, slices, imp.getWidth(), imp.getHeight(),
+				imp.getCalibration(), metadata);
+	}
+
+	/**
+	 * Write a volume. Chunks are compressed in parallel, one z-layer of chunks
+	 * at a time.
+	 *
+	 * @param file
+	 * @param slices
+	 *            byte[], int[] or float[] pixel arrays of width * height,
+	 *            for example int[][] particle labels
+	 * @param width
+	 * @param height
+	 * @param cal
+	 *            calibration, or null
+	 * @param metadata
+	 *            provenance and options, or null
+	 * @throws IOException
+	 */
+	public static void write(File file, Object[] slices, int width,
+			int height, Calibration cal, Map<String, String> metadata)
+			throws IOException {
+		if (slices.length == 0)
+			throw new IllegalArgumentException("No slices to write");
+		final byte type = getType(slices[0]);
+		for (Object slice : slices)
+			if (slice == null || getType(slice) != type
+					|| getLength(slice) != width * height)
+				throw new IllegalArgumentException(
+						"Slices must be arrays of the same type and size");
+		if (cal == null)
+			cal = new Calibration();
+		if (metadata == null)
+			metadata = new LinkedHashMap<String, String>();
+		final ChunkedVolume volume = new ChunkedVolume(file, type, width,
+				height, slices.length, CHUNK_SIZE, cal, metadata);
+		volume.write(slices);
+	}
+
+	private void write(Object[] slices) throws IOException {
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeByte(type);
+		header.writeInt(width);
+		header.writeInt(height);
+		header.writeInt(depth);
+		header.writeInt(chunkSize);
+		header.writeDouble(cal.pixelWidth);
+		header.writeDouble(cal.pixelHeight);
+		header.writeDouble(cal.pixelDepth);
+		header.writeDouble(cal.xOrigin);
+		header.writeDouble(cal.yOrigin);
+		header.writeDouble(cal.zOrigin);
+		header.writeUTF(cal.getUnit());
+		header.writeInt(metadata.size());
+		for (Map.Entry<String, String> entry : metadata.entrySet()) {
+			header.writeUTF(entry.getKey());
+			header.writeUTF(entry.getValue());
+		}
+		header.close();
+
+		final int nChunks = nX * nY * nZ;
+		offsets = new long[nChunks];
+		lengths = new int[nChunks];
+		final long indexStart = headerBytes.size();
+		long position = indexStart + (long) nChunks * 12;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()), 0);
+			final int layerSize = nX * nY;
+			byte[][] layer = new byte[layerSize][];
+			for (int cz = 0; cz < nZ; cz++) {
+				compressLayer(slices, cz, layer);
+				for (int c = 0; c < layerSize; c++) {
+					final int index = cz * layerSize + c;
+					offsets[index] = position;
+					lengths[index] = layer[c].length;
+					writeFully(channel, ByteBuffer.wrap(layer[c]), position);
+					position += layer[c].length;
+					layer[c] = null;
+				}
+				IJ.showProgress(cz + 1, nZ);
+			}
+			ByteBuffer index = ByteBuffer.allocate(nChunks * 12);
+			for (int c = 0; c < nChunks; c++) {
+				index.putLong(offsets[c]);
+				index.putInt(lengths[c]);
+			}
+			index.flip();
+			writeFully(channel, index, indexStart);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Compress a z-layer of chunks in parallel
+	 */
+	private void compressLayer(final Object[] slices, final int cz,
+			final byte[][] layer) {
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+					for (int c = ai.getAndIncrement(); c < layer.length; c = ai
+							.getAndIncrement())
+						layer[c] = compress(deflater, slices, c % nX, c / nX,
+								cz);
+					deflater.end();
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * Copy a chunk's values into byte planes and compress them
+	 */
+	private byte[] compress(Deflater deflater, Object[] slices, int cx,
+			int cy, int cz) {
+		final int x0 = cx * chunkSize;
+		final int y0 = cy * chunkSize;
+		final int z0 = cz * chunkSize;
+		final int cw = Math.min(chunkSize, width - x0);
+		final int ch = Math.min(chunkSize, height - y0);
+		final int cd = Math.min(chunkSize, depth - z0);
+		final int n = cw * ch * cd;
+		final int bytes = getBytesPerValue(type);
+		byte[] planes = new byte[n * bytes];
+		int i = 0;
+		for (int z = z0; z < z0 + cd; z++) {
+			for (int y = y0; y < y0 + ch; y++) {
+				final int rowOffset = y * width + x0;
+				if (type == BYTE) {
+					System.arraycopy(slices[z], rowOffset, planes, i, cw);
+					i += cw;
+					continue;
+				}
+				for (int x = 0; x < cw; x++) {
+					final int v = (type == INT) ? ((int[]) slices[z])[rowOffset
+							+ x] : Float
+							.floatToRawIntBits(((float[]) slices[z])[rowOffset
+									+ x]);
+					planes[i] = (byte) (v >>> 24);
+					planes[n + i] = (byte) (v >>> 16);
+					planes[2 * n + i] = (byte) (v >>> 8);
+					planes[3 * n + i] = (byte) v;
+					i++;
+				}
+			}
+		}
+		deflater.reset();
+		deflater.setInput(planes);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				planes.length / 4 + 64);
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			final int count = deflater.deflate(buffer);
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Open a volume, reading only its header and chunk index
+	 *
+	 * @param file
+	 * @return volume whose chunks are read as they are needed
+	 * @throws IOException
+	 *             if the file cannot be read or is not a chunked volume
+	 */
+	public static ChunkedVolume open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file.getName()
+						+ " is not a chunked volume");
+			final int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported chunked volume version "
+						+ version);
+			final byte type = in.readByte();
+			final int w = in.readInt();
+			final int h = in.readInt();
+			final int d = in.readInt();
+			final int c = in.readInt();
+			if (type < BYTE || type > FLOAT || w < 1 || h < 1 || d < 1
+					|| c < 1)
+				throw new IOException("Invalid chunked volume header");
+			Calibration cal = new Calibration();
+			cal.pixelWidth = in.readDouble();
+			cal.pixelHeight = in.readDouble();
+			cal.pixelDepth = in.readDouble();
+			cal.xOrigin = in.readDouble();
+			cal.yOrigin = in.readDouble();
+			cal.zOrigin = in.readDouble();
+			cal.setUnit(in.readUTF());
+			final int nEntries = in.readInt();
+			Map<String, String> metadata = new LinkedHashMap<String, String>();
+			for (int i = 0; i < nEntries; i++)
+				metadata.put(in.readUTF(), in.readUTF());
+			ChunkedVolume volume = new ChunkedVolume(file, type, w, h, d, c,
+					cal, metadata);
+			final int nChunks = volume.nX * volume.nY * volume.nZ;
+			volume.offsets = new long[nChunks];
+			volume.lengths = new int[nChunks];
+			for (int i = 0; i < nChunks; i++) {
+				volume.offsets[i] = in.readLong();
+				volume.lengths[i] = in.readInt();
+			}
+			volume.initCache();
+			return volume;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Bound the cache to an eighth of ImageJ's maximum memory, but always
+	 * allow a whole z-layer of chunks so that slices can be read in turn
+	 */
+	private void initCache() {
+		final long chunkBytes = (long) chunkSize * chunkSize * chunkSize
+				* getBytesPerValue(type);
+		final int capacity = (int) Math.max(nX * nY,
+				Math.min(nX * nY * nZ, IJ.maxMemory() / 8 / chunkBytes));
+		this.cache = new LinkedHashMap<Integer, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, Object> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Get a chunk's values, reading it from disk if it is not cached
+	 *
+	 * @param cx
+	 *            chunk position in x, from 0
+	 * @param cy
+	 *            chunk position in y, from 0
+	 * @param cz
+	 *            chunk position in z, from 0
+	 * @return byte[], int[] or float[] of the chunk's values in x, y, z order.
+	 *         Chunks at the far edges of the volume are smaller than
+	 *         {@link #getChunkSize()}.
+	 * @throws IOException
+	 */
+	public Object getChunk(int cx, int cy, int cz) throws IOException {
+		if (cx < 0 || cx >= nX || cy < 0 || cy >= nY || cz < 0 || cz >= nZ)
+			throw new IllegalArgumentException("Chunk out of range: " + cx
+					+ ", " + cy + ", " + cz);
+		final int index = (cz * nY + cy) * nX + cx;
+		synchronized (cache) {
+			Object chunk = cache.get(index);
+			if (chunk != null)
+				return chunk;
+		}
+		// decompress outside the lock, so threads can read different chunks
+		final int n = Math.min(chunkSize, width - cx * chunkSize)
+				* Math.min(chunkSize, height - cy * chunkSize)
+				* Math.min(chunkSize, depth - cz * chunkSize);
+		Object chunk = decompress(readChunk(index), n);
+		synchronized (cache) {
+			cache.put(index, chunk);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Read a chunk's compressed bytes. The file is opened for each read, so
+	 * the volume does not hold a file handle while it is not being used.
+	 */
+	private byte[] readChunk(int index) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(lengths[index]);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			final long offset = offsets[index];
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, offset + buffer.position()) < 0)
+					throw new IOException("Chunked volume " + file.getName()
+							+ " is truncated");
+		} finally {
+			raf.close();
+		}
+		return buffer.array();
+	}
+
+	private Object decompress(byte[] compressed, int n) throws IOException {
+		final int bytes = getBytesPerValue(type);
+		byte[] planes = new byte[n * bytes];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int count = 0;
+			while (count < planes.length && !inflater.finished()) {
+				final int inflated = inflater.inflate(planes, count,
+						planes.length - count);
+				// the compressed bytes ran out before the chunk was complete
+				if (inflated == 0
+						&& (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Chunked volume " + file.getName()
+							+ " has a truncated chunk");
+				count += inflated;
+			}
+			if (count < planes.length)
+				throw new IOException("Chunked volume " + file.getName()
+						+ " is corrupt");
+		} catch (DataFormatException e) {
+			throw new IOException("Chunked volume " + file.getName()
+					+ " is corrupt: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		if (type == BYTE)
+			return planes;
+		int[] ints = new int[n];
+		for (int i = 0; i < n; i++)
+			ints[i] = (planes[i] & 0xff) << 24
+					| (planes[n + i] & 0xff) << 16
+					| (planes[2 * n + i] & 0xff) << 8
+					| (planes[3 * n + i] & 0xff);
+		if (type == INT)
+			return ints;
+		float[] floats = new float[n];
+		for (int i = 0; i < n; i++)
+			floats[i] = Float.intBitsToFloat(ints[i]);
+		return floats;
+	}
+
+	/**
+	 * Assemble a slice from the chunks which contain it
+	 *
+	 * @param z
+	 *            slice number, from 0
+	 * @return byte[], int[] or float[] of width * height
+	 * @throws IOException
+	 */
+	public Object getSlice(int z) throws IOException {
+		if (z < 0 || z >= depth)
+			throw new IllegalArgumentException("Slice out of range: " + z);
+		final int n = width * height;
+		final Object slice = (type == BYTE) ? new byte[n]
+				: (type == INT) ? new int[n] : new float[n];
+		final int cz = z / chunkSize;
+		final int k = z - cz * chunkSize;
+		for (int cy = 0; cy < nY; cy++) {
+			final int y0 = cy * chunkSize;
+			final int ch = Math.min(chunkSize, height - y0);
+			for (int cx = 0; cx < nX; cx++) {
+				final int x0 = cx * chunkSize;
+				final int cw = Math.min(chunkSize, width - x0);
+				Object chunk = getChunk(cx, cy, cz);
+				for (int j = 0; j < ch; j++)
+					System.arraycopy(chunk, (k * ch + j) * cw, slice, (y0 + j)
+							* width + x0, cw);
+			}
+		}
+		return slice;
+	}
+
+	/**
+	 * @return image whose virtual stack reads slices from the volume as they
+	 *         are needed
+	 */
+	public ImagePlus getImagePlus() {
+		String title = file.getName();
+		if (title.endsWith(EXTENSION))
+			title = title.substring(0, title.length() - EXTENSION.length());
+		ImagePlus imp = new ImagePlus(title, new ChunkedVolumeStack(this));
+		imp.setCalibration(getCalibration());
+		imp.setProperty("Info", getInfo());
+		return imp;
+	}
+
+	/** @return metadata as lines of key = value */
+	public String getInfo() {
+		StringBuilder info = new StringBuilder();
+		for (Map.Entry<String, String> entry : metadata.entrySet())
+			info.append(entry.getKey()).append(" = ")
+					.append(entry.getValue()).append("\n");
+		return info.toString();
+	}
+
+	private static byte getType(Object array) {
+		if (array instanceof byte[])
+			return BYTE;
+		if (array instanceof int[])
+			return INT;
+		if (array instanceof float[])
+			return FLOAT;
+		throw new IllegalArgumentException("Unsupported array type: "
+				+ (array == null ? null : array.getClass().getSimpleName()));
+	}
+
+	private static int getLength(Object array) {
+		if (array instanceof byte[])
+			return ((byte[]) array).length;
+		if (array instanceof int[])
+			return ((int[]) array).length;
+		return ((float[]) array).length;
+	}
+
+	private static int getBytesPerValue(byte type) {
+		return (type == BYTE) ? 1 : 4;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** @return {@link #BYTE}, {@link #INT} or {@link #FLOAT} */
+	public byte getType() {
+		return type;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/** @return copy of the volume's calibration */
+	public Calibration getCalibration() {
+		return cal.copy();
+	}
+
+	/** @return provenance and options the volume was written with */
+	public Map<String, String> getMetadata() {
+		return Collections.unmodifiableMap(metadata);
+	}
+}
@@ -0,0 +1,56 @@
+package org.bonej.io;
+
+/**
+ * ChunkedVolumeReader plugin for ImageJ
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.OpenDialog;
+import ij.plugin.PlugIn;
+
+import org.doube.util.UsageReporter;
+
+/**
+ * Open a chunked volume saved by Thickness, Particle Analyser or Analyse
+ * Skeleton as a virtual stack. The volume's provenance is shown by Image &gt;
+ * Show Info.
+ *
+ * @author Michael Doube
+ * @see ChunkedVolume
+ */
+public class ChunkedVolumeReader implements PlugIn {
+
+	public void run(String arg) {
+		OpenDialog od = new OpenDialog("Open chunked volume...", arg);
+		String directory = od.getDirectory();
+		String fileName = od.getFileName();
+		if (fileName == null)
+			return;
+		try {
+			ImagePlus imp = ChunkedVolume.open(new File(directory, fileName))
+					.getImagePlus();
+			imp.show();
+			UsageReporter.reportEvent(this).send();
+		} catch (IOException e) {
+			IJ.error("Chunked Volume Reader", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.bonej.io;
+
+/**
+ * ChunkedVolumeStack
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+
+/**
+ * Virtual stack of a {@link ChunkedVolume}, which assembles slices from the
+ * volume's chunks as they are requested. Byte volumes give 8-bit slices; int
+ * volumes, such as particle labels, give 32-bit slices like the Particle
+ * Analyser's label image. The file is never changed: edited slices are kept
+ * in memory and deleted slices are only removed from the stack.
+ *
+ * @author Michael Doube
+ */
+public class ChunkedVolumeStack extends FileVirtualStack {
+
+	private final ChunkedVolume volume;
+
+	ChunkedVolumeStack(ChunkedVolume volume) {
+		super(volume.getWidth(), volume.getHeight(), volume.getDepth(),
+				volume.getType() == ChunkedVolume.BYTE ? 8 : 32, volume
+						.getFile().getParent());
+		this.volume = volume;
+	}
+
+	/**
+	 * Assemble a slice's pixels, converting int values to float
+	 */
+	protected Object readPixels(int source) throws IOException {
+		Object slice = volume.getSlice(source);
+		if (!(slice instanceof int[]))
+			return slice;
+		int[] ints = (int[]) slice;
+		float[] pixels = new float[ints.length];
+		for (int i = 0; i < ints.length; i++)
+			pixels[i] = ints[i];
+		return pixels;
+	}
+
+	/** @return the volume the stack reads from */
+	public ChunkedVolume getVolume() {
+		return volume;
+	}
+}
@@ -0,0 +1,573 @@
+package org.bonej.io;
+
+/**
+ * EllipsoidCheckpoint
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.doube.geometry.Ellipsoid;
+
+/**
+ * <p>
+ * Compact binary checkpoint of the ellipsoids fitted during an Ellipsoid
+ * Factor run. The header holds the skeleton point indices selected as seeds,
+ * in the order they are optimised. Each optimised skeleton point is appended
+ * as a record containing its seed index and either the fitted ellipsoid's
+ * radii, centroid and rotation, or a marker that the fit failed. When a run
+ * stops, because all its seeds are done or because adaptive sampling has
+ * converged, the number of seeds it used is appended. Records are flushed to
+ * disk periodically, so that a run interrupted by a crash or by the user can
+ * be resumed without repeating completed seeds, and so that a finished run's
+ * outputs can be regenerated without re-optimising.
+ * </p>
+ * <p>
+ * File layout (big-endian): int magic, int version, int width, int height,
+ * int depth, int number of skeleton points, the optimisation {@link Settings}
+ * (long random seed, int vectors, int skip ratio, int contact sensitivity, int
+ * maximum iterations, double sampling increment, double maximum drift, byte
+ * adaptive sampling, double convergence tolerance), int number of seeds and
+ * the seeds' int skeleton point indices, then a sequence of records of int
+ * seed index, byte status (1 = ellipsoid, 0 = failed) and, if status is 1, 15
+ * doubles: ra, rb, rc, cx, cy, cz and the 3x3 rotation matrix in row order. A
+ * seed index of -1 marks the end of the run and is followed by the int number
+ * of seeds used. A partially-written final record is discarded on opening.
+ * </p>
+ * <p>
+ * Ellipsoids are only comparable between runs with the same settings, so a
+ * checkpoint should only be resumed when its settings match the current run's.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+public class EllipsoidCheckpoint {
+
+	/** "EFCP" */
+	private static final int MAGIC = 0x45464350;
+
+	private static final int VERSION = 3;
+
+	/** Seed index of the record marking the end of a run */
+	private static final int END = -1;
+
+	private final File file;
+
+	private final int width, height, depth, nPoints;
+
+	private final Settings settings;
+
+	/** Skeleton point indices of the seeds, in processing order */
+	private final int[] seeds;
+
+	/** Number of seeds used by the finished run, or -1 if not finished */
+	private int nSeedsUsed = -1;
+
+	/** Ellipsoids by seed index; null if not done or if the fit failed */
+	private final Ellipsoid[] ellipsoids;
+
+	/** true if the seed at each index has been processed */
+	private final boolean[] done;
+
+	private int nDone = 0;
+
+	private FileOutputStream fileOut;
+
+	private DataOutputStream out;
+
+	/** Minimum time between flushes to disk, in ms */
+	private long flushInterval = 60000;
+
+	private long lastFlush;
+
+	/** First error encountered while writing, after which writing stops */
+	private IOException error;
+
+	private EllipsoidCheckpoint(File file, int width, int height, int depth,
+			int nPoints, Settings settings, int[] seeds) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.nPoints = nPoints;
+		this.settings = settings;
+		this.seeds = seeds.clone();
+		this.ellipsoids = new Ellipsoid[nPoints];
+		this.done = new boolean[nPoints];
+	}
+
+	/**
+	 * Create a new, empty checkpoint file, overwriting any existing file
+	 *
+	 * @param file
+	 * @param width
+	 *            image width in pixels
+	 * @param height
+	 *            image height in pixels
+	 * @param depth
+	 *            number of slices
+	 * @param nPoints
+	 *            number of skeleton points
+	 * @param settings
+	 *            optimisation settings of the run
+	 * @param seeds
+	 *            skeleton point indices of the seeds, in processing order
+	 * @return checkpoint ready to receive ellipsoids
+	 * @throws IOException
+	 */
+	public static EllipsoidCheckpoint create(File file, int width, int height,
+			int depth, int nPoints, Settings settings, int[] seeds)
+			throws IOException {
+		for (int seed : seeds)
+			if (seed < 0 || seed >= nPoints)
+				throw new IllegalArgumentException("Seed index " + seed
+						+ " out of range");
+		EllipsoidCheckpoint checkpoint = new EllipsoidCheckpoint(file, width,
+				height, depth, nPoints, settings, seeds);
+		checkpoint.fileOut = new FileOutputStream(file, false);
+		checkpoint.out = new DataOutputStream(new BufferedOutputStream(
+				checkpoint.fileOut));
+		checkpoint.out.writeInt(MAGIC);
+		checkpoint.out.writeInt(VERSION);
+		checkpoint.out.writeInt(width);
+		checkpoint.out.writeInt(height);
+		checkpoint.out.writeInt(depth);
+		checkpoint.out.writeInt(nPoints);
+		settings.write(checkpoint.out);
+		checkpoint.out.writeInt(seeds.length);
+		for (int seed : seeds)
+			checkpoint.out.writeInt(seed);
+		checkpoint.flush();
+		return checkpoint;
+	}
+
+	/**
+	 * Read an existing checkpoint file and open it for appending further
+	 * ellipsoids
+	 *
+	 * @param file
+	 * @return checkpoint containing the saved ellipsoids
+	 * @throws IOException
+	 *             if the file cannot be read, is not an ellipsoid checkpoint
+	 *             or is corrupt
+	 */
+	public static EllipsoidCheckpoint open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		EllipsoidCheckpoint checkpoint;
+		long validLength;
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file.getName()
+						+ " is not an ellipsoid checkpoint");
+			final int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version "
+						+ version);
+			final int w = in.readInt();
+			final int h = in.readInt();
+			final int d = in.readInt();
+			final int n = in.readInt();
+			final Settings s = Settings.read(in);
+			final int nSeeds = in.readInt();
+			if (nSeeds < 0 || nSeeds > n)
+				throw new IOException("Invalid number of seeds " + nSeeds
+						+ " in checkpoint");
+			final int[] seeds = new int[nSeeds];
+			for (int i = 0; i < nSeeds; i++) {
+				seeds[i] = in.readInt();
+				if (seeds[i] < 0 || seeds[i] >= n)
+					throw new IOException("Seed index " + seeds[i]
+							+ " out of range in checkpoint");
+			}
+			checkpoint = new EllipsoidCheckpoint(file, w, h, d, n, s, seeds);
+			validLength = 6 * 4 + Settings.LENGTH + 4 + nSeeds * 4;
+			double[] r = new double[15];
+			while (true) {
+				final int index;
+				byte status = 0;
+				int nUsed = 0;
+				try {
+					index = in.readInt();
+					if (index == END)
+						nUsed = in.readInt();
+					else {
+						status = in.readByte();
+						if (status == 1)
+							for (int i = 0; i < 15; i++)
+								r[i] = in.readDouble();
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				if (index == END) {
+					if (nUsed < 0 || nUsed > nSeeds)
+						throw new IOException("Invalid number of seeds used "
+								+ nUsed + " in checkpoint");
+					checkpoint.nSeedsUsed = nUsed;
+					validLength += 8;
+					continue;
+				}
+				if (index < 0 || index >= n)
+					throw new IOException("Seed index " + index
+							+ " out of range in checkpoint");
+				if (status != 0 && status != 1)
+					throw new IOException("Invalid status " + status
+							+ " for seed " + index + " in checkpoint");
+				Ellipsoid ellipsoid = null;
+				if (status == 1) {
+					double[][] rotation = { { r[6], r[7], r[8] },
+							{ r[9], r[10], r[11] }, { r[12], r[13], r[14] } };
+					ellipsoid = new Ellipsoid(r[0], r[1], r[2], r[3], r[4],
+							r[5], rotation);
+					validLength += 5 + 15 * 8;
+				} else
+					validLength += 5;
+				checkpoint.setDone(index, ellipsoid);
+			}
+		} finally {
+			in.close();
+		}
+
+		// discard any partially-written final record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() > validLength)
+				raf.setLength(validLength);
+		} finally {
+			raf.close();
+		}
+
+		checkpoint.fileOut = new FileOutputStream(file, true);
+		checkpoint.out = new DataOutputStream(new BufferedOutputStream(
+				checkpoint.fileOut));
+		checkpoint.lastFlush = System.currentTimeMillis();
+		return checkpoint;
+	}
+
+	private void setDone(int index, Ellipsoid ellipsoid) {
+		if (!done[index])
+			nDone++;
+		done[index] = true;
+		ellipsoids[index] = ellipsoid;
+	}
+
+	/**
+	 * Record the result of optimising the ellipsoid at a seed point. The record
+	 * is written to disk at the next periodic flush. Safe to call from
+	 * multiple threads.
+	 *
+	 * @param index
+	 *            seed index
+	 * @param ellipsoid
+	 *            fitted ellipsoid, or null if the fit failed
+	 */
+	public synchronized void add(int index, Ellipsoid ellipsoid) {
+		setDone(index, ellipsoid);
+		if (error != null || out == null)
+			return;
+		try {
+			out.writeInt(index);
+			if (ellipsoid == null) {
+				out.writeByte(0);
+			} else {
+				out.writeByte(1);
+				final double[] r = ellipsoid.getRadii();
+				final double[] c = ellipsoid.getCentre();
+				final double[][] ev = ellipsoid.getRotation();
+				for (int i = 0; i < 3; i++)
+					out.writeDouble(r[i]);
+				for (int i = 0; i < 3; i++)
+					out.writeDouble(c[i]);
+				for (int i = 0; i < 3; i++)
+					for (int j = 0; j < 3; j++)
+						out.writeDouble(ev[i][j]);
+			}
+			if (System.currentTimeMillis() - lastFlush >= flushInterval)
+				flush();
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Record that the run has stopped, after optimising the first nSeedsUsed
+	 * seeds. Adaptive runs may stop before all the seeds are used.
+	 *
+	 * @param nSeedsUsed
+	 *            number of seeds used, from the start of the seed order
+	 */
+	public synchronized void finish(int nSeedsUsed) {
+		if (nSeedsUsed < 0 || nSeedsUsed > seeds.length)
+			throw new IllegalArgumentException("Invalid number of seeds used "
+					+ nSeedsUsed);
+		this.nSeedsUsed = nSeedsUsed;
+		if (error != null || out == null)
+			return;
+		try {
+			out.writeInt(END);
+			out.writeInt(nSeedsUsed);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Write all buffered records through to the storage device
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		out.flush();
+		fileOut.getFD().sync();
+		lastFlush = System.currentTimeMillis();
+	}
+
+	/**
+	 * Flush remaining records and close the file. The ellipsoids remain
+	 * available for reading.
+	 *
+	 * @throws IOException
+	 *             if this or any earlier write failed
+	 */
+	public synchronized void close() throws IOException {
+		if (out == null)
+			return;
+		try {
+			if (error == null)
+				flush();
+		} finally {
+			out.close();
+			out = null;
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Set the minimum interval between flushes to disk
+	 *
+	 * @param ms
+	 *            interval in milliseconds
+	 */
+	public void setFlushInterval(long ms) {
+		this.flushInterval = ms;
+	}
+
+	/**
+	 * @param index
+	 *            seed index
+	 * @return true if the seed at this index has been processed
+	 */
+	public synchronized boolean isDone(int index) {
+		return done[index];
+	}
+
+	/**
+	 * @param index
+	 *            seed index
+	 * @return the ellipsoid fitted at this seed, or null if the seed is not
+	 *         done or its fit failed
+	 */
+	public synchronized Ellipsoid getEllipsoid(int index) {
+		return ellipsoids[index];
+	}
+
+	/**
+	 * @return copy of the saved ellipsoids indexed by seed, with null at seeds
+	 *         which are not done or whose fit failed
+	 */
+	public synchronized Ellipsoid[] getEllipsoids() {
+		return ellipsoids.clone();
+	}
+
+	/**
+	 * @return true if every seed used by the finished run, or every seed if
+	 *         the run did not finish, is done
+	 */
+	public synchronized boolean isComplete() {
+		final int n = nSeedsUsed < 0 ? seeds.length : nSeedsUsed;
+		for (int s = 0; s < n; s++)
+			if (!done[seeds[s]])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return copy of the skeleton point indices of the seeds, in processing
+	 *         order
+	 */
+	public int[] getSeeds() {
+		return seeds.clone();
+	}
+
+	/**
+	 * @return number of seeds processed so far
+	 */
+	public synchronized int countDone() {
+		return nDone;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getNPoints() {
+		return nPoints;
+	}
+
+	public int getSkipRatio() {
+		return settings.skipRatio;
+	}
+
+	/**
+	 * @return the optimisation settings of the run which made this checkpoint
+	 */
+	public Settings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * The Ellipsoid Factor settings which determine which ellipsoids are
+	 * fitted
+	 */
+	public static class Settings {
+
+		/** Length in bytes when written to a checkpoint */
+		private static final int LENGTH = 8 + 4 * 4 + 2 * 8 + 1 + 8;
+
+		public final long randomSeed;
+		public final int nVectors;
+		public final int skipRatio;
+		public final int contactSensitivity;
+		public final int maxIterations;
+		public final double vectorIncrement;
+		public final double maxDrift;
+		public final boolean adaptive;
+		public final double convergenceTolerance;
+
+		public Settings(long randomSeed, int nVectors, int skipRatio,
+				int contactSensitivity, int maxIterations,
+				double vectorIncrement, double maxDrift, boolean adaptive,
+				double convergenceTolerance) {
+			this.randomSeed = randomSeed;
+			this.nVectors = nVectors;
+			this.skipRatio = skipRatio;
+			this.contactSensitivity = contactSensitivity;
+			this.maxIterations = maxIterations;
+			this.vectorIncrement = vectorIncrement;
+			this.maxDrift = maxDrift;
+			this.adaptive = adaptive;
+			this.convergenceTolerance = convergenceTolerance;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeLong(randomSeed);
+			out.writeInt(nVectors);
+			out.writeInt(skipRatio);
+			out.writeInt(contactSensitivity);
+			out.writeInt(maxIterations);
+			out.writeDouble(vectorIncrement);
+			out.writeDouble(maxDrift);
+			out.writeByte(adaptive ? 1 : 0);
+			out.writeDouble(convergenceTolerance);
+		}
+
+		private static Settings read(DataInputStream in) throws IOException {
+			final long randomSeed = in.readLong();
+			final int nVectors = in.readInt();
+			final int skipRatio = in.readInt();
+			final int contactSensitivity = in.readInt();
+			final int maxIterations = in.readInt();
+			final double vectorIncrement = in.readDouble();
+			final double maxDrift = in.readDouble();
+			final byte adaptive = in.readByte();
+			final double convergenceTolerance = in.readDouble();
+			if (nVectors <= 0 || skipRatio <= 0
+					|| (adaptive != 0 && adaptive != 1))
+				throw new IOException("Invalid settings in checkpoint");
+			return new Settings(randomSeed, nVectors, skipRatio,
+					contactSensitivity, maxIterations, vectorIncrement,
+					maxDrift, adaptive == 1, convergenceTolerance);
+		}
+
+		/**
+		 * Compare with the settings of another run
+		 *
+		 * @param other
+		 * @return description of the settings which differ, or null if they
+		 *         are all the same
+		 */
+		public String difference(Settings other) {
+			String difference = "";
+			if (randomSeed != other.randomSeed)
+				difference += describe("random seed", randomSeed,
+						other.randomSeed);
+			if (nVectors != other.nVectors)
+				difference += describe("vectors", nVectors, other.nVectors);
+			if (skipRatio != other.skipRatio)
+				difference += describe("skeleton points per ellipsoid",
+						skipRatio, other.skipRatio);
+			if (contactSensitivity != other.contactSensitivity)
+				difference += describe("contact sensitivity",
+						contactSensitivity, other.contactSensitivity);
+			if (maxIterations != other.maxIterations)
+				difference += describe("maximum iterations", maxIterations,
+						other.maxIterations);
+			if (Double.compare(vectorIncrement, other.vectorIncrement) != 0)
+				difference += describe("sampling increment", vectorIncrement,
+						other.vectorIncrement);
+			if (Double.compare(maxDrift, other.maxDrift) != 0)
+				difference += describe("maximum drift", maxDrift,
+						other.maxDrift);
+			if (adaptive != other.adaptive)
+				difference += describe("adaptive seed sampling", adaptive,
+						other.adaptive);
+			if (adaptive && other.adaptive
+					&& Double.compare(convergenceTolerance,
+							other.convergenceTolerance) != 0)
+				difference += describe("convergence tolerance",
+						convergenceTolerance, other.convergenceTolerance);
+			return difference.length() == 0 ? null : difference;
+		}
+
+		private static String describe(String name, Object value,
+				Object other) {
+			return "\n" + name + ": " + value + " (checkpoint), " + other;
+		}
+	}
+}
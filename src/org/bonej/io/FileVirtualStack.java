@@ -0,0 +1,200 @@
+package org.bonej.io;
+
+/**
+ * FileVirtualStack
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import ij.IJ;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * <p>
+ * Virtual stack whose slices are read from a file as they are requested.
+ * Subclasses read the pixels of a slice of the file; this class keeps track
+ * of which file slice each stack slice shows, so that slices can be deleted
+ * from the stack as from ImageJ's VirtualStack.
+ * </p>
+ * <p>
+ * A slice which cannot be read is logged and shown blank, rather than
+ * returned as null to callers which do not expect it. Pixels set with
+ * {@link #setPixels(Object, int)} are kept in memory and replace the file's
+ * slice until it is deleted; the file is never changed.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+public abstract class FileVirtualStack extends VirtualStack {
+
+	/** File slice, from 0, shown by each stack slice */
+	private int[] sources;
+
+	private int nSlices;
+
+	/** Pixels set by setPixels(), by file slice */
+	private final Map<Integer, Object> edited = new HashMap<Integer, Object>();
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param depth
+	 *            number of slices in the file
+	 * @param bitDepth
+	 *            8, 16 or 32
+	 * @param directory
+	 *            directory of the file
+	 */
+	protected FileVirtualStack(int width, int height, int depth,
+			int bitDepth, String directory) {
+		super(width, height, null, directory);
+		setBitDepth(bitDepth);
+		this.nSlices = depth;
+		this.sources = new int[depth];
+		for (int i = 0; i < depth; i++)
+			sources[i] = i;
+	}
+
+	/**
+	 * Read a slice of the file
+	 *
+	 * @param source
+	 *            file slice, from 0
+	 * @return byte[], short[] or float[] pixels for the stack's bit depth, or
+	 *         null if the slice is missing from the file
+	 * @throws IOException
+	 */
+	protected abstract Object readPixels(int source) throws IOException;
+
+	/**
+	 * @param source
+	 *            file slice, from 0
+	 * @return label of the file slice, or null
+	 */
+	protected String getSourceLabel(int source) {
+		return null;
+	}
+
+	/**
+	 * @param n
+	 *            slice number, 1 to {@link #getSize()}
+	 * @return the file slice, from 0, shown by stack slice n
+	 */
+	protected int getSource(int n) {
+		if (n < 1 || n > nSlices)
+			throw new IllegalArgumentException("Argument out of range: " + n);
+		return sources[n - 1];
+	}
+
+	/**
+	 * Read a slice's pixels
+	 *
+	 * @param n
+	 *            slice number, 1 to {@link #getSize()}
+	 * @return pixels, which are all 0 if the slice could not be read
+	 */
+	public Object getPixels(int n) {
+		final int source = getSource(n);
+		synchronized (edited) {
+			Object pixels = edited.get(source);
+			if (pixels != null)
+				return pixels;
+		}
+		Object pixels = null;
+		try {
+			pixels = readPixels(source);
+			if (pixels == null)
+				IJ.log("Slice " + n + " is missing from the file");
+		} catch (IOException e) {
+			IJ.log("Could not read slice " + n + ": " + e);
+		}
+		if (pixels == null)
+			pixels = getBlankPixels();
+		return pixels;
+	}
+
+	private Object getBlankPixels() {
+		final int length = getWidth() * getHeight();
+		switch (getBitDepth()) {
+		case 8:
+			return new byte[length];
+		case 16:
+			return new short[length];
+		default:
+			return new float[length];
+		}
+	}
+
+	/**
+	 * Read a slice
+	 *
+	 * @param n
+	 *            slice number, 1 to {@link #getSize()}
+	 * @return slice, which is blank if it could not be read
+	 */
+	public ImageProcessor getProcessor(int n) {
+		Object pixels = getPixels(n);
+		if (pixels instanceof byte[])
+			return new ByteProcessor(getWidth(), getHeight(), (byte[]) pixels,
+					null);
+		if (pixels instanceof short[])
+			return new ShortProcessor(getWidth(), getHeight(),
+					(short[]) pixels, null);
+		return new FloatProcessor(getWidth(), getHeight(), (float[]) pixels,
+				null);
+	}
+
+	/** Keep new pixels for a slice in memory, in place of the file's */
+	public void setPixels(Object pixels, int n) {
+		final int source = getSource(n);
+		synchronized (edited) {
+			if (pixels == null)
+				edited.remove(source);
+			else
+				edited.put(source, pixels);
+		}
+	}
+
+	/** Remove a slice from the stack; the file is not changed */
+	public void deleteSlice(int n) {
+		final int source = getSource(n);
+		System.arraycopy(sources, n, sources, n - 1, nSlices - n);
+		nSlices--;
+		synchronized (edited) {
+			edited.remove(source);
+		}
+	}
+
+	public void deleteLastSlice() {
+		if (nSlices > 0)
+			deleteSlice(nSlices);
+	}
+
+	public int getSize() {
+		return nSlices;
+	}
+
+	public String getSliceLabel(int n) {
+		return getSourceLabel(getSource(n));
+	}
+}
@@ -0,0 +1,137 @@
+package org.bonej.io;
+
+/**
+ * HeaderCache
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed file headers by path. Each header is read from the start of
+ * the file in a single positional read, parsed once, and reused until the
+ * file's modification time or length changes. The least recently used headers
+ * are discarded once the cache holds {@link #MAX_ENTRIES}.
+ *
+ * @param <T>
+ *            parsed header type
+ * @author Michael Doube
+ */
+abstract class HeaderCache<T> {
+
+	static final int MAX_ENTRIES = 4096;
+
+	/** Number of bytes to read from the start of each file */
+	private final int length;
+
+	private final Map<String, Entry<T>> cache = new LinkedHashMap<String, Entry<T>>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(
+				Map.Entry<String, Entry<T>> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private static class Entry<T> {
+		final long modified, size;
+		final T header;
+
+		Entry(long modified, long size, T header) {
+			this.modified = modified;
+			this.size = size;
+			this.header = header;
+		}
+	}
+
+	HeaderCache(int length) {
+		this.length = length;
+	}
+
+	/**
+	 * Parse a header
+	 *
+	 * @param path
+	 *            file the header was read from
+	 * @param bytes
+	 *            little-endian buffer of the header's length, zero-filled
+	 *            beyond the end of a short file
+	 * @return parsed header
+	 */
+	protected abstract T parse(String path, ByteBuffer bytes);
+
+	/**
+	 * Get the parsed header of a file, reading it only if it is not cached or
+	 * the file has changed since it was cached
+	 *
+	 * @param path
+	 * @return parsed header
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	T get(String path) throws IOException {
+		if (path == null)
+			throw new IllegalArgumentException();
+		File file = new File(path);
+		final long modified = file.lastModified();
+		final long size = file.length();
+		synchronized (cache) {
+			Entry<T> entry = cache.get(path);
+			if (entry != null && entry.modified == modified
+					&& entry.size == size)
+				return entry.header;
+		}
+		// read outside the lock, so that headers can be read in parallel
+		T header = parse(path, read(file, length));
+		synchronized (cache) {
+			cache.put(path, new Entry<T>(modified, size, header));
+		}
+		return header;
+	}
+
+	/**
+	 * Read the first bytes of a file
+	 *
+	 * @param file
+	 * @param length
+	 *            number of bytes to read
+	 * @return little-endian buffer of length bytes
+	 * @throws IOException
+	 */
+	static ByteBuffer read(File file, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, buffer.position()) < 0)
+					break;
+		} finally {
+			raf.close();
+		}
+		buffer.clear();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+}
@@ -0,0 +1,229 @@
+package org.bonej.io;
+
+/**
+ * ISQHeader
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
+
+/**
+ * The 512-byte header of a Scanco ISQ file, read in one positional read and
+ * cached by path until the file changes. The layout of the header is
+ * described in {@link ISQReader}.
+ *
+ * @author Michael Doube
+ */
+public class ISQHeader {
+
+	/** Length of the header in bytes */
+	public static final int LENGTH = 512;
+
+	private static final String MAGIC = "CTDATA-HEADER_V1";
+
+	private static final HeaderCache<ISQHeader> CACHE = new HeaderCache<ISQHeader>(
+			LENGTH) {
+		protected ISQHeader parse(String path, ByteBuffer bytes) {
+			return new ISQHeader(path, bytes);
+		}
+	};
+
+	private final String path;
+
+	private final ByteBuffer bytes;
+
+	private ISQHeader(String path, ByteBuffer bytes) {
+		this.path = path;
+		this.bytes = bytes.asReadOnlyBuffer().order(bytes.order());
+	}
+
+	/**
+	 * Get the header of an ISQ file, from the cache if the file has not
+	 * changed since it was last read
+	 *
+	 * @param path
+	 * @return header
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static ISQHeader get(String path) throws IOException {
+		return CACHE.get(path);
+	}
+
+	/**
+	 * Read the headers of all the ISQ files in a directory and its
+	 * subdirectories, in parallel. Files which are not ISQs, or cannot be read,
+	 * are skipped.
+	 *
+	 * @param directory
+	 * @return headers of the ISQ files, ordered by path
+	 */
+	public static List<ISQHeader> scan(File directory) {
+		List<File> fileList = new ArrayList<File>();
+		listFiles(directory, fileList);
+		final File[] files = fileList.toArray(new File[fileList.size()]);
+		final ISQHeader[] headers = new ISQHeader[files.length];
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int f = ai.getAndIncrement(); f < files.length; f = ai
+							.getAndIncrement()) {
+						if (files[f].length() < LENGTH)
+							continue;
+						try {
+							ISQHeader header = get(files[f].getPath());
+							if (header.isISQ())
+								headers[f] = header;
+						} catch (IOException e) {
+							continue;
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		List<ISQHeader> list = new ArrayList<ISQHeader>();
+		for (ISQHeader header : headers)
+			if (header != null)
+				list.add(header);
+		return list;
+	}
+
+	private static void listFiles(File directory, List<File> list) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory())
+				listFiles(file, list);
+			else
+				list.add(file);
+		}
+	}
+
+	/** @return path of the file the header was read from */
+	public String getPath() {
+		return path;
+	}
+
+	/** @return true if the magic number identifies a Scanco ISQ */
+	public boolean isISQ() {
+		return getMagic().equals(MAGIC);
+	}
+
+	/** @return the first 16 bytes as a character string */
+	public String getMagic() {
+		return getString(0, 16);
+	}
+
+	/** @return {x, y, z} image size in pixels */
+	public int[] getImageSize() {
+		int[] sizes = { getInt(44), getInt(48), getInt(52) };
+		return sizes;
+	}
+
+	/** @return {x, y, z} image size in metric units (mm) */
+	public double[] getRealSize() {
+		double[] sizes = { getInt(56) / 1000.0, getInt(60) / 1000.0,
+				getInt(64) / 1000.0 };
+		return sizes;
+	}
+
+	/** @return {x, y, z} pixel spacing in metric units (mm) */
+	public double[] getPixelSize() {
+		int[] nPixels = getImageSize();
+		double[] realSize = getRealSize();
+		double[] pixelSize = { realSize[0] / nPixels[0],
+				realSize[1] / nPixels[1], realSize[2] / nPixels[2] };
+		return pixelSize;
+	}
+
+	public int getPatientIndex() {
+		return getInt(28);
+	}
+
+	public int getMeasurementIndex() {
+		return getInt(112);
+	}
+
+	public int getSite() {
+		return getInt(116);
+	}
+
+	public int getMinDataValue() {
+		return getInt(80);
+	}
+
+	public int getMaxDataValue() {
+		return getInt(84);
+	}
+
+	public int getMuScaling() {
+		return getInt(88);
+	}
+
+	public String getPatientName() {
+		return getString(128, 40);
+	}
+
+	/** @return position of the first pixel in the file */
+	public int getOffset() {
+		return getInt(508) * 512 + 512;
+	}
+
+	/**
+	 * Read a little-endian 4-byte integer
+	 *
+	 * @param firstByte
+	 *            position in the header
+	 * @return value
+	 */
+	int getInt(int firstByte) {
+		return bytes.getInt(firstByte);
+	}
+
+	/**
+	 * Read a string of 1-byte characters
+	 *
+	 * @param firstByte
+	 *            position in the header
+	 * @param length
+	 *            number of characters
+	 * @return string
+	 */
+	String getString(int firstByte, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = (char) (bytes.get(firstByte + i) & 0xff);
+		return new String(chars);
+	}
+
+	/** @return the unsigned value of a byte */
+	int getByte(int position) {
+		return bytes.get(position) & 0xff;
+	}
+}
@@ -0,0 +1,76 @@
+package org.bonej.io;
+
+/**
+ * ISQIndex plugin for ImageJ
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.util.List;
+
+import ij.IJ;
+import ij.io.DirectoryChooser;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+
+import org.doube.util.UsageReporter;
+
+/**
+ * List the metadata of every Scanco ISQ file in a directory and its
+ * subdirectories, reading only the headers
+ *
+ * @author Michael Doube
+ * @see ISQHeader#scan(File)
+ */
+public class ISQIndex implements PlugIn {
+
+	public void run(String arg) {
+		DirectoryChooser dc = new DirectoryChooser("Index ISQ files in...");
+		String directory = dc.getDirectory();
+		if (directory == null)
+			return;
+		IJ.showStatus("Reading ISQ headers...");
+		List<ISQHeader> headers = ISQHeader.scan(new File(directory));
+		IJ.showStatus("");
+		if (headers.isEmpty()) {
+			IJ.error("ISQ Index", "No ISQ files found in " + directory);
+			return;
+		}
+		ISQReader reader = new ISQReader();
+		ResultsTable rt = new ResultsTable();
+		for (ISQHeader header : headers) {
+			String path = header.getPath();
+			int[] size = header.getImageSize();
+			double[] pixelSize = header.getPixelSize();
+			rt.incrementCounter();
+			rt.addLabel("File", path);
+			rt.addValue("Patient", header.getPatientName().trim());
+			rt.addValue("Patient Index", header.getPatientIndex());
+			rt.addValue("Measurement Index", header.getMeasurementIndex());
+			rt.addValue("Site", header.getSite());
+			rt.addValue("Created", reader.getCreationDateAsString(path));
+			rt.addValue("Width", size[0]);
+			rt.addValue("Height", size[1]);
+			rt.addValue("Depth", size[2]);
+			rt.addValue("vW (mm)", pixelSize[0]);
+			rt.addValue("vH (mm)", pixelSize[1]);
+			rt.addValue("vD (mm)", pixelSize[2]);
+			rt.addValue("Mu Scaling", header.getMuScaling());
+		}
+		rt.show("ISQ Index");
+		UsageReporter.reportEvent(this).send();
+	}
+}
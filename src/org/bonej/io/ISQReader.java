@@ -120,14 +120,24 @@ import ij.process.ShortProcessor;
 
 //import java.awt.Checkbox;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
-
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.doube.util.Multithreader;
 import org.doube.util.UsageReporter;
 
 /**
@@ -141,10 +151,6 @@ public class ISQReader implements PlugIn {
 
 	private static final String MAGIC = "CTDATA-HEADER_V1";
 
-	private long skipCount;
-	private int bufferSize, byteCount, nPixels;
-	private int eofErrorCount;
-
 	public void run(String arg) {
 
 		// the ISQ-File is selected
@@ -178,6 +184,13 @@ public class ISQReader implements PlugIn {
 		gd.addNumericField("First_slice: ", 0, 0);
 		gd.addNumericField("Number_of_slices: ", depth, 0);
 		gd.addCheckbox("Downsample 2x", false);
+		gd.addMessage("Or reduce blocks of voxels to one");
+		gd.addNumericField("Block_X", 1, 0);
+		gd.addNumericField("Block_Y", 1, 0);
+		gd.addNumericField("Block_Z", 1, 0);
+		String[] methods = { "Mean", "Max" };
+		gd.addChoice("Block_method", methods, methods[0]);
+		gd.addCheckbox("Virtual stack", false);
 
 		gd.showDialog();
 		if (gd.wasCanceled())
@@ -190,10 +203,16 @@ public class ISQReader implements PlugIn {
 		int startZ = (int) gd.getNextNumber();
 		int nSlices = (int) gd.getNextNumber();
 		final boolean downsample = gd.getNextBoolean();
+		int[] factors = { (int) gd.getNextNumber(), (int) gd.getNextNumber(),
+				(int) gd.getNextNumber() };
+		final boolean max = gd.getNextChoice().equals(methods[1]);
+		final boolean virtual = gd.getNextBoolean();
 		// Open the file
 		try {
-			ImagePlus imp = openScancoISQ(path, downsample, startX, startY,
-					endX, endY, startZ, nSlices);
+			ImagePlus imp = openScancoISQ(path, startX, startY, endX, endY,
+					startZ, nSlices, downsample, factors, max, virtual);
+			if (imp == null)
+				return;
 
 			String scancoHeaderdata = getHeaderData(path);
 			imp.setProperty(
@@ -222,6 +241,68 @@ public class ISQReader implements PlugIn {
 	 */
 	public ImagePlus openScancoISQ(String path, boolean downsample, int startX,
 			int startY, int endX, int endY, int startZ, int nSlices) {
+		return openScancoISQ(path, downsample, startX, startY, endX, endY,
+				startZ, nSlices, false);
+	}
+
+	/**
+	 * Opens a Scanco ISQ file as an ImageJ ImagePlus, optionally as a virtual
+	 * stack which reads slices from disk as they are needed
+	 * 
+	 * @param path
+	 * @param downsample
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
+	 * @param virtual
+	 *            true to return a virtual stack, which opens instantly and
+	 *            holds only recently viewed slices in memory
+	 * @return
+	 * @see ISQVirtualStack
+	 */
+	public ImagePlus openScancoISQ(String path, boolean downsample, int startX,
+			int startY, int endX, int endY, int startZ, int nSlices,
+			boolean virtual) {
+		int[] factors = { 1, 1, 1 };
+		return openScancoISQ(path, startX, startY, endX, endY, startZ,
+				nSlices, downsample, factors, false, virtual);
+	}
+
+	/**
+	 * Opens a Scanco ISQ file as an ImageJ ImagePlus, reducing each block of
+	 * voxels to their mean or maximum as the file is read. Equal factors give
+	 * a smaller stack with isotropic voxels, if the file's voxels are
+	 * isotropic, without holding the full resolution stack in memory.
+	 * 
+	 * @param path
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
+	 * @param factors
+	 *            {x, y, z} block size, in voxels. Incomplete blocks at the
+	 *            edges of the ROI are dropped.
+	 * @param max
+	 *            true to take each block's maximum, false for its mean
+	 * @param virtual
+	 *            true to return a virtual stack
+	 * @return
+	 */
+	public ImagePlus openScancoISQ(String path, int startX, int startY,
+			int endX, int endY, int startZ, int nSlices, int[] factors,
+			boolean max, boolean virtual) {
+		return openScancoISQ(path, startX, startY, endX, endY, startZ,
+				nSlices, false, factors, max, virtual);
+	}
+
+	private ImagePlus openScancoISQ(String path, int startX, int startY,
+			int endX, int endY, int startZ, int nSlices, boolean downsample,
+			int[] factors, boolean max, boolean virtual) {
 
 		int[] imageSize = getImageSize(path);
 		int width = imageSize[0];
@@ -235,6 +316,20 @@ public class ISQReader implements PlugIn {
 				|| nSlices > depth - startZ)
 			throw new IllegalArgumentException(
 					"Crop parameters fall outside image bounds");
+		final int widthROI = endX - startX + 1;
+		final int heightROI = endY - startY + 1;
+		if (factors[0] < 1 || factors[1] < 1 || factors[2] < 1
+				|| factors[0] > widthROI || factors[1] > heightROI
+				|| factors[2] > nSlices)
+			throw new IllegalArgumentException(
+					"Block size must be between 1 and the size of the ROI");
+		if (downsample && factors[0] * factors[1] * factors[2] > 1)
+			throw new IllegalArgumentException(
+					"Choose either 2x downsampling or block reduction");
+		ISQRegion region = new ISQRegion(path, offset, width, height, startX,
+				startY, widthROI, heightROI, startZ, nSlices, downsample,
+				factors, max);
+		final int[] scale = region.getScale();
 
 		// FileInfo
 		FileInfo fi = new FileInfo();
@@ -244,121 +339,43 @@ public class ISQReader implements PlugIn {
 		fi.width = width;
 		fi.height = height;
 		fi.offset = offset;
-
-		if (startZ > 0) {
-			final long area = width * height;
-			final long sliceTimesArea = area * startZ;
-			// multiplication * 2 because a "short" value is 2 bytes long
-			final long sliceTimesAreaTimes2 = sliceTimesArea * 2;
-			long dummy = (long) fi.offset + sliceTimesAreaTimes2;
-
-			if (dummy <= Integer.MAX_VALUE && dummy > 0) {
-				// 2 is hardcoded no. of bytesPerPixel (short)
-				fi.offset += (startZ * width * height * 2);
-			} else {
-				fi.longOffset = (long) (fi.offset + sliceTimesAreaTimes2);
-			}
-		}
-		if (nSlices > getImageSize(path)[2] - startZ) {
-			nSlices = getImageSize(path)[2] - startZ;
-		}
-
-		if (offset <= Integer.MAX_VALUE && offset > 0) {
-			fi.offset = (int) offset;
-		}
-		if (offset > Integer.MAX_VALUE) {
-			fi.longOffset = offset;
-		}
-		fi.nImages = nSlices;
+		fi.nImages = region.getDepth();
 		fi.gapBetweenImages = 0;
 		fi.intelByteOrder = true;
 		fi.whiteIsZero = false;
 		fi.fileType = FileInfo.GRAY16_SIGNED;
-		fi.pixelWidth = pixelSize[0];
-		fi.pixelHeight = pixelSize[1];
-		fi.pixelDepth = pixelSize[2];
+		fi.pixelWidth = pixelSize[0] * scale[0];
+		fi.pixelHeight = pixelSize[1] * scale[1];
+		fi.pixelDepth = pixelSize[2] * scale[2];
 		fi.unit = "mm";
 
-		int widthStack;
-		int heightStack;
-
-		final int widthROI = endX - startX + 1;
-		final int heightROI = endY - startY + 1;
-
-		if (downsample == true) {
-
-			fi.pixelWidth = fi.pixelWidth * 2;
-			fi.pixelHeight = fi.pixelHeight * 2;
-			widthStack = widthROI / 2;
-			heightStack = heightROI / 2;
-		} else {
-			widthStack = widthROI;
-			heightStack = heightROI;
+		if (virtual) {
+			ISQVirtualStack stack = new ISQVirtualStack(region);
+			ImagePlus imp = new ImagePlus(fi.fileName, stack);
+			imp.setFileInfo(fi);
+			setCalibration(imp, region);
+			// use the header's range, or a few slices', rather than reading
+			// every slice
+			int min = getMinDataValue(path);
+			int maxValue = getMaxDataValue(path);
+			if (maxValue > min) {
+				imp.getProcessor().setMinAndMax(region.toUnsigned(min),
+						region.toUnsigned(maxValue));
+			} else {
+				double[] range = stack.getSampledRange(8);
+				imp.getProcessor().setMinAndMax(range[0], range[1]);
+			}
+			return imp;
 		}
 
 		// modified to match the size of the ROI
-		ImageStack stack = new ImageStack(widthStack, heightStack);
-		long skip = fi.longOffset > 0 ? fi.longOffset : fi.offset;
-		skip += startZ * width * height * 2;
-
-		try {
-			FileInputStream is = new FileInputStream(path);
-
-			for (int i = 1; i <= nSlices; i++) {
-				IJ.showStatus("Reading: " + i + "/" + nSlices);
-
-				//read the whole slice into an array
-				//this is really inefficient if only a small ROI is needed
-				//as must read all pixels off disk then throw them away
-				short[] pixels = readPixels(is, skip, width, height);
-
-				// get pixels for ROI only
-				int indexCountPixels = startY * width + startX;
-				int indexCountROI = 0;
-
-				short[] pixelsROI = new short[widthROI * heightROI];
-
-				for (int u = 0; u < heightROI; u++) {
-					System.arraycopy(pixels, indexCountPixels, pixelsROI,
-							indexCountROI, widthROI);
-					indexCountPixels += width;
-					indexCountROI += widthROI;
-				}
-
-				if (pixels == null)
-					break;
-
-	
-				if (downsample) {
-					ImageProcessor ip = new ShortProcessor(widthROI, heightROI);
-					ip.setPixels(pixelsROI);
-					ip.setInterpolationMethod(ImageProcessor.BICUBIC);
-					ImageProcessor downsizedIp = ip.resize(widthROI / 2, heightROI / 2, true);
-					stack.addSlice("microCT-Import_by_KHK_w_" + widthROI
-							+ "_h_" + heightROI + "_slice." + i, downsizedIp);
-
-				} else {
-
-					for (int index = 0; index < widthROI * heightROI; index++) {
-						pixelsROI[index] = (short) (pixelsROI[index] - 32768);
-						if (pixelsROI[index] < 0)
-							pixelsROI[index] = 0;
-					}
-
-					stack.addSlice("microCT-Import_by_KHK_w_" + widthROI
-							+ "_h_" + heightROI + "_slice." + i, pixelsROI);
-				}
-
-				skip = fi.gapBetweenImages;
-				IJ.showProgress((double) i / nSlices);
-			}
-			is.close();
-		} catch (Exception e) {
-			IJ.log("" + e);
-		} catch (OutOfMemoryError e) {
-			IJ.outOfMemory(fi.fileName);
-			stack.trim();
-		}
+		ImageStack stack = new ImageStack(region.getWidth(),
+				region.getHeight());
+		double[] range = { Double.MAX_VALUE, -Double.MAX_VALUE };
+		Object[] slices = readSlices(region, range);
+		for (int i = 0; i < slices.length && slices[i] != null; i++)
+			stack.addSlice(getSliceLabel(widthROI, heightROI, i + 1),
+					slices[i]);
 		if (stack.getSize() == 0)
 			return null;
 		if (fi.sliceLabels != null && fi.sliceLabels.length <= stack.getSize()) {
@@ -366,144 +383,296 @@ public class ISQReader implements PlugIn {
 				stack.setSliceLabel(fi.sliceLabels[i], i + 1);
 		}
 		ImagePlus imp = new ImagePlus(fi.fileName, stack);
-		Calibration cal = imp.getCalibration();
 
 		if (fi.info != null)
 			imp.setProperty("Info", fi.info);
 		imp.setFileInfo(fi);
+		setCalibration(imp, region);
+		// set display range
+		imp.getProcessor().setMinAndMax(range[0], range[1]);
+		IJ.showProgress(1.0);
+		return imp;
+	}
+
+	/** A slice read from disk and waiting to be decoded */
+	private static class RawSlice {
+		/** Position in the imported stack, from 0 */
+		final int n;
+		final short[] pixels;
+
+		RawSlice(int n, short[] pixels) {
+			this.n = n;
+			this.pixels = pixels;
+		}
+	}
+
+	/** Marks the end of the slices for a decoder thread */
+	private static final RawSlice END = new RawSlice(-1, null);
+
+	/**
+	 * Read and decode slices in a pipeline, so that disk and CPU work overlap:
+	 * one thread reads the ROI of each slice in turn into a bounded queue,
+	 * while the other threads take slices from the queue, then convert and
+	 * downsample or reduce them and find their range of values. When
+	 * downsampling or reducing, the read buffers are reused once their slices
+	 * are decoded. If any slice fails, the reader stops and the decoders
+	 * drain the queue without decoding, so that neither side waits forever.
+	 * 
+	 * @param range
+	 *            filled with the {min, max} of the decoded slices
+	 * @return decoded pixels of each slice, in order, null from the first
+	 *         slice which could not be read or decoded
+	 */
+	private Object[] readSlices(final ISQRegion region, double[] range) {
+		final int nSlices = region.getDepth();
+		final Thread[] decoders = Multithreader.newThreads();
+		final BlockingQueue<RawSlice> queue = new ArrayBlockingQueue<RawSlice>(
+				2 * decoders.length);
+		final Queue<short[]> pool = new ConcurrentLinkedQueue<short[]>();
+		final Object[] slices = new Object[nSlices];
+		final double[] mins = new double[nSlices];
+		final double[] maxs = new double[nSlices];
+		final AtomicBoolean outOfMemory = new AtomicBoolean(false);
+		final AtomicReference<RuntimeException> failure =
+				new AtomicReference<RuntimeException>();
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ByteBuffer buffer = region.newBuffer();
+					RandomAccessFile raf = new RandomAccessFile(region.path,
+							"r");
+					try {
+						FileChannel channel = raf.getChannel();
+						for (int i = 0; i < nSlices && !outOfMemory.get()
+								&& failure.get() == null; i++) {
+							IJ.showStatus("Reading: " + (i + 1) + "/"
+									+ nSlices);
+							short[] pixels = pool.poll();
+							if (pixels == null)
+								pixels = new short[region.getRawLength()];
+							// only the rows of the ROI, as signed values
+							if (!region.read(channel, buffer, i, pixels))
+								break;
+							put(queue, new RawSlice(i, pixels));
+							IJ.showProgress(i + 1, nSlices);
+						}
+					} finally {
+						raf.close();
+					}
+				} catch (IOException e) {
+					IJ.log("" + e);
+				} catch (OutOfMemoryError e) {
+					outOfMemory.set(true);
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					for (int d = 0; d < decoders.length; d++)
+						put(queue, END);
+				}
+			}
+		});
+
+		for (int thread = 0; thread < decoders.length; thread++) {
+			decoders[thread] = new Thread(new Runnable() {
+				public void run() {
+					while (true) {
+						RawSlice raw = take(queue);
+						if (raw == END)
+							return;
+						// keep taking slices, so that the reader can finish
+						if (outOfMemory.get() || failure.get() != null)
+							continue;
+						try {
+							ImageProcessor ip = region.decode(raw.pixels);
+							if (region.isRawReusable())
+								pool.offer(raw.pixels);
+							ip.resetMinAndMax();
+							mins[raw.n] = ip.getMin();
+							maxs[raw.n] = ip.getMax();
+							slices[raw.n] = ip.getPixels();
+						} catch (OutOfMemoryError e) {
+							outOfMemory.set(true);
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				}
+			});
+		}
+		reader.start();
+		Multithreader.startAndJoin(decoders);
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (outOfMemory.get())
+			IJ.outOfMemory(new File(region.path).getName());
+		if (failure.get() != null)
+			IJ.handleException(failure.get());
+		for (int i = 0; i < nSlices && slices[i] != null; i++) {
+			range[0] = Math.min(range[0], mins[i]);
+			range[1] = Math.max(range[1], maxs[i]);
+		}
+		return slices;
+	}
+
+	/** Put a slice on the queue, waiting for space even if interrupted */
+	private static void put(BlockingQueue<RawSlice> queue, RawSlice slice) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(slice);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/** Take a slice from the queue, waiting for one even if interrupted */
+	private static RawSlice take(BlockingQueue<RawSlice> queue) {
+		boolean interrupted = false;
+		RawSlice slice;
+		while (true) {
+			try {
+				slice = queue.take();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return slice;
+	}
 
-		cal.pixelWidth = (downsample) ? pixelSize[0] * 2 : pixelSize[0];
-		cal.pixelHeight = (downsample) ? pixelSize[1] * 2 : pixelSize[1];
-		cal.pixelDepth = pixelSize[2];
+	/**
+	 * Calibrate an imported ISQ in mm, with pixel values in 1/cm
+	 */
+	private void setCalibration(ImagePlus imp, ISQRegion region) {
+		double[] pixelSize = getPixelSize(region.path);
+		final int[] scale = region.getScale();
+		Calibration cal = imp.getCalibration();
+		cal.pixelWidth = pixelSize[0] * scale[0];
+		cal.pixelHeight = pixelSize[1] * scale[1];
+		cal.pixelDepth = pixelSize[2] * scale[2];
 		cal.setUnit("mm");
-		cal.xOrigin = -startX;
-		cal.yOrigin = -startY;
-		cal.zOrigin = -startZ;
+		// origin of the file, in imported pixels
+		cal.xOrigin = -(double) region.startX / scale[0];
+		cal.yOrigin = -(double) region.startY / scale[1];
+		cal.zOrigin = -(double) region.startZ / scale[2];
 		cal.setFunction(Calibration.STRAIGHT_LINE, new double[] { 0,
-				1.0 / getMuScaling(path) }, "1/cm");
+				1.0 / getMuScaling(region.path) }, "1/cm");
 		imp.setCalibration(cal);
-		// set display range
-		double min = Double.MAX_VALUE;
-		double max = -Double.MAX_VALUE;
-		final int n = stack.getSize();
-		for (int i = 1; i <= n; i++) {
-			IJ.showStatus("Calculating stack min and max: " + i + "/" + n);
-			ImageProcessor ip = stack.getProcessor(i);
-			max = Math.max(max, ip.getMax());
-			min = Math.min(min, ip.getMin());
-		}
-		imp.getProcessor().setMinAndMax(min, max);
-		IJ.showProgress(1.0);
-		return imp;
 	}
 
-	/** *********************************************************************** **/
+	static String getSliceLabel(int widthROI, int heightROI, int slice) {
+		return "microCT-Import_by_KHK_w_" + widthROI + "_h_" + heightROI
+				+ "_slice." + slice;
+	}
+
 	/**
-	 * from ImageReader.java: Skips the specified number of bytes, then reads an
-	 * image and returns the pixel array (byte, short, int or float). Returns
-	 * null if there was an IO exception. Does not close the InputStream.
+	 * Convert a raw signed value as it is stored in the ISQ to the value it
+	 * takes in the imported image
 	 */
-	private short[] readPixels(FileInputStream in, long skipCount, int width,
-			int height) {
-		this.skipCount = skipCount;
-		short[] pixels = readPixels(in, width, height);
-		if (eofErrorCount > 0)
-			return null;
-		else
-			return pixels;
+	static int toUnsigned(int value, boolean downsample) {
+		if (downsample)
+			return value + 32768;
+		return Math.max(0, value);
 	}
 
 	/**
-	 * Reads the image from the InputStream and returns the pixel array (byte,
-	 * short, int or float). Returns null if there was an IO exception. Does not
-	 * close the InputStream.
+	 * Make an imported slice from the signed pixels read from the ISQ
 	 * 
-	 * @param in
-	 * @param width
-	 * @param height
-	 * @return
+	 * @param pixelsROI
+	 *            signed pixels, which are modified
+	 * @param widthROI
+	 * @param heightROI
+	 * @param downsample
+	 *            halve the width and height
+	 * @return slice
 	 */
-	private short[] readPixels(FileInputStream in, int width, int height) {
-		try {
-			skip(in, width, height);
-			return read16bitImage(in);
-
-		} catch (IOException e) {
-			IJ.log("" + e);
-			return null;
+	static ImageProcessor toProcessor(short[] pixelsROI, int widthROI,
+			int heightROI, boolean downsample) {
+		if (downsample) {
+			// signed to unsigned
+			for (int index = 0; index < pixelsROI.length; index++)
+				pixelsROI[index] += 32768;
+			ImageProcessor ip = new ShortProcessor(widthROI, heightROI);
+			ip.setPixels(pixelsROI);
+			ip.setInterpolationMethod(ImageProcessor.BICUBIC);
+			return ip.resize(widthROI / 2, heightROI / 2, true);
 		}
+		// negative values are clipped to 0
+		for (int index = 0; index < pixelsROI.length; index++)
+			if (pixelsROI[index] < 0)
+				pixelsROI[index] = 0;
+		return new ShortProcessor(widthROI, heightROI, pixelsROI, null);
 	}
 
 	/**
-	 * Reads a 16-bit image. Signed pixels are converted to unsigned by adding
-	 * 32768.
+	 * Make a buffer for {@link #readROI}: if the ROI spans the whole width of
+	 * the image its rows are contiguous and are read all at once, otherwise
+	 * they are read one at a time.
 	 * 
-	 * @param in
-	 * @return
-	 * @throws IOException
+	 * @param width
+	 *            image width
+	 * @param widthROI
+	 * @param heightROI
+	 * @return little-endian buffer
 	 */
-	private short[] read16bitImage(FileInputStream in) throws IOException {
-		int pixelsRead;
-		byte[] buffer = new byte[bufferSize];
-		short[] pixels = new short[nPixels];
-		int totalRead = 0;
-		int base = 0;
-		int count;
-
-		while (totalRead < byteCount) {
-			if ((totalRead + bufferSize) > byteCount)
-				bufferSize = byteCount - totalRead;
-
-				count = in.read(buffer, 0, bufferSize);
-				
-				if (count == -1) {
-					eofErrorCount++;
-					Arrays.fill(pixels, Short.MAX_VALUE);
-					return pixels;
-				}
-			totalRead += bufferSize;
-			// divide by two because there are 2 bytes per pixel
-			pixelsRead = bufferSize / 2;
-			for (int i = base, j = 0; i < (base + pixelsRead); i++, j += 2)
-				pixels[i] = (short) ((((buffer[j + 1] & 0xff) << 8) | (buffer[j] & 0xff)) + 32768);
-			base += pixelsRead;
-		}
-		return pixels;
+	static ByteBuffer getRowBuffer(int width, int widthROI, int heightROI) {
+		final int rows = (widthROI == width) ? heightROI : 1;
+		ByteBuffer buffer = ByteBuffer.allocate(widthROI * rows * 2);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
 	}
 
 	/**
+	 * Read the pixels of a rectangular ROI from one slice with positional
+	 * reads, so that only the ROI's rows are read off disk. Pixels are
+	 * converted from little-endian in bulk through a ShortBuffer view.
 	 * 
-	 * @param in
+	 * @param channel
+	 *            open channel of the ISQ file
+	 * @param sliceOffset
+	 *            position of the slice's first pixel in the file
 	 * @param width
-	 * @param height
+	 *            image width
+	 * @param startX
+	 * @param startY
+	 * @param widthROI
+	 * @param heightROI
+	 * @param buffer
+	 *            buffer from {@link #getRowBuffer}
+	 * @param pixels
+	 *            array to fill with widthROI * heightROI signed values
+	 * @param index
+	 *            position in pixels of the ROI's first pixel
+	 * @return false if the end of the file was reached
 	 * @throws IOException
 	 */
-	private void skip(FileInputStream in, int width, int height)
-			throws IOException {
-
-		// This routine is called for every slice
-
-		if (skipCount > 0) {
-			long bytesRead = 0;
-			int skipAttempts = 0;
-			long count;
-			while (bytesRead < skipCount) {
-				count = in.skip(skipCount - bytesRead);
-				skipAttempts++;
-				if (count == -1 || skipAttempts > 5)
-					break;
-				bytesRead += count;
-
-			}
-		} 
-		byteCount = width * height * 2; //16-bit images so 2 bytes per pixel
-
-		nPixels = width * height;
-		bufferSize = byteCount / 25;
-		if (bufferSize < 8192)
-			bufferSize = 8192;
-		else
-			bufferSize = (bufferSize / 8192) * 8192;
+	static boolean readROI(FileChannel channel, long sliceOffset, int width,
+			int startX, int startY, int widthROI, int heightROI,
+			ByteBuffer buffer, short[] pixels, int index) throws IOException {
+		final int rows = buffer.capacity() / (widthROI * 2);
+		buffer.clear();
+		ShortBuffer shorts = buffer.asShortBuffer();
+		for (int y = 0; y < heightROI; y += rows) {
+			final long position = sliceOffset
+					+ ((long) (startY + y) * width + startX) * 2;
+			buffer.clear();
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, position + buffer.position()) < 0)
+					return false;
+			shorts.rewind();
+			shorts.get(pixels, index + y * widthROI, widthROI * rows);
+		}
+		return true;
 	}
 
 	/**
@@ -540,16 +709,11 @@ public class ISQReader implements PlugIn {
 	public Date getCreationDate(String path) {
 		int[] quadWord = new int[8];
 
-		if (path == null)
-			throw new IllegalArgumentException();
 		try {
-			File iFile = new File(path);
-			FileInputStream p = new FileInputStream(iFile);
-			p.skip(36);
+			ISQHeader header = ISQHeader.get(path);
 			for (int index = 7; index >= 0; index--) {
-				quadWord[index] = p.read();
+				quadWord[index] = header.getByte(43 - index);
 			}
-			p.close();
 			return vmsQuadwordToTimestamp(quadWord);
 		} catch (Exception e) {
 			IJ.handleException(e);
@@ -683,17 +847,15 @@ public class ISQReader implements PlugIn {
 		return pixelSize;
 	}
 
+	/**
+	 * Read an int from the header, which is read from disk only once while the
+	 * file is unchanged
+	 * 
+	 * @see ISQHeader
+	 */
 	private int readInt(String path, int firstByte) {
-		if (path == null)
-			throw new IllegalArgumentException();
 		try {
-			File iFile = new File(path);
-			FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			int value = (p.read() + p.read() * 256 + p.read() * 65536 + p
-					.read() * 256 * 65536);
-			p.close();
-			return value;
+			return ISQHeader.get(path).getInt(firstByte);
 		} catch (IOException e) {
 			IJ.handleException(e);
 		}
@@ -701,19 +863,8 @@ public class ISQReader implements PlugIn {
 	}
 
 	private String readString(String path, int firstByte, int length) {
-		if (path == null)
-			throw new IllegalArgumentException();
 		try {
-			File iFile = new File(path);
-			FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			String string = "";
-			for (int kh = 0; kh < length; kh++) {
-				char ch = (char) p.read();
-				string += ch;
-			}
-			p.close();
-			return string;
+			return ISQHeader.get(path).getString(firstByte, length);
 		} catch (IOException e) {
 			IJ.handleException(e);
 		}
@@ -724,11 +875,7 @@ public class ISQReader implements PlugIn {
 		if (path == null) {
 			throw new IllegalArgumentException();
 		}
-		try {
-			File iFile = new File(path);
-			FileInputStream p = new FileInputStream(iFile);
-
-			String headerData = "Scanco Header Data\n\n"
+		String headerData = "Scanco Header Data\n\n"
 			+ "Patient Name: " + getPatientName(path) + "\n"
 			+ "Patient Index: " + getPatientIndex(path) + "\n"
 			+ "Site: " + getSite(path) + "\n"
@@ -750,13 +897,7 @@ public class ISQReader implements PlugIn {
 			+ "Energy : " + getEnergy(path) + " V\n"
 			+ "Intensity : " + getIntensity(path) + " µA";
 
-			p.close();
-			return headerData;
-
-		} catch (IOException e) {
-			IJ.handleException(e);
-		}
-		return null;
+		return headerData;
 	}
 
 	/**
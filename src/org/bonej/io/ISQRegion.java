@@ -0,0 +1,222 @@
+package org.bonej.io;
+
+/**
+ * ISQRegion
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * <p>
+ * The part of a Scanco ISQ file to import, and how to reduce it: a box of
+ * voxels, optionally downsampled 2&times; in x and y by bicubic
+ * interpolation, or reduced by integer factors in x, y and z by taking the
+ * mean or maximum of each block of voxels.
+ * </p>
+ * <p>
+ * Each imported slice is read from a group of factorZ consecutive slices, so
+ * that blocks are reduced as the file is read and the full resolution stack
+ * is never held in memory. Incomplete blocks at the ROI's edges are dropped.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+class ISQRegion {
+
+	final String path;
+
+	/** Position of the first pixel in the file */
+	final long offset;
+
+	/** Size of the image in the file */
+	final int width, height;
+
+	final int startX, startY, startZ, widthROI, heightROI, nSlices;
+
+	/** Downsample 2x in x and y with bicubic interpolation */
+	final boolean downsample;
+
+	/** Block size for reduction */
+	final int factorX, factorY, factorZ;
+
+	/** Reduce blocks to their maximum rather than their mean */
+	final boolean max;
+
+	ISQRegion(String path, long offset, int width, int height, int startX,
+			int startY, int widthROI, int heightROI, int startZ, int nSlices,
+			boolean downsample, int[] factors, boolean max) {
+		this.path = path;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.startX = startX;
+		this.startY = startY;
+		this.widthROI = widthROI;
+		this.heightROI = heightROI;
+		this.startZ = startZ;
+		this.nSlices = nSlices;
+		this.downsample = downsample;
+		this.factorX = factors[0];
+		this.factorY = factors[1];
+		this.factorZ = factors[2];
+		this.max = max;
+	}
+
+	/** @return true if blocks of voxels are reduced to one */
+	boolean isReduced() {
+		return factorX * factorY * factorZ > 1;
+	}
+
+	/** @return {x, y, z} size of an imported voxel in file voxels */
+	int[] getScale() {
+		if (downsample) {
+			int[] scale = { 2, 2, 1 };
+			return scale;
+		}
+		int[] scale = { factorX, factorY, factorZ };
+		return scale;
+	}
+
+	/** @return width of the imported stack */
+	int getWidth() {
+		return downsample ? widthROI / 2 : widthROI / factorX;
+	}
+
+	/** @return height of the imported stack */
+	int getHeight() {
+		return downsample ? heightROI / 2 : heightROI / factorY;
+	}
+
+	/** @return number of slices in the imported stack */
+	int getDepth() {
+		return nSlices / factorZ;
+	}
+
+	/** @return length of the array needed by {@link #read} */
+	int getRawLength() {
+		return widthROI * heightROI * factorZ;
+	}
+
+	/**
+	 * @return true if a raw array can be reused once it is decoded, false if
+	 *         it becomes the decoded slice
+	 */
+	boolean isRawReusable() {
+		return downsample || isReduced();
+	}
+
+	/** @return a buffer for {@link #read} */
+	ByteBuffer newBuffer() {
+		return ISQReader.getRowBuffer(width, widthROI, heightROI);
+	}
+
+	/**
+	 * Read the file slices that make up an imported slice
+	 *
+	 * @param channel
+	 *            open channel of the ISQ file
+	 * @param buffer
+	 *            from {@link #newBuffer()}
+	 * @param n
+	 *            imported slice, from 0
+	 * @param raw
+	 *            array of {@link #getRawLength()} to fill with signed values
+	 * @return false if the end of the file was reached
+	 * @throws IOException
+	 */
+	boolean read(FileChannel channel, ByteBuffer buffer, int n, short[] raw)
+			throws IOException {
+		final long sliceBytes = (long) width * height * 2;
+		final int area = widthROI * heightROI;
+		for (int k = 0; k < factorZ; k++) {
+			final long sliceOffset = offset + (startZ + (long) n * factorZ + k)
+					* sliceBytes;
+			if (!ISQReader.readROI(channel, sliceOffset, width, startX,
+					startY, widthROI, heightROI, buffer, raw, k * area))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Make an imported slice from the signed values read by {@link #read}
+	 *
+	 * @param raw
+	 *            signed values, which may be modified
+	 * @return slice
+	 */
+	ImageProcessor decode(short[] raw) {
+		if (!isReduced())
+			return ISQReader.toProcessor(raw, widthROI, heightROI,
+					downsample);
+		return new ShortProcessor(getWidth(), getHeight(), reduce(raw), null);
+	}
+
+	/**
+	 * Convert a raw signed value as it is stored in the ISQ to the value it
+	 * takes in the imported image
+	 */
+	int toUnsigned(int value) {
+		return ISQReader.toUnsigned(value, downsample);
+	}
+
+	/**
+	 * Reduce each block of factorX &times; factorY &times; factorZ voxels to
+	 * their mean or maximum. Negative values are clipped to 0 first, as in
+	 * unreduced imports.
+	 */
+	private short[] reduce(short[] raw) {
+		final int w = getWidth();
+		final int h = getHeight();
+		final int area = widthROI * heightROI;
+		final int blockSize = factorX * factorY * factorZ;
+		short[] pixels = new short[w * h];
+		long[] row = new long[w];
+		for (int y = 0; y < h; y++) {
+			Arrays.fill(row, 0);
+			for (int k = 0; k < factorZ; k++) {
+				for (int j = 0; j < factorY; j++) {
+					final int rowStart = k * area + (y * factorY + j)
+							* widthROI;
+					for (int x = 0; x < w; x++) {
+						final int blockStart = rowStart + x * factorX;
+						long value = row[x];
+						for (int i = 0; i < factorX; i++) {
+							final int v = Math.max(0, raw[blockStart + i]);
+							if (max)
+								value = Math.max(value, v);
+							else
+								value += v;
+						}
+						row[x] = value;
+					}
+				}
+			}
+			final int rowOffset = y * w;
+			for (int x = 0; x < w; x++)
+				pixels[rowOffset + x] = (short) (max ? row[x]
+						: (row[x] + blockSize / 2) / blockSize);
+		}
+		return pixels;
+	}
+}
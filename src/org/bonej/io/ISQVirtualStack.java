@@ -0,0 +1,138 @@
+package org.bonej.io;
+
+/**
+ * ISQVirtualStack
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.IJ;
+import ij.process.ImageProcessor;
+
+/**
+ * <p>
+ * Virtual stack of a Scanco ISQ file, which reads and decodes slices from disk
+ * as they are requested, so that scans larger than memory can be opened
+ * instantly and browsed. Recently used slices are kept in a least recently
+ * used cache, bounded to an eighth of ImageJ's maximum memory.
+ * </p>
+ * <p>
+ * Slices' pixels are shared with the cache, so changes to them last only as
+ * long as the slice stays in the cache, unless they are set with
+ * {@link #setPixels(Object, int)}.
+ * </p>
+ *
+ * @author Michael Doube
+ * @see ISQReader#openScancoISQ(String, boolean, int, int, int, int, int, int,
+ *      boolean)
+ * @see ISQReader#openScancoISQ(String, int, int, int, int, int, int, int[],
+ *      boolean, boolean)
+ */
+public class ISQVirtualStack extends FileVirtualStack {
+
+	private final ISQRegion region;
+
+	/** Decoded slices' pixels by file slice, in order of use */
+	private final Map<Integer, short[]> cache;
+
+	ISQVirtualStack(ISQRegion region) {
+		super(region.getWidth(), region.getHeight(), region.getDepth(), 16,
+				new File(region.path).getParent());
+		this.region = region;
+		final int nSlices = region.getDepth();
+		final long sliceBytes = (long) getWidth() * getHeight() * 2;
+		final int capacity = (int) Math.max(2,
+				Math.min(nSlices, IJ.maxMemory() / 8 / sliceBytes));
+		this.cache = new LinkedHashMap<Integer, short[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, short[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Read and decode a slice's pixels, or get them from the cache
+	 */
+	protected Object readPixels(int source) throws IOException {
+		synchronized (cache) {
+			short[] pixels = cache.get(source);
+			if (pixels != null)
+				return pixels;
+		}
+		// decode outside the lock, so threads can read different slices
+		ImageProcessor ip = readSlice(source);
+		if (ip == null)
+			return null;
+		short[] pixels = (short[]) ip.getPixels();
+		synchronized (cache) {
+			cache.put(source, pixels);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Read a slice from disk. The file is opened for each read, so the stack
+	 * does not hold a file handle while it is not being used.
+	 */
+	private ImageProcessor readSlice(int source) throws IOException {
+		short[] pixels = new short[region.getRawLength()];
+		RandomAccessFile raf = new RandomAccessFile(region.path, "r");
+		try {
+			if (!region.read(raf.getChannel(), region.newBuffer(), source,
+					pixels))
+				return null;
+		} finally {
+			raf.close();
+		}
+		return region.decode(pixels);
+	}
+
+	protected String getSourceLabel(int source) {
+		return ISQReader.getSliceLabel(region.widthROI, region.heightROI,
+				source + 1);
+	}
+
+	/**
+	 * Estimate the stack's range of pixel values from evenly spaced slices
+	 *
+	 * @param nSamples
+	 *            maximum number of slices to read
+	 * @return {min, max}
+	 */
+	public double[] getSampledRange(int nSamples) {
+		final int nSlices = getSize();
+		nSamples = Math.max(1, Math.min(nSamples, nSlices));
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < nSamples; i++) {
+			final int n = 1 + (int) ((long) i * (nSlices - 1) / Math.max(1,
+					nSamples - 1));
+			ImageProcessor ip = getProcessor(n);
+			min = Math.min(min, ip.getMin());
+			max = Math.max(max, ip.getMax());
+		}
+		double[] range = { min, max };
+		return range;
+	}
+}
@@ -0,0 +1,89 @@
+package org.bonej.io;
+
+/**
+ * KontronIMGHeader
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The 128-byte header of a Kontron IMG file, read in one positional read and
+ * cached by path until the file changes.
+ *
+ * @author Michael Doube
+ */
+public class KontronIMGHeader {
+
+	/** Length of the header in bytes */
+	public static final int LENGTH = 128;
+
+	/** All IMG start with 01 00 47 12 6D B0 (hex view) */
+	private static final byte[] MAGIC = { 1, 0, 71, 18, 109, -80 };
+
+	private static final HeaderCache<KontronIMGHeader> CACHE = new HeaderCache<KontronIMGHeader>(
+			LENGTH) {
+		protected KontronIMGHeader parse(String path, ByteBuffer bytes) {
+			return new KontronIMGHeader(path, bytes);
+		}
+	};
+
+	private final String path;
+
+	private final boolean isIMG;
+
+	private final int width, height;
+
+	private KontronIMGHeader(String path, ByteBuffer bytes) {
+		this.path = path;
+		byte[] magic = new byte[MAGIC.length];
+		bytes.get(magic);
+		this.isIMG = Arrays.equals(magic, MAGIC);
+		this.width = bytes.getShort(6) & 0xffff;
+		this.height = bytes.getShort(8) & 0xffff;
+	}
+
+	/**
+	 * Get the header of an IMG file, from the cache if the file has not
+	 * changed since it was last read
+	 *
+	 * @param path
+	 * @return header
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static KontronIMGHeader get(String path) throws IOException {
+		return CACHE.get(path);
+	}
+
+	/** @return path of the file the header was read from */
+	public String getPath() {
+		return path;
+	}
+
+	/** @return true if the magic number identifies a Kontron IMG */
+	public boolean isIMG() {
+		return isIMG;
+	}
+
+	/** @return {x, y} image size in pixels */
+	public int[] getImageSize() {
+		int[] sizes = { width, height };
+		return sizes;
+	}
+}
@@ -10,7 +10,6 @@ import ij.process.ByteProcessor;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Arrays;
 
 import org.doube.util.UsageReporter;
 
@@ -44,11 +43,8 @@ import org.doube.util.UsageReporter;
  */
 public class KontronIMGReader implements PlugIn {
 
-	/** All IMG start with 01 00 47 12 6D B0 (hex view) */
-	private static final byte[] MAGIC = { 1, 0, 71, 18, 109, -80 };
-
 	/** 128-byte header */
-	private static final int HEADER_LENGTH = 128;
+	private static final int HEADER_LENGTH = KontronIMGHeader.LENGTH;
 
 	public void run(String arg) {
 
@@ -113,7 +109,8 @@ public class KontronIMGReader implements PlugIn {
 	 * @return true if the file is a Kontron IMG
 	 */
 	public boolean isKontronIMG(String path) {
-		return Arrays.equals(readBytes(path, 0, 6), MAGIC);
+		KontronIMGHeader header = getHeader(path);
+		return header != null && header.isIMG();
 	}
 
 	/**
@@ -123,8 +120,27 @@ public class KontronIMGReader implements PlugIn {
 	 * @return {x, y} image size in pixels
 	 */
 	public int[] getImageSize(String path) {
-		int[] sizes = { readShort(path, 6), readShort(path, 8) };
-		return sizes;
+		KontronIMGHeader header = getHeader(path);
+		if (header == null) {
+			int[] sizes = { -1, -1 };
+			return sizes;
+		}
+		return header.getImageSize();
+	}
+
+	/**
+	 * Get the cached header, reading it from disk only if the file has changed
+	 * 
+	 * @param path
+	 * @return header, or null if it could not be read
+	 */
+	private KontronIMGHeader getHeader(String path) {
+		try {
+			return KontronIMGHeader.get(path);
+		} catch (IOException e) {
+			IJ.handleException(e);
+		}
+		return null;
 	}
 
 	/**
@@ -154,20 +170,4 @@ public class KontronIMGReader implements PlugIn {
 		}
 		return null;
 	}
-
-	private int readShort(String path, int firstByte) {
-		if (path == null)
-			throw new IllegalArgumentException();
-		try {
-			File iFile = new File(path);
-			FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			int value = (p.read() + p.read() * 256);
-			p.close();
-			return value;
-		} catch (IOException e) {
-			IJ.handleException(e);
-		}
-		return -1;
-	}
 }
\ No newline at end of file
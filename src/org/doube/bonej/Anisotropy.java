@@ -21,6 +21,7 @@ package org.doube.bonej;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.process.ImageProcessor;
 import ij.plugin.PlugIn;
 import ij.gui.*;
@@ -52,6 +53,8 @@ import org.doube.jama.EigenvalueDecomposition;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
 import org.doube.util.Multithreader;
+import org.doube.util.PackedBinaryStack;
+import org.doube.util.RandomStream;
 import org.doube.util.ResultInserter;
 import org.doube.util.UsageReporter;
 
@@ -75,6 +78,31 @@ import org.doube.util.UsageReporter;
  */
 public class Anisotropy implements PlugIn, DialogListener {
 
+	/**
+	 * Source of random vectors and sphere positions; see
+	 * {@link #setRandomSeed(long)}. Each run splits off its own stream, whose
+	 * substream 0 gives the vectors and substream n the nth sphere's position,
+	 * so positions do not depend on how spheres are grouped into blocks or
+	 * threads.
+	 */
+	private RandomStream random = new RandomStream(0);
+
+	/**
+	 * Count intercepts by walking through every voxel crossed by each vector,
+	 * rather than by sampling at vectorSampling intervals
+	 */
+	private boolean doVoxelWalk = false;
+
+	/**
+	 * Number of sampling spheres counted concurrently by runToStableResult.
+	 * Counts are merged in sphere order, so the result does not depend on the
+	 * block size.
+	 */
+	private int spheresPerBlock = Prefs.getThreads();
+
+	/** Number of vectors counted by each task in voxel walk mode */
+	private static final int VECTORS_PER_TASK = 2048;
+
 	public void run(String arg) {
 		if (!ImageCheck.checkEnvironment()) {
 			return;
@@ -115,10 +143,13 @@ public class Anisotropy implements PlugIn, DialogListener {
 		gd.addNumericField("Min_Spheres", 100, 0, 5, "");
 		gd.addNumericField("Max_Spheres", 2000, 0, 5, "");
 		gd.addNumericField("Tolerance", 0.005, 4, 6, "");
+		gd.addNumericField("Random_seed", 0, 0, 12, "");
+		gd.addNumericField("Spheres_per_block", spheresPerBlock, 0, 4, "");
 		gd.addCheckbox("Show_Plot", true);
 		gd.addCheckbox("3D_Result", false);
 		gd.addCheckbox("Align to fabric tensor", false);
 		gd.addCheckbox("Record_Eigens", false);
+		gd.addCheckbox("Voxel_walk", doVoxelWalk);
 		gd.addHelp("http://bonej.org/anisotropy");
 		gd.addDialogListener(this);
 		gd.showDialog();
@@ -133,10 +164,13 @@ public class Anisotropy implements PlugIn, DialogListener {
 		final int minSpheres = (int) gd.getNextNumber();
 		final int maxSpheres = (int) gd.getNextNumber();
 		final double tolerance = gd.getNextNumber();
+		setRandomSeed((long) gd.getNextNumber());
+		setSpheresPerBlock((int) gd.getNextNumber());
 		final boolean doPlot = gd.getNextBoolean();
 		final boolean do3DResult = gd.getNextBoolean();
 		final boolean doAlign = gd.getNextBoolean();
 		final boolean doEigens = gd.getNextBoolean();
+		doVoxelWalk = gd.getNextBoolean();
 
 		Object[] result = new Object[3];
 		if (doAutoMode && !doSingleSphere)
@@ -188,6 +222,44 @@ public class Anisotropy implements PlugIn, DialogListener {
 		return;
 	}
 
+	/**
+	 * Reset the random number generator with a new seed. Subsequent calls to
+	 * {@link #runToStableResult} use the same vectors and sphere positions for
+	 * the same seed, whatever the number of threads, so their results are
+	 * repeatable.
+	 * 
+	 * @param seed
+	 */
+	public void setRandomSeed(long seed) {
+		random = new RandomStream(seed);
+	}
+
+	/**
+	 * Choose how intercepts are counted. In voxel walk mode every voxel
+	 * crossed by a vector is tested exactly once and vectorSampling is
+	 * ignored; otherwise vectors are sampled at vectorSampling intervals.
+	 * 
+	 * @param voxelWalk
+	 *            true to walk voxels, false to sample at intervals
+	 */
+	public void setVoxelWalk(boolean voxelWalk) {
+		this.doVoxelWalk = voxelWalk;
+	}
+
+	/**
+	 * Set the number of sampling spheres which {@link #runToStableResult}
+	 * counts concurrently. Spheres are still added to the result one at a
+	 * time and the stopping rule is tested after each, so the result is the
+	 * same as for a block size of 1; a few spheres beyond the stopping point
+	 * may be counted and discarded.
+	 * 
+	 * @param nSpheres
+	 *            spheres per block, at least 1
+	 */
+	public void setSpheresPerBlock(int nSpheres) {
+		this.spheresPerBlock = Math.max(1, nSpheres);
+	}
+
 	/**
 	 * Calculate degree of anisotropy for a binary stack, running until a stable
 	 * result is achieved, or the maximum number of iterations occurs.
@@ -220,12 +292,15 @@ public class Anisotropy implements PlugIn, DialogListener {
 			double tolerance, boolean doPlot) {
 		final int minIterations = minSpheres;
 		final int maxIterations = maxSpheres;
-		final double[][] vectorList = Vectors.randomVectors(nVectors);
+		final RandomStream run = random.split();
+		final double[][] vectorList = Vectors.randomVectors(nVectors,
+				run.substream(0));
 		double variance = Double.NaN;
 		double anisotropy = Double.NaN;
 		double[][] centroidList = new double[1][3];
-		double[] centroid = new double[3];
 		double[] interceptCounts = new double[nVectors];
+		double[][] blockCounts = new double[0][];
+		int blockIndex = 0;
 		double[] sumInterceptCounts = new double[nVectors];
 		double[][] coOrdinates = new double[nVectors][3];
 		ImagePlus plotImage = new ImagePlus();
@@ -242,21 +317,34 @@ public class Anisotropy implements PlugIn, DialogListener {
 		double[][] emptyArray = new double[3][3];
 		Matrix emptyMatrix = new Matrix(emptyArray);
 		EigenvalueDecomposition E = new EigenvalueDecomposition(emptyMatrix);
+		final PackedBinaryStack volume = doVoxelWalk ? new PackedBinaryStack(
+				imp.getImageStack()) : null;
 		int s = 0;
 		while (s < minIterations
 				|| (s >= minIterations && s < maxIterations && variance > tolerance)) {
 			s++;
-			// return a single centroid within the bounds
-			centroidList = gridCalculator(imp, 1, radius);
-			// count intercepts at centroid
-			centroid[0] = centroidList[0][0];
-			centroid[1] = centroidList[0][1];
-			centroid[2] = centroidList[0][2];
-			IJ.showStatus("Counting intercepts at site " + s
-					+ ", anisotropy = " + IJ.d2s(anisotropy, 5) + ", CV = "
-					+ IJ.d2s(variance, 3));
-			interceptCounts = countIntercepts(imp, centroid, vectorList,
-					nVectors, radius, vectorSampling);
+			if (blockIndex == blockCounts.length) {
+				// count a block of spheres, no more than can be used
+				final int nSpheres = Math.min(spheresPerBlock,
+						Math.max(minIterations, maxIterations) - s + 1);
+				// return centroids within the bounds, in the same sequence
+				// as if they were generated one at a time
+				centroidList = gridCalculator(imp, s, nSpheres, radius, run);
+				IJ.showStatus("Counting intercepts at sites " + s + "-"
+						+ (s + nSpheres - 1) + ", anisotropy = "
+						+ IJ.d2s(anisotropy, 5) + ", CV = "
+						+ IJ.d2s(variance, 3));
+				if (doVoxelWalk)
+					blockCounts = countIntercepts(volume,
+							imp.getCalibration(), centroidList, vectorList,
+							nVectors, radius);
+				else
+					blockCounts = countIntercepts(imp, centroidList,
+							vectorList, nVectors, radius, vectorSampling);
+				blockIndex = 0;
+			}
+			// merge counts in sphere order
+			interceptCounts = blockCounts[blockIndex++];
 
 			// add intercepts to vectors
 			for (int i = 0; i < nVectors; i++) {
@@ -330,8 +418,15 @@ public class Anisotropy implements PlugIn, DialogListener {
 
 		double[][] vectorList = Vectors.regularVectors(nVectors);
 		double[] interceptCounts;
-		interceptCounts = countIntercepts(imp, centroid, vectorList, nVectors,
-				radius, vectorSampling);
+		if (doVoxelWalk) {
+			PackedBinaryStack volume = new PackedBinaryStack(
+					imp.getImageStack());
+			double[][] centroids = { centroid };
+			interceptCounts = countIntercepts(volume, imp.getCalibration(),
+					centroids, vectorList, nVectors, radius)[0];
+		} else
+			interceptCounts = countIntercepts(imp, centroid, vectorList,
+					nVectors, radius, vectorSampling);
 		double[] meanInterceptLengths = new double[nVectors];
 		for (int v = 0; v < nVectors; v++) {
 			if (interceptCounts[v] == 0)
@@ -441,14 +536,18 @@ public class Anisotropy implements PlugIn, DialogListener {
 	 * 
 	 * @param imp
 	 *            ImagePlus
+	 * @param first
+	 *            number of the first sphere, from 1
 	 * @param nCentroids
 	 *            Number of centroids to generate
 	 * @param radius
 	 *            amount of padding between stack edges and centroid field
+	 * @param run
+	 *            stream of the run, whose substream n positions sphere n
 	 * @return nCentroids x 3 array of 3D coordinates
 	 */
-	private double[][] gridCalculator(final ImagePlus imp,
-			final int nCentroids, final double radius) {
+	private double[][] gridCalculator(final ImagePlus imp, final int first,
+			final int nCentroids, final double radius, final RandomStream run) {
 		Calibration cal = imp.getCalibration();
 		final double vW = cal.pixelWidth;
 		final double vH = cal.pixelHeight;
@@ -462,11 +561,12 @@ public class Anisotropy implements PlugIn, DialogListener {
 		// strategy: n random coordinates within bounding box (easy, no bias.)
 		double[][] gridCentroids = new double[nCentroids][3];
 		for (int n = 0; n < nCentroids; n++) {
-			gridCentroids[n][0] = Math.random()
+			final RandomStream sphere = run.substream(first + n);
+			gridCentroids[n][0] = sphere.nextDouble()
 					* (stackWidth - 2 * radius - 2 * vW) + radius;
-			gridCentroids[n][1] = Math.random()
+			gridCentroids[n][1] = sphere.nextDouble()
 					* (stackHeight - 2 * radius - 2 * vH) + radius;
-			gridCentroids[n][2] = Math.random()
+			gridCentroids[n][2] = sphere.nextDouble()
 					* (stackDepth - 2 * radius - 2 * vD) + radius;
 		}
 		// alternative: n regularly-spaced coordinates fitting
@@ -506,73 +606,14 @@ public class Anisotropy implements PlugIn, DialogListener {
 			final double[][] vectorList, final int nVectors,
 			final double radius, final double vectorSampling)
 			throws IllegalArgumentException {
-		Calibration cal = imp.getCalibration();
-		final double vW = cal.pixelWidth;
-		final double vH = cal.pixelHeight;
-		final double vD = cal.pixelDepth;
-
-		final double cX = centroid[0];
-		final double cY = centroid[1];
-		final double cZ = centroid[2];
-
-		final int width = imp.getWidth();
-		final int height = imp.getHeight();
-		final int depth = imp.getImageStackSize();
-
-		// if centroid is < radius from the sides of the image, throw exception
-		if (cX < radius || cY < radius || cZ < radius
-				|| cX > width * vW - radius || cY > height * vH - radius
-				|| cZ > depth * vD - radius)
-			throw new IllegalArgumentException("Centroid < radius from sides");
-
-		// create a work array containing pixels +- 1 radius from centroid
-		final int w = (int) Math.round(radius / vW);
-		final int h = (int) Math.round(radius / vH);
-		final int d = (int) Math.round(radius / vD);
-		final byte[] workArray = new byte[(2 * w + 1) * (2 * h + 1)
-				* (2 * d + 1)];
-
-		final int startCol = (int) Math.round(cX / vW) - w;
-		final int endCol = (int) Math.round(cX / vW) + w;
-		final int startRow = (int) Math.round(cY / vH) - h;
-		final int endRow = (int) Math.round(cY / vH) + h;
-		final int startSlice = (int) Math.round(cZ / vD) - d;
-		final int endSlice = (int) Math.round(cZ / vD) + d;
-
-		final ImageStack stack = imp.getImageStack();
-		// fill the work array
-		int i = 0;
-		for (int s = startSlice; s <= endSlice; s++) {
-			final byte[] slicePixels = (byte[]) stack.getPixels(s + 1);
-			for (int r = startRow; r <= endRow; r++) {
-				final int index = width * r;
-				for (int c = startCol; c <= endCol; c++) {
-					workArray[i] = slicePixels[index + c];
-					i++;
-				}
-			}
-		}
-
-		// centroid position in workArray is at (w+1, h+1, d+1), subtract one
-		// for starting at 0.
-		final int a = (2 * w + 1);
-		final int b = a * (2 * h + 1);
-
-		final int wVz = b * d;
-		final int wVy = a * h;
-		final int wVx = w;
-		final int centroidIndex = wVz + wVy + wVx;
+		final SamplingSphere sphere = new SamplingSphere(imp, centroid, radius,
+				vectorSampling);
 
 		// store an intercept count for each vector
 		final double[] interceptCounts = new double[nVectors];
 
 		// loop through all vectors
 		// start multithreading here - each thread samples a set of vectors
-		final double radVw = -radius / vW;
-		final double radVh = -radius / vH;
-		final double radVd = -radius / vD;
-
-		// new multithread pattern
 		final AtomicInteger ai = new AtomicInteger(0);
 		Thread[] threads = Multithreader.newThreads();
 		for (int thread = 0; thread < threads.length; thread++) {
@@ -580,60 +621,265 @@ public class Anisotropy implements PlugIn, DialogListener {
 				public void run() {
 					for (int v = ai.getAndIncrement(); v < nVectors; v = ai
 							.getAndIncrement()) {
-						double nIntercepts = 0;
-						final double vX = vectorList[v][0];
-						final double vY = vectorList[v][1];
-						final double vZ = vectorList[v][2];
-
-						// start at negative end of vector
-						final int xS = (int) Math.round(radVw * vX);
-						final int yS = (int) Math.round(radVh * vY);
-						final int zS = (int) Math.round(radVd * vZ);
-
-						final int startIndex = centroidIndex + b * zS + a * yS
-								+ xS;
-						boolean lastPos, thisPos;
-						if (workArray[startIndex] == 0) {
-							lastPos = true;
-						} else {
-							lastPos = false;
-						}
+						interceptCounts[v] = sphere.countIntercepts(
+								vectorList[v][0], vectorList[v][1],
+								vectorList[v][2]);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return interceptCounts;
+	}/* end meanInterceptLengths */
+
+	/**
+	 * Counts intercepts by sampling at vectorSampling intervals for several
+	 * sampling spheres concurrently. Each thread samples all the vectors of
+	 * one sphere at a time, so there is a single thread start and join per
+	 * block of spheres rather than per sphere. A single sphere is sampled with
+	 * its vectors divided between threads.
+	 * 
+	 * @param imp
+	 * @param centroids
+	 *            n x 3 array of calibrated sphere centroids
+	 * @param vectorList
+	 *            array containing unit vectors
+	 * @param nVectors
+	 *            number of vectors in each set
+	 * @param radius
+	 *            length of vectors
+	 * @param vectorSampling
+	 *            distance between tests along each vector
+	 * @return n x nVectors array containing a count of intercepts for each
+	 *         sphere and vector
+	 * @throws IllegalArgumentException
+	 *             if a centroid is < radius from the sides of the image
+	 */
+	private double[][] countIntercepts(final ImagePlus imp,
+			final double[][] centroids, final double[][] vectorList,
+			final int nVectors, final double radius,
+			final double vectorSampling) throws IllegalArgumentException {
+		final int nSpheres = centroids.length;
+		final double[][] interceptCounts = new double[nSpheres][];
+		if (nSpheres == 1) {
+			interceptCounts[0] = countIntercepts(imp, centroids[0],
+					vectorList, nVectors, radius, vectorSampling);
+			return interceptCounts;
+		}
+		final SamplingSphere[] spheres = new SamplingSphere[nSpheres];
+		for (int i = 0; i < nSpheres; i++)
+			spheres[i] = new SamplingSphere(imp, centroids[i], radius,
+					vectorSampling);
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < nSpheres; i = ai
+							.getAndIncrement()) {
+						final SamplingSphere sphere = spheres[i];
+						final double[] counts = new double[nVectors];
+						for (int v = 0; v < nVectors; v++)
+							counts[v] = sphere.countIntercepts(
+									vectorList[v][0], vectorList[v][1],
+									vectorList[v][2]);
+						interceptCounts[i] = counts;
+						// release the work array as soon as it is done with
+						spheres[i] = null;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return interceptCounts;
+	}
 
-						final double vXvW = vX / vW;
-						final double vYvH = vY / vH;
-						final double vZvD = vZ / vD;
-
-						for (double pos = -radius; pos <= radius; pos += vectorSampling) {
-							// find the index of the voxel that the sample falls
-							// within offset from centroid
-							final int x = (int) Math.round(pos * vXvW);
-							final int y = (int) Math.round(pos * vYvH);
-							final int z = (int) Math.round(pos * vZvD);
-							final int testIndex = centroidIndex + b * z + a * y
-									+ x;
-							// determine if the voxel is thresholded or not
-							if (workArray[testIndex] == 0) {
-								thisPos = true;
-							} else {
-								thisPos = false;
-							}
-							// if this pos is not equal to last pos then an
-							// interface is counted
-							if (thisPos != lastPos) {
-								nIntercepts++;
-							}
-							// then before incrementing the for loop, set
-							// lastPos to thisPos
-							lastPos = thisPos;
+	/*------------------------------------------------------*/
+	/**
+	 * <p>
+	 * Counts the number of intercepts between each vector in a set of vectors
+	 * and a binary 3D image, for several sampling spheres at once. Each vector
+	 * is traced through the voxel grid with a 3D digital differential analyser,
+	 * so that every voxel it crosses is tested exactly once, whatever its
+	 * direction.
+	 * </p>
+	 * <p>
+	 * Pixels are read directly from the packed volume, which is shared between
+	 * threads. Work is divided into tasks of up to {@value #VECTORS_PER_TASK}
+	 * vectors of one sphere, so that all cores are busy whether there are
+	 * many spheres with few vectors or a single sphere with many.
+	 * </p>
+	 * 
+	 * @see <p>
+	 *      Amanatides J, Woo A (1987) A fast voxel traversal algorithm for ray
+	 *      tracing. Eurographics '87 pp. 3-10.
+	 *      </p>
+	 * 
+	 * @param volume
+	 *            packed foreground of the image
+	 * @param cal
+	 *            image calibration
+	 * @param centroids
+	 *            n x 3 array of calibrated sphere centroids
+	 * @param vectorList
+	 *            array containing unit vectors
+	 * @param nVectors
+	 *            number of vectors in each set
+	 * @param radius
+	 *            length of vectors
+	 * @return n x nVectors array containing a count of intercepts for each
+	 *         sphere and vector
+	 * @throws IllegalArgumentException
+	 *             if a centroid is < radius from the sides of the image
+	 */
+	private double[][] countIntercepts(final PackedBinaryStack volume,
+			Calibration cal, final double[][] centroids,
+			final double[][] vectorList, final int nVectors,
+			final double radius) throws IllegalArgumentException {
+		final double vW = cal.pixelWidth;
+		final double vH = cal.pixelHeight;
+		final double vD = cal.pixelDepth;
+		final int nSpheres = centroids.length;
+		for (double[] c : centroids) {
+			if (c[0] < radius || c[1] < radius || c[2] < radius
+					|| c[0] > volume.getWidth() * vW - radius
+					|| c[1] > volume.getHeight() * vH - radius
+					|| c[2] > volume.getDepth() * vD - radius)
+				throw new IllegalArgumentException(
+						"Centroid < radius from sides");
+		}
+
+		final double[][] interceptCounts = new double[nSpheres][nVectors];
+		final int tasksPerSphere = (nVectors + VECTORS_PER_TASK - 1)
+				/ VECTORS_PER_TASK;
+		final int nTasks = nSpheres * tasksPerSphere;
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int t = ai.getAndIncrement(); t < nTasks; t = ai
+							.getAndIncrement()) {
+						final int sphere = t / tasksPerSphere;
+						final int start = (t % tasksPerSphere)
+								* VECTORS_PER_TASK;
+						final int end = Math.min(start + VECTORS_PER_TASK,
+								nVectors);
+						final double[] c = centroids[sphere];
+						final double[] counts = interceptCounts[sphere];
+						for (int v = start; v < end; v++) {
+							final double vX = vectorList[v][0];
+							final double vY = vectorList[v][1];
+							final double vZ = vectorList[v][2];
+							// start at negative end of vector
+							counts[v] = walkIntercepts(volume,
+									(c[0] - radius * vX) / vW,
+									(c[1] - radius * vY) / vH,
+									(c[2] - radius * vZ) / vD, vX / vW, vY
+											/ vH, vZ / vD, 2 * radius);
 						}
-						interceptCounts[v] = nIntercepts;
 					}
 				}
 			});
 		}
 		Multithreader.startAndJoin(threads);
 		return interceptCounts;
-	}/* end meanInterceptLengths */
+	}
+
+	/**
+	 * Count the foreground-background transitions along a line segment by
+	 * visiting each voxel it passes through in order. Voxel centres lie at
+	 * integer coordinates, and voxels outside the stack are treated as
+	 * background.
+	 * 
+	 * @param volume
+	 *            packed foreground
+	 * @param x0
+	 *            start x in pixel units
+	 * @param y0
+	 *            start y in pixel units
+	 * @param z0
+	 *            start z in slice units, 0-based
+	 * @param dX
+	 *            x component of direction, in pixels per unit length
+	 * @param dY
+	 *            y component of direction, in pixels per unit length
+	 * @param dZ
+	 *            z component of direction, in slices per unit length
+	 * @param length
+	 *            length of the segment in calibrated units
+	 * @return number of intercepts
+	 */
+	static int walkIntercepts(final PackedBinaryStack volume, double x0,
+			double y0, double z0, final double dX, final double dY,
+			final double dZ, final double length) {
+		// shift so that voxel boundaries lie at integers
+		x0 += 0.5;
+		y0 += 0.5;
+		z0 += 0.5;
+		int x = (int) Math.floor(x0);
+		int y = (int) Math.floor(y0);
+		int z = (int) Math.floor(z0);
+		final int stepX = dX > 0 ? 1 : -1;
+		final int stepY = dY > 0 ? 1 : -1;
+		final int stepZ = dZ > 0 ? 1 : -1;
+		final double tDeltaX = dX == 0 ? Double.POSITIVE_INFINITY : Math
+				.abs(1 / dX);
+		final double tDeltaY = dY == 0 ? Double.POSITIVE_INFINITY : Math
+				.abs(1 / dY);
+		final double tDeltaZ = dZ == 0 ? Double.POSITIVE_INFINITY : Math
+				.abs(1 / dZ);
+		// distance along the segment to the first boundary on each axis
+		double tMaxX = dX == 0 ? Double.POSITIVE_INFINITY
+				: ((dX > 0 ? x + 1 : x) - x0) / dX;
+		double tMaxY = dY == 0 ? Double.POSITIVE_INFINITY
+				: ((dY > 0 ? y + 1 : y) - y0) / dY;
+		double tMaxZ = dZ == 0 ? Double.POSITIVE_INFINITY
+				: ((dZ > 0 ? z + 1 : z) - z0) / dZ;
+
+		// voxels visited lie between the end voxels, so bounds need checking
+		// on each step only if an end is near the edge of the stack. One
+		// voxel of margin allows for rounding error in tMax.
+		final boolean inside = isInterior(volume, x, y, z)
+				&& isInterior(volume, (int) Math.floor(x0 + dX * length),
+						(int) Math.floor(y0 + dY * length),
+						(int) Math.floor(z0 + dZ * length));
+
+		boolean lastPos = volume.isInBounds(x, y, z)
+				&& volume.isForeground(x, y, z);
+		int nIntercepts = 0;
+		while (true) {
+			if (tMaxX <= tMaxY && tMaxX <= tMaxZ) {
+				if (tMaxX > length)
+					break;
+				x += stepX;
+				tMaxX += tDeltaX;
+			} else if (tMaxY <= tMaxZ) {
+				if (tMaxY > length)
+					break;
+				y += stepY;
+				tMaxY += tDeltaY;
+			} else {
+				if (tMaxZ > length)
+					break;
+				z += stepZ;
+				tMaxZ += tDeltaZ;
+			}
+			final boolean thisPos = (inside || volume.isInBounds(x, y, z))
+					&& volume.isForeground(x, y, z);
+			if (thisPos != lastPos)
+				nIntercepts++;
+			lastPos = thisPos;
+		}
+		return nIntercepts;
+	}
+
+	private static boolean isInterior(PackedBinaryStack volume, int x, int y,
+			int z) {
+		return x > 0 && y > 0 && z > 0 && x < volume.getWidth() - 1
+				&& y < volume.getHeight() - 1 && z < volume.getDepth() - 1;
+	}
 
 	/*--------------------------------------------------------------------------*/
 	/**
@@ -736,7 +982,7 @@ public class Anisotropy implements PlugIn, DialogListener {
 		try {
 			ellipsoid = FitEllipsoid.yuryPetrov(coOrdinates);
 		} catch (RuntimeException re) {
-			da = Math.random();
+			da = random.nextDouble();
 		}
 		double[] coEf = (double[]) ellipsoid[3];
 		double[][] tensor = { { coEf[0], coEf[3], coEf[4] },
@@ -762,8 +1008,10 @@ public class Anisotropy implements PlugIn, DialogListener {
 		Checkbox autoModeBox = (Checkbox) checkboxes.get(0);
 		Checkbox singleSphereBox = (Checkbox) checkboxes.get(1);
 		Checkbox showPlotBox = (Checkbox) checkboxes.get(2);
+		Checkbox voxelWalkBox = (Checkbox) checkboxes.get(6);
 
 		TextField radiusField = (TextField) nFields.get(0);
+		TextField samplingField = (TextField) nFields.get(2);
 		TextField minSpheresField = (TextField) nFields.get(3);
 		TextField maxSpheresField = (TextField) nFields.get(4);
 		TextField toleranceField = (TextField) nFields.get(5);
@@ -783,8 +1031,153 @@ public class Anisotropy implements PlugIn, DialogListener {
 			maxSpheresField.setEnabled(true);
 			toleranceField.setEnabled(true);
 		}
+		samplingField.setEnabled(!voxelWalkBox.getState());
 		DialogModifier.registerMacroValues(gd, gd.getComponents());
 		return true;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Copy of the pixels within one radius of a sampling sphere's centroid,
+	 * sampled at regular intervals along each vector
+	 */
+	private static class SamplingSphere {
+
+		private final byte[] workArray;
+
+		/** row and slice lengths of the work array */
+		private final int a, b;
+
+		/** index of the centroid in the work array */
+		private final int centroidIndex;
+
+		private final double vW, vH, vD, radius, vectorSampling;
+
+		/**
+		 * Fill a work array with the pixels +- 1 radius from the centroid
+		 * 
+		 * @param imp
+		 * @param centroid
+		 *            3-element array containing calibrated 3D centroid
+		 *            location
+		 * @param radius
+		 * @param vectorSampling
+		 * @throws IllegalArgumentException
+		 *             if the centroid is < radius from the sides of the image
+		 */
+		SamplingSphere(ImagePlus imp, double[] centroid, double radius,
+				double vectorSampling) throws IllegalArgumentException {
+			Calibration cal = imp.getCalibration();
+			this.vW = cal.pixelWidth;
+			this.vH = cal.pixelHeight;
+			this.vD = cal.pixelDepth;
+			this.radius = radius;
+			this.vectorSampling = vectorSampling;
+
+			final double cX = centroid[0];
+			final double cY = centroid[1];
+			final double cZ = centroid[2];
+
+			final int width = imp.getWidth();
+			final int height = imp.getHeight();
+			final int depth = imp.getImageStackSize();
+
+			// if centroid is < radius from the sides of the image, throw
+			// exception
+			if (cX < radius || cY < radius || cZ < radius
+					|| cX > width * vW - radius || cY > height * vH - radius
+					|| cZ > depth * vD - radius)
+				throw new IllegalArgumentException(
+						"Centroid < radius from sides");
+
+			// create a work array containing pixels +- 1 radius from centroid
+			final int w = (int) Math.round(radius / vW);
+			final int h = (int) Math.round(radius / vH);
+			final int d = (int) Math.round(radius / vD);
+			workArray = new byte[(2 * w + 1) * (2 * h + 1) * (2 * d + 1)];
+
+			final int startCol = (int) Math.round(cX / vW) - w;
+			final int endCol = (int) Math.round(cX / vW) + w;
+			final int startRow = (int) Math.round(cY / vH) - h;
+			final int endRow = (int) Math.round(cY / vH) + h;
+			final int startSlice = (int) Math.round(cZ / vD) - d;
+			final int endSlice = (int) Math.round(cZ / vD) + d;
+
+			final ImageStack stack = imp.getImageStack();
+			// fill the work array
+			int i = 0;
+			for (int s = startSlice; s <= endSlice; s++) {
+				final byte[] slicePixels = (byte[]) stack.getPixels(s + 1);
+				for (int r = startRow; r <= endRow; r++) {
+					final int index = width * r;
+					for (int c = startCol; c <= endCol; c++) {
+						workArray[i] = slicePixels[index + c];
+						i++;
+					}
+				}
+			}
+
+			// centroid position in workArray is at (w+1, h+1, d+1), subtract
+			// one for starting at 0.
+			a = (2 * w + 1);
+			b = a * (2 * h + 1);
+			centroidIndex = b * d + a * h + w;
+		}
+
+		/**
+		 * Count the intercepts along one vector through the centroid
+		 * 
+		 * @param vX
+		 *            x component of unit vector
+		 * @param vY
+		 *            y component of unit vector
+		 * @param vZ
+		 *            z component of unit vector
+		 * @return number of intercepts
+		 */
+		double countIntercepts(final double vX, final double vY,
+				final double vZ) {
+			double nIntercepts = 0;
+
+			// start at negative end of vector
+			final int xS = (int) Math.round(-radius / vW * vX);
+			final int yS = (int) Math.round(-radius / vH * vY);
+			final int zS = (int) Math.round(-radius / vD * vZ);
+
+			final int startIndex = centroidIndex + b * zS + a * yS + xS;
+			boolean lastPos, thisPos;
+			if (workArray[startIndex] == 0) {
+				lastPos = true;
+			} else {
+				lastPos = false;
+			}
+
+			final double vXvW = vX / vW;
+			final double vYvH = vY / vH;
+			final double vZvD = vZ / vD;
+
+			for (double pos = -radius; pos <= radius; pos += vectorSampling) {
+				// find the index of the voxel that the sample falls
+				// within offset from centroid
+				final int x = (int) Math.round(pos * vXvW);
+				final int y = (int) Math.round(pos * vYvH);
+				final int z = (int) Math.round(pos * vZvD);
+				final int testIndex = centroidIndex + b * z + a * y + x;
+				// determine if the voxel is thresholded or not
+				if (workArray[testIndex] == 0) {
+					thisPos = true;
+				} else {
+					thisPos = false;
+				}
+				// if this pos is not equal to last pos then an
+				// interface is counted
+				if (thisPos != lastPos) {
+					nIntercepts++;
+				}
+				// then before incrementing the for loop, set
+				// lastPos to thisPos
+				lastPos = thisPos;
+			}
+			return nIntercepts;
+		}
+	}
+}
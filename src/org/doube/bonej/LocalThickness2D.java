@@ -0,0 +1,355 @@
+package org.doube.bonej;
+
+/**
+ * LocalThickness2D
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * <p>
+ * Local thickness of a single binary slice, following the same steps as
+ * {@link Thickness}: Euclidean distance transform, distance ridge, painting the
+ * largest disc containing each pixel, and cleaning up the boundary pixels. The
+ * result is the same as running Thickness on a one-slice stack, without the
+ * per-slice stacks, ImagePlus wrappers and thread pools.
+ * </p>
+ * <p>
+ * All working arrays are allocated once, when the instance is created, and
+ * reused for each slice, so an instance should be created for each thread and
+ * used to process many slices. The distance transform is done by a row scan
+ * followed by a lower envelope of parabolae down each column, which is linear
+ * in the number of pixels.
+ * </p>
+ *
+ * @see <p>
+ *      Hildebrand T, Rüegsegger P (1997) A new method for the model-independent
+ *      assessment of thickness in three-dimensional images. J Microsc 185:
+ *      67-75. <a
+ *      href="http://dx.doi.org/10.1046/j.1365-2818.1997.1340694.x">doi
+ *      :10.1046/j.1365-2818.1997.1340694.x</a>
+ *      </p>
+ *
+ *      <p>
+ *      Felzenszwalb PF, Huttenlocher DP (2012) Distance transforms of sampled
+ *      functions. Theory Comput 8: 415-428. <a
+ *      href="http://dx.doi.org/10.4086/toc.2012.v008a019"
+ *      >doi:10.4086/toc.2012.v008a019</a>
+ *      </p>
+ *
+ * @author Michael Doube
+ */
+public class LocalThickness2D {
+
+	/** Neighbour offsets, in the order Thickness averages them */
+	private static final int[] DI = { 0, 0, -1, 1, 1, 1, -1, -1 };
+
+	private static final int[] DJ = { -1, 1, 0, 0, -1, 1, -1, 1 };
+
+	private final int w, h;
+
+	/** Squared distance to the value used where no background is found */
+	private final int noResult;
+
+	/** Squared distance map */
+	private final int[] distSq;
+
+	/** Squared radius of the largest disc containing each pixel */
+	private final int[] thickSq;
+
+	/** Uncleaned local thickness */
+	private final float[] thick;
+
+	/** Cleaned and calibrated local thickness, returned to the caller */
+	private final float[] result;
+
+	/** Column work arrays for the lower envelope */
+	private final int[] f, v;
+
+	private final double[] z;
+
+	/**
+	 * Ridge templates for edge and diagonal neighbours, indexed by squared
+	 * radius, calculated as radii are encountered; 0 if not yet calculated
+	 */
+	private int[] edgeTemplate = new int[0], diagonalTemplate = new int[0];
+
+	/**
+	 * Create a thickness engine for slices of a given size
+	 *
+	 * @param width
+	 *            slice width
+	 * @param height
+	 *            slice height
+	 */
+	public LocalThickness2D(int width, int height) {
+		this.w = width;
+		this.h = height;
+		final int n = Math.max(width, height);
+		this.noResult = 3 * (n + 1) * (n + 1);
+		this.distSq = new int[w * h];
+		this.thickSq = new int[w * h];
+		this.thick = new float[w * h];
+		this.result = new float[w * h];
+		this.f = new int[h];
+		this.v = new int[h];
+		this.z = new double[h + 1];
+	}
+
+	/**
+	 * Calculate the local thickness map of a binary slice
+	 *
+	 * @param binary
+	 *            slice pixels, foreground &gt;= 128
+	 * @param pixelWidth
+	 *            calibration factor for thickness values
+	 * @param doMask
+	 *            if true, set thickness to 0 where there is no foreground,
+	 *            trimming the 1 pixel overhang of the thickness map
+	 * @return local thickness map in calibrated units. The array is reused by
+	 *         the next call.
+	 */
+	public float[] getLocalThickness(byte[] binary, double pixelWidth,
+			boolean doMask) {
+		distanceTransform(binary);
+		paintRidgeDiscs(binary);
+		cleanUp(pixelWidth);
+		if (doMask) {
+			for (int i = 0; i < w * h; i++)
+				if ((binary[i] & 255) < 128)
+					result[i] = 0;
+		}
+		return result;
+	}
+
+	/**
+	 * Squared Euclidean distance from each foreground pixel to the nearest
+	 * background pixel; 0 in the background
+	 */
+	private void distanceTransform(byte[] binary) {
+		// distance along each row
+		for (int y = 0; y < h; y++) {
+			final int offset = y * w;
+			int last = -1;
+			for (int x = 0; x < w; x++) {
+				if ((binary[offset + x] & 255) < 128)
+					last = x;
+				distSq[offset + x] = last < 0 ? noResult : (x - last)
+						* (x - last);
+			}
+			last = -1;
+			for (int x = w - 1; x >= 0; x--) {
+				if ((binary[offset + x] & 255) < 128)
+					last = x;
+				if (last >= 0) {
+					final int d = (last - x) * (last - x);
+					if (d < distSq[offset + x])
+						distSq[offset + x] = d;
+				}
+			}
+		}
+		// lower envelope of parabolae down each column
+		for (int x = 0; x < w; x++) {
+			for (int y = 0; y < h; y++)
+				f[y] = distSq[y * w + x];
+			int k = 0;
+			v[0] = 0;
+			z[0] = Double.NEGATIVE_INFINITY;
+			z[1] = Double.POSITIVE_INFINITY;
+			for (int q = 1; q < h; q++) {
+				double s = intersection(q, v[k]);
+				while (s <= z[k]) {
+					k--;
+					s = intersection(q, v[k]);
+				}
+				k++;
+				v[k] = q;
+				z[k] = s;
+				z[k + 1] = Double.POSITIVE_INFINITY;
+			}
+			k = 0;
+			for (int y = 0; y < h; y++) {
+				while (z[k + 1] < y)
+					k++;
+				final int i = y * w + x;
+				if ((binary[i] & 255) < 128)
+					distSq[i] = 0;
+				else
+					distSq[i] = f[v[k]] + (y - v[k]) * (y - v[k]);
+			}
+		}
+	}
+
+	/**
+	 * Position where the parabola rooted at q meets the parabola rooted at p
+	 */
+	private double intersection(int q, int p) {
+		return ((f[q] + (double) q * q) - (f[p] + (double) p * p))
+				/ (2.0 * q - 2.0 * p);
+	}
+
+	/**
+	 * Find the distance ridge, the pixels whose discs are not contained by a
+	 * neighbour's disc, and paint each pixel with the squared radius of the
+	 * largest ridge disc containing it
+	 */
+	private void paintRidgeDiscs(byte[] binary) {
+		java.util.Arrays.fill(thickSq, 0);
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				final int rSq = distSq[i + w * j];
+				if (rSq > 0 && isRidgePoint(i, j, rSq))
+					paintDisc(i, j, rSq);
+			}
+		}
+	}
+
+	private boolean isRidgePoint(int i, int j, int rSq) {
+		for (int dy = -1; dy <= 1; dy++) {
+			final int j1 = j + dy;
+			if (j1 < 0 || j1 >= h)
+				continue;
+			for (int dx = -1; dx <= 1; dx++) {
+				final int i1 = i + dx;
+				if (i1 < 0 || i1 >= w || (dx == 0 && dy == 0))
+					continue;
+				final int template = (dx == 0 || dy == 0) ? edgeTemplate(rSq)
+						: diagonalTemplate(rSq);
+				if (distSq[i1 + w * j1] >= template)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return smallest squared radius of a disc at an edge neighbour which
+	 *         contains the disc of squared radius rSq
+	 */
+	private int edgeTemplate(int rSq) {
+		if (rSq >= edgeTemplate.length)
+			edgeTemplate = grow(edgeTemplate, rSq);
+		if (edgeTemplate[rSq] == 0)
+			edgeTemplate[rSq] = Thickness.scanCube(1, 0, 0,
+					new int[] { rSq })[0];
+		return edgeTemplate[rSq];
+	}
+
+	/**
+	 * @return smallest squared radius of a disc at a diagonal neighbour which
+	 *         contains the disc of squared radius rSq
+	 */
+	private int diagonalTemplate(int rSq) {
+		if (rSq >= diagonalTemplate.length)
+			diagonalTemplate = grow(diagonalTemplate, rSq);
+		if (diagonalTemplate[rSq] == 0)
+			diagonalTemplate[rSq] = Thickness.scanCube(1, 1, 0,
+					new int[] { rSq })[0];
+		return diagonalTemplate[rSq];
+	}
+
+	private static int[] grow(int[] template, int rSq) {
+		int[] grown = new int[Math.max(rSq + 1, template.length * 2)];
+		System.arraycopy(template, 0, grown, 0, template.length);
+		return grown;
+	}
+
+	private void paintDisc(int i, int j, int rSquared) {
+		final float r = (float) Math.sqrt(rSquared);
+		int rInt = (int) r;
+		if (rInt < r)
+			rInt++;
+		final int iStart = Math.max(0, i - rInt);
+		final int iStop = Math.min(w - 1, i + rInt);
+		final int jStart = Math.max(0, j - rInt);
+		final int jStop = Math.min(h - 1, j + rInt);
+		for (int j1 = jStart; j1 <= jStop; j1++) {
+			final int r1SquaredJ = (j1 - j) * (j1 - j);
+			if (r1SquaredJ > rSquared)
+				continue;
+			final int widthJ1 = w * j1;
+			for (int i1 = iStart; i1 <= iStop; i1++) {
+				if (r1SquaredJ + (i1 - i) * (i1 - i) <= rSquared
+						&& rSquared > thickSq[i1 + widthJ1])
+					thickSq[i1 + widthJ1] = rSquared;
+			}
+		}
+	}
+
+	/**
+	 * Double the radii and replace the thickness of each pixel next to
+	 * background with the mean thickness of its interior neighbours, then
+	 * calibrate
+	 */
+	private void cleanUp(double pixelWidth) {
+		for (int i = 0; i < w * h; i++)
+			thick[i] = (float) (2 * Math.sqrt(thickSq[i]));
+		// 0 for background, -1 for pixels next to background, else thickness
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				final int ind = i + w * j;
+				if (thick[ind] == 0)
+					result[ind] = 0;
+				else if (look(thick, i, j - 1) == 0
+						|| look(thick, i, j + 1) == 0
+						|| look(thick, i - 1, j) == 0
+						|| look(thick, i + 1, j) == 0
+						|| look(thick, i + 1, j - 1) == 0
+						|| look(thick, i + 1, j + 1) == 0
+						|| look(thick, i - 1, j - 1) == 0
+						|| look(thick, i - 1, j + 1) == 0)
+					result[ind] = -1;
+				else
+					result[ind] = thick[ind];
+			}
+		}
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				final int ind = i + w * j;
+				if (result[ind] == -1)
+					result[ind] = -averageInteriorNeighbours(i, j);
+			}
+		}
+		// calibrate in float, as FloatProcessor.multiply() does
+		final float factor = (float) pixelWidth;
+		for (int i = 0; i < w * h; i++)
+			result[i] = Math.abs(result[i]) * factor;
+	}
+
+	/**
+	 * Mean of the neighbours which are not next to background, summed in the
+	 * same order as Thickness
+	 */
+	private float averageInteriorNeighbours(int i, int j) {
+		int n = 0;
+		float sum = 0;
+		for (int k = 0; k < 8; k++) {
+			final float value = look(result, i + DI[k], j + DJ[k]);
+			if (value > 0) {
+				n++;
+				sum += value;
+			}
+		}
+		if (n > 0)
+			return sum / n;
+		return thick[i + w * j];
+	}
+
+	private float look(float[] s, int i, int j) {
+		if (i < 0 || i >= w || j < 0 || j >= h)
+			return -1;
+		return s[i + w * j];
+	}
+}
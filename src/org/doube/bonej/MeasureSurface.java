@@ -27,9 +27,10 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.List;
 
-import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
 
+import org.doube.geometry.IndexedMesh;
+import org.doube.geometry.MarchingCubes;
 import org.doube.geometry.Vectors;
 import org.doube.util.ImageCheck;
 import org.doube.util.ResultInserter;
@@ -40,11 +41,7 @@ import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
-import ij3d.Content;
 import ij3d.Executer;
-import ij3d.Image3DUniverse;
-import marchingcubes.MCTriangulator;
-import customnode.CustomTriangleMesh;
 
 /**
  * Make a mesh from a binary or 8-bit image and get surface area measurements
@@ -55,9 +52,9 @@ import customnode.CustomTriangleMesh;
  */
 public class MeasureSurface implements PlugIn {
 
-	@SuppressWarnings("unchecked")
 	public void run(String arg) {
-		if (!ImageCheck.checkEnvironment())
+		// Java 3D and the 3D Viewer are checked only if a mesh is displayed
+		if (!ImageCheck.checkIJVersion())
 			return;
 		ImagePlus imp = IJ.getImage();
 		if (null == imp) {
@@ -81,39 +78,48 @@ public class MeasureSurface implements PlugIn {
 		gd.addNumericField("Threshold", threshold, 0);
 		gd.addCheckbox("Show surface", true);
 		gd.addCheckbox("Save as binary STL", false);
+		gd.addCheckbox("Mesh-free (area only)", false);
 		gd.addHelp("http://bonej.org/isosurface");
 		gd.showDialog();
 		int resamplingF = (int) Math.floor(gd.getNextNumber());
 		threshold = (int) Math.floor(gd.getNextNumber());
 		boolean doSurfaceRendering = gd.getNextBoolean();
 		boolean doBinarySTL = gd.getNextBoolean();
+		boolean doMeshFree = gd.getNextBoolean();
 		if (gd.wasCanceled())
 			return;
 
-		final boolean[] channels = { true, false, false };
+		ResultInserter ri = ResultInserter.getInstance();
+		String areaLabel = "BS (" + imp.getCalibration().getUnits() + "²)";
+		if (doMeshFree) {
+			ri.setResultInRow(imp, areaLabel, getSurfaceArea(imp, threshold));
+			ri.updateTable();
+			UsageReporter.reportEvent(this).send();
+			return;
+		}
 
-		MCTriangulator mct = new MCTriangulator();
-		List<Point3f> points = mct.getTriangles(imp, threshold, channels,
-				resamplingF);
+		IndexedMesh mesh = MarchingCubes.getMesh(imp, threshold, resamplingF);
 
-		IJ.log("Isosurface contains " + (points.size() / 3) + " triangles");
+		IJ.log("Isosurface contains " + mesh.getTriangleCount()
+				+ " triangles");
 
-		ResultInserter ri = ResultInserter.getInstance();
-		double area = getSurfaceArea(points);
-		ri.setResultInRow(imp, "BS (" + imp.getCalibration().getUnits() + "²)",
-				area);
+		double area = mesh.getSurfaceArea();
+		ri.setResultInRow(imp, areaLabel, area);
 		ri.updateTable();
 
-		if (points.size() == 0) {
+		if (mesh.getTriangleCount() == 0) {
 			IJ.error("Isosurface contains no points");
 			return;
 		}
 
-		if (doSurfaceRendering) {
-			renderSurface(points, "Surface of " + imp.getTitle());
+		List<Point3f> points = mesh.getTriangles();
+
+		if (doSurfaceRendering && ImageCheck.checkEnvironment()) {
+			MeshViewer.showSurface(points, "Surface of " + imp.getTitle());
 		}
 
-		if (doBinarySTL)
+		// the file prompt is the 3D Viewer's
+		if (doBinarySTL && ImageCheck.checkEnvironment())
 			writeBinarySTL(points);
 		
 		IJ.showStatus("Isosurface completed");		
@@ -122,34 +128,6 @@ public class MeasureSurface implements PlugIn {
 		return;
 	}
 
-	/**
-	 * Show the surface in the ImageJ 3D Viewer
-	 * 
-	 * @param points
-	 * @param title
-	 */
-	private void renderSurface(List<Point3f> points, String title) {
-		IJ.showStatus("Generating mesh...");
-		CustomTriangleMesh mesh = new CustomTriangleMesh(points);
-
-		// Create a universe
-		Image3DUniverse univ = new Image3DUniverse();
-
-		// Add the mesh
-		IJ.showStatus("Adding mesh to 3D viewer...");
-		Content c = univ.addCustomMesh(mesh, title);
-		Color3f green = new Color3f(0.0f, 0.5f, 0.0f);
-		c.getColor();
-		c.setColor(green);
-		c.setTransparency((float) 0.33);
-		c.setSelected(true);
-
-		// show the universe
-		IJ.showStatus("Displaying mesh in 3D viewer...");
-		univ.show();
-		IJ.showStatus("");
-	}
-
 	/**
 	 * Calculate surface area of the isosurface
 	 * 
@@ -161,8 +139,8 @@ public class MeasureSurface implements PlugIn {
 		double sumArea = 0;
 		final int nPoints = points.size();
 		Point3f origin = new Point3f(0.0f, 0.0f, 0.0f);
+		IJ.showStatus("Calculating surface area...");
 		for (int n = 0; n < nPoints; n += 3) {
-			IJ.showStatus("Calculating surface area...");
 			// TODO reject triangle and continue if it is flush
 			// with a cut face / image side
 
@@ -178,6 +156,27 @@ public class MeasureSurface implements PlugIn {
 		return sumArea;
 	}
 
+	/**
+	 * Estimate surface area without making a mesh, from the configurations of
+	 * the 2&times;2&times;2 voxel neighbourhoods of the foreground. This needs
+	 * a single pass through the stack, so is fast enough for whole stacks at
+	 * full resolution.
+	 * 
+	 * @param imp
+	 *            8-bit image
+	 * @param threshold
+	 *            foreground is &gt;= threshold
+	 * @return calibrated surface area
+	 * @see OctantHistogram
+	 */
+	public static double getSurfaceArea(ImagePlus imp, int threshold) {
+		IJ.showStatus("Counting voxel configurations...");
+		long[] histogram = OctantHistogram.getHistogram(imp, threshold, 255);
+		IJ.showStatus("");
+		return OctantHistogram.getSurfaceArea(histogram,
+				imp.getCalibration());
+	}
+
 	public static void writeBinarySTL(List<Point3f> vertices) {
 		try {
 			File stl_file = Executer.promptForFile("Save as binary STL",
@@ -0,0 +1,90 @@
+package org.doube.bonej;
+
+/**
+ * MeshViewer
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3f;
+
+import customnode.CustomTriangleMesh;
+
+import ij.IJ;
+import ij3d.Content;
+import ij3d.Image3DUniverse;
+
+/**
+ * Shows the meshes made by MeasureSurface and VolumeFraction in the 3D Viewer.
+ * The 3D Viewer classes are only referred to here, so that the plugins can
+ * measure without Java 3D or the 3D Viewer: check them with
+ * {@link org.doube.util.ImageCheck#checkEnvironment()} before calling.
+ *
+ * @author Michael Doube
+ */
+class MeshViewer {
+
+	private MeshViewer() {
+	}
+
+	/**
+	 * Show a surface in a new 3D Viewer
+	 *
+	 * @param points
+	 *            triangle vertices
+	 * @param title
+	 */
+	static void showSurface(List<Point3f> points, String title) {
+		IJ.showStatus("Generating mesh...");
+		CustomTriangleMesh mesh = new CustomTriangleMesh(points);
+
+		// Create a universe
+		Image3DUniverse univ = new Image3DUniverse();
+
+		// Add the mesh
+		IJ.showStatus("Adding mesh to 3D viewer...");
+		Content c = univ.addCustomMesh(mesh, title);
+		Color3f green = new Color3f(0.0f, 0.5f, 0.0f);
+		c.getColor();
+		c.setColor(green);
+		c.setTransparency((float) 0.33);
+		c.setSelected(true);
+
+		// show the universe
+		IJ.showStatus("Displaying mesh in 3D viewer...");
+		univ.show();
+		IJ.showStatus("");
+	}
+
+	/**
+	 * Show the bone and total volume surfaces in a new 3D Viewer
+	 *
+	 * @param bone
+	 *            triangle vertices of the bone surface
+	 * @param total
+	 *            triangle vertices of the surface of the ROIs
+	 */
+	static void showVolumes(List<Point3f> bone, List<Point3f> total) {
+		Color3f yellow = new Color3f(1.0f, 1.0f, 0.0f);
+		Color3f blue = new Color3f(0.0f, 0.0f, 1.0f);
+		Image3DUniverse univ = new Image3DUniverse();
+		univ.addCustomMesh(new CustomTriangleMesh(bone, yellow, 0.4f), "BV");
+		univ.addCustomMesh(new CustomTriangleMesh(total, blue, 0.65f), "TV");
+		univ.show();
+	}
+}
@@ -46,6 +46,8 @@ import org.doube.jama.EigenvalueDecomposition;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
 import org.doube.util.ResultInserter;
+import org.doube.util.StackAligner;
+import org.doube.util.StackMoments;
 import org.doube.util.ThresholdGuesser;
 import org.doube.util.UsageReporter;
 
@@ -98,6 +100,8 @@ public class Moments implements PlugIn, DialogListener {
 		gd.addCheckbox("Align result", true);
 		gd.addCheckbox("Show axes (2D)", false);
 		gd.addCheckbox("Show axes (3D)", true);
+		gd.addCheckbox("Trilinear_interpolation", false);
+		gd.addCheckbox("Virtual_aligned_stack", false);
 		gd.addHelp("http://bonej.org/moments");
 		gd.addDialogListener(this);
 		gd.showDialog();
@@ -125,6 +129,9 @@ public class Moments implements PlugIn, DialogListener {
 		final boolean doAlign = gd.getNextBoolean();
 		final boolean doAxes = gd.getNextBoolean();
 		final boolean doAxes3D = gd.getNextBoolean();
+		final int interpolation = gd.getNextBoolean() ? StackAligner.TRILINEAR
+				: StackAligner.NEAREST_NEIGHBOUR;
+		final boolean isVirtual = gd.getNextBoolean();
 
 		double[] centroid = getCentroid3D(imp, startSlice, endSlice, min, max,
 				m, c);
@@ -160,7 +167,7 @@ public class Moments implements PlugIn, DialogListener {
 
 		if (doAlign)
 			alignToPrincipalAxes(imp, E.getV(), centroid, startSlice, endSlice,
-					min, max, doAxes).show();
+					min, max, doAxes, interpolation, isVirtual).show();
 
 		if (doAxes3D)
 			show3DAxes(imp, E.getV(), centroid, startSlice, endSlice, min, max);
@@ -175,28 +182,6 @@ public class Moments implements PlugIn, DialogListener {
 	// conversion coefficient from mm^5 to kg.m² = 1.8*10^-12
 	// double cc = 1.8*Math.pow(10, -12);
 
-	/**
-	 * Convert a pixel value <i>x</i> to a voxel density <i>y</i> given
-	 * calibration constants <i>m</i>, <i>c</i> for the equation <i>y</i> =
-	 * <i>mx</i> + <i>c</i>
-	 * 
-	 * @param pixelValue
-	 *            raw pixel value
-	 * @param m
-	 *            slope of regression line
-	 * @param c
-	 *            y intercept of regression line
-	 * 
-	 * @return voxelDensity
-	 */
-	private double voxelDensity(double pixelValue, double m, double c,
-			double factor) {
-		double voxelDensity = (m * pixelValue + c) / factor;
-		if (voxelDensity < 0)
-			voxelDensity = 0;
-		return voxelDensity;
-	}/* end voxelDensity */
-
 	/**
 	 * Get a scale factor because density is in g / cm³ but our units are mm so
 	 * density is 1000* too high
@@ -264,52 +249,24 @@ public class Moments implements PlugIn, DialogListener {
 	 */
 	public double[] getCentroid3D(ImagePlus imp, int startSlice, int endSlice,
 			final double min, final double max, final double m, final double c) {
-		final ImageStack stack = imp.getImageStack();
 		final Rectangle r = imp.getProcessor().getRoi();
-		final int rW = r.x + r.width;
-		final int rH = r.y + r.height;
-		final int rX = r.x;
-		final int rY = r.y;
 		Calibration cal = imp.getCalibration();
 		final double vW = cal.pixelWidth;
 		final double vH = cal.pixelHeight;
 		final double vD = cal.pixelDepth;
-		final double voxVol = vW * vH * vD;
-		final double factor = getDensityFactor(imp);
-		double sumx = 0;
-		double sumy = 0;
-		double sumz = 0;
-		double sumMass = 0;
-		for (int z = startSlice; z <= endSlice; z++) {
-			IJ.showStatus("Calculating centroid...");
-			IJ.showProgress(z - startSlice, endSlice - startSlice);
-			ImageProcessor ip = stack.getProcessor(z);
-			for (int y = rY; y < rH; y++) {
-				for (int x = rX; x < rW; x++) {
-					final double testPixel = ip.get(x, y);
-					if (testPixel >= min && testPixel <= max) {
-						final double voxelMass = voxelDensity(testPixel, m, c,
-								factor)
-								* voxVol;
-						sumMass += voxelMass;
-						sumx += x * voxelMass;
-						sumy += y * voxelMass;
-						sumz += z * voxelMass;
-					}
-				}
-			}
-		}
-		// centroid in pixels
-		double centX = sumx / sumMass;
-		double centY = sumy / sumMass;
-		double centZ = sumz / sumMass;
+		IJ.showStatus("Calculating centroid...");
+		StackMoments stackMoments = new StackMoments(imp, r, startSlice,
+				endSlice, min, max);
+		stackMoments.setDensity(m, c, getDensityFactor(imp));
+		final double[] sums = stackMoments.getSums();
+		final double sumMass = sums[StackMoments.W];
 		if (sumMass == 0) {
-			centX = -1;
-			centY = -1;
-			centZ = -1;
+			double[] centroid = { -vW, -vH, -vD };
+			return centroid;
 		}
 		// centroid in real units
-		double[] centroid = { centX * vW, centY * vH, centZ * vD };
+		double[] centroid = { sums[StackMoments.X] / sumMass,
+				sums[StackMoments.Y] / sumMass, sums[StackMoments.Z] / sumMass };
 		return centroid;
 	}/* end findCentroid3D */
 
@@ -321,59 +278,28 @@ public class Moments implements PlugIn, DialogListener {
 		final double vW = cal.pixelWidth;
 		final double vH = cal.pixelHeight;
 		final double vD = cal.pixelDepth;
-		final ImageStack stack = imp.getImageStack();
 		final Rectangle r = imp.getProcessor().getRoi();
-		final int rW = r.x + r.width;
-		final int rH = r.y + r.height;
-		final int rX = r.x;
-		final int rY = r.y;
-		final double cX = centroid[0];
-		final double cY = centroid[1];
-		final double cZ = centroid[2];
-		final double factor = getDensityFactor(imp);
 		final double voxVol = vW * vH * vD;
 		final double voxVhVd = (vH * vH + vD * vD) / 12;
 		final double voxVwVd = (vW * vW + vD * vD) / 12;
 		final double voxVhVw = (vH * vH + vW * vW) / 12;
-		double sumVoxVol = 0;
-		double sumVoxMass = 0;
-		double Icxx = 0;
-		double Icyy = 0;
-		double Iczz = 0;
-		double Icxy = 0;
-		double Icxz = 0;
-		double Icyz = 0;
-		for (int z = startSlice; z <= endSlice; z++) {
-			IJ.showStatus("Calculating inertia tensor...");
-			IJ.showProgress(z - startSlice, endSlice - startSlice);
-			ImageProcessor ip = stack.getProcessor(z);
-			for (int y = rY; y < rH; y++) {
-				for (int x = rX; x < rW; x++) {
-					final double testPixel = (double) ip.get(x, y);
-					if (testPixel < min || testPixel > max) {
-						continue;
-					} else {
-						sumVoxVol += voxVol;
-						final double voxMass = voxelDensity(testPixel, m, c,
-								factor)
-								* voxVol;
-						sumVoxMass += voxMass;
-						final double xvWcX = x * vW - cX;
-						final double yvHcY = y * vH - cY;
-						final double zvDcZ = z * vD - cZ;
-						Icxx += (yvHcY * yvHcY + zvDcZ * zvDcZ + voxVhVd)
-								* voxMass;
-						Icyy += (xvWcX * xvWcX + zvDcZ * zvDcZ + voxVwVd)
-								* voxMass;
-						Iczz += (yvHcY * yvHcY + xvWcX * xvWcX + voxVhVw)
-								* voxMass;
-						Icxy += xvWcX * yvHcY * voxMass;
-						Icxz += xvWcX * zvDcZ * voxMass;
-						Icyz += yvHcY * zvDcZ * voxMass;
-					}
-				}
-			}
-		}
+		IJ.showStatus("Calculating inertia tensor...");
+		StackMoments stackMoments = new StackMoments(imp, r, startSlice,
+				endSlice, min, max);
+		stackMoments.setDensity(m, c, getDensityFactor(imp));
+		stackMoments.setOrigin(centroid);
+		final double[] sums = stackMoments.getSums();
+		final double sumVoxVol = sums[StackMoments.COUNT] * voxVol;
+		final double sumVoxMass = sums[StackMoments.W];
+		final double Icxx = sums[StackMoments.YY] + sums[StackMoments.ZZ]
+				+ voxVhVd * sumVoxMass;
+		final double Icyy = sums[StackMoments.XX] + sums[StackMoments.ZZ]
+				+ voxVwVd * sumVoxMass;
+		final double Iczz = sums[StackMoments.YY] + sums[StackMoments.XX]
+				+ voxVhVw * sumVoxMass;
+		final double Icxy = sums[StackMoments.XY];
+		final double Icxz = sums[StackMoments.XZ];
+		final double Icyz = sums[StackMoments.YZ];
 		// create the inertia tensor matrix
 		double[][] inertiaTensor = new double[3][3];
 		inertiaTensor[0][0] = Icxx;
@@ -401,7 +327,8 @@ public class Moments implements PlugIn, DialogListener {
 	}
 
 	/**
-	 * Draw a copy of the original image aligned to its principal axes
+	 * Draw a copy of the original image aligned to its principal axes, using
+	 * nearest neighbour interpolation
 	 * 
 	 * @param imp
 	 *            Input image
@@ -420,13 +347,41 @@ public class Moments implements PlugIn, DialogListener {
 	public ImagePlus alignToPrincipalAxes(ImagePlus imp, Matrix E,
 			double[] centroid, int startSlice, int endSlice, double min,
 			double max, boolean doAxes) {
-		final ImageStack sourceStack = imp.getImageStack();
+		return alignToPrincipalAxes(imp, E, centroid, startSlice, endSlice,
+				min, max, doAxes, StackAligner.NEAREST_NEIGHBOUR, false);
+	}
+
+	/**
+	 * Draw a copy of the original image aligned to its principal axes
+	 * 
+	 * @param imp
+	 *            Input image
+	 * @param E
+	 *            Rotation matrix
+	 * @param centroid
+	 *            3-element array containing centroid coordinates, {x,y,z}
+	 * @param startSlice
+	 *            first slice to copy
+	 * @param endSlice
+	 *            final slice to copy
+	 * @param doAxes
+	 *            if true, draw axes on the aligned copy
+	 * @param interpolation
+	 *            StackAligner.NEAREST_NEIGHBOUR or StackAligner.TRILINEAR
+	 * @param isVirtual
+	 *            if true, return a virtual stack whose slices are aligned as
+	 *            they are displayed or saved, instead of aligning the whole
+	 *            stack into memory
+	 * @return ImagePlus copy of the input image
+	 */
+	public ImagePlus alignToPrincipalAxes(ImagePlus imp, Matrix E,
+			double[] centroid, int startSlice, int endSlice, double min,
+			double max, boolean doAxes, int interpolation, boolean isVirtual) {
 		Calibration cal = imp.getCalibration();
 		final double vW = cal.pixelWidth;
 		final double vH = cal.pixelHeight;
 		final double vD = cal.pixelDepth;
 		final double vS = Math.min(vW, Math.min(vH, vD));
-		final int d = sourceStack.getSize();
 		int[] sides = getRotatedSize(E, imp, centroid, startSlice, endSlice,
 				min, max);
 
@@ -508,67 +463,19 @@ public class Moments implements PlugIn, DialogListener {
 		final int wT = sides[0];
 		final int hT = sides[1];
 		final int dT = sides[2];
-		final double xTc = wT * vS / 2;
-		final double yTc = hT * vS / 2;
-		final double zTc = dT * vS / 2;
 
 		// for each voxel in the target stack,
 		// find the corresponding source voxel
-
-		// Cache the sourceStack's processors
-		ImageProcessor[] sliceProcessors = new ImageProcessor[d + 1];
-		for (int z = 1; z <= d; z++) {
-			sliceProcessors[z] = sourceStack.getProcessor(z);
-		}
-		// Initialise an empty stack and tartgetStack's processor array
-		ImageStack targetStack = new ImageStack(wT, hT, dT);
-		ImageProcessor[] targetProcessors = new ImageProcessor[dT + 1];
-		for (int z = 1; z <= dT; z++) {
-			targetStack.setPixels(getEmptyPixels(wT, hT, imp.getBitDepth()), z);
-			targetProcessors[z] = targetStack.getProcessor(z);
-		}
-
-		// Multithread start
-		int nThreads = Runtime.getRuntime().availableProcessors();
-		AlignThread[] alignThread = new AlignThread[nThreads];
-		for (int thread = 0; thread < nThreads; thread++) {
-			alignThread[thread] = new AlignThread(thread, nThreads, imp,
-					sliceProcessors, targetProcessors, eigenVecInv, centroid,
-					wT, hT, dT, startSlice, endSlice);
-			alignThread[thread].start();
-		}
-		try {
-			for (int thread = 0; thread < nThreads; thread++) {
-				alignThread[thread].join();
-			}
-		} catch (InterruptedException ie) {
-			IJ.error("A thread was interrupted.");
-		}
-		// end multithreading
-		if (doAxes) {
-			// draw axes on stack
-			final int xCent = (int) Math.floor(xTc / vS);
-			final int yCent = (int) Math.floor(yTc / vS);
-			final int zCent = (int) Math.floor(zTc / vS);
-			final int axisColour = Integer.MAX_VALUE;
-			for (int z = 1; z <= dT; z++) {
-				// z axis
-				try {
-					ImageProcessor axisIP = targetStack.getProcessor(z);
-					axisIP.set(xCent, yCent, axisColour);
-				} catch (NullPointerException npe) {
-					IJ.handleException(npe);
-					break;
-				}
-			}
-			ImageProcessor axisIP = targetStack.getProcessor(zCent);
-			axisIP.setColor(Integer.MAX_VALUE);
-			// x axis
-			axisIP.drawLine(0, yCent, wT, yCent);
-
-			// y axis
-			axisIP.drawLine(xCent, 0, xCent, hT);
-		}
+		StackAligner aligner = new StackAligner(imp, imp.getProcessor()
+				.getRoi(), startSlice, endSlice, eigenVecInv, centroid, wT, hT,
+				dT);
+		aligner.setInterpolation(interpolation);
+		aligner.setAxes(doAxes);
+		ImageStack targetStack;
+		if (isVirtual)
+			targetStack = aligner.getVirtualStack();
+		else
+			targetStack = aligner.alignStack();
 		ImagePlus impTarget = new ImagePlus("Aligned_" + imp.getTitle(),
 				targetStack);
 		impTarget.setCalibration(imp.getCalibration());
@@ -581,112 +488,6 @@ public class Moments implements PlugIn, DialogListener {
 		return impTarget;
 	}
 
-	/**
-	 * Multithreading class to look up aligned voxel values, processing each
-	 * slice in its own thread
-	 * 
-	 * @author Michael Doube
-	 * 
-	 */
-	class AlignThread extends Thread {
-		final int thread, nThreads, wT, hT, dT, startSlice, endSlice;
-		final ImagePlus impT;
-		final ImageStack stackT;
-		final ImageProcessor[] sliceProcessors, targetProcessors;
-		final double[][] eigenVecInv;
-		final double[] centroid;
-
-		public AlignThread(int thread, int nThreads, ImagePlus imp,
-				ImageProcessor[] sliceProcessors,
-				ImageProcessor[] targetProcessors, double[][] eigenVecInv,
-				double[] centroid, int wT, int hT, int dT, int startSlice,
-				int endSlice) {
-			this.impT = imp;
-			this.stackT = this.impT.getStack();
-			this.thread = thread;
-			this.nThreads = nThreads;
-			this.sliceProcessors = sliceProcessors;
-			this.targetProcessors = targetProcessors;
-			this.eigenVecInv = eigenVecInv;
-			this.centroid = centroid;
-			this.wT = wT;
-			this.hT = hT;
-			this.dT = dT;
-			this.startSlice = startSlice;
-			this.endSlice = endSlice;
-		}
-
-		public void run() {
-			final Rectangle r = this.impT.getProcessor().getRoi();
-			final int rW = r.x + r.width;
-			final int rH = r.y + r.height;
-			final int rX = r.x;
-			final int rY = r.y;
-			Calibration cal = this.impT.getCalibration();
-			final double vW = cal.pixelWidth;
-			final double vH = cal.pixelHeight;
-			final double vD = cal.pixelDepth;
-			final double vS = Math.min(vW, Math.min(vH, vD));
-			final double xC = centroid[0];
-			final double yC = centroid[1];
-			final double zC = centroid[2];
-			final double xTc = wT * vS / 2;
-			final double yTc = hT * vS / 2;
-			final double zTc = dT * vS / 2;
-			final double dXc = xC - xTc;
-			final double dYc = yC - yTc;
-			final double dZc = zC - zTc;
-			final double eVI00 = eigenVecInv[0][0];
-			final double eVI10 = eigenVecInv[1][0];
-			final double eVI20 = eigenVecInv[2][0];
-			final double eVI01 = eigenVecInv[0][1];
-			final double eVI11 = eigenVecInv[1][1];
-			final double eVI21 = eigenVecInv[2][1];
-			final double eVI02 = eigenVecInv[0][2];
-			final double eVI12 = eigenVecInv[1][2];
-			final double eVI22 = eigenVecInv[2][2];
-			for (int z = this.thread + 1; z <= this.dT; z += this.nThreads) {
-				IJ.showStatus("Aligning image stack...");
-				IJ.showProgress(z, this.dT);
-				// this.targetStack.setPixels(getEmptyPixels(this.wT, this.hT,
-				// this.impT.getBitDepth()), z);
-				ImageProcessor targetIP = targetProcessors[z];
-				final double zD = z * vS - zTc;
-				final double zDeVI00 = zD * eVI20;
-				final double zDeVI01 = zD * eVI21;
-				final double zDeVI02 = zD * eVI22;
-				for (int y = 0; y < this.hT; y++) {
-					final double yD = y * vS - yTc;
-					final double yDeVI10 = yD * eVI10;
-					final double yDeVI11 = yD * eVI11;
-					final double yDeVI12 = yD * eVI12;
-					for (int x = 0; x < this.wT; x++) {
-						final double xD = x * vS - xTc;
-						final double xAlign = xD * eVI00 + yDeVI10 + zDeVI00
-								+ xTc;
-						final double yAlign = xD * eVI01 + yDeVI11 + zDeVI01
-								+ yTc;
-						final double zAlign = xD * eVI02 + yDeVI12 + zDeVI02
-								+ zTc;
-						// possibility to do some voxel interpolation instead
-						// of just rounding in next 3 lines
-						final int xA = (int) Math.floor((xAlign + dXc) / vW);
-						final int yA = (int) Math.floor((yAlign + dYc) / vH);
-						final int zA = (int) Math.floor((zAlign + dZc) / vD);
-
-						if (xA < rX || xA >= rW || yA < rY || yA >= rH
-								|| zA < this.startSlice || zA > this.endSlice) {
-							continue;
-						} else {
-							targetIP.set(x, y, this.sliceProcessors[zA].get(xA,
-									yA));
-						}
-					}
-				}
-			}
-		}
-	}
-
 	/**
 	 * Find side lengths in pixels of the smallest stack to fit the aligned
 	 * image
@@ -42,6 +42,7 @@ import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
 import org.doube.util.ResultInserter;
 import org.doube.util.RoiMan;
+import org.doube.util.StackMoments;
 import org.doube.util.ThresholdGuesser;
 import org.doube.util.UsageReporter;
 
@@ -251,51 +252,19 @@ public class NeckShaftAngle implements PlugIn, MouseListener, DialogListener {
 	private double[][] regression3D(ImagePlus imp, double[] centroid,
 			int startSlice, int endSlice, double min, double max) {
 		IJ.showStatus("Calculating SVD");
-		ImageStack stack = imp.getImageStack();
-		Rectangle r = stack.getRoi();
-		final double cX = centroid[0];
-		final double cY = centroid[1];
-		final double cZ = centroid[2];
-		Calibration cal = imp.getCalibration();
-		final double vW = cal.pixelWidth;
-		final double vH = cal.pixelHeight;
-		final double vD = cal.pixelDepth;
-		final int rX = r.x;
-		final int rY = r.y;
-		final int rW = r.x + r.width;
-		final int rH = r.y + r.height;
-		double sDxDx = 0;
-		double sDyDy = 0;
-		double sDzDz = 0;
-		double sDxDy = 0;
-		double sDxDz = 0;
-		double sDyDz = 0;
-		double count = 0;
-		for (int z = startSlice; z <= endSlice; z++) {
-			IJ.showStatus("Getting covariance matrix...");
-			IJ.showProgress(z, endSlice);
-			final double dz = z * vD - cZ;
-			final double dzdz = dz * dz;
-			final ImageProcessor ip = stack.getProcessor(z);
-			for (int y = rY; y < rH; y++) {
-				final double dy = y * vH - cY;
-				final double dydy = dy * dy;
-				final double dydz = dy * dz;
-				for (int x = rX; x < rW; x++) {
-					final double testPixel = (double) ip.get(x, y);
-					if (testPixel >= min && testPixel <= max) {
-						final double dx = x * vW - cX;
-						sDxDx += dx * dx;
-						sDyDy += dydy;
-						sDzDz += dzdz;
-						sDxDy += dx * dy;
-						sDxDz += dx * dz;
-						sDyDz += dydz;
-						count++;
-					}
-				}
-			}
-		}
+		Rectangle r = imp.getImageStack().getRoi();
+		IJ.showStatus("Getting covariance matrix...");
+		StackMoments stackMoments = new StackMoments(imp, r, startSlice,
+				endSlice, min, max);
+		stackMoments.setOrigin(centroid);
+		final double[] sums = stackMoments.getSums();
+		final double sDxDx = sums[StackMoments.XX];
+		final double sDyDy = sums[StackMoments.YY];
+		final double sDzDz = sums[StackMoments.ZZ];
+		final double sDxDy = sums[StackMoments.XY];
+		final double sDxDz = sums[StackMoments.XZ];
+		final double sDyDz = sums[StackMoments.YZ];
+		final double count = sums[StackMoments.COUNT];
 		if (count == 0) {
 			IJ.log("Count == 0");
 			return null;
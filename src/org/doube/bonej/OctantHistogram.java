@@ -0,0 +1,477 @@
+package org.doube.bonej;
+
+/**
+ * OctantHistogram
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import org.doube.util.Multithreader;
+
+/**
+ * <p>
+ * Count the configurations of the 8 voxels (octant) around each vertex of a
+ * binary stack in a single parallel pass, and estimate volume, surface area
+ * and integral of mean curvature from the counts without making a mesh.
+ * </p>
+ * <p>
+ * Vertices and octants are indexed as in {@link Connectivity}: vertex (x, y, z)
+ * is the corner shared by voxels (x - 1, y - 1, z - 1) to (x, y, z), vertices
+ * run from 0 to width, height and depth inclusive, and voxels outside the stack
+ * are background. Bit n - 1 of an octant's configuration is set when
+ * Connectivity's octant[n] is foreground.
+ * </p>
+ * <p>
+ * Surface area and integral of mean curvature are discrete Crofton formulae
+ * averaged over the 13 lattice directions, each weighted by the solid angle of
+ * the orientations nearest to it: area from the number of
+ * foreground-background transitions along lines in each direction, and
+ * integral of mean curvature from the Euler characteristic of the foreground
+ * in the lattice planes normal to each direction. All the voxel
+ * pairs and plane sections needed lie within an octant, so each estimate is a
+ * weighted sum of the configuration counts. Volume and integral of mean
+ * curvature are in units of voxel side; surface area may also be calibrated.
+ * </p>
+ *
+ * @see <p>
+ *      Ohser J, Mücklich F (2000) Statistical Analysis of Microstructures in
+ *      Materials Science. Chichester: John Wiley &amp; Sons. ISBN
+ *      978-0-471-97486-5
+ *      </p>
+ *      <p>
+ *      Lang C, Ohser J, Hilfer R (2001) On the analysis of spatial binary
+ *      images. J Microsc 203: 303-313. <a
+ *      href="http://dx.doi.org/10.1046/j.1365-2818.2001.00899.x"
+ *      >doi:10.1046/j.1365-2818.2001.00899.x</a>
+ *      </p>
+ *
+ * @author Michael Doube
+ */
+public class OctantHistogram {
+
+	/** Number of planes of vertices handed to a thread at a time */
+	private static final int BLOCK = 16;
+
+	/** The 13 lattice directions, one of each +/- pair */
+	private static final int[][] DIRECTIONS = new int[13][];
+
+	/** Number of points used to share the unit sphere between directions */
+	private static final int SPHERE_POINTS = 100000;
+
+	/**
+	 * Foreground-background transitions along each direction per
+	 * configuration, as a share of the voxel pairs which lie in the octant:
+	 * axial and face-diagonal pairs are shared by 4 and 2 octants
+	 */
+	private static final double[][] TRANSITIONS = new double[13][256];
+
+	/** Volume and integral of mean curvature per configuration */
+	private static final double[] VOLUME = new double[256],
+			MEAN_CURVATURE = new double[256];
+
+	static {
+		int n = 0;
+		for (int x = -1; x <= 1; x++)
+			for (int y = -1; y <= 1; y++)
+				for (int z = -1; z <= 1; z++) {
+					final int first = x != 0 ? x : (y != 0 ? y : z);
+					if (first > 0)
+						DIRECTIONS[n++] = new int[] { x, y, z };
+				}
+		final double[] weights = getDirectionWeights(1, 1, 1);
+		for (int config = 0; config < 256; config++) {
+			VOLUME[config] = Integer.bitCount(config) / 8.0;
+			for (int j = 0; j < DIRECTIONS.length; j++) {
+				final int[] u = DIRECTIONS[j];
+				final int k = Math.abs(u[0]) + Math.abs(u[1]) + Math.abs(u[2]);
+				final double pairShare = k == 1 ? 0.25 : k == 2 ? 0.5 : 1;
+				TRANSITIONS[j][config] = transitions(config, u) * pairShare;
+				// integral of mean curvature is 2 pi times the integral of
+				// the Euler characteristic of plane sections over their
+				// offset; the planes are 1 / length apart
+				MEAN_CURVATURE[config] += 2 * Math.PI
+						* sectionEuler(config, u, k) / Math.sqrt(k) * weights[j];
+			}
+		}
+	}
+
+	/**
+	 * Share the unit sphere between the calibrated lattice directions: each
+	 * direction is weighted by the solid angle of the orientations closer to
+	 * it (or its opposite) than to any other direction, estimated from a
+	 * Fibonacci lattice of points on the sphere.
+	 * 
+	 * @return weights of the directions, summing to 1
+	 */
+	private static double[] getDirectionWeights(double vW, double vH,
+			double vD) {
+		final int nDirections = DIRECTIONS.length;
+		final double[][] units = new double[nDirections][];
+		for (int j = 0; j < nDirections; j++) {
+			final int[] u = DIRECTIONS[j];
+			final double[] v = { u[0] * vW, u[1] * vH, u[2] * vD };
+			final double length = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2]
+					* v[2]);
+			units[j] = new double[] { v[0] / length, v[1] / length,
+					v[2] / length };
+		}
+		final double[] weights = new double[nDirections];
+		final double angle = Math.PI * (3 - Math.sqrt(5));
+		for (int i = 0; i < SPHERE_POINTS; i++) {
+			final double z = 1 - (2 * i + 1.0) / SPHERE_POINTS;
+			final double r = Math.sqrt(1 - z * z);
+			final double x = r * Math.cos(angle * i);
+			final double y = r * Math.sin(angle * i);
+			int nearest = 0;
+			double maxCos = -1;
+			for (int j = 0; j < nDirections; j++) {
+				final double[] v = units[j];
+				final double cos = Math.abs(x * v[0] + y * v[1] + z * v[2]);
+				if (cos > maxCos) {
+					maxCos = cos;
+					nearest = j;
+				}
+			}
+			weights[nearest]++;
+		}
+		for (int j = 0; j < nDirections; j++)
+			weights[j] /= SPHERE_POINTS;
+		return weights;
+	}
+
+	/** Position of corner b of an octant, relative to its first voxel */
+	private static int[] corner(int b) {
+		return new int[] { (b >> 1) & 1, b & 1, (b >> 2) & 1 };
+	}
+
+	private static boolean isSet(int config, int b) {
+		return (config & (1 << b)) != 0;
+	}
+
+	/**
+	 * Number of voxel pairs in direction u with one foreground and one
+	 * background voxel
+	 */
+	private static int transitions(int config, int[] u) {
+		int n = 0;
+		for (int a = 0; a < 8; a++) {
+			final int[] p = corner(a);
+			for (int b = 0; b < 8; b++) {
+				final int[] q = corner(b);
+				if (q[0] - p[0] == u[0] && q[1] - p[1] == u[1]
+						&& q[2] - p[2] == u[2]
+						&& isSet(config, a) != isSet(config, b))
+					n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * This octant's share of the Euler characteristic of the foreground in the
+	 * lattice planes normal to u. Corners with equal u&middot;p lie in the same
+	 * plane: 4 corners make a square or rectangular cell, with 8-connected
+	 * foreground, and 3 corners make a cell of a triangular lattice.
+	 */
+	private static double sectionEuler(int config, int[] u, int k) {
+		double euler = 0;
+		for (int level = -3; level <= 3; level++) {
+			int[] cell = new int[4];
+			int n = 0;
+			for (int b = 0; b < 8; b++) {
+				final int[] p = corner(b);
+				if (p[0] * u[0] + p[1] * u[1] + p[2] * u[2] == level) {
+					if (n < 4)
+						cell[n] = b;
+					n++;
+				}
+			}
+			if (n == 4) {
+				// axial cells are the octant faces, shared by 2 octants
+				final double share = k == 1 ? 0.5 : 1;
+				euler += share * quadEuler(config, cell);
+			} else if (n == 3) {
+				euler += triangleEuler(config, cell);
+			}
+		}
+		return euler;
+	}
+
+	/** Euler characteristic contribution of a 2x2 cell, 8-connected */
+	private static double quadEuler(int config, int[] cell) {
+		int nSet = 0;
+		for (int i = 0; i < 4; i++)
+			if (isSet(config, cell[i]))
+				nSet++;
+		if (nSet == 1)
+			return 0.25;
+		if (nSet == 3)
+			return -0.25;
+		if (nSet != 2)
+			return 0;
+		// diagonal corners are the pair furthest apart
+		int maxDistance = 0;
+		int setDistance = 0;
+		int first = -1;
+		for (int i = 0; i < 4; i++) {
+			for (int j = i + 1; j < 4; j++)
+				maxDistance = Math.max(maxDistance,
+						Integer.bitCount(cell[i] ^ cell[j]));
+			if (isSet(config, cell[i])) {
+				if (first < 0)
+					first = cell[i];
+				else
+					setDistance = Integer.bitCount(first ^ cell[i]);
+			}
+		}
+		return setDistance == maxDistance ? -0.5 : 0;
+	}
+
+	/**
+	 * Euler characteristic contribution of a triangular cell: each vertex is
+	 * shared by 6 cells and each edge by 2
+	 */
+	private static double triangleEuler(int config, int[] cell) {
+		int vertices = 0;
+		int edges = 0;
+		for (int i = 0; i < 3; i++) {
+			if (!isSet(config, cell[i]))
+				continue;
+			vertices++;
+			for (int j = i + 1; j < 3; j++)
+				if (isSet(config, cell[j]))
+					edges++;
+		}
+		return vertices / 6.0 - edges / 2.0 + (vertices == 3 ? 1 : 0);
+	}
+
+	/**
+	 * Count the configurations of the octants around every vertex of a binary
+	 * stack
+	 *
+	 * @param imp
+	 *            binary 8-bit ImagePlus, foreground &gt;= 128
+	 * @return number of octants with each of the 256 configurations
+	 */
+	public static long[] getHistogram(ImagePlus imp) {
+		return getHistogram(imp, 128, 255);
+	}
+
+	/**
+	 * Count the configurations of the octants around every vertex of a stack
+	 *
+	 * @param imp
+	 *            8-, 16- or 32-bit ImagePlus
+	 * @param minT
+	 *            minimum foreground value (inclusive)
+	 * @param maxT
+	 *            maximum foreground value (inclusive)
+	 * @return number of octants with each of the 256 configurations
+	 */
+	public static long[] getHistogram(ImagePlus imp, final double minT,
+			final double maxT) {
+		final int w = imp.getWidth();
+		final int h = imp.getHeight();
+		final int d = imp.getImageStackSize();
+		final ImageStack stack = imp.getImageStack();
+		final long[] histogram = new long[256];
+		// planes of vertices are handed out in blocks, so that each slice's
+		// foreground is found once per block
+		final int nBlocks = (d + BLOCK) / BLOCK;
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final long[] counts = new long[256];
+					boolean[] back = new boolean[w * h];
+					boolean[] front = new boolean[w * h];
+					for (int b = ai.getAndIncrement(); b < nBlocks; b = ai
+							.getAndIncrement()) {
+						final int zEnd = Math.min(d, (b + 1) * BLOCK - 1);
+						int z = b * BLOCK;
+						boolean hasBack = z > 0
+								&& foreground(stack, z, minT, maxT, back);
+						for (; z <= zEnd; z++) {
+							final boolean hasFront = z < d
+									&& foreground(stack, z + 1, minT, maxT,
+											front);
+							for (int y = 0; y <= h; y++)
+								countRow(hasBack ? back : null,
+										hasFront ? front : null, w, h, y,
+										counts);
+							boolean[] swap = back;
+							back = front;
+							front = swap;
+							hasBack = hasFront;
+						}
+					}
+					synchronized (histogram) {
+						for (int c = 0; c < 256; c++)
+							histogram[c] += counts[c];
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return histogram;
+	}
+
+	/**
+	 * Find the foreground pixels of a slice
+	 *
+	 * @return true if the slice contains foreground
+	 */
+	private static boolean foreground(ImageStack stack, int slice,
+			double minT, double maxT, boolean[] mask) {
+		final Object pixels = stack.getPixels(slice);
+		final int n = mask.length;
+		boolean found = false;
+		if (pixels instanceof byte[]) {
+			final byte[] p = (byte[]) pixels;
+			for (int i = 0; i < n; i++) {
+				final int v = p[i] & 0xff;
+				mask[i] = v >= minT && v <= maxT;
+				found |= mask[i];
+			}
+		} else if (pixels instanceof short[]) {
+			final short[] p = (short[]) pixels;
+			for (int i = 0; i < n; i++) {
+				final int v = p[i] & 0xffff;
+				mask[i] = v >= minT && v <= maxT;
+				found |= mask[i];
+			}
+		} else {
+			final float[] p = (float[]) pixels;
+			for (int i = 0; i < n; i++) {
+				final float v = p[i];
+				mask[i] = v >= minT && v <= maxT;
+				found |= mask[i];
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Count the octants along a row of vertices, sliding the octant along x:
+	 * the voxels at x become those at x - 1 for the next vertex
+	 */
+	private static void countRow(boolean[] back, boolean[] front, int w,
+			int h, int y, long[] counts) {
+		final int above = y > 0 ? (y - 1) * w : -1;
+		final int below = y < h ? y * w : -1;
+		int config = 0;
+		for (int x = 0; x <= w; x++) {
+			config = (config >> 2) & 0x33;
+			if (x < w) {
+				if (isForeground(back, above, x))
+					config |= 1 << 2;
+				if (isForeground(back, below, x))
+					config |= 1 << 3;
+				if (isForeground(front, above, x))
+					config |= 1 << 6;
+				if (isForeground(front, below, x))
+					config |= 1 << 7;
+			}
+			counts[config]++;
+		}
+	}
+
+	private static boolean isForeground(boolean[] mask, int row, int x) {
+		return mask != null && row >= 0 && mask[row + x];
+	}
+
+	private static double sum(long[] histogram, double[] weights) {
+		double sum = 0;
+		for (int c = 0; c < 256; c++)
+			sum += histogram[c] * weights[c];
+		return sum;
+	}
+
+	/**
+	 * @param histogram
+	 *            octant configuration counts from
+	 *            {@link #getHistogram(ImagePlus)}
+	 * @return foreground volume in voxels
+	 */
+	public static double getVolume(long[] histogram) {
+		return sum(histogram, VOLUME);
+	}
+
+	/**
+	 * @param histogram
+	 *            octant configuration counts from
+	 *            {@link #getHistogram(ImagePlus)}
+	 * @return estimated area of the foreground's surface in voxel faces
+	 */
+	public static double getSurfaceArea(long[] histogram) {
+		return getSurfaceArea(histogram, 1, 1, 1);
+	}
+
+	/**
+	 * Estimate the area of the foreground's surface in calibrated units. Each
+	 * direction's transitions are scaled by the calibrated voxel volume over
+	 * the calibrated length of the direction, and weighted by the share of
+	 * orientations nearest to the calibrated direction, so anisotropic voxels
+	 * are allowed.
+	 *
+	 * @param histogram
+	 *            octant configuration counts from
+	 *            {@link #getHistogram(ImagePlus)}
+	 * @param cal
+	 *            calibration of the image the histogram was made from
+	 * @return estimated surface area
+	 */
+	public static double getSurfaceArea(long[] histogram, Calibration cal) {
+		return getSurfaceArea(histogram, cal.pixelWidth, cal.pixelHeight,
+				cal.pixelDepth);
+	}
+
+	private static double getSurfaceArea(long[] histogram, double vW,
+			double vH, double vD) {
+		final double[] weights = getDirectionWeights(vW, vH, vD);
+		final double voxelVolume = vW * vH * vD;
+		double area = 0;
+		for (int j = 0; j < DIRECTIONS.length; j++) {
+			final int[] u = DIRECTIONS[j];
+			final double length = Math.sqrt(u[0] * u[0] * vW * vW + u[1]
+					* u[1] * vH * vH + u[2] * u[2] * vD * vD);
+			// the mean number of transitions per unit length is half the
+			// surface area per unit volume
+			area += weights[j] * 2 * sum(histogram, TRANSITIONS[j])
+					* voxelVolume / length;
+		}
+		return area;
+	}
+
+	/**
+	 * @param histogram
+	 *            octant configuration counts from
+	 *            {@link #getHistogram(ImagePlus)}
+	 * @return estimated integral of the mean curvature over the foreground's
+	 *         surface, in voxel widths. This is 4&pi;r for a sphere and half
+	 *         the rate of change of surface area with a normal displacement
+	 *         of the surface.
+	 */
+	public static double getIntegralMeanCurvature(long[] histogram) {
+		return sum(histogram, MEAN_CURVATURE);
+	}
+}
@@ -21,19 +21,24 @@ import java.awt.AWTEvent;
 import java.awt.Checkbox;
 import java.awt.Choice;
 import java.awt.TextField;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
 
+import org.bonej.io.ChunkedVolume;
 import org.doube.geometry.FitEllipsoid;
+import org.doube.geometry.MarchingCubes;
 import org.doube.jama.EigenvalueDecomposition;
 import org.doube.jama.Matrix;
 import org.doube.util.DialogModifier;
@@ -44,7 +49,6 @@ import org.doube.util.UsageReporter;
 import customnode.CustomPointMesh;
 import customnode.CustomTriangleMesh;
 
-import marchingcubes.MCTriangulator;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -194,6 +198,7 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		String[] items2 = { "Multithreaded", "Linear", "Mapped" };
 		gd.addChoice("Labelling algorithm", items2, items2[2]);
 		gd.addNumericField("Slices per chunk", 2, 0);
+		gd.addStringField("Save_intermediates_to", "", 30);
 		gd.addHelp("http://bonej.org/particles");
 		gd.addDialogListener(this);
 		gd.showDialog();
@@ -235,6 +240,7 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		else
 			labelMethod = MAPPED;
 		final int slicesPerChunk = (int) Math.floor(gd.getNextNumber());
+		final String saveDirectory = gd.getNextString().trim();
 
 		// get the particles and do the analysis
 		final long start = System.nanoTime();
@@ -244,6 +250,15 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		final long time = (System.nanoTime() - start) / 1000000;
 		IJ.log("Particle labelling finished in " + time + " ms");
 		int[][] particleLabels = (int[][]) result[1];
+		if (saveDirectory.length() > 0) {
+			Map<String, String> metadata = ChunkedVolume.provenance(
+					"ParticleCounter", imp);
+			metadata.put("minVol", "" + minVol);
+			metadata.put("maxVol", "" + maxVol);
+			metadata.put("exclude", "" + doExclude);
+			metadata.put("labelling", choice);
+			saveLabels(particleLabels, imp, saveDirectory, metadata);
+		}
 		long[] particleSizes = getParticleSizes(particleLabels);
 		final int nParticles = particleSizes.length;
 		double[] volumes = getVolumes(imp, particleSizes);
@@ -1000,16 +1015,14 @@ public class ParticleCounter implements PlugIn, DialogListener {
 			int nParticles) {
 		Calibration cal = imp.getCalibration();
 		ArrayList<List<Point3f>> surfacePoints = new ArrayList<List<Point3f>>();
-		final boolean[] channels = { true, false, false };
 		for (int p = 0; p < nParticles; p++) {
 			IJ.showStatus("Getting surface meshes...");
 			IJ.showProgress(p, nParticles);
 			if (p > 0) {
 				ImagePlus binaryImp = getBinaryParticle(p, imp, particleLabels,
 						limits, resampling);
-				MCTriangulator mct = new MCTriangulator();
-				List<Point3f> points = mct.getTriangles(binaryImp, 128,
-						channels, resampling);
+				List<Point3f> points = MarchingCubes.getTriangles(binaryImp,
+						128, resampling);
 
 				final double xOffset = (limits[p][0] - 1) * cal.pixelWidth;
 				final double yOffset = (limits[p][2] - 1) * cal.pixelHeight;
@@ -2792,6 +2805,31 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		return impParticles;
 	}
 
+	/**
+	 * Save particle labels as a chunked volume, named after the image
+	 * 
+	 * @param particleLabels
+	 * @param imp
+	 *            original image, used for image dimensions, calibration and
+	 *            titles
+	 * @param directory
+	 * @param metadata
+	 *            provenance and options
+	 */
+	private void saveLabels(int[][] particleLabels, ImagePlus imp,
+			String directory, Map<String, String> metadata) {
+		File file = new File(directory, imp.getShortTitle() + "_labels"
+				+ ChunkedVolume.EXTENSION);
+		IJ.showStatus("Saving " + file.getName());
+		try {
+			ChunkedVolume.write(file, particleLabels, imp.getWidth(),
+					imp.getHeight(), imp.getCalibration(), metadata);
+		} catch (IOException e) {
+			IJ.error("Particle Analyser", "Could not save " + file.getName()
+					+ ": " + e.getMessage());
+		}
+	}
+
 	/**
 	 * Return the value of this instance's labelMethod field
 	 * 
@@ -45,6 +45,7 @@ import java.awt.TextField;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
@@ -52,6 +53,8 @@ import javax.vecmath.Point3f;
 import org.doube.geometry.Orienteer;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
+import org.doube.util.Multithreader;
+import org.doube.util.StackMoments;
 import org.doube.util.ThresholdGuesser;
 import org.doube.util.UsageReporter;
 
@@ -277,19 +280,14 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		if (gd.wasCanceled())
 			return;
 
-		if (calculateCentroids(imp, min, max) == 0) {
+		if (measureSlices(imp, min, max) == 0) {
 			IJ.error("No pixels available to calculate.\n"
 					+ "Please check the threshold and ROI.");
 			return;
 		}
 
-		calculateMoments(imp, min, max);
 		if (this.doThickness3D)
 			calculateThickness3D(imp, min, max);
-		if (this.doThickness2D)
-			calculateThickness2D(imp, min, max);
-
-		roiMeasurements(imp, min, max);
 
 		// TODO locate centroids of multiple sections in a single plane
 
@@ -555,274 +553,337 @@ public class SliceGeometry implements PlugIn, DialogListener {
 	}
 
 	/**
-	 * Calculate the centroid of each slice
+	 * Measure every slice of a stack within the stack's ROI, with 2D thickness
+	 * and the default density calibration, as run() does for a whole stack
+	 * 
+	 * @param imp
+	 *            Input image
+	 * @return {CSA, maximum, mean and standard deviation of 2D thickness},
+	 *         each indexed by slice number
+	 */
+	double[][] measureStack(ImagePlus imp, double min, double max) {
+		this.cal = imp.getCalibration();
+		this.vW = cal.pixelWidth;
+		this.vH = cal.pixelHeight;
+		this.al = imp.getStackSize() + 1;
+		this.startSlice = 1;
+		this.endSlice = imp.getStackSize();
+		this.m = 0;
+		this.c = 1.8;
+		this.doThickness2D = true;
+		measureSlices(imp, min, max);
+		double[][] results = { this.cortArea, this.maxCortThick2D,
+				this.meanCortThick2D, this.stdevCortThick2D };
+		return results;
+	}
+
+	/**
+	 * Measure all the per-slice quantities: area, centroids, density, second
+	 * moments and principal axes, section moduli, Feret diameters and
+	 * perimeter, and optionally 2D local thickness. Each slice is measured
+	 * completely by a single thread, and slices are shared between threads.
 	 * 
 	 * @param imp
 	 *            Input image
 	 * @return double containing sum of pixel count
 	 */
-	private double calculateCentroids(ImagePlus imp, double min, double max) {
-		ImageStack stack = imp.getImageStack();
-		Rectangle r = stack.getRoi();
-		// 2D centroids
+	private double measureSlices(ImagePlus imp, final double min,
+			final double max) {
+		final ImageStack stack = imp.getImageStack();
+		final Rectangle r = stack.getRoi();
 		this.sliceCentroids = new double[2][this.al];
-		// pixel counters
-		double cstack = 0;
 		this.emptySlices = new boolean[this.al];
 		this.cslice = new double[this.al];
 		this.cortArea = new double[this.al];
 		this.integratedDensity = new double[this.al];
 		this.meanDensity = new double[this.al];
 		this.weightedCentroids = new double[2][this.al];
-		final double pixelArea = this.vW * this.vH;
-		final int roiXEnd = r.x + r.width;
-		final int roiYEnd = r.y + r.height;
-		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			IJ.showStatus("Calculating centroids...");
-			IJ.showProgress(s - this.startSlice, this.endSlice);
-			double sumX = 0;
-			double sumY = 0;
-			int count = 0;
-			double sumD = 0;
-			double wSumX = 0;
-			double wSumY = 0;
-			ImageProcessor ip = stack.getProcessor(s);
-			for (int y = r.y; y < roiYEnd; y++) {
-				for (int x = r.x; x < roiXEnd; x++) {
-					final double pixel = (double) ip.get(x, y);
-					if (pixel >= min && pixel <= max) {
-						count++;
-						sumX += x;
-						sumY += y;
-						final double wP = pixel * this.m + this.c;
-						sumD += wP;
-						wSumX += x * wP;
-						wSumY += y * wP;
+		this.theta = new double[this.al];
+		this.Imax = new double[this.al];
+		this.Imin = new double[this.al];
+		this.Ipm = new double[this.al];
+		this.R1 = new double[this.al];
+		this.R2 = new double[this.al];
+		this.maxRadMin = new double[this.al];
+		this.maxRadMax = new double[this.al];
+		this.Zmax = new double[this.al];
+		this.Zmin = new double[this.al];
+		this.Zpol = new double[this.al];
+		this.feretAngle = new double[this.al];
+		this.feretMax = new double[this.al];
+		this.feretMin = new double[this.al];
+		this.perimeter = new double[this.al];
+		this.principalDiameter = new double[this.al];
+		this.secondaryDiameter = new double[this.al];
+		final boolean isOriented = this.doOriented && orienteer != null;
+		final double orientation = isOriented ? orienteer.getOrientation() : 0;
+		if (isOriented) {
+			this.I1 = new double[this.al];
+			this.I2 = new double[this.al];
+			this.maxRad2 = new double[this.al];
+			this.maxRad1 = new double[this.al];
+			this.Z1 = new double[this.al];
+			this.Z2 = new double[this.al];
+		}
+		if (this.doThickness2D) {
+			if (Math.abs(this.vW - this.vH) > 1E-3 * this.vW)
+				IJ.log("Warning: pixels are anisotropic. "
+						+ "2D thickness results will be inaccurate");
+			this.maxCortThick2D = new double[this.al];
+			this.meanCortThick2D = new double[this.al];
+			this.stdevCortThick2D = new double[this.al];
+		}
+		final StackMoments stackMoments = new StackMoments(imp, r,
+				this.startSlice, this.endSlice, min, max);
+		final int nSlices = this.endSlice - this.startSlice + 1;
+		final AtomicInteger ai = new AtomicInteger(this.startSlice);
+		final AtomicInteger counter = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final int width = stack.getWidth();
+					final int height = stack.getHeight();
+					// ROI rows for the moments, whole rows for thickness
+					final double[] values = new double[r.width];
+					double[] rowValues = null;
+					LocalThickness2D engine = null;
+					byte[] binary = null;
+					if (doThickness2D) {
+						engine = new LocalThickness2D(width, height);
+						binary = new byte[width * height];
+						rowValues = new double[width];
+					}
+					for (int s = ai.getAndIncrement(); s <= endSlice; s = ai
+							.getAndIncrement()) {
+						IJ.showStatus("Measuring slices...");
+						final Object pixels = stack.getPixels(s);
+						if (calculateCentroid(pixels, width, r, s, min, max,
+								values)) {
+							calculateMoments(stackMoments.getSums(s), s);
+							calculatePrincipalMoments(pixels, width, r, s,
+									min, max, values);
+							if (isOriented)
+								calculateOrientedMoments(pixels, width, r, s,
+										min, max, values, orientation);
+							if (doThickness2D)
+								calculateThickness2D(engine, binary, pixels,
+										width, s, min, max, rowValues);
+						} else if (doThickness2D) {
+							meanCortThick2D[s] = Double.NaN;
+							maxCortThick2D[s] = Double.NaN;
+							stdevCortThick2D[s] = Double.NaN;
+						}
+						roiMeasurements(stack.getProcessor(s), s, min, max);
+						IJ.showProgress(counter.incrementAndGet(), nSlices);
 					}
 				}
-			}
-			this.cslice[s] = count;
-			this.cortArea[s] = count * pixelArea;
-			if (count > 0) {
-				this.sliceCentroids[0][s] = sumX * this.vW / count;
-				this.sliceCentroids[1][s] = sumY * this.vH / count;
-				this.integratedDensity[s] = sumD;
-				this.meanDensity[s] = sumD / count;
-				this.weightedCentroids[0][s] = wSumX * this.vW / sumD;
-				this.weightedCentroids[1][s] = wSumY * this.vH / sumD;
-				cstack += count;
-				this.emptySlices[s] = false;
-			} else {
-				this.emptySlices[s] = true;
-				this.cortArea[s] = Double.NaN;
-				this.sliceCentroids[0][s] = Double.NaN;
-				this.sliceCentroids[1][s] = Double.NaN;
-				this.cslice[s] = Double.NaN;
-			}
+			});
 		}
+		Multithreader.startAndJoin(threads);
+		double cstack = 0;
+		for (int s = this.startSlice; s <= this.endSlice; s++)
+			if (!this.emptySlices[s])
+				cstack += this.cslice[s];
 		return cstack;
 	}
 
 	/**
-	 * Calculate second moments of area, length and angle of principal axes
+	 * Calculate the centroid, area and density of a slice
 	 * 
-	 * @param imp
+	 * @param pixels
+	 *            slice pixel array
+	 * @param width
+	 *            image width
+	 * @param r
+	 *            ROI bounds
+	 * @param s
+	 *            slice number
+	 * @param values
+	 *            work array of ROI width
+	 * @return true if the slice contains pixels within the threshold
 	 */
-	private void calculateMoments(ImagePlus imp, double min, double max) {
-		final ImageStack stack = imp.getImageStack();
-		final Rectangle r = stack.getRoi();
-		// START OF Ix AND Iy CALCULATION
-		// this.Sx = new double[this.al];
-		// this.Sy = new double[this.al];
-		// this.Sxx = new double[this.al];
-		// this.Syy = new double[this.al];
-		// this.Sxy = new double[this.al];
-		// this.Myy = new double[this.al];
-		// this.Mxx = new double[this.al];
-		// this.Mxy = new double[this.al];
-		this.theta = new double[this.al];
-		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			IJ.showStatus("Calculating Ix and Iy...");
-			IJ.showProgress(s, this.endSlice);
-			double sxs = 0;
-			double sys = 0;
-			double sxxs = 0;
-			double syys = 0;
-			double sxys = 0;
-			final int roiXEnd = r.x + r.width;
-			final int roiYEnd = r.y + r.height;
-			if (!this.emptySlices[s]) {
-				ImageProcessor ip = stack.getProcessor(s);
-				for (int y = r.y; y < roiYEnd; y++) {
-					for (int x = r.x; x < roiXEnd; x++) {
-						final double pixel = (double) ip.get(x, y);
-						if (pixel >= min && pixel <= max) {
-							final double xVw = x * vW;
-							final double yVh = y * vH;
-							sxs += xVw;
-							sys += yVh;
-							sxxs += xVw * xVw;
-							syys += yVh * yVh;
-							sxys += xVw * yVh;
-						}
-					}
-				}
-				// this.Sx[s] = sxs;
-				// this.Sy[s] = sys;
-				// this.Sxx[s] = sxxs;
-				// this.Syy[s] = syys;
-				// this.Sxy[s] = sxys;
-				double Myys = sxxs - (sxs * sxs / this.cslice[s])
-						+ this.cslice[s] * vW * vW / 12;
-				// this.cslice[]/12 is for each pixel's own moment
-				double Mxxs = syys - (sys * sys / this.cslice[s])
-						+ this.cslice[s] * vH * vH / 12;
-				double Mxys = sxys - (sxs * sys / this.cslice[s])
-						+ this.cslice[s] * vH * vW / 12;
-				if (Mxys == 0)
-					this.theta[s] = 0;
-				else {
-					this.theta[s] = Math.atan((Mxxs - Myys + Math
-							.sqrt((Mxxs - Myys) * (Mxxs - Myys) + 4 * Mxys
-									* Mxys))
-							/ (2 * Mxys));
+	private boolean calculateCentroid(Object pixels, int width, Rectangle r,
+			int s, double min, double max, double[] values) {
+		final double pixelArea = this.vW * this.vH;
+		final int roiXEnd = r.x + r.width;
+		final int roiYEnd = r.y + r.height;
+		double sumX = 0;
+		double sumY = 0;
+		int count = 0;
+		double sumD = 0;
+		double wSumX = 0;
+		double wSumY = 0;
+		for (int y = r.y; y < roiYEnd; y++) {
+			StackMoments.getRow(pixels, y * width + r.x, values);
+			for (int x = r.x; x < roiXEnd; x++) {
+				final double pixel = values[x - r.x];
+				if (pixel >= min && pixel <= max) {
+					count++;
+					sumX += x;
+					sumY += y;
+					final double wP = pixel * this.m + this.c;
+					sumD += wP;
+					wSumX += x * wP;
+					wSumY += y * wP;
 				}
-			} else {
-				this.theta[s] = Double.NaN;
 			}
 		}
-		// Get I and Z around the principal axes
-		double[][] result = calculateAngleMoments(imp, min, max, this.theta);
-		this.Imax = result[0];
-		this.Imin = result[1];
-		this.Ipm = result[2];
-		this.R1 = result[3];
-		this.R2 = result[4];
-		this.maxRadMin = result[5];
-		this.maxRadMax = result[6];
-		this.Zmax = result[7];
-		this.Zmin = result[8];
-		this.Zpol = result[9];
+		this.cslice[s] = count;
+		this.cortArea[s] = count * pixelArea;
+		if (count > 0) {
+			this.sliceCentroids[0][s] = sumX * this.vW / count;
+			this.sliceCentroids[1][s] = sumY * this.vH / count;
+			this.integratedDensity[s] = sumD;
+			this.meanDensity[s] = sumD / count;
+			this.weightedCentroids[0][s] = wSumX * this.vW / sumD;
+			this.weightedCentroids[1][s] = wSumY * this.vH / sumD;
+			this.emptySlices[s] = false;
+			return true;
+		}
+		this.emptySlices[s] = true;
+		this.cortArea[s] = Double.NaN;
+		this.sliceCentroids[0][s] = Double.NaN;
+		this.sliceCentroids[1][s] = Double.NaN;
+		this.cslice[s] = Double.NaN;
+		this.theta[s] = Double.NaN;
+		final double[][] angleResults = { this.Imax, this.Imin, this.Ipm,
+				this.R1, this.R2, this.maxRadMin, this.maxRadMax, this.Zmax,
+				this.Zmin, this.Zpol, this.I1, this.I2, this.maxRad2,
+				this.maxRad1, this.Z1, this.Z2 };
+		for (double[] result : angleResults)
+			if (result != null)
+				result[s] = Double.NaN;
+		return false;
+	}
 
-		// optionally get I and Z around some user-defined axes
-		if (doOriented && orienteer != null) {
-			double angle = orienteer.getOrientation();
-			double[] angles = new double[this.al];
-			for (int i = 0; i < al; i++) {
-				angles[i] = angle;
-			}
-			double[][] result2 = calculateAngleMoments(imp, min, max, angles);
-			this.I1 = result2[0];
-			this.I2 = result2[1];
-			// this.Ip = result2[2];
-			// this.r1 = result2[3];
-			// this.r2 = result2[4];
-			this.maxRad2 = result2[5];
-			this.maxRad1 = result2[6];
-			this.Z1 = result2[7];
-			this.Z2 = result2[8];
-			// this.Zp = result2[9];
+	/**
+	 * Calculate the angle of the principal axes of a slice from its second
+	 * moments of area
+	 * 
+	 * @param sums
+	 *            slice sums from {@link StackMoments}
+	 * @param s
+	 *            slice number
+	 */
+	private void calculateMoments(double[] sums, int s) {
+		final double sxs = sums[StackMoments.X];
+		final double sys = sums[StackMoments.Y];
+		final double sxxs = sums[StackMoments.XX];
+		final double syys = sums[StackMoments.YY];
+		final double sxys = sums[StackMoments.XY];
+		double Myys = sxxs - (sxs * sxs / this.cslice[s]) + this.cslice[s]
+				* vW * vW / 12;
+		// this.cslice[]/12 is for each pixel's own moment
+		double Mxxs = syys - (sys * sys / this.cslice[s]) + this.cslice[s]
+				* vH * vH / 12;
+		double Mxys = sxys - (sxs * sys / this.cslice[s]) + this.cslice[s]
+				* vH * vW / 12;
+		if (Mxys == 0)
+			this.theta[s] = 0;
+		else {
+			this.theta[s] = Math.atan((Mxxs - Myys + Math.sqrt((Mxxs - Myys)
+					* (Mxxs - Myys) + 4 * Mxys * Mxys))
+					/ (2 * Mxys));
 		}
 	}
 
-	private double[][] calculateAngleMoments(ImagePlus imp, double min,
-			double max, double[] angles) {
-		final ImageStack stack = imp.getImageStack();
-		final Rectangle r = stack.getRoi();
-		// END OF Ix and Iy CALCULATION
-		// START OF Imax AND Imin CALCULATION
-		double[] I1 = new double[this.al];
-		double[] I2 = new double[this.al];
-		double[] Ip = new double[this.al];
-		double[] r1 = new double[this.al];
-		double[] r2 = new double[this.al];
-		double[] maxRad2 = new double[this.al];
-		double[] maxRad1 = new double[this.al];
-		double[] maxRadC = new double[this.al];
-		double[] Z1 = new double[this.al];
-		double[] Z2 = new double[this.al];
-		double[] Zp = new double[this.al];
-		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			IJ.showStatus("Calculating Imin and Imax...");
-			IJ.showProgress(s, this.endSlice);
-			if (!this.emptySlices[s]) {
-				ImageProcessor ip = stack.getProcessor(s);
-				double sxs = 0;
-				double sys = 0;
-				double sxxs = 0;
-				double syys = 0;
-				double sxys = 0;
-				double maxRadMinS = 0;
-				double maxRadMaxS = 0;
-				double maxRadCentreS = 0;
-				final double cosTheta = Math.cos(angles[s]);
-				final double sinTheta = Math.sin(angles[s]);
-				final int roiYEnd = r.y + r.height;
-				final int roiXEnd = r.x + r.width;
-				final double xC = this.sliceCentroids[0][s];
-				final double yC = this.sliceCentroids[1][s];
-				final double cS = this.cslice[s];
-				for (int y = r.y; y < roiYEnd; y++) {
-					final double yYc = y * vH - yC;
-					for (int x = r.x; x < roiXEnd; x++) {
-						final double pixel = (double) ip.get(x, y);
-						if (pixel >= min && pixel <= max) {
-							final double xXc = x * vW - xC;
-							final double xCosTheta = x * vW * cosTheta;
-							final double yCosTheta = y * vH * cosTheta;
-							final double xSinTheta = x * vW * sinTheta;
-							final double ySinTheta = y * vH * sinTheta;
-							sxs += xCosTheta + ySinTheta;
-							sys += yCosTheta - xSinTheta;
-							sxxs += (xCosTheta + ySinTheta)
-									* (xCosTheta + ySinTheta);
-							syys += (yCosTheta - xSinTheta)
-									* (yCosTheta - xSinTheta);
-							sxys += (yCosTheta - xSinTheta)
-									* (xCosTheta + ySinTheta);
-							maxRadMinS = Math.max(maxRadMinS,
-									Math.abs(xXc * cosTheta + yYc * sinTheta));
-							maxRadMaxS = Math.max(maxRadMaxS,
-									Math.abs(yYc * cosTheta - xXc * sinTheta));
-							maxRadCentreS = Math.max(maxRadCentreS,
-									Math.sqrt(xXc * xXc + yYc * yYc));
-						}
-					}
+	/**
+	 * Get I and Z around the principal axes of a slice
+	 */
+	private void calculatePrincipalMoments(Object pixels, int width,
+			Rectangle r, int s, double min, double max, double[] values) {
+		final double[] result = calculateAngleMoments(pixels, width, r, s,
+				min, max, values, this.theta[s]);
+		this.Imax[s] = result[0];
+		this.Imin[s] = result[1];
+		this.Ipm[s] = result[2];
+		this.R1[s] = result[3];
+		this.R2[s] = result[4];
+		this.maxRadMin[s] = result[5];
+		this.maxRadMax[s] = result[6];
+		this.Zmax[s] = result[7];
+		this.Zmin[s] = result[8];
+		this.Zpol[s] = result[9];
+	}
+
+	/**
+	 * Get I and Z around the user-defined axes of a slice
+	 */
+	private void calculateOrientedMoments(Object pixels, int width,
+			Rectangle r, int s, double min, double max, double[] values,
+			double angle) {
+		final double[] result = calculateAngleMoments(pixels, width, r, s,
+				min, max, values, angle);
+		this.I1[s] = result[0];
+		this.I2[s] = result[1];
+		this.maxRad2[s] = result[5];
+		this.maxRad1[s] = result[6];
+		this.Z1[s] = result[7];
+		this.Z2[s] = result[8];
+	}
+
+	/**
+	 * Calculate second moments of area and section moduli of a slice around
+	 * axes at an angle
+	 * 
+	 * @return {I1, I2, Ip, r1, r2, maxRad2, maxRad1, Z1, Z2, Zp}
+	 */
+	private double[] calculateAngleMoments(Object pixels, int width,
+			Rectangle r, int s, double min, double max, double[] values,
+			double angle) {
+		double sxs = 0;
+		double sys = 0;
+		double sxxs = 0;
+		double syys = 0;
+		double sxys = 0;
+		double maxRadMinS = 0;
+		double maxRadMaxS = 0;
+		double maxRadCentreS = 0;
+		final double cosTheta = Math.cos(angle);
+		final double sinTheta = Math.sin(angle);
+		final int roiYEnd = r.y + r.height;
+		final int roiXEnd = r.x + r.width;
+		final double xC = this.sliceCentroids[0][s];
+		final double yC = this.sliceCentroids[1][s];
+		final double cS = this.cslice[s];
+		for (int y = r.y; y < roiYEnd; y++) {
+			final double yYc = y * vH - yC;
+			StackMoments.getRow(pixels, y * width + r.x, values);
+			for (int x = r.x; x < roiXEnd; x++) {
+				final double pixel = values[x - r.x];
+				if (pixel >= min && pixel <= max) {
+					final double xXc = x * vW - xC;
+					final double xCosTheta = x * vW * cosTheta;
+					final double yCosTheta = y * vH * cosTheta;
+					final double xSinTheta = x * vW * sinTheta;
+					final double ySinTheta = y * vH * sinTheta;
+					sxs += xCosTheta + ySinTheta;
+					sys += yCosTheta - xSinTheta;
+					sxxs += (xCosTheta + ySinTheta) * (xCosTheta + ySinTheta);
+					syys += (yCosTheta - xSinTheta) * (yCosTheta - xSinTheta);
+					sxys += (yCosTheta - xSinTheta) * (xCosTheta + ySinTheta);
+					maxRadMinS = Math.max(maxRadMinS,
+							Math.abs(xXc * cosTheta + yYc * sinTheta));
+					maxRadMaxS = Math.max(maxRadMaxS,
+							Math.abs(yYc * cosTheta - xXc * sinTheta));
+					maxRadCentreS = Math.max(maxRadCentreS,
+							Math.sqrt(xXc * xXc + yYc * yYc));
 				}
-				// this.Sx[s] = sxs;
-				// this.Sy[s] = sys;
-				// this.Sxx[s] = sxxs;
-				// this.Syy[s] = syys;
-				// this.Sxy[s] = sxys;
-				maxRad2[s] = maxRadMinS;
-				maxRad1[s] = maxRadMaxS;
-				maxRadC[s] = maxRadCentreS;
-				final double pixelMoments = cS * vW * vH
-						* (cosTheta * cosTheta + sinTheta * sinTheta) / 12;
-				I1[s] = vW * vH * (sxxs - (sxs * sxs / cS) + pixelMoments);
-				I2[s] = vW * vH * (syys - (sys * sys / cS) + pixelMoments);
-				Ip[s] = sxys - (sys * sxs / cS) + pixelMoments;
-				r1[s] = Math.sqrt(I2[s] / (cS * vW * vH * vW * vH));
-				r2[s] = Math.sqrt(I1[s] / (cS * vW * vH * vW * vH));
-				Z1[s] = I1[s] / maxRad2[s];
-				Z2[s] = I2[s] / maxRad1[s];
-				Zp[s] = (I1[s] + I2[s]) / maxRadC[s];
-			} else {
-				I1[s] = Double.NaN;
-				I2[s] = Double.NaN;
-				Ip[s] = Double.NaN;
-				r1[s] = Double.NaN;
-				r2[s] = Double.NaN;
-				maxRad2[s] = Double.NaN;
-				maxRad1[s] = Double.NaN;
-				Z1[s] = Double.NaN;
-				Z2[s] = Double.NaN;
-				Zp[s] = Double.NaN;
 			}
 		}
-
-		double[][] result = { I1, I2, Ip, r1, r2, maxRad2, maxRad1, Z1, Z2, Zp, };
-
+		final double pixelMoments = cS * vW * vH
+				* (cosTheta * cosTheta + sinTheta * sinTheta) / 12;
+		final double I1 = vW * vH * (sxxs - (sxs * sxs / cS) + pixelMoments);
+		final double I2 = vW * vH * (syys - (sys * sys / cS) + pixelMoments);
+		final double Ip = sxys - (sys * sxs / cS) + pixelMoments;
+		final double r1 = Math.sqrt(I2 / (cS * vW * vH * vW * vH));
+		final double r2 = Math.sqrt(I1 / (cS * vW * vH * vW * vH));
+		final double Z1 = I1 / maxRadMinS;
+		final double Z2 = I2 / maxRadMaxS;
+		final double Zp = (I1 + I2) / maxRadCentreS;
+		double[] result = { I1, I2, Ip, r1, r2, maxRadMinS, maxRadMaxS, Z1,
+				Z2, Zp };
 		return result;
 	}
 
@@ -887,119 +948,55 @@ public class SliceGeometry implements PlugIn, DialogListener {
 	}
 
 	/**
-	 * Calculate thickness on individual slices using local thickness
+	 * Calculate 2D local thickness of a slice and its mean, maximum and
+	 * standard deviation over the whole slice, as for slices measured without
+	 * a ROI. The ROI only limits which slices are measured.
 	 * 
-	 * @param imp
+	 * @param engine
+	 *            the calling thread's thickness engine
+	 * @param binary
+	 *            the calling thread's binary work array
+	 * @param values
+	 *            work array of image width
 	 */
-	private void calculateThickness2D(ImagePlus imp, double min, double max) {
-		this.maxCortThick2D = new double[this.al];
-		this.meanCortThick2D = new double[this.al];
-		this.stdevCortThick2D = new double[this.al];
-
-		int nThreads = Runtime.getRuntime().availableProcessors();
-		SliceThread[] sliceThread = new SliceThread[nThreads];
-		for (int thread = 0; thread < nThreads; thread++) {
-			sliceThread[thread] = new SliceThread(thread, nThreads, imp, min,
-					max, this.meanCortThick2D, this.maxCortThick2D,
-					this.stdevCortThick2D, this.startSlice, this.endSlice,
-					this.emptySlices);
-			sliceThread[thread].start();
-		}
-		try {
-			for (int thread = 0; thread < nThreads; thread++) {
-				sliceThread[thread].join();
+	private void calculateThickness2D(LocalThickness2D engine, byte[] binary,
+			Object pixels, int width, int s, double min, double max,
+			double[] values) {
+		final int height = binary.length / width;
+		for (int y = 0; y < height; y++) {
+			StackMoments.getRow(pixels, y * width, values);
+			for (int x = 0; x < width; x++) {
+				final double pixel = values[x];
+				final boolean isBone = pixel >= min && pixel <= max;
+				binary[y * width + x] = (byte) (isBone ? 255 : 0);
 			}
-		} catch (InterruptedException ie) {
-			IJ.error("A thread was interrupted.");
 		}
-		return;
-	}
-
-	class SliceThread extends Thread {
-		final int thread, nThreads, width, height, startSlice, endSlice;
-
-		double min, max;
-
-		double[] meanThick, maxThick, stdevThick;
-
-		boolean[] emptySlices;
-
-		final ImagePlus impT;
-
-		public SliceThread(int thread, int nThreads, ImagePlus imp, double min,
-				double max, double[] meanThick, double[] maxThick,
-				double[] stdevThick, int startSlice, int endSlice,
-				boolean[] emptySlices) {
-			this.impT = imp;
-			this.min = min;
-			this.max = max;
-			this.width = this.impT.getWidth();
-			this.height = this.impT.getHeight();
-			this.thread = thread;
-			this.nThreads = nThreads;
-			this.meanThick = meanThick;
-			this.maxThick = maxThick;
-			this.stdevThick = stdevThick;
-			this.startSlice = startSlice;
-			this.endSlice = endSlice;
-			this.emptySlices = emptySlices;
+		final float[] thickness = engine.getLocalThickness(binary, this.vW,
+				doMask);
+		double sumPix = 0;
+		double sliceMax = 0;
+		double pixCount = 0;
+		for (int i = 0; i < thickness.length; i++) {
+			final float pixel = thickness[i];
+			if (pixel > 0) {
+				pixCount++;
+				sumPix += pixel;
+				sliceMax = Math.max(sliceMax, pixel);
+			}
 		}
-
-		public void run() {
-			for (int s = this.thread + this.startSlice; s <= this.endSlice; s += this.nThreads) {
-				if (this.emptySlices[s]) {
-					this.meanThick[s] = Double.NaN;
-					this.maxThick[s] = Double.NaN;
-					this.stdevThick[s] = Double.NaN;
-					continue;
-				}
-				ImageProcessor ip = impT.getImageStack().getProcessor(s);
-				ImagePlus sliceImp = new ImagePlus(" " + s, ip);
-				Rectangle r = ip.getRoi();
-				// binarise
-				ImagePlus binaryImp = convertToBinary(sliceImp, min, max);
-				Calibration cal = impT.getCalibration();
-				binaryImp.setCalibration(cal);
-				// calculate thickness
-				Thickness th = new Thickness();
-				ImagePlus thickImp = th.getLocalThickness(binaryImp, false, doMask);
-				FloatProcessor thickIp = (FloatProcessor) thickImp
-						.getProcessor();
-				double sumPix = 0;
-				double sliceMax = 0;
-				double pixCount = 0;
-				final double roiXEnd = r.x + r.width;
-				final double roiYEnd = r.y + r.height;
-				for (int y = r.y; y < roiYEnd; y++) {
-					for (int x = r.x; x < roiXEnd; x++) {
-						final float pixel = Float.intBitsToFloat(thickIp.get(x,
-								y));
-						if (pixel > 0) {
-							pixCount++;
-							sumPix += pixel;
-							sliceMax = Math.max(sliceMax, pixel);
-						}
-					}
-				}
-				final double sliceMean = sumPix / pixCount;
-				this.meanThick[s] = sliceMean;
-				this.maxThick[s] = sliceMax;
-
-				double sumSquares = 0;
-				for (int y = r.y; y < roiYEnd; y++) {
-					for (int x = r.x; x < roiXEnd; x++) {
-						final float pixel = Float.intBitsToFloat(thickIp.get(x,
-								y));
-						if (pixel > 0) {
-							final double d = sliceMean - pixel;
-							sumSquares += d * d;
-						}
-					}
-				}
-				this.stdevThick[s] = Math.sqrt(sumSquares / pixCount);
+		final double sliceMean = sumPix / pixCount;
+		this.meanCortThick2D[s] = sliceMean;
+		this.maxCortThick2D[s] = sliceMax;
+
+		double sumSquares = 0;
+		for (int i = 0; i < thickness.length; i++) {
+			final float pixel = thickness[i];
+			if (pixel > 0) {
+				final double d = sliceMean - pixel;
+				sumSquares += d * d;
 			}
-			return;
 		}
+		this.stdevCortThick2D[s] = Math.sqrt(sumSquares / pixCount);
 	}
 
 	private ImagePlus convertToBinary(ImagePlus imp, double min, double max) {
@@ -1027,56 +1024,48 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		return binaryImp;
 	}
 
-	private void roiMeasurements(ImagePlus imp, double min, double max) {
-		Roi initialRoi = imp.getRoi();
-		double[] feretValues = new double[3];
-		this.feretAngle = new double[this.al];
-		this.feretMax = new double[this.al];
-		this.feretMin = new double[this.al];
-		this.perimeter = new double[this.al];
-		this.principalDiameter = new double[this.al];
-		this.secondaryDiameter = new double[this.al];
-		int initialSlice = imp.getCurrentSlice();
-		// for the required slices...
-		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			ImageProcessor ip = imp.getImageStack().getProcessor(s);
-			Wand w = new Wand(ip);
+	/**
+	 * Trace the outline of a slice and measure its Feret diameters and
+	 * perimeter
+	 * 
+	 * @param ip
+	 *            slice processor
+	 * @param s
+	 *            slice number
+	 */
+	private void roiMeasurements(ImageProcessor ip, int s, double min,
+			double max) {
+		Wand w = new Wand(ip);
+		if (!this.emptySlices[s])
 			w.autoOutline(0,
 					(int) Math.round(this.sliceCentroids[1][s] / this.vH), min,
 					max, Wand.EIGHT_CONNECTED);
-			if (this.emptySlices[s] || w.npoints == 0) {
-				this.feretMin[s] = Double.NaN;
-				this.feretAngle[s] = Double.NaN;
-				this.feretMax[s] = Double.NaN;
-				this.perimeter[s] = Double.NaN;
-				this.principalDiameter[s] = Double.NaN;
-				this.secondaryDiameter[s] = Double.NaN;
-				continue;
-			} else {
-				int type = Wand.allPoints() ? Roi.FREEROI : Roi.TRACED_ROI;
-				PolygonRoi roi = new PolygonRoi(w.xpoints, w.ypoints,
-						w.npoints, type);
-				feretValues = roi.getFeretValues();
-				this.feretMin[s] = feretValues[2] * this.vW;
-				this.feretAngle[s] = feretValues[1] * Math.PI / 180;
-				this.feretMax[s] = feretValues[0] * this.vW;
-				this.perimeter[s] = roi.getLength() * this.vW;
-			}
-			if (this.doOriented && orienteer != null) {
-				double[][] points = new double[w.npoints][2];
-				for (int i = 0; i < w.npoints; i++) {
-					points[i][0] = w.xpoints[i] * this.vW;
-					points[i][1] = w.ypoints[i] * this.vH;
-				}
-				double[] diameters = orienteer.getDiameters(points);
-				this.principalDiameter[s] = diameters[0];
-				this.secondaryDiameter[s] = diameters[1];
+		if (this.emptySlices[s] || w.npoints == 0) {
+			this.feretMin[s] = Double.NaN;
+			this.feretAngle[s] = Double.NaN;
+			this.feretMax[s] = Double.NaN;
+			this.perimeter[s] = Double.NaN;
+			this.principalDiameter[s] = Double.NaN;
+			this.secondaryDiameter[s] = Double.NaN;
+			return;
+		}
+		int type = Wand.allPoints() ? Roi.FREEROI : Roi.TRACED_ROI;
+		PolygonRoi roi = new PolygonRoi(w.xpoints, w.ypoints, w.npoints, type);
+		double[] feretValues = roi.getFeretValues();
+		this.feretMin[s] = feretValues[2] * this.vW;
+		this.feretAngle[s] = feretValues[1] * Math.PI / 180;
+		this.feretMax[s] = feretValues[0] * this.vW;
+		this.perimeter[s] = roi.getLength() * this.vW;
+		if (this.doOriented && orienteer != null) {
+			double[][] points = new double[w.npoints][2];
+			for (int i = 0; i < w.npoints; i++) {
+				points[i][0] = w.xpoints[i] * this.vW;
+				points[i][1] = w.ypoints[i] * this.vH;
 			}
-			feretValues = null;
+			double[] diameters = orienteer.getDiameters(points);
+			this.principalDiameter[s] = diameters[0];
+			this.secondaryDiameter[s] = diameters[1];
 		}
-		IJ.setSlice(initialSlice);
-		imp.setRoi(initialRoi);
-		return;
 	}
 
 	public boolean dialogItemChanged(GenericDialog gd, AWTEvent e) {
@@ -1,5 +1,9 @@
 package org.doube.bonej;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
 import ij.*;
 import ij.gui.GenericDialog;
 import ij.macro.Interpreter;
@@ -7,6 +11,7 @@ import ij.plugin.PlugIn;
 import ij.plugin.frame.RoiManager;
 import ij.process.*;
 
+import org.bonej.io.ChunkedVolume;
 import org.doube.util.ImageCheck;
 import org.doube.util.ResultInserter;
 import org.doube.util.RoiMan;
@@ -99,6 +104,7 @@ public class Thickness implements PlugIn {
 		gd.addCheckbox("Graphic Result", true);
 		gd.addCheckbox("Use_ROI_Manager", false);
 		gd.addCheckbox("Mask thickness map", true);
+		gd.addStringField("Save_intermediates_to", "", 30);
 		gd.addHelp("http://bonej.org/thickness");
 		gd.showDialog();
 		if (gd.wasCanceled()) {
@@ -109,6 +115,7 @@ public class Thickness implements PlugIn {
 		boolean doGraphic = gd.getNextBoolean();
 		boolean doRoi = gd.getNextBoolean();
 		boolean doMask = gd.getNextBoolean();
+		String saveDirectory = gd.getNextString().trim();
 
 		long startTime = System.currentTimeMillis();
 		String title = stripExtension(imp.getTitle());
@@ -128,6 +135,8 @@ public class Thickness implements PlugIn {
 				impLTC = getLocalThickness(imp, inverse, doMask);
 			impLTC.setTitle(title + "_Tb.Th");
 			impLTC.setCalibration(imp.getCalibration());
+			if (saveDirectory.length() > 0)
+				saveMap(impLTC, imp, saveDirectory, doMask, doRoi);
 			double[] stats = StackStats.meanStdDev(impLTC);
 			insertResults(imp, stats, inverse);
 			if (doGraphic && !Interpreter.isBatchMode()) {
@@ -151,6 +160,8 @@ public class Thickness implements PlugIn {
 			// check marrow cavity size (i.e. trabcular separation, Tb.Sp)
 			impLTCi.setTitle(title + "_Tb.Sp");
 			impLTCi.setCalibration(imp.getCalibration());
+			if (saveDirectory.length() > 0)
+				saveMap(impLTCi, imp, saveDirectory, doMask, doRoi);
 			double[] stats = StackStats.meanStdDev(impLTCi);
 			insertResults(imp, stats, inverse);
 			if (doGraphic && !Interpreter.isBatchMode()) {
@@ -169,6 +180,33 @@ public class Thickness implements PlugIn {
 		return;
 	}
 
+	/**
+	 * Save a thickness map as a chunked volume, named after the map
+	 * 
+	 * @param map
+	 *            thickness or spacing map
+	 * @param imp
+	 *            image the map was calculated from
+	 * @param directory
+	 */
+	private void saveMap(ImagePlus map, ImagePlus imp, String directory,
+			boolean doMask, boolean doRoi) {
+		Map<String, String> metadata = ChunkedVolume.provenance("Thickness",
+				imp);
+		metadata.put("map", map.getTitle());
+		metadata.put("mask", "" + doMask);
+		metadata.put("roi", "" + doRoi);
+		File file = new File(directory, map.getTitle()
+				+ ChunkedVolume.EXTENSION);
+		IJ.showStatus("Saving " + file.getName());
+		try {
+			ChunkedVolume.write(file, map, metadata);
+		} catch (IOException e) {
+			IJ.error("Thickness", "Could not save " + file.getName() + ": "
+					+ e.getMessage());
+		}
+	}
+
 	// Modified from ImageJ code by Wayne Rasband
 	String stripExtension(String name) {
 		if (name != null) {
@@ -701,7 +739,7 @@ public class Thickness implements PlugIn {
 	 * of radius r1 centered at (dx,dy,dz) includes a "ball" of radius r
 	 * centered at the origin. "Ball" refers to a 3D integer grid.
 	 */
-	int[] scanCube(int dx, int dy, int dz, int[] distSqValues) {
+	static int[] scanCube(int dx, int dy, int dz, int[] distSqValues) {
 		final int numRadii = distSqValues.length;
 		int[] r1Sq = new int[numRadii];
 		if ((dx == 0) && (dy == 0) && (dz == 0)) {
@@ -24,15 +24,11 @@ import java.awt.Choice;
 import java.awt.Rectangle;
 import java.awt.TextField;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.vecmath.Color3f;
-import javax.vecmath.Point3f;
-
-import marchingcubes.MCTriangulator;
-
+import org.doube.geometry.IndexedMesh;
+import org.doube.geometry.MarchingCubes;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
 import org.doube.util.Multithreader;
@@ -40,8 +36,6 @@ import org.doube.util.ResultInserter;
 import org.doube.util.RoiMan;
 import org.doube.util.UsageReporter;
 
-import customnode.CustomTriangleMesh;
-
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
@@ -54,12 +48,12 @@ import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.gui.Roi;
 import ij.gui.WaitForUserDialog;
-import ij3d.Image3DUniverse;
 
 public class VolumeFraction implements PlugIn, DialogListener {
 
 	public void run(String arg) {
-		if (!ImageCheck.checkEnvironment())
+		// Java 3D and the 3D Viewer are checked only if a mesh is displayed
+		if (!ImageCheck.checkIJVersion())
 			return;
 		final ImagePlus imp = IJ.getImage();
 		if (null == imp) {
@@ -80,6 +74,7 @@ public class VolumeFraction implements PlugIn, DialogListener {
 		gd.addCheckbox("Use ROI Manager", true);
 		gd.addCheckbox("Show 3D result", false);
 		((Checkbox) gd.getCheckboxes().get(1)).setEnabled(false);
+		gd.addCheckbox("Surface area (mesh-free)", false);
 		gd.addHelp("http://bonej.org/volumefraction");
 		gd.addDialogListener(this);
 		gd.showDialog();
@@ -90,18 +85,20 @@ public class VolumeFraction implements PlugIn, DialogListener {
 		final int resampling = (int) Math.floor(gd.getNextNumber());
 		final boolean useRoiManager = gd.getNextBoolean();
 		final boolean show3D = gd.getNextBoolean();
+		final boolean doArea = gd.getNextBoolean();
 
 		final double[] thresholds = setThreshold(imp);
 		final double minT = thresholds[0];
 		final double maxT = thresholds[1];
 
 		double[] volumes = new double[2];
+		ImagePlus[] templates = null;
 		if (type.equals(types[0])) {
 			volumes = getVolumes(imp, minT, maxT, useRoiManager);
 		} else if (type.equals(types[1])) {
 			try {
-				volumes = getSurfaceVolume(imp, minT, maxT, resampling,
-						useRoiManager, show3D);
+				templates = getTemplates(imp, minT, maxT, useRoiManager);
+				volumes = getSurfaceVolume(templates, resampling, show3D);
 			} catch (Exception e) {
 				IJ.handleException(e);
 				return;
@@ -116,6 +113,13 @@ public class VolumeFraction implements PlugIn, DialogListener {
 		ri.setResultInRow(imp, "BV (" + cal.getUnits() + "³)", volBone);
 		ri.setResultInRow(imp, "TV (" + cal.getUnits() + "³)", volTotal);
 		ri.setResultInRow(imp, "BV/TV", p);
+		if (doArea) {
+			// reuse the Surface method's foreground template if there is one
+			double area = templates == null ? getSurfaceArea(imp, minT, maxT,
+					useRoiManager) : getSurfaceArea(templates[0]);
+			ri.setResultInRow(imp, "BS (" + cal.getUnits() + "²)", area);
+			ri.setResultInRow(imp, "BS/BV", area / volBone);
+		}
 		ri.updateTable();
 		UsageReporter.reportEvent(this).send();
 		return;
@@ -254,10 +258,82 @@ public class VolumeFraction implements PlugIn, DialogListener {
 	 *            display bone surface and ROI surface in the 3D Viewer
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public double[] getSurfaceVolume(final ImagePlus imp, final double minT,
 			final double maxT, int resampling, final boolean useRoiMan,
 			boolean show3D) {
+		return getSurfaceVolume(getTemplates(imp, minT, maxT, useRoiMan),
+				resampling, show3D);
+	}
+
+	private double[] getSurfaceVolume(ImagePlus[] templates, int resampling,
+			boolean show3D) {
+		ImagePlus outImp = templates[0];
+		ImagePlus maskImp = templates[1];
+		IJ.showStatus("Creating surface mesh...");
+		IndexedMesh surface = MarchingCubes.getMesh(outImp, 128, resampling);
+		IJ.showStatus("Calculating BV...");
+		double boneVolume = Math.abs(surface.getVolume());
+		IJ.showStatus("Creating surface mesh...");
+		IndexedMesh mask = MarchingCubes.getMesh(maskImp, 128, resampling);
+		IJ.showStatus("Calculating TV...");
+		double totalVolume = Math.abs(mask.getVolume());
+		double[] volumes = { boneVolume, totalVolume };
+		IJ.showStatus("");
+		if (show3D && ImageCheck.checkEnvironment())
+			MeshViewer.showVolumes(surface.getTriangles(), mask.getTriangles());
+		return volumes;
+	}
+
+	/**
+	 * Estimate the foreground (bone) surface area without making a mesh, from
+	 * the configurations of the 2&times;2&times;2 voxel neighbourhoods of the
+	 * thresholded voxels. The foreground is cut at the edges of the ROIs, and
+	 * the cut faces are included in the surface area.
+	 * 
+	 * @param imp
+	 *            Input ImagePlus
+	 * @param minT
+	 *            threshold minimum
+	 * @param maxT
+	 *            threshold maximum
+	 * @param useRoiMan
+	 *            limit the measurement to ROIs in the ROI Manager
+	 * @return calibrated surface area
+	 * @see OctantHistogram
+	 */
+	public double getSurfaceArea(final ImagePlus imp, final double minT,
+			final double maxT, final boolean useRoiMan) {
+		if (imp.getRoi() == null
+				&& (!useRoiMan || RoiManager.getInstance() == null)) {
+			// nothing to cut the foreground, so no template is needed
+			IJ.showStatus("Counting voxel configurations...");
+			long[] histogram = OctantHistogram.getHistogram(imp, minT, maxT);
+			IJ.showStatus("");
+			return OctantHistogram.getSurfaceArea(histogram,
+					imp.getCalibration());
+		}
+		return getSurfaceArea(getTemplates(imp, minT, maxT, useRoiMan)[0]);
+	}
+
+	/**
+	 * Estimate the surface area of a binary foreground template
+	 */
+	private double getSurfaceArea(ImagePlus outImp) {
+		IJ.showStatus("Counting voxel configurations...");
+		long[] histogram = OctantHistogram.getHistogram(outImp);
+		IJ.showStatus("");
+		return OctantHistogram.getSurfaceArea(histogram,
+				outImp.getCalibration());
+	}
+
+	/**
+	 * Draw binary images of the thresholded foreground and of the ROIs, cropped
+	 * to the ROIs' bounding box
+	 * 
+	 * @return ImagePlus[2] containing the foreground and ROI templates
+	 */
+	private ImagePlus[] getTemplates(final ImagePlus imp, final double minT,
+			final double maxT, final boolean useRoiMan) {
 		final ImageStack stack = imp.getImageStack();
 		final int w = stack.getWidth();
 		final int h = stack.getHeight();
@@ -284,8 +360,8 @@ public class VolumeFraction implements PlugIn, DialogListener {
 		ImageStack outStack = new ImageStack(wi, hi, di);
 		ImageStack maskStack = new ImageStack(wi, hi, di);
 		for (int i = 0; i < di; i++) {
-			outStack.setPixels(Moments.getEmptyPixels(wi, hi, 8), i + 1);
-			maskStack.setPixels(Moments.getEmptyPixels(wi, hi, 8), i + 1);
+			outStack.setPixels(new byte[wi * hi], i + 1);
+			maskStack.setPixels(new byte[wi * hi], i + 1);
 			outIps[i] = outStack.getProcessor(i + 1);
 			maskIps[i] = maskStack.getProcessor(i + 1);
 		}
@@ -355,31 +431,8 @@ public class VolumeFraction implements PlugIn, DialogListener {
 		ImagePlus maskImp = new ImagePlus();
 		maskImp.setStack("Mask", maskStack);
 		maskImp.setCalibration(imp.getCalibration());
-		IJ.showStatus("Creating surface mesh...");
-		Color3f yellow = new Color3f(1.0f, 1.0f, 0.0f);
-		Color3f blue = new Color3f(0.0f, 0.0f, 1.0f);
-		boolean[] channels = { true, false, false };
-		MCTriangulator mct = new MCTriangulator();
-		List<Point3f> points = mct.getTriangles(outImp, 128, channels,
-				resampling);
-		CustomTriangleMesh surface = new CustomTriangleMesh(points, yellow,
-				0.4f);
-		IJ.showStatus("Calculating BV...");
-		double boneVolume = Math.abs(surface.getVolume());
-		IJ.showStatus("Creating surface mesh...");
-		points = mct.getTriangles(maskImp, 128, channels, resampling);
-		CustomTriangleMesh mask = new CustomTriangleMesh(points, blue, 0.65f);
-		IJ.showStatus("Calculating TV...");
-		double totalVolume = Math.abs(mask.getVolume());
-		double[] volumes = { boneVolume, totalVolume };
-		IJ.showStatus("");
-		if (show3D) {
-			Image3DUniverse univ = new Image3DUniverse();
-			univ.addCustomMesh(surface, "BV");
-			univ.addCustomMesh(mask, "TV");
-			univ.show();
-		}
-		return volumes;
+		ImagePlus[] templates = { outImp, maskImp };
+		return templates;
 	}
 
 	private double[] setThreshold(ImagePlus imp) {
@@ -0,0 +1,340 @@
+/*
+	This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+	Batch density distribution analysis of a directory of Stratec files
+    Copyright (C) 2011 Timo Rantalainen
+*/
+
+package org.doube.bonej.pqct;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.UnsupportedDataTypeException;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+import ij.process.ShortProcessor;
+
+import org.doube.bonej.pqct.analysis.ConcentricRingAnalysis;
+import org.doube.bonej.pqct.analysis.CorticalAnalysis;
+import org.doube.bonej.pqct.analysis.DetermineAlfa;
+import org.doube.bonej.pqct.analysis.DistributionAnalysis;
+import org.doube.bonej.pqct.analysis.MassDistribution;
+import org.doube.bonej.pqct.analysis.SoftTissueAnalysis;
+import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
+import org.doube.bonej.pqct.io.ScaledImageData;
+import org.doube.bonej.pqct.io.StratecFile;
+import org.doube.bonej.pqct.io.TypCalibration;
+import org.doube.bonej.pqct.selectroi.RoiSelector;
+import org.doube.bonej.pqct.selectroi.SelectROI;
+import org.doube.bonej.pqct.selectroi.SelectSoftROI;
+import org.doube.bonej.pqct.utils.ResultsWriter;
+import org.doube.util.Multithreader;
+import org.doube.util.UsageReporter;
+
+/**
+ * <p>
+ * Run Distribution Analysis on every Stratec pQCT file in a directory, without
+ * opening the images. Files are analysed in parallel and each file's results
+ * are written to a single tab-separated results file as soon as the files
+ * before it are done, so the results file is in file name order and a long
+ * run's results are not held in memory.
+ * </p>
+ * <p>
+ * The analyses are the same as Distribution Analysis on an opened Stratec
+ * image, except that no result images are made and manual ROIs and rotations
+ * are not available. Files which are not Stratec files are skipped, and
+ * files which cannot be read are logged and skipped.
+ * {@link #process(File, boolean, File, ImageAndAnalysisDetails, boolean)}
+ * needs no GUI, so it can be called from headless scripts.
+ * </p>
+ */
+public class Batch_Distribution_Analysis implements PlugIn {
+
+	public void run(String arg) {
+		GenericDialog dialog = new GenericDialog("Batch analysis parameters");
+		String directory = Prefs.getDefaultDirectory();
+		if (directory == null)
+			directory = "";
+		dialog.addStringField("Input_directory", directory, 40);
+		dialog.addCheckbox("Include_subdirectories", true);
+		dialog.addStringField("Results_file", new File(directory,
+				"results.txt").getPath(), 40);
+		dialog.addCheckbox("Scale_with_each_file's_TYP_calibration", true);
+		double[] calibrationCoefficients = { 0, 1 };
+		Distribution_Analysis.addAnalysisFields(dialog,
+				calibrationCoefficients);
+		dialog.addHelp("http://bonej.org/densitydistribution");
+		dialog.showDialog();
+		if (dialog.wasCanceled())
+			return;
+		File input = new File(dialog.getNextString().trim());
+		boolean recurse = dialog.getNextBoolean();
+		File output = new File(dialog.getNextString().trim());
+		boolean typCalibration = dialog.getNextBoolean();
+		ImageAndAnalysisDetails details = Distribution_Analysis
+				.getAnalysisDetails(dialog);
+		if (!input.isDirectory()) {
+			IJ.error("Batch Distribution Analysis", input
+					+ " is not a directory");
+			return;
+		}
+		if (!isAnalysisSelected(details)) {
+			IJ.error("Batch Distribution Analysis",
+					"No analysis was selected.");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			int nAnalysed = process(input, recurse, output, details,
+					typCalibration);
+			IJ.log("Analysed " + nAnalysed + " Stratec files in "
+					+ IJ.d2s((System.currentTimeMillis() - start) / 1000.0, 3)
+					+ " s. Results written to " + output.getPath());
+		} catch (IOException e) {
+			IJ.error("Batch Distribution Analysis",
+					"Could not write results: " + e.getMessage());
+		}
+		UsageReporter.reportEvent(this).send();
+	}
+
+	private static boolean isAnalysisSelected(ImageAndAnalysisDetails details) {
+		return details.cOn || details.mOn || details.conOn || details.dOn
+				|| details.stOn;
+	}
+
+	/**
+	 * Analyse all the Stratec files in a directory
+	 *
+	 * @param directory
+	 * @param recurse
+	 *            true to include subdirectories
+	 * @param output
+	 *            tab-separated results file, which is overwritten
+	 * @param details
+	 *            analysis options and thresholds, which are not modified
+	 * @param typCalibration
+	 *            true to scale each file with its device's TYP calibration,
+	 *            false to use the scaling in details
+	 * @return number of files analysed
+	 * @throws IllegalArgumentException
+	 *             if no analysis is selected in details
+	 * @throws IOException
+	 *             if the results cannot be written
+	 */
+	public static int process(File directory, boolean recurse, File output,
+			final ImageAndAnalysisDetails details, final boolean typCalibration)
+			throws IOException {
+		if (!isAnalysisSelected(details))
+			throw new IllegalArgumentException("No analysis was selected");
+		List<File> fileList = new ArrayList<File>();
+		listFiles(directory, recurse, fileList);
+		final File[] files = fileList.toArray(new File[fileList.size()]);
+		final boolean alphaOn = details.cOn || details.mOn || details.conOn
+				|| details.dOn;
+		final Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output), "UTF-8"));
+		final OrderedLines lines = new OrderedLines(out, files.length);
+		final AtomicInteger ai = new AtomicInteger(0);
+		final AtomicInteger nDone = new AtomicInteger(0);
+		final AtomicInteger nAnalysed = new AtomicInteger(0);
+		try {
+			out.write(new ResultsWriter(null, alphaOn).getHeader(details));
+			out.write("\n");
+			Thread[] threads = Multithreader.newThreads();
+			for (int thread = 0; thread < threads.length; thread++) {
+				threads[thread] = new Thread(new Runnable() {
+					public void run() {
+						for (int f = ai.getAndIncrement(); f < files.length;
+								f = ai.getAndIncrement()) {
+							String result = null;
+							try {
+								result = analyse(StratecFile.open(files[f]),
+										details, typCalibration);
+								nAnalysed.incrementAndGet();
+							} catch (UnsupportedDataTypeException e) {
+								// not a Stratec file
+							} catch (IOException e) {
+								IJ.log(files[f].getPath()
+										+ ": could not be read: " + e);
+							} catch (Exception e) {
+								IJ.log(files[f].getPath()
+										+ ": analysis failed: " + e);
+							}
+							lines.put(f, result);
+							IJ.showProgress(nDone.incrementAndGet(),
+									files.length);
+						}
+					}
+				});
+			}
+			Multithreader.startAndJoin(threads);
+		} finally {
+			out.close();
+		}
+		lines.checkError();
+		return nAnalysed.get();
+	}
+
+	private static void listFiles(File directory, boolean recurse,
+			List<File> list) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory()) {
+				if (recurse)
+					listFiles(file, recurse, list);
+			} else if (file.length() > StratecFile.HEADER_LENGTH)
+				list.add(file);
+		}
+	}
+
+	/**
+	 * Run the analyses selected in details on one file, as Distribution
+	 * Analysis does on an opened Stratec image
+	 *
+	 * @return a tab-separated line of results
+	 */
+	static String analyse(StratecFile stratecFile,
+			ImageAndAnalysisDetails defaultDetails, boolean typCalibration) {
+		// ROI selection updates the details, so each file needs a copy
+		ImageAndAnalysisDetails details = defaultDetails.copy();
+		if (typCalibration) {
+			double[] calibrationCoefficients = TypCalibration
+					.getCoefficients(stratecFile.getDevice());
+			details.scalingFactor = calibrationCoefficients[1];
+			details.constant = calibrationCoefficients[0];
+		}
+		final String imageInfo = stratecFile.getProperties();
+		final int width = stratecFile.getWidth();
+		final int height = stratecFile.getHeight();
+		short[] pixels = stratecFile.getPixels();
+		ImagePlus imp = new ImagePlus(stratecFile.getFile().getName(),
+				new ShortProcessor(width, height, pixels, null));
+		imp.setProperty("Info", imageInfo);
+		ScaledImageData scaledImageData = new ScaledImageData(
+				StratecFile.toSigned(pixels), width, height,
+				stratecFile.getVoxelSize(), details.scalingFactor,
+				details.constant, 3, details.flipHorizontal,
+				details.flipVertical, details.noFiltering, 1);
+
+		RoiSelector roi = null;
+		if (details.cOn || details.mOn || details.conOn || details.dOn)
+			roi = new SelectROI(scaledImageData, details, imp,
+					details.boneThreshold, false);
+		RoiSelector softRoi = null;
+		if (details.stOn) {
+			softRoi = new SelectSoftROI(scaledImageData, details, imp,
+					details.boneThreshold, false);
+			if (roi == null)
+				roi = softRoi;
+		}
+		boolean alphaOn = false;
+		DetermineAlfa determineAlfa = null;
+		if (details.cOn || details.mOn || details.conOn || details.dOn) {
+			determineAlfa = new DetermineAlfa((SelectROI) roi, details);
+			alphaOn = true;
+		}
+		if (roi != null) {
+			details.flipDistribution = roi.details.flipDistribution;
+			details.stacked = roi.details.stacked;
+		}
+
+		ResultsWriter resultsWriter = new ResultsWriter(imageInfo, alphaOn);
+		String results = resultsWriter.printResults("", details, imp);
+		if (determineAlfa != null)
+			results = resultsWriter.printAlfa(results, determineAlfa);
+		if (details.stOn)
+			results = resultsWriter.printSoftTissueResults(results,
+					new SoftTissueAnalysis((SelectSoftROI) softRoi));
+		if (details.cOn)
+			results = resultsWriter.printCorticalResults(results,
+					new CorticalAnalysis((SelectROI) roi));
+		if (details.mOn)
+			results = resultsWriter.printMassDistributionResults(results,
+					new MassDistribution((SelectROI) roi, details,
+							determineAlfa), details);
+		if (details.conOn)
+			results = resultsWriter.printConcentricRingResults(results,
+					new ConcentricRingAnalysis((SelectROI) roi, details,
+							determineAlfa), details);
+		if (details.dOn)
+			results = resultsWriter.printDistributionResults(results,
+					new DistributionAnalysis((SelectROI) roi, details,
+							determineAlfa), details);
+		return results;
+	}
+
+	/**
+	 * Writes lines which arrive in any order in the order of their indices,
+	 * as soon as all the lines before them have arrived
+	 */
+	private static class OrderedLines {
+		private final Writer out;
+		private final String[] pending;
+		private final boolean[] arrived;
+		private int next = 0;
+		private IOException error;
+
+		OrderedLines(Writer out, int nLines) {
+			this.out = out;
+			this.pending = new String[nLines];
+			this.arrived = new boolean[nLines];
+		}
+
+		/**
+		 * @param index
+		 *            position of the line
+		 * @param line
+		 *            line, or null to leave no line at this position
+		 */
+		synchronized void put(int index, String line) {
+			pending[index] = line;
+			arrived[index] = true;
+			while (next < arrived.length && arrived[next]) {
+				if (pending[next] != null && error == null) {
+					try {
+						out.write(pending[next]);
+						out.write("\n");
+						out.flush();
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+				pending[next] = null;
+				next++;
+			}
+		}
+
+		/** @throws IOException if any line could not be written */
+		synchronized void checkError() throws IOException {
+			if (error != null)
+				throw error;
+		}
+	}
+}
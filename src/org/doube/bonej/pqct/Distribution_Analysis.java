@@ -40,7 +40,13 @@ import ij.plugin.filter.Info;
 import ij.io.*;
 
 public class Distribution_Analysis implements PlugIn {
-
+	/*Set sector widths and division numbers*/
+	static final int[] sectorsAndDivisions = {10,3,10,10}; /*Distribution analysis sectorWidth, Distribution analysis sectors, Concentric distribution analysis sectorWidth, Concentric distribution analysis sectors*/
+	static final int[] filterSizes = {3,7};		//first is used for bone analysis filtering and second for soft tissue analysis filtering. ?x? median filter.
+	static final String[] choiceLabels = {"Bigger","Smaller","Left","Right","Top","Bottom","Central","Peripheral","SecondLargest","TwoLargestLeft","TwoLargestRight"
+								,"FirstFromLeft","SecondFromLeft","ThirdFromLeft","FourthFromLeft","FifthFromLeft"
+								,"FirstFromTop","SecondFromTop","ThirdFromTop","FourthFromTop","FifthFromTop"};
+	static final String[] rotationLabels = {"According_to_Imax/Imin","Furthest_point","All_Bones_Imax/Imin","Not_selected_to_right","Selected_to_right"};
 
 	String resultString;
 	String imageInfo;
@@ -55,9 +61,6 @@ public class Distribution_Analysis implements PlugIn {
 			IJ.error("Distribution analysis expects 16-bit greyscale data");
 			return;
 		}
-		/*Set sector widths and division numbers*/
-		int[] sectorsAndDivisions = {10,3,10,10}; /*Distribution analysis sectorWidth, Distribution analysis sectors, Concentric distribution analysis sectorWidth, Concentric distribution analysis sectors*/
-		int[] filterSizes = {3,7};		//first is used for bone analysis filtering and second for soft tissue analysis filtering. ?x? median filter.
 		imageInfo = new Info().getImageInfo(imp,imp.getChannelProcessor());
 		/*Check image calibration*/
 		Calibration cal = imp.getCalibration();
@@ -67,43 +70,8 @@ public class Distribution_Analysis implements PlugIn {
 				calibrationCoefficients = cal.getCoefficients();
 			}
 		} else {
-			calibrationCoefficients = new double[2];
 			/*Read calibration from TYP file database*/
-			String typFileName = getInfoProperty(imageInfo,"Device");
-			try {
-				InputStream ir = this.getClass().getClassLoader().getResourceAsStream("org/doube/bonej/pqct/typ/"+typFileName);
-				byte[] typFileData = new byte[ir.available()];
-				ir.read(typFileData);
-				ir.close();
-				String typFiledDataString = new String(typFileData,"ISO-8859-1");
-				//break the typFileDataString into lines
-				StringTokenizer st = new StringTokenizer(typFiledDataString, "\n");
-				Vector<String> typFileLines = new Vector<String>();
-				while(st.hasMoreTokens()){
-					typFileLines.add(st.nextToken());
-				}
-				//Search for XSlope and XInter
-				String[] searchFor = {"XInter","XSlope"};
-				for (int i = 0;i<searchFor.length;++i){
-					int index = 0;
-					String temp = typFileLines.get(index);
-					while (temp.indexOf(searchFor[i]) < 0 && index < typFileLines.size()){
-						++index;
-						temp = typFileLines.get(index);
-					}
-					if (temp.indexOf(searchFor[i]) >= 0){	//Found line
-						StringTokenizer st2 = new StringTokenizer(temp, "=");
-						Vector<String> typFileLineTokens = new Vector<String>();
-						while(st2.hasMoreTokens()){
-							typFileLineTokens.add(st2.nextToken().trim());
-						}
-						calibrationCoefficients[i] = Double.valueOf(typFileLineTokens.get(1));
-					} else {
-						calibrationCoefficients[i] = (double) i*1000.0;
-					}
-				}
-				calibrationCoefficients[1] /= 1000.0;		//1.495
-			} catch (Exception err){System.err.println("Error: "+err.getMessage());}
+			calibrationCoefficients = TypCalibration.getCoefficients(getInfoProperty(imageInfo,"Device"));
 		}
 		
 		resolution = cal.pixelWidth;
@@ -116,114 +84,13 @@ public class Distribution_Analysis implements PlugIn {
 		}
 		//Get parameters for scaling the image and for thresholding
 		GenericDialog dialog = new GenericDialog("Analysis parameters");
-		String[] topLabels = new String[4];
-		boolean[] defaultTopValues = new boolean[4];
-		topLabels[0] = "Flip_horizontal";
-		defaultTopValues[0] = false;
-		topLabels[1] = "Flip_vertical";
-		defaultTopValues[1] = false;
-		topLabels[2] = "No_filtering";
-		defaultTopValues[2] = false;
-		topLabels[3] = "Measurement_tube";
-		defaultTopValues[3] = false;
-		dialog.addCheckboxGroup(1, 4, topLabels, defaultTopValues);
-		
-		dialog.addNumericField("Air_threshold", -40, 4, 8, null);	//Anything above this is fat or more dense
-		dialog.addNumericField("Fat threshold", 40, 4, 8, null);		//Anything between this and air threshold is fat
-		dialog.addNumericField("Muscle_threshold", 40, 4, 8, null);		//Anything above this is muscle or more dense
-		dialog.addNumericField("Marrow_threshold", 80, 4, 8, null);		//Anything above this is muscle or more dense		
-		dialog.addNumericField("Soft_tissue_threshold", 200.0, 4, 8, null);		//Anything  between this and muscle threshold is muscle
-		dialog.addNumericField("Rotation_threshold", 200.0, 4, 8, null);
-		dialog.addNumericField("Area threshold", 550.0, 4, 8, null); 	//550.0
-		dialog.addNumericField("BMD threshold", 690.0, 4, 8, null);		//690.0
-		
-		
-		dialog.addNumericField("Scaling_coefficient (slope)", calibrationCoefficients[1], 4, 8, null);
-		dialog.addNumericField("Scaling_constant (intercept)",calibrationCoefficients[0], 4, 8, null);
-		
-		/*
-		//Debugging
-		dialog.addNumericField("Scaling_coefficient (slope)", 0.821, 4, 8, null);
-		dialog.addNumericField("Scaling_constant (intercept)",-856.036, 4, 8, null);
-		*/
-		//Get ROI selection
-		String[] choiceLabels = {"Bigger","Smaller","Left","Right","Top","Bottom","Central","Peripheral","SecondLargest","TwoLargestLeft","TwoLargestRight"
-								,"FirstFromLeft","SecondFromLeft","ThirdFromLeft","FourthFromLeft","FifthFromLeft"
-								,"FirstFromTop","SecondFromTop","ThirdFromTop","FourthFromTop","FifthFromTop"};
-		dialog.addChoice("Roi_selection", choiceLabels, choiceLabels[0]); 
-		dialog.addChoice("Soft_Tissue_Roi_selection", choiceLabels, choiceLabels[0]); 
-		String[] rotationLabels = {"According_to_Imax/Imin","Furthest_point","All_Bones_Imax/Imin","Not_selected_to_right","Selected_to_right"};
-		dialog.addChoice("Rotation_selection", rotationLabels, rotationLabels[0]); //"According_to_Imax/Imin"
-		
-		String[] middleLabels = new String[10];
-		boolean[] middleDefaults = new boolean[10];
-		middleLabels[0] = "Analyse_cortical_results";
-		middleDefaults[0] = false;
-		middleLabels[1] = "Analyse_mass_distribution";
-		middleDefaults[1] = false;
-		middleLabels[2] = "Analyse_concentric_density_distribution";
-		middleDefaults[2] = false;
-		middleLabels[3] = "Analyse_density_distribution";
-		middleDefaults[3] = true;
-		middleLabels[4] = "Analyse_soft_tissues";
-		middleDefaults[4] = false;
-		middleLabels[5] = "Prevent_peeling_PVE_pixels";
-		middleDefaults[5] = false;
-		middleLabels[6] = "Allow_cleaving";
-		middleDefaults[6] = false;
-		middleLabels[7] = "Suppress_result_image";
-		middleDefaults[7] = false;
-		middleLabels[8] = "Limit_ROI_search_to_manually_selected";
-		middleDefaults[8] = false;
-		middleLabels[9] = "Set_distribution_results_rotation_manually";
-		middleDefaults[9] = false;
-		dialog.addCheckboxGroup(4, 3, middleLabels, middleDefaults);
-		
-		dialog.addNumericField("Manual_rotation_[+-_180_deg]", 0.0, 4, 8, null);
-		
-		String[] bottomLabels = new String[8];
-		boolean[] bottomDefaults = new boolean[8];
-		bottomLabels[0] = "Guess_flip";
-		bottomDefaults[0] = false;
-		bottomLabels[1] = "Guess_right";
-		bottomDefaults[1] = false;
-		bottomLabels[2] = "Guess_larger";
-		bottomDefaults[2] = false;
-		bottomLabels[3] = "Stacked_bones";
-		bottomDefaults[3] = false;
-		bottomLabels[4] = "Guess_stacked";
-		bottomDefaults[4] = false;
-		bottomLabels[5] = "Invert_flip_guess";
-		bottomDefaults[5] = false;
-		bottomLabels[6] = "Flip_distribution_results";
-		bottomDefaults[6] = false;
-		bottomLabels[7] = "Save_visual_result_image_on_disk";
-		bottomDefaults[7] = false;
-		dialog.addCheckboxGroup(2, 5, bottomLabels, bottomDefaults);
-		
+		addAnalysisFields(dialog,calibrationCoefficients);
 		dialog.addStringField("Image_save_path",Prefs.getDefaultDirectory(),40);
 		dialog.addHelp("http://bonej.org/densitydistribution");
 		dialog.showDialog();
 		
 		if (dialog.wasOKed()){ //Stop in case of cancel..
-			for (int i = 0; i<defaultTopValues.length;++i){
-				defaultTopValues[i] = dialog.getNextBoolean();
-			}
-			double[] thresholdsAndScaling = new double[10];
-			for (int i = 0; i<thresholdsAndScaling.length;++i){
-				thresholdsAndScaling[i]		= dialog.getNextNumber();
-			}
-			String[] alignmentStrings = new String[3];
-			for (int i = 0; i<alignmentStrings.length;++i){
-				alignmentStrings[i]		= dialog.getNextChoice();
-			}
-			for (int i = 0; i<middleDefaults.length;++i){
-				middleDefaults[i] = dialog.getNextBoolean();
-			}
-			double manualAlfa			= dialog.getNextNumber()*Math.PI/180.0;
-			for (int i = 0; i<bottomDefaults.length;++i){
-				bottomDefaults[i] = dialog.getNextBoolean();
-			}
+			ImageAndAnalysisDetails imageAndAnalysisDetails = getAnalysisDetails(dialog);
 			String imageSavePath 		= dialog.getNextString();
 			ScaledImageData scaledImageData;
 			
@@ -263,14 +130,6 @@ public class Distribution_Analysis implements PlugIn {
 				for (int i=0;i<tempPointer.length;++i){signedShort[i] = (int) (floatPointer[i]*origCalCoeffs[1]+origCalCoeffs[0]);}
 			}
 			
-			ImageAndAnalysisDetails imageAndAnalysisDetails = new ImageAndAnalysisDetails(	defaultTopValues,
-																							thresholdsAndScaling,
-																							alignmentStrings,choiceLabels,rotationLabels,
-																							middleDefaults,
-																							manualAlfa,
-																							bottomDefaults,
-																							sectorsAndDivisions,
-																							filterSizes);
 			scaledImageData = new ScaledImageData(signedShort, imp.getWidth(), imp.getHeight(),resolution, imageAndAnalysisDetails.scalingFactor, imageAndAnalysisDetails.constant,3,imageAndAnalysisDetails.flipHorizontal,imageAndAnalysisDetails.flipVertical,imageAndAnalysisDetails.noFiltering);	//Scale and 3x3 median filter the data
 			RoiSelector roi = null;
 			if(imageAndAnalysisDetails.cOn || imageAndAnalysisDetails.mOn || imageAndAnalysisDetails.conOn || imageAndAnalysisDetails.dOn){
@@ -400,6 +259,131 @@ public class Distribution_Analysis implements PlugIn {
 		UsageReporter.reportEvent(this).send();
 	}
 
+	/**
+		Add the thresholds, scaling and analysis options to a dialog, in the order read by getAnalysisDetails
+		@param dialog	dialog to add the fields to
+		@param calibrationCoefficients	{intercept, slope} default scaling
+	*/
+	public static void addAnalysisFields(GenericDialog dialog,double[] calibrationCoefficients){
+		String[] topLabels = new String[4];
+		boolean[] defaultTopValues = new boolean[4];
+		topLabels[0] = "Flip_horizontal";
+		defaultTopValues[0] = false;
+		topLabels[1] = "Flip_vertical";
+		defaultTopValues[1] = false;
+		topLabels[2] = "No_filtering";
+		defaultTopValues[2] = false;
+		topLabels[3] = "Measurement_tube";
+		defaultTopValues[3] = false;
+		dialog.addCheckboxGroup(1, 4, topLabels, defaultTopValues);
+		
+		dialog.addNumericField("Air_threshold", -40, 4, 8, null);	//Anything above this is fat or more dense
+		dialog.addNumericField("Fat threshold", 40, 4, 8, null);		//Anything between this and air threshold is fat
+		dialog.addNumericField("Muscle_threshold", 40, 4, 8, null);		//Anything above this is muscle or more dense
+		dialog.addNumericField("Marrow_threshold", 80, 4, 8, null);		//Anything above this is muscle or more dense		
+		dialog.addNumericField("Soft_tissue_threshold", 200.0, 4, 8, null);		//Anything  between this and muscle threshold is muscle
+		dialog.addNumericField("Rotation_threshold", 200.0, 4, 8, null);
+		dialog.addNumericField("Area threshold", 550.0, 4, 8, null); 	//550.0
+		dialog.addNumericField("BMD threshold", 690.0, 4, 8, null);		//690.0
+		
+		
+		dialog.addNumericField("Scaling_coefficient (slope)", calibrationCoefficients[1], 4, 8, null);
+		dialog.addNumericField("Scaling_constant (intercept)",calibrationCoefficients[0], 4, 8, null);
+		
+		/*
+		//Debugging
+		dialog.addNumericField("Scaling_coefficient (slope)", 0.821, 4, 8, null);
+		dialog.addNumericField("Scaling_constant (intercept)",-856.036, 4, 8, null);
+		*/
+		//Get ROI selection
+		dialog.addChoice("Roi_selection", choiceLabels, choiceLabels[0]); 
+		dialog.addChoice("Soft_Tissue_Roi_selection", choiceLabels, choiceLabels[0]); 
+		dialog.addChoice("Rotation_selection", rotationLabels, rotationLabels[0]); //"According_to_Imax/Imin"
+		
+		String[] middleLabels = new String[10];
+		boolean[] middleDefaults = new boolean[10];
+		middleLabels[0] = "Analyse_cortical_results";
+		middleDefaults[0] = false;
+		middleLabels[1] = "Analyse_mass_distribution";
+		middleDefaults[1] = false;
+		middleLabels[2] = "Analyse_concentric_density_distribution";
+		middleDefaults[2] = false;
+		middleLabels[3] = "Analyse_density_distribution";
+		middleDefaults[3] = true;
+		middleLabels[4] = "Analyse_soft_tissues";
+		middleDefaults[4] = false;
+		middleLabels[5] = "Prevent_peeling_PVE_pixels";
+		middleDefaults[5] = false;
+		middleLabels[6] = "Allow_cleaving";
+		middleDefaults[6] = false;
+		middleLabels[7] = "Suppress_result_image";
+		middleDefaults[7] = false;
+		middleLabels[8] = "Limit_ROI_search_to_manually_selected";
+		middleDefaults[8] = false;
+		middleLabels[9] = "Set_distribution_results_rotation_manually";
+		middleDefaults[9] = false;
+		dialog.addCheckboxGroup(4, 3, middleLabels, middleDefaults);
+		
+		dialog.addNumericField("Manual_rotation_[+-_180_deg]", 0.0, 4, 8, null);
+		
+		String[] bottomLabels = new String[8];
+		boolean[] bottomDefaults = new boolean[8];
+		bottomLabels[0] = "Guess_flip";
+		bottomDefaults[0] = false;
+		bottomLabels[1] = "Guess_right";
+		bottomDefaults[1] = false;
+		bottomLabels[2] = "Guess_larger";
+		bottomDefaults[2] = false;
+		bottomLabels[3] = "Stacked_bones";
+		bottomDefaults[3] = false;
+		bottomLabels[4] = "Guess_stacked";
+		bottomDefaults[4] = false;
+		bottomLabels[5] = "Invert_flip_guess";
+		bottomDefaults[5] = false;
+		bottomLabels[6] = "Flip_distribution_results";
+		bottomDefaults[6] = false;
+		bottomLabels[7] = "Save_visual_result_image_on_disk";
+		bottomDefaults[7] = false;
+		dialog.addCheckboxGroup(2, 5, bottomLabels, bottomDefaults);
+	}
+
+	/**
+		Read the fields added by addAnalysisFields
+		@param dialog	dialog which has been shown and OKed
+		@return analysis details
+	*/
+	public static ImageAndAnalysisDetails getAnalysisDetails(GenericDialog dialog){
+		boolean[] defaultTopValues = new boolean[4];
+		boolean[] middleDefaults = new boolean[10];
+		boolean[] bottomDefaults = new boolean[8];
+		for (int i = 0; i<defaultTopValues.length;++i){
+			defaultTopValues[i] = dialog.getNextBoolean();
+		}
+		double[] thresholdsAndScaling = new double[10];
+		for (int i = 0; i<thresholdsAndScaling.length;++i){
+			thresholdsAndScaling[i]		= dialog.getNextNumber();
+		}
+		String[] alignmentStrings = new String[3];
+		for (int i = 0; i<alignmentStrings.length;++i){
+			alignmentStrings[i]		= dialog.getNextChoice();
+		}
+		for (int i = 0; i<middleDefaults.length;++i){
+			middleDefaults[i] = dialog.getNextBoolean();
+		}
+		double manualAlfa			= dialog.getNextNumber()*Math.PI/180.0;
+		for (int i = 0; i<bottomDefaults.length;++i){
+			bottomDefaults[i] = dialog.getNextBoolean();
+		}
+		return new ImageAndAnalysisDetails(defaultTopValues,
+											thresholdsAndScaling,
+											alignmentStrings,choiceLabels,rotationLabels,
+											middleDefaults,
+											manualAlfa,
+											bottomDefaults,
+											sectorsAndDivisions,
+											filterSizes);
+	}
+
 	public static String getInfoProperty(String properties,String propertyToGet){
 		String toTokenize = properties;
 		StringTokenizer st = new StringTokenizer(toTokenize,"\n");
@@ -30,6 +30,7 @@ import ij.plugin.*;
 import ij.measure.*; //Calibration
 import javax.activation.*; //UnsupportedDataTypeException
 
+import org.doube.bonej.pqct.io.StratecFile;
 import org.doube.util.UsageReporter;
 
 public class Read_Stratec_File extends ImagePlus implements PlugIn {
@@ -140,36 +141,13 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 	 * @throws Exception
 	 */
 	private void read(String directory) throws Exception {
-		File fileIn = new File(directory + fileName);
-		long fileLength = fileIn.length();
-		byte[] fileData;
+		StratecFile stratecFile;
 		try {
-			BufferedInputStream inputStream = new BufferedInputStream(
-					new FileInputStream(fileIn));
-			DataInputStream dataInputStream = new DataInputStream(inputStream);
-			// Allocate memory for reading the file into memory
-			fileData = new byte[(int) fileLength];
-			// Read the data to memory
-			dataInputStream.read(fileData, 0, (int) fileLength);
-			// Close the file after reading
-			dataInputStream.close();
-		} catch (Exception e) {
-			throw new UnsupportedDataTypeException("Could not read input file.");
-		}
-		// Read some data from the file Header
-		if (fileLength > 1609) {
-			Device = new String(fileData, 1051, fileData[1050]);
-		} else {
-			throw new UnsupportedDataTypeException(
-					"Apparently not a Stratec file, file length < 1609 bytes.");
-		}
-
-		if (fileLength > 1609 && Device.toLowerCase().indexOf(".typ") >= 0) {
-			readHeader(fileData);
-		} else {
-			throw new UnsupportedDataTypeException(
-					"Apparently not a Stratec file, device string not found.");
+			stratecFile = StratecFile.open(new File(directory + fileName));
+		} catch (IOException e) {
+			throw new UnsupportedDataTypeException(e.getMessage());
 		}
+		readHeader(stratecFile);
 		// Create ImageJ image
 		ImagePlus tempImage = NewImage.createShortImage(
 				fileName + " " + Double.toString(VoxelSize), PicMatrixX,
@@ -179,26 +157,16 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 		// Set ImageJ image properties
 		setProperties(directory);
 		short[] pixels = (short[]) this.getProcessor().getPixels();
+		System.arraycopy(stratecFile.getPixels(), 0, pixels, 0, pixels.length);
 		int min = (int) Math.pow(2, 16);
 		int max = 0;
-		for (int j = 0; j < PicMatrixY; ++j) {
-			for (int i = 0; i < PicMatrixX; ++i) {
-				final int offset = 1609 + 2 * (i + j * PicMatrixX);
-				int value = (int) ((short) (((fileData[offset + 1] & 0xFF)) << 8 | ((short) (fileData[offset] & 0xFF)) << 0));
-
-				if (value >= 0) {
-					value = (int) -Math.pow(2, 15) + value;
-				} else {
-					value = (int) Math.pow(2, 15) - 1 + value;
-				}
-				int tempVal = value & 0xFFFF;
-				if (tempVal < min) {
-					min = tempVal;
-				}
-				if (tempVal > max) {
-					max = tempVal;
-				}
-				pixels[i + j * PicMatrixX] = (short) value;
+		for (int i = 0; i < pixels.length; ++i) {
+			int tempVal = pixels[i] & 0xFFFF;
+			if (tempVal < min) {
+				min = tempVal;
+			}
+			if (tempVal > max) {
+				max = tempVal;
 			}
 		}
 		this.setDisplayRange(min, max);
@@ -209,66 +177,21 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 		cal.pixelWidth = cal.pixelHeight = cal.pixelDepth = VoxelSize;
 	}
 
-	private void readHeader(byte[] fileData) {
-		// byte stringLength;
-		int offset = 12;
-		VoxelSize = Double
-				.longBitsToDouble((long) (((long) (fileData[offset + 7] & 0xFF)) << 56
-						| ((long) (fileData[offset + 6] & 0xFF)) << 48
-						| ((long) (fileData[offset + 5] & 0xFF)) << 40
-						| ((long) (fileData[offset + 4] & 0xFF)) << 32
-						| ((long) (fileData[offset + 3] & 0xFF)) << 24
-						| ((long) (fileData[offset + 2] & 0xFF)) << 16
-						| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)) << 0));
-
-		offset = 318;
-		ObjLen = Double
-				.longBitsToDouble((long) (((long) (fileData[offset + 7] & 0xFF)) << 56
-						| ((long) (fileData[offset + 6] & 0xFF)) << 48
-						| ((long) (fileData[offset + 5] & 0xFF)) << 40
-						| ((long) (fileData[offset + 4] & 0xFF)) << 32
-						| ((long) (fileData[offset + 3] & 0xFF)) << 24
-						| ((long) (fileData[offset + 2] & 0xFF)) << 16
-						| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)) << 0));
-
-		offset = 662;
-		MeasInfo = new String(fileData, offset + 1, fileData[offset]);
-
-		offset = 986;
-		MeasDate = (long) (((long) (fileData[offset + 3] & 0xFF)) << 24
-				| ((long) (fileData[offset + 2] & 0xFF)) << 16
-				| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1085;
-		PatMeasNo = ((int) ((int) (fileData[offset + 1] & 0xFF)) << 8 | ((int) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1087;
-		PatNo = (long) (((long) (fileData[offset + 3] & 0xFF)) << 24
-				| ((long) (fileData[offset + 2] & 0xFF)) << 16
-				| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1091;
-		PatBirth = (long) (((long) (fileData[offset + 3] & 0xFF)) << 24
-				| ((long) (fileData[offset + 2] & 0xFF)) << 16
-				| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1099;
-		PatName = new String(fileData, offset + 1, fileData[offset]);
-
-		offset = 1282;
-		PatID = new String(fileData, offset + 1, fileData[offset]);
-
-		offset = 1525;
-		PicX0 = ((int) ((int) (fileData[offset + 1] & 0xFF)) << 8 | ((int) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1527;
-		PicY0 = ((int) ((int) (fileData[offset + 1] & 0xFF)) << 8 | ((int) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1529;
-		PicMatrixX = ((int) ((int) (fileData[offset + 1] & 0xFF)) << 8 | ((int) (fileData[offset + 0] & 0xFF)));
-
-		offset = 1531;
-		PicMatrixY = ((int) ((int) (fileData[offset + 1] & 0xFF)) << 8 | ((int) (fileData[offset + 0] & 0xFF)));
+	private void readHeader(StratecFile stratecFile) {
+		Device = stratecFile.getDevice();
+		VoxelSize = stratecFile.getVoxelSize();
+		ObjLen = stratecFile.getObjLen();
+		MeasInfo = stratecFile.getMeasInfo();
+		MeasDate = stratecFile.getMeasDate();
+		PatMeasNo = stratecFile.getPatMeasNo();
+		PatNo = stratecFile.getPatNo();
+		PatBirth = stratecFile.getPatBirth();
+		PatName = stratecFile.getPatName();
+		PatID = stratecFile.getPatID();
+		PicX0 = stratecFile.getPicX0();
+		PicY0 = stratecFile.getPicY0();
+		PicMatrixX = stratecFile.getWidth();
+		PicMatrixY = stratecFile.getHeight();
 	}
 
 	private void setProperties(String directory) {
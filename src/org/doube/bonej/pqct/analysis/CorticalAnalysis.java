@@ -92,25 +92,25 @@ public class CorticalAnalysis{
 		BMD = 0;
 		AREA = 0;
 		cortexCenter = new double[2];
-		for (int j = 0;j< roi.cortexRoiI.size();j++){
-			BMD+=roi.cortexROI[roi.cortexRoiI.get(j)+roi.cortexRoiJ.get(j)*roi.width];
+		for (int j = 0;j< roi.cortexRoi.size();j++){
+			BMD+=roi.cortexROI[roi.cortexRoi.getI(j)+roi.cortexRoi.getJ(j)*roi.width];
 		}
-		BMD/=(double)roi.cortexRoiI.size();
+		BMD/=(double)roi.cortexRoi.size();
 		//Calculate cortical area from 550 threshold...
-		for (int j = 0;j< roi.cortexAreaRoiI.size();j++){
-			cortexCenter[0]+=(double)roi.cortexAreaRoiI.get(j);
-			cortexCenter[1]+=(double)roi.cortexAreaRoiJ.get(j);
+		for (int j = 0;j< roi.cortexAreaRoi.size();j++){
+			cortexCenter[0]+=(double)roi.cortexAreaRoi.getI(j);
+			cortexCenter[1]+=(double)roi.cortexAreaRoi.getJ(j);
 		}
-		AREA=(double)roi.cortexAreaRoiI.size()*roi.pixelSpacing*roi.pixelSpacing;
+		AREA=(double)roi.cortexAreaRoi.size()*roi.pixelSpacing*roi.pixelSpacing;
 		MeA = ToA - AREA;
-		cortexCenter[0] /=(double)roi.cortexAreaRoiI.size();
-		cortexCenter[1] /=(double)roi.cortexAreaRoiJ.size();
+		cortexCenter[0] /=(double)roi.cortexAreaRoi.size();
+		cortexCenter[1] /=(double)roi.cortexAreaRoi.size();
 		maxRadiusY = 0; //y for cortical pixels. used for BSI calculations, i.e. density weighted section modulus
-		for (int i = 0; i< roi.cortexAreaRoiI.size();i++){
-			if (Math.sqrt(((double)roi.cortexAreaRoiI.get(i)-cortexCenter[0])*((double)roi.cortexAreaRoiI.get(i)-cortexCenter[0])
-				+((double)roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*((double)roi.cortexAreaRoiJ.get(i)-cortexCenter[1])) > maxRadiusY){
-				maxRadiusY = Math.sqrt(((double)roi.cortexAreaRoiI.get(i)-cortexCenter[0])*((double)roi.cortexAreaRoiI.get(i)-cortexCenter[0])
-				+((double)roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*((double)roi.cortexAreaRoiJ.get(i)-cortexCenter[1]));
+		for (int i = 0; i< roi.cortexAreaRoi.size();i++){
+			if (Math.sqrt(((double)roi.cortexAreaRoi.getI(i)-cortexCenter[0])*((double)roi.cortexAreaRoi.getI(i)-cortexCenter[0])
+				+((double)roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*((double)roi.cortexAreaRoi.getJ(i)-cortexCenter[1])) > maxRadiusY){
+				maxRadiusY = Math.sqrt(((double)roi.cortexAreaRoi.getI(i)-cortexCenter[0])*((double)roi.cortexAreaRoi.getI(i)-cortexCenter[0])
+				+((double)roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*((double)roi.cortexAreaRoi.getJ(i)-cortexCenter[1]));
 			}
 		}
 		//Calculate CSMIs and rotation angle to align maximal and minimal bending axes with X and Y axes
@@ -125,24 +125,24 @@ public class CorticalAnalysis{
 		double dwymax = 0;
 		SSI = 0;
 		//Calculating cross-sectional moment of inertia in the original image orientation
-		for (int i = 0;i<roi.cortexAreaRoiI.size();i++){
-			xmax = xmax+((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing)*((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing)*roi.pixelSpacing*roi.pixelSpacing;
-			ymax = ymax+((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing)*((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing)*roi.pixelSpacing*roi.pixelSpacing;
-			moment = moment+((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing)*((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing)*roi.pixelSpacing*roi.pixelSpacing;
-			dwxmax = dwxmax+((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing/10)*((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]);
-			dwymax = dwymax+((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing/10)*((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]);
-			dwmo = dwmo+((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing/10)*((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]);
-			ssixmax	+= Math.pow((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing,2.0)
-						*Math.pow(roi.pixelSpacing,2.0)*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]/1200)
+		for (int i = 0;i<roi.cortexAreaRoi.size();i++){
+			xmax = xmax+((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing)*((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing)*roi.pixelSpacing*roi.pixelSpacing;
+			ymax = ymax+((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing)*((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing)*roi.pixelSpacing*roi.pixelSpacing;
+			moment = moment+((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing)*((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing)*roi.pixelSpacing*roi.pixelSpacing;
+			dwxmax = dwxmax+((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing/10)*((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]);
+			dwymax = dwymax+((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing/10)*((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]);
+			dwmo = dwmo+((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing/10)*((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.pixelSpacing/10)*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]);
+			ssixmax	+= Math.pow((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing,2.0)
+						*Math.pow(roi.pixelSpacing,2.0)*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]/1200)
 						/(maxRadiusY*roi.pixelSpacing);
-			ssiymax	+= Math.pow((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing,2.0)
-						*Math.pow(roi.pixelSpacing,2.0)*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]/1200)
+			ssiymax	+= Math.pow((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing,2.0)
+						*Math.pow(roi.pixelSpacing,2.0)*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]/1200)
 						/(maxRadiusY*roi.pixelSpacing);
-			ssimo	+= (roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing*
-						(roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing
-						*Math.pow(roi.pixelSpacing,2.0)*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]/1200)
+			ssimo	+= (roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing*
+						(roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing
+						*Math.pow(roi.pixelSpacing,2.0)*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]/1200)
 						/(maxRadiusY*roi.pixelSpacing);
-			SSI = SSI+(( ((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing)*((roi.cortexAreaRoiI.get(i)-cortexCenter[0])*roi.pixelSpacing) + ((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing)*((roi.cortexAreaRoiJ.get(i)-cortexCenter[1])*roi.pixelSpacing))*roi.pixelSpacing*roi.pixelSpacing*(roi.scaledImage[roi.cortexAreaRoiI.get(i)+roi.cortexAreaRoiJ.get(i)*roi.width]/1200))/(maxRadiusY*roi.pixelSpacing);
+			SSI = SSI+(( ((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing)*((roi.cortexAreaRoi.getI(i)-cortexCenter[0])*roi.pixelSpacing) + ((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing)*((roi.cortexAreaRoi.getJ(i)-cortexCenter[1])*roi.pixelSpacing))*roi.pixelSpacing*roi.pixelSpacing*(roi.scaledImage[roi.cortexAreaRoi.getI(i)+roi.cortexAreaRoi.getJ(i)*roi.width]/1200))/(maxRadiusY*roi.pixelSpacing);
 		}
 
 
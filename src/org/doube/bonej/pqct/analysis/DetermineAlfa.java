@@ -88,15 +88,15 @@ public class DetermineAlfa{
 		if (details.rotationChoice.equals(details.rotationLabels[1])){
 			/*Calculate alfa from periosteal radii*/
 			double[] marrowCenter = new double[2];
-			for (int i = 0; i< roi.boneMarrowRoiI.size();i++){
-				marrowCenter[0]+=(double)roi.boneMarrowRoiI.get(i);
-				marrowCenter[1]+=(double)roi.boneMarrowRoiJ.get(i);
+			for (int i = 0; i< roi.boneMarrowRoi.size();i++){
+				marrowCenter[0]+=(double)roi.boneMarrowRoi.getI(i);
+				marrowCenter[1]+=(double)roi.boneMarrowRoi.getJ(i);
 			}
-			marrowCenter[0] /=(double)roi.boneMarrowRoiI.size();
-			marrowCenter[1] /=(double)roi.boneMarrowRoiJ.size();
+			marrowCenter[0] /=(double)roi.boneMarrowRoi.size();
+			marrowCenter[1] /=(double)roi.boneMarrowRoi.size();
 			double[] radii = new double[roi.edges.get(roi.selection).length];
 			for (int i = 0; i<roi.edges.get(roi.selection).length;++i){
-				radii[i] = Math.sqrt(Math.pow(roi.edges.get(roi.selection).iit.get(i)-marrowCenter[0],2)+Math.pow(roi.edges.get(roi.selection).jiit.get(i)-marrowCenter[1],2));
+				radii[i] = Math.sqrt(Math.pow(roi.edges.get(roi.selection).edge.getI(i)-marrowCenter[0],2)+Math.pow(roi.edges.get(roi.selection).edge.getJ(i)-marrowCenter[1],2));
 			}
 			double[] sumRadii = new double[radii.length];
 			for (int i = 5;i<radii.length-6;++i){
@@ -129,10 +129,9 @@ public class DetermineAlfa{
 				otherBoneSelection = twoBones[0];
 			}
 			/*Fill a sieve with a second bone and acquire coordinates...*/
-			Vector<Integer> sRoiI = tempRoi.edges.get(otherBoneSelection).iit;
-			Vector<Integer> sRoiJ = tempRoi.edges.get(otherBoneSelection).jiit;
+			IntPairBuffer sRoi = tempRoi.edges.get(otherBoneSelection).edge;
 
-			byte[] secondBoneSieve = tempRoi.fillSieve(sRoiI, sRoiJ, tempRoi.width,tempRoi.height,tempRoi.scaledImage,details.rotationThreshold);
+			byte[] secondBoneSieve = tempRoi.fillSieve(sRoi, tempRoi.width,tempRoi.height,tempRoi.scaledImage,details.rotationThreshold);
 			
 			double[] selectedBoneCenter = calculateCenter(tempRoi.sieve, tempRoi.width, tempRoi.height);			/*Calculate selected bone centre*/
 			double[] otherBoneCenter = calculateCenter(secondBoneSieve, tempRoi.width, tempRoi.height);			/*Calculate other bone centre*/
@@ -224,15 +223,13 @@ public class DetermineAlfa{
 	double[] csmi(byte[] sieve,int width, int height){
 		double[] cortexCenter = new double[2];
 		int points = 0;
-		Vector<Integer> bmcI = new Vector<Integer>();
-		Vector<Integer> bmcJ = new Vector<Integer>();
+		IntPairBuffer bmc = new IntPairBuffer();
 		for (int j = 0; j< height;j++){
 			for (int i = 0; i< width;i++){
 				if (sieve[i+j*width] > 0){
 					cortexCenter[0]+=(double) i;
 					cortexCenter[1]+=(double) j;
-					bmcI.add(i);
-					bmcJ.add(j);
+					bmc.add(i,j);
 					++points;
 				}
 			}
@@ -243,10 +240,12 @@ public class DetermineAlfa{
 		double[] returnValues = new double[3];
 		for (int i = 0;i<returnValues.length;++i){returnValues[i] = 0;}
 		//Calculating cross-sectional moment of inertia in the original image orientation
-		for (int i = 0;i<bmcI.size();i++){
-			returnValues[0] +=((bmcI.get(i)-cortexCenter[0]))*((bmcI.get(i)-cortexCenter[0]));
-			returnValues[1] +=((bmcJ.get(i)-cortexCenter[1]))*((bmcJ.get(i)-cortexCenter[1]));
-			returnValues[2] +=((bmcI.get(i)-cortexCenter[0]))*((bmcJ.get(i)-cortexCenter[1]));
+		int[] bmcI = bmc.toIArray();
+		int[] bmcJ = bmc.toJArray();
+		for (int i = 0;i<bmcI.length;i++){
+			returnValues[0] +=((bmcI[i]-cortexCenter[0]))*((bmcI[i]-cortexCenter[0]));
+			returnValues[1] +=((bmcJ[i]-cortexCenter[1]))*((bmcJ[i]-cortexCenter[1]));
+			returnValues[2] +=((bmcI[i]-cortexCenter[0]))*((bmcJ[i]-cortexCenter[1]));
 		}		
 		return returnValues;
 	}
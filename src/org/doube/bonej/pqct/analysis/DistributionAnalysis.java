@@ -43,10 +43,8 @@ public class DistributionAnalysis{
 	public double threshold;	
 	
 	//Vectors for bone and marrow bone pixel coordinates
-	Vector<Integer> marrowI;
-	Vector<Integer>  marrowJ;
-	Vector<Integer> cortexI;
-	Vector<Integer> cortexJ;
+	IntPairBuffer marrow;
+	IntPairBuffer cortex;
 	double maxRadius;
 	double maxRadiusY;
 	public double[] marrowCenter;
@@ -91,8 +89,7 @@ public class DistributionAnalysis{
 		threshold = details.BMDthreshold;
 		minimum = roi.minimum;
 		maximum = roi.maximum;
-		marrowI = roi.boneMarrowRoiI;
-		marrowJ = roi.boneMarrowRoiJ;
+		marrow = roi.boneMarrowRoi;
 		height = roi.height;
 		width = roi.width;
 		pixelSpacing = roi.pixelSpacing;
@@ -102,16 +99,15 @@ public class DistributionAnalysis{
 		peeledROI = (double[]) roi.cortexROI.clone();
 		erode(peeledROI);
 		marrowCenter = new double[2];
-		for (int i = 0; i< marrowI.size();i++){
-			marrowCenter[0]+=(double)marrowI.get(i);
-			marrowCenter[1]+=(double)marrowJ.get(i);
+		for (int i = 0; i< marrow.size();i++){
+			marrowCenter[0]+=(double)marrow.getI(i);
+			marrowCenter[1]+=(double)marrow.getJ(i);
 		}
-		marrowCenter[0] /=(double)marrowI.size();
-		marrowCenter[1] /=(double)marrowJ.size();
+		marrowCenter[0] /=(double)marrow.size();
+		marrowCenter[1] /=(double)marrow.size();
 		//IJ.log("C0 "+marrowCenter[0]+" C1 "+marrowCenter[1]);
 		maxRadius = 0;
-		cortexI = new Vector<Integer>();
-		cortexJ = new Vector<Integer>();
+		cortex = new IntPairBuffer();
 		peeledBMD = 0;
 		int tempCounter = 0;
 		for (int j = 0; j< height;j++){
@@ -124,27 +120,26 @@ public class DistributionAnalysis{
 					peeledBMD+=peeledROI[i+j*width];
 				}
 				if (originalROI[i+j*width] >= threshold){
-					cortexI.add(i);
-					cortexJ.add(j);
+					cortex.add(i,j);
 				}
 			}
 		}
 		peeledBMD/=((double) tempCounter);	
 		
 		cortexCenter = new double[2];
-		for (int i = 0; i< cortexI.size();i++){
-			cortexCenter[0]+=(double)cortexI.get(i);
-			cortexCenter[1]+=(double)cortexJ.get(i);
+		for (int i = 0; i< cortex.size();i++){
+			cortexCenter[0]+=(double)cortex.getI(i);
+			cortexCenter[1]+=(double)cortex.getJ(i);
 
 		}
-		cortexCenter[0] /=(double)cortexI.size();
-		cortexCenter[1] /=(double)cortexJ.size();
+		cortexCenter[0] /=(double)cortex.size();
+		cortexCenter[1] /=(double)cortex.size();
 		maxRadiusY = 0; //y for cortical pixels. used for BSI calculations, i.e. density weighted section modulus
-		for (int i = 0; i< cortexI.size();i++){
-			if (Math.sqrt(((double)cortexI.get(i)-cortexCenter[0])*((double)cortexI.get(i)-cortexCenter[0])
-				+((double)cortexJ.get(i)-cortexCenter[1])*((double)cortexJ.get(i)-cortexCenter[1])) > maxRadiusY){
-				maxRadiusY = Math.sqrt(((double)cortexI.get(i)-cortexCenter[0])*((double)cortexI.get(i)-cortexCenter[0])
-				+((double)cortexJ.get(i)-cortexCenter[1])*((double)cortexJ.get(i)-cortexCenter[1]));
+		for (int i = 0; i< cortex.size();i++){
+			if (Math.sqrt(((double)cortex.getI(i)-cortexCenter[0])*((double)cortex.getI(i)-cortexCenter[0])
+				+((double)cortex.getJ(i)-cortexCenter[1])*((double)cortex.getJ(i)-cortexCenter[1])) > maxRadiusY){
+				maxRadiusY = Math.sqrt(((double)cortex.getI(i)-cortexCenter[0])*((double)cortex.getI(i)-cortexCenter[0])
+				+((double)cortex.getJ(i)-cortexCenter[1])*((double)cortex.getJ(i)-cortexCenter[1]));
 			}
 		}
 		if (preventPeeling){
@@ -20,7 +20,7 @@
 
 package org.doube.bonej.pqct.io;
 
-public class ImageAndAnalysisDetails{
+public class ImageAndAnalysisDetails implements Cloneable{
 	public boolean flipHorizontal;
 	public boolean flipVertical;
 	public boolean noFiltering;
@@ -152,4 +152,16 @@ public class ImageAndAnalysisDetails{
 		/*Can't remember whether this is needed...*/
 		this.imageSavePath 			= new String("");	
 	}
+
+	/**
+		Copy the details, for example to analyse several images in parallel,
+		as ROI selection updates the stacking and flipping guesses
+	*/
+	public ImageAndAnalysisDetails copy(){
+		try{
+			return (ImageAndAnalysisDetails) clone();
+		}catch (CloneNotSupportedException e){
+			throw new AssertionError(e);
+		}
+	}
 }
@@ -20,6 +20,9 @@
 
 package org.doube.bonej.pqct.io;
 import java.util.*;	//Vector, Collections
+import java.util.concurrent.atomic.AtomicInteger;
+import ij.Prefs;
+import org.doube.util.Multithreader;
 
 public class ScaledImageData{
 	public double[] scaledImage;
@@ -31,25 +34,46 @@ public class ScaledImageData{
 	public int height;
 	public double pixelSpacing;
 	int filterSize;
+	/*Largest data range median filtered with a histogram, larger ranges are sorted instead*/
+	static final int MAX_HISTOGRAM_BINS = 1<<16;
 	//Constructor
 	public ScaledImageData(int[] data, int widthIn, int heightIn, double VoxelSize, double scalingFactor, double constant, int filterSize,boolean flipHorizontal, boolean flipVertical,boolean noFiltering){
+		this(data,widthIn,heightIn,VoxelSize,scalingFactor,constant,filterSize,flipHorizontal,flipVertical,noFiltering,Prefs.getThreads());
+	}
+
+	/*
+		@param nThreads	number of threads to filter with, 1 when the caller already runs one image per thread
+	*/
+	public ScaledImageData(int[] data, int widthIn, int heightIn, double VoxelSize, double scalingFactor, double constant, int filterSize,boolean flipHorizontal, boolean flipVertical,boolean noFiltering,int nThreads){
 		height = heightIn;
 		width = widthIn;
 		pixelSpacing = VoxelSize;
 		filterSize = 3;		//filterSize x filterSize median filter will be used
 		double[] unFiltered = new double[width*height];
-
+		/*Scale the image and get the min and max values in the same scan*/
+		minimum = Double.POSITIVE_INFINITY;
+		maximum = Double.NEGATIVE_INFINITY;
+		int dataMin = Integer.MAX_VALUE;
+		int dataMax = Integer.MIN_VALUE;
 		for (int t = 0;t<width*height;t++){	//Scale the image
 			unFiltered[t] = ((double) data[t])*scalingFactor+constant;
+			if (unFiltered[t] < minimum){minimum = unFiltered[t];}
+			if (unFiltered[t] > maximum){maximum = unFiltered[t];}
+			if (data[t] < dataMin){dataMin = data[t];}
+			if (data[t] > dataMax){dataMax = data[t];}
+		}
+		/*The scaling is monotonic, so the median of the scaled values is the scaled median of the data,
+		which can be found with a histogram of the data if its range is small enough*/
+		boolean useHistogram = width*height > 0 && (long) dataMax-dataMin < MAX_HISTOGRAM_BINS;
+		if (useHistogram){
+			softScaledImage = histogramMedianFilter(data,dataMin,dataMax-dataMin+1,scalingFactor,constant,7,nThreads);
+		}else{
+			softScaledImage = medianFilter(unFiltered,width,height,7); //Median filter data
 		}
-		/*Get the min and max values*/
-		double[] tempSort = (double[]) unFiltered.clone();
-		Arrays.sort(tempSort);
-		minimum = tempSort[0];
-		maximum = tempSort[tempSort.length-1];
-		softScaledImage = medianFilter(unFiltered,width,height,7); //Median filter data
 		if (noFiltering){
 			scaledImage = (double[]) unFiltered.clone();
+		}else if (useHistogram){
+			scaledImage = histogramMedianFilter(data,dataMin,dataMax-dataMin+1,scalingFactor,constant,filterSize,nThreads);
 		}else{		
 			scaledImage = medianFilter(unFiltered,width,height,filterSize); //Median filter data
 		}
@@ -112,5 +136,81 @@ public class ScaledImageData{
 		
 		return filtered;
 	}
-	
+
+	/*
+		Median filter with a sliding histogram (Huang et al. 1979), instead of sorting filterSize^2 values per pixel.
+		Sliding the window takes 2*filterSize histogram updates per pixel. The median is tracked with the count of values below it,
+		and walks one bin at a time to the new median, so a pixel also takes as many steps as the median moves: usually few,
+		since neighbouring medians are close, but up to bins (at most MAX_HISTOGRAM_BINS) where the image jumps between extremes.
+		Rows are filtered in parallel. The result equals medianFilter on the scaled data, since the scaling maps the data median
+		to the scaled median.
+		@param data			unscaled data
+		@param dataMin		smallest value in data
+		@param bins			range of values in data
+		@param nThreads		number of threads to filter rows with
+		@return median filtered, scaled data, with a frame of the minimum value as in medianFilter
+	*/
+	double[] histogramMedianFilter(final int[] data, final int dataMin, final int bins, final double scalingFactor, final double constant,final int filterSize,int nThreads){
+		final double[] filtered = new double[width*height];
+		for (int i = 0; i< filtered.length; ++i) {filtered[i] = minimum;}
+		final int noGo = filterSize/2;
+		final int n = filterSize*filterSize;
+		/*A negative scaling reverses the order of the values, the rank used by medianFilter is counted from the other end*/
+		final int median = scalingFactor < 0 ? n-1-n/2 : n/2;
+		final AtomicInteger ai = new AtomicInteger(noGo);
+		Thread[] threads = Multithreader.newThreads(Math.max(1,nThreads));
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					int[] histogram = new int[bins];
+					int value = data[0]-dataMin;	//Median of the window
+					for (int row = ai.getAndIncrement(); row < height-noGo; row = ai.getAndIncrement()) {
+						if (width < filterSize){break;}
+						/*Fill the histogram with the first window of the row, counting values below the previous median*/
+						int below = 0;
+						for (int r = row-noGo; r <= row+noGo; ++r) {
+							for (int c = 0; c < filterSize; ++c) {
+								int bin = data[r*width+c]-dataMin;
+								++histogram[bin];
+								if (bin < value){++below;}
+							}
+						}
+						for (int col = noGo; col < width-noGo; ++col) {
+							if (col > noGo) {
+								/*Slide the window one column to the right*/
+								int out = col-noGo-1;
+								int in = col+noGo;
+								for (int r = row-noGo; r <= row+noGo; ++r) {
+									int bin = data[r*width+out]-dataMin;
+									--histogram[bin];
+									if (bin < value){--below;}
+									bin = data[r*width+in]-dataMin;
+									++histogram[bin];
+									if (bin < value){++below;}
+								}
+							}
+							/*Move the median until at most median values are below it and more are at or below it*/
+							while (below > median) {
+								--value;
+								below -= histogram[value];
+							}
+							while (below+histogram[value] <= median) {
+								below += histogram[value];
+								++value;
+							}
+							filtered[row*width+col] = ((double) (value+dataMin))*scalingFactor+constant;
+						}
+						/*Empty the histogram for the next row*/
+						for (int r = row-noGo; r <= row+noGo; ++r) {
+							for (int c = width-filterSize; c < width; ++c) {
+								--histogram[data[r*width+c]-dataMin];
+							}
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return filtered;
+	}
 }
@@ -0,0 +1,251 @@
+/*
+	This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+	Stratec pQCT file reader
+    Copyright (C) 2011 Timo Rantalainen
+*/
+
+package org.doube.bonej.pqct.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.activation.UnsupportedDataTypeException;
+
+/**
+ * A Stratec pQCT file (I*.M*). The header and then the image are read with
+ * positional reads into heap buffers, and the pixels are decoded from the
+ * image buffer. Batch analyses open each file once, so mapping the files
+ * would only add the cost of setting up and releasing a mapping per file.
+ * The header is little-endian; strings are stored as a length byte followed
+ * by the characters.
+ */
+public class StratecFile {
+
+	/** Length of the header, which is followed by the pixels */
+	public static final int HEADER_LENGTH = 1609;
+
+	private final File file;
+	private final ByteBuffer header;
+	private final ByteBuffer image;
+
+	private final String device;
+	private final double voxelSize;
+	private final double objLen;
+	private final String measInfo;
+	private final long measDate;
+	private final int patMeasNo;
+	private final long patNo;
+	private final long patBirth;
+	private final String patName;
+	private final String patID;
+	private final int picX0;
+	private final int picY0;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Parse the header, then read the image only if the file is a Stratec
+	 * file
+	 */
+	private StratecFile(File file, FileChannel channel) throws IOException {
+		this.file = file;
+		final long length = channel.size();
+		if (length <= HEADER_LENGTH)
+			throw new UnsupportedDataTypeException(
+					"Apparently not a Stratec file, file length < 1609 bytes.");
+		header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header, 0);
+		device = getString(1050);
+		if (device.toLowerCase().indexOf(".typ") < 0)
+			throw new UnsupportedDataTypeException(
+					"Apparently not a Stratec file, device string not found.");
+		voxelSize = header.getDouble(12);
+		objLen = header.getDouble(318);
+		measInfo = getString(662);
+		measDate = header.getInt(986) & 0xFFFFFFFFL;
+		patMeasNo = header.getShort(1085) & 0xFFFF;
+		patNo = header.getInt(1087) & 0xFFFFFFFFL;
+		patBirth = header.getInt(1091) & 0xFFFFFFFFL;
+		patName = getString(1099);
+		patID = getString(1282);
+		picX0 = header.getShort(1525) & 0xFFFF;
+		picY0 = header.getShort(1527) & 0xFFFF;
+		width = header.getShort(1529) & 0xFFFF;
+		height = header.getShort(1531) & 0xFFFF;
+		if (length < HEADER_LENGTH + 2L * width * height)
+			throw new IOException("Stratec file " + file.getName()
+					+ " is shorter than its image");
+		image = ByteBuffer.allocate(2 * width * height);
+		image.order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, image, HEADER_LENGTH);
+	}
+
+	/**
+	 * Read a Stratec file's header and image
+	 *
+	 * @param file
+	 * @return the parsed file
+	 * @throws UnsupportedDataTypeException
+	 *             if the file is not a Stratec file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static StratecFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return new StratecFile(file, raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Fill a buffer from a position in the file */
+	private void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Stratec file " + file.getName()
+						+ " is truncated");
+	}
+
+	/** Read a string stored as a length byte followed by its characters */
+	private String getString(int offset) {
+		byte[] chars = new byte[header.get(offset) & 0xFF];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = header.get(offset + 1 + i);
+		return new String(chars);
+	}
+
+	/**
+	 * Decode the pixels as they are stored in an ImageJ image by
+	 * {@link org.doube.bonej.pqct.Read_Stratec_File}: each signed value is
+	 * offset into the unsigned range.
+	 *
+	 * @return width * height pixels
+	 */
+	public short[] getPixels() {
+		short[] pixels = new short[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			final int value = image.getShort(2 * i);
+			if (value >= 0)
+				pixels[i] = (short) (value - 32768);
+			else
+				pixels[i] = (short) (32767 + value);
+		}
+		return pixels;
+	}
+
+	/**
+	 * @param pixels
+	 *            from {@link #getPixels()}
+	 * @return pixels as signed values, as Distribution Analysis reads them from
+	 *         a Stratec image
+	 */
+	public static int[] toSigned(short[] pixels) {
+		int[] signed = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++)
+			signed[i] = (pixels[i] & 0xFFFF) - 32768;
+		return signed;
+	}
+
+	/**
+	 * @return header as lines of "name: value", as in the Info property of
+	 *         images opened by {@link org.doube.bonej.pqct.Read_Stratec_File}
+	 */
+	public String getProperties() {
+		String[] propertyNames = { "File Name", "File Path", "Pixel Spacing",
+				"ObjLen", "MeasInfo", "Acquisition Date", "Device",
+				"PatMeasNo", "PatNo", "Patient's Birth Date", "Patient's Name",
+				"Patient ID", "PicX0", "PicY0", "Width", "Height",
+				"Stratec File" };
+		String[] propertyValues = { file.getName(), file.getParent() + "/",
+				Double.toString(voxelSize), Double.toString(objLen), measInfo,
+				Long.toString(measDate), device, Integer.toString(patMeasNo),
+				Long.toString(patNo), Long.toString(patBirth), patName, patID,
+				Integer.toString(picX0), Integer.toString(picY0),
+				Integer.toString(width), Integer.toString(height), "1" };
+		StringBuilder properties = new StringBuilder();
+		for (int i = 0; i < propertyNames.length; ++i)
+			properties.append(propertyNames[i]).append(": ")
+					.append(propertyValues[i]).append("\n");
+		return properties.toString();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** @return name of the device's TYP calibration file */
+	public String getDevice() {
+		return device;
+	}
+
+	public double getVoxelSize() {
+		return voxelSize;
+	}
+
+	public double getObjLen() {
+		return objLen;
+	}
+
+	public String getMeasInfo() {
+		return measInfo;
+	}
+
+	public long getMeasDate() {
+		return measDate;
+	}
+
+	public int getPatMeasNo() {
+		return patMeasNo;
+	}
+
+	public long getPatNo() {
+		return patNo;
+	}
+
+	public long getPatBirth() {
+		return patBirth;
+	}
+
+	public String getPatName() {
+		return patName;
+	}
+
+	public String getPatID() {
+		return patID;
+	}
+
+	public int getPicX0() {
+		return picX0;
+	}
+
+	public int getPicY0() {
+		return picY0;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
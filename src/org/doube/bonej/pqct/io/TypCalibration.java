@@ -0,0 +1,134 @@
+/*
+	This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+	Registry of Stratec device calibrations from the TYP file database
+    Copyright (C) 2011 Timo Rantalainen
+*/
+
+package org.doube.bonej.pqct.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ij.IJ;
+
+/**
+ * Calibrations of Stratec pQCT devices, from the TYP files in
+ * org/doube/bonej/pqct/typ. Each TYP file is parsed once, into an immutable
+ * map of its "key = value" entries, which is cached by device and shared by
+ * all analyses and threads.
+ */
+public class TypCalibration {
+
+	private static final String TYP_PATH = "org/doube/bonej/pqct/typ/";
+
+	/** Cached TYP files by device; devices without a TYP file map to empty */
+	private static final ConcurrentHashMap<String, Map<String, String>>
+		typFiles = new ConcurrentHashMap<String, Map<String, String>>();
+
+	private TypCalibration() {
+	}
+
+	/**
+	 * Get the entries of a device's TYP file, parsing it the first time it is
+	 * asked for
+	 *
+	 * @param device
+	 *            name of the device's TYP file, from the Device header field
+	 * @return unmodifiable map of the entries of the TYP file, which is empty
+	 *         if the device has no TYP file
+	 */
+	public static Map<String, String> getTypFile(String device) {
+		if (device == null)
+			return Collections.emptyMap();
+		Map<String, String> typFile = typFiles.get(device);
+		if (typFile == null) {
+			typFile = parse(device);
+			// if another thread parsed it first, use that one
+			Map<String, String> previous = typFiles.putIfAbsent(device,
+					typFile);
+			if (previous != null)
+				typFile = previous;
+		}
+		return typFile;
+	}
+
+	/**
+	 * Get the coefficients which scale a device's pixel values to density.
+	 * Coefficients missing from the TYP file, or from the database, default to
+	 * no scaling.
+	 *
+	 * @param device
+	 *            name of the device's TYP file, from the Device header field
+	 * @return {intercept, slope}, from XInter and XSlope / 1000
+	 */
+	public static double[] getCoefficients(String device) {
+		Map<String, String> typFile = getTypFile(device);
+		double[] calibrationCoefficients = { 0, 1 };
+		try {
+			if (typFile.containsKey("XInter"))
+				calibrationCoefficients[0] = Double.parseDouble(typFile
+						.get("XInter"));
+			if (typFile.containsKey("XSlope"))
+				calibrationCoefficients[1] = Double.parseDouble(typFile
+						.get("XSlope")) / 1000.0;
+		} catch (NumberFormatException e) {
+			IJ.log("Invalid calibration in TYP file " + device + ": "
+					+ e.getMessage());
+		}
+		return calibrationCoefficients;
+	}
+
+	/**
+	 * Read the "key = value" lines of a TYP file. Section headings and
+	 * comments are skipped; the first value of a repeated key is kept.
+	 */
+	private static Map<String, String> parse(String device) {
+		InputStream in = TypCalibration.class.getClassLoader()
+				.getResourceAsStream(TYP_PATH + device);
+		if (in == null) {
+			IJ.log("No TYP file for device " + device
+					+ ", pixel values will not be scaled");
+			return Collections.emptyMap();
+		}
+		Map<String, String> entries = new HashMap<String, String>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "ISO-8859-1"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final int equals = line.indexOf('=');
+					if (equals < 0 || line.trim().startsWith("//"))
+						continue;
+					final String key = line.substring(0, equals).trim();
+					if (!entries.containsKey(key))
+						entries.put(key, line.substring(equals + 1).trim());
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			IJ.log("Could not read TYP file " + device + ": "
+					+ e.getMessage());
+		}
+		return Collections.unmodifiableMap(entries);
+	}
+}
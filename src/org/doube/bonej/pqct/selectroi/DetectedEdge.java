@@ -20,6 +20,7 @@
 
 package org.doube.bonej.pqct.selectroi;
 import java.util.*;	//Vector, Collections
+import java.util.List;	//not java.awt.List
 import java.lang.Math; //atan2
 import java.awt.*;			//Polygon, Rectangle
 import org.doube.bonej.pqct.io.*;	//image data
@@ -30,15 +31,17 @@ import ij.process.*;	//Debugging
 @SuppressWarnings(value ={"serial","unchecked"}) //Unchecked for obtaining Vector<Object> as a returnvalue
 
 public class DetectedEdge implements Comparable<DetectedEdge>{
-	public Vector<Integer> iit;		//indexes for x-coordinates
-	public Vector<Integer> jiit;	//indexes for y-coordinates
+	public IntPairBuffer edge;		//x- and y-coordinates of the traced edge
+	public List<Integer> iit;		//indexes for x-coordinates, read-only view of edge
+	public List<Integer> jiit;	//indexes for y-coordinates, read-only view of edge
 	public int area;
 	public int length;
 	
-	public DetectedEdge(Vector<Integer> iit,Vector<Integer> jiit,int area){
-		this.iit = iit;
-		this.jiit = jiit;
-		this.length = iit.size();
+	public DetectedEdge(IntPairBuffer edge,int area){
+		this.edge = edge;
+		this.iit = edge.iList();
+		this.jiit = edge.jList();
+		this.length = edge.size();
 		this.area = area;
 	}
 	
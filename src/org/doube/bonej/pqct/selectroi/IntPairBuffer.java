@@ -0,0 +1,223 @@
+/*
+	This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+	Growable list of pixel coordinates
+    Copyright (C) 2011 Timo Rantalainen
+*/
+
+package org.doube.bonej.pqct.selectroi;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A growable list of (i, j) pixel coordinate pairs, stored in two primitive
+ * arrays. Used for traced edges, flood fill stacks and ROI pixel lists, which
+ * would otherwise box every coordinate. Not synchronized.
+ */
+public class IntPairBuffer {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int[] i;
+	private int[] j;
+	private int size;
+
+	public IntPairBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            initial number of pairs that can be held without growing
+	 */
+	public IntPairBuffer(int capacity) {
+		i = new int[Math.max(capacity, 1)];
+		j = new int[i.length];
+	}
+
+	/** Copy another buffer */
+	public IntPairBuffer(IntPairBuffer buffer) {
+		this(buffer.size);
+		addAll(buffer);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > i.length) {
+			int newLength = Math.max(capacity, i.length + (i.length >> 1));
+			i = Arrays.copyOf(i, newLength);
+			j = Arrays.copyOf(j, newLength);
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", size: " + size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/** Append a pair */
+	public void add(int i, int j) {
+		if (size == this.i.length)
+			ensureCapacity(size + 1);
+		this.i[size] = i;
+		this.j[size] = j;
+		size++;
+	}
+
+	/** Append all the pairs of another buffer */
+	public void addAll(IntPairBuffer buffer) {
+		insert(size, buffer);
+	}
+
+	/**
+	 * Insert all the pairs of another buffer, shifting the pairs from index
+	 * onwards along
+	 */
+	public void insert(int index, IntPairBuffer buffer) {
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", size: " + size);
+		if (buffer == this)
+			buffer = copy(0, size);
+		final int n = buffer.size;
+		ensureCapacity(size + n);
+		System.arraycopy(i, index, i, index + n, size - index);
+		System.arraycopy(j, index, j, index + n, size - index);
+		System.arraycopy(buffer.i, 0, i, index, n);
+		System.arraycopy(buffer.j, 0, j, index, n);
+		size += n;
+	}
+
+	public int getI(int index) {
+		checkIndex(index);
+		return i[index];
+	}
+
+	public int getJ(int index) {
+		checkIndex(index);
+		return j[index];
+	}
+
+	/** @return i of the last pair */
+	public int lastI() {
+		return getI(size - 1);
+	}
+
+	/** @return j of the last pair */
+	public int lastJ() {
+		return getJ(size - 1);
+	}
+
+	/** Remove the last pair, to use the buffer as a stack */
+	public void removeLast() {
+		checkIndex(size - 1);
+		size--;
+	}
+
+	/** Remove the pairs from index from, inclusive, to index to, exclusive */
+	public void removeRange(int from, int to) {
+		if (from < 0 || to > size || from > to)
+			throw new IndexOutOfBoundsException("From: " + from + ", to: "
+					+ to + ", size: " + size);
+		System.arraycopy(i, to, i, from, size - to);
+		System.arraycopy(j, to, j, from, size - to);
+		size -= to - from;
+	}
+
+	/**
+	 * @return a new buffer holding the pairs from index from, inclusive, to
+	 *         index to, exclusive
+	 */
+	public IntPairBuffer copy(int from, int to) {
+		if (from < 0 || to > size || from > to)
+			throw new IndexOutOfBoundsException("From: " + from + ", to: "
+					+ to + ", size: " + size);
+		IntPairBuffer copy = new IntPairBuffer(to - from);
+		System.arraycopy(i, from, copy.i, 0, to - from);
+		System.arraycopy(j, from, copy.j, 0, to - from);
+		copy.size = to - from;
+		return copy;
+	}
+
+	/** Reverse the order of the pairs */
+	public void reverse() {
+		for (int a = 0, b = size - 1; a < b; a++, b--) {
+			int temp = i[a];
+			i[a] = i[b];
+			i[b] = temp;
+			temp = j[a];
+			j[a] = j[b];
+			j[b] = temp;
+		}
+	}
+
+	/** @return copy of the i coordinates */
+	public int[] toIArray() {
+		return Arrays.copyOf(i, size);
+	}
+
+	/** @return copy of the j coordinates */
+	public int[] toJArray() {
+		return Arrays.copyOf(j, size);
+	}
+
+	/**
+	 * @return read-only view of the i coordinates, which follows later changes
+	 *         to the buffer
+	 */
+	public List<Integer> iList() {
+		return new View(true);
+	}
+
+	/**
+	 * @return read-only view of the j coordinates, which follows later changes
+	 *         to the buffer
+	 */
+	public List<Integer> jList() {
+		return new View(false);
+	}
+
+	private class View extends AbstractList<Integer> implements RandomAccess {
+		private final boolean isI;
+
+		View(boolean isI) {
+			this.isI = isI;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return isI ? getI(index) : getJ(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
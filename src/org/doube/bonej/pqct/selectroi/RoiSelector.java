@@ -20,6 +20,7 @@
 
 package org.doube.bonej.pqct.selectroi;
 import java.util.*;	//Vector, Collections
+import java.util.List;	//not java.awt.List
 import java.lang.Math; //atan2
 import java.awt.*;			//Polygon, Rectangle
 import org.doube.bonej.pqct.io.*;	//image data
@@ -36,17 +37,26 @@ public abstract class RoiSelector{
 	public double[] cortexROI;
 	public double minimum;
 	public double maximum;
+	/*Never assigned, edges are in DetectedEdge and ROIs in the buffers below. Kept for scripts that refer to them*/
+	@Deprecated
 	public Vector<Integer> iit;		//indexes for x-coordinates
+	@Deprecated
 	public Vector<Integer> jiit;	//indexes for y-coordinates
+	@Deprecated
 	public Vector<Integer> roiI;
+	@Deprecated
 	public Vector<Integer> roiJ;
 
-	public Vector<Integer> boneMarrowRoiI;
-	public Vector<Integer> boneMarrowRoiJ;
-	public Vector<Integer> cortexRoiI;	//For BMD analyses
-	public Vector<Integer> cortexRoiJ;	//For BMD analyses
-	public Vector<Integer> cortexAreaRoiI;	//For AREA analyses
-	public Vector<Integer> cortexAreaRoiJ;	//For AREA analyses
+	public IntPairBuffer boneMarrowRoi;
+	public IntPairBuffer cortexRoi;		//For BMD analyses
+	public IntPairBuffer cortexAreaRoi;	//For AREA analyses
+	/*Read-only views of the coordinates in the ROIs above*/
+	public List<Integer> boneMarrowRoiI;
+	public List<Integer> boneMarrowRoiJ;
+	public List<Integer> cortexRoiI;	//For BMD analyses
+	public List<Integer> cortexRoiJ;	//For BMD analyses
+	public List<Integer> cortexAreaRoiI;	//For AREA analyses
+	public List<Integer> cortexAreaRoiJ;	//For AREA analyses
 	public Vector<Integer> area;
 	public Vector<Integer> length;
 	public Vector<Integer> beginnings;
@@ -119,37 +129,30 @@ public abstract class RoiSelector{
 		}
 		//Sleeve found
 		sleeve = new byte[width*height];
-		Vector<Integer> initialI = new Vector<Integer>();
-		Vector<Integer> initialJ= new Vector<Integer>();
-		initialI.add(i);
-		initialJ.add(j);
-		while (initialI.size() >0 && initialI.lastElement() > 0 &&  initialI.lastElement() < width-1 && initialJ.lastElement() > 0 && initialJ.lastElement() < height-1){
-			i =initialI.lastElement();
-			j = initialJ.lastElement();
-			initialI.remove( initialI.size()-1);
-			initialJ.remove( initialJ.size()-1);
+		IntPairBuffer initial = new IntPairBuffer();
+		initial.add(i,j);
+		while (initial.size() >0 && initial.lastI() > 0 &&  initial.lastI() < width-1 && initial.lastJ() > 0 && initial.lastJ() < height-1){
+			i = initial.lastI();
+			j = initial.lastJ();
+			initial.removeLast();
 			if (scaledImage[i+j*width] > sleeveThreshold && sleeve[i+j*width] ==0){
 				sleeve[i+j*width] = 1;
 			}
 
 			if (scaledImage[i-1+j*width] > sleeveThreshold && sleeve[i-1+j*width] ==0) {
-				initialI.add(new Integer(i-1));
-				initialJ.add(new Integer(j));
+				initial.add(i-1,j);
 			}
 
 			if (scaledImage[i+1+j*width] > sleeveThreshold && sleeve[i+1+j*width] ==0) {
-				initialI.add(new Integer(i+1));
-				initialJ.add(new Integer(j));
+				initial.add(i+1,j);
 			}
 
 			if (scaledImage[i+(j-1)*width] > sleeveThreshold && sleeve[i+(j-1)*width] ==0) {
-				initialI.add(new Integer(i));
-				initialJ.add(new Integer(j-1));
+				initial.add(i,j-1);
 			}
 
 			if (scaledImage[i+(j+1)*width] > sleeveThreshold && sleeve[i+(j+1)*width] ==0) {
-				initialI.add(new Integer(i));
-				initialJ.add(new Integer(j+1));
+				initial.add(i,j+1);
 			}
 
 		}
@@ -271,9 +274,7 @@ public abstract class RoiSelector{
 			}
 		}
 		
-		/*fill roiI & roiJ*/
-
-		byte[] tempSieve=fillSieve(edges.get(selection).iit, edges.get(selection).jiit,width,height,tempScaledImage,boneThreshold);
+		byte[] tempSieve=fillSieve(edges.get(selection).edge,width,height,tempScaledImage,boneThreshold);
 		Vector<Object> returnVector = new Vector<Object>();
 		returnVector.add(tempSieve);
 		returnVector.add(result);
@@ -491,8 +492,9 @@ public abstract class RoiSelector{
 		Vector<Integer> temp = new Vector<Integer>();
 		Vector<Integer> temp2 = new Vector<Integer>();
 		for (int iii =0;iii<edges.size();iii++){
-			temp.add(edges.get(iii).iit.get(0));
-			temp2.add(edges.get(iii).iit.get(0));
+			Integer first = edges.get(iii).edge.getI(0);	//Box once, temp2 is searched by reference below
+			temp.add(first);
+			temp2.add(first);
 		}
 		Collections.sort(temp);
 		int counter=0;
@@ -507,8 +509,9 @@ public abstract class RoiSelector{
 		Vector<Integer> temp = new Vector<Integer>();
 		Vector<Integer> temp2 = new Vector<Integer>();
 		for (int iii =0;iii<edges.size();iii++){
-			temp.add(edges.get(iii).iit.get(0));
-			temp2.add(edges.get(iii).iit.get(0));
+			Integer first = edges.get(iii).edge.getI(0);	//Box once, temp2 is searched by reference below
+			temp.add(first);
+			temp2.add(first);
 		}
 		Collections.sort(temp);
 		int counter=0;
@@ -523,8 +526,9 @@ public abstract class RoiSelector{
 		Vector<Integer> temp = new Vector<Integer>();
 		Vector<Integer> temp2 = new Vector<Integer>();
 		for (int iii =0;iii<edges.size();iii++){
-			temp.add(edges.get(iii).iit.get(0));
-			temp2.add(edges.get(iii).iit.get(0));
+			Integer first = edges.get(iii).edge.getI(0);	//Box once, temp2 is searched by reference below
+			temp.add(first);
+			temp2.add(first);
 		}
 		Collections.sort(temp);
 		int counter=0;
@@ -539,8 +543,9 @@ public abstract class RoiSelector{
 		Vector<Integer> temp = new Vector<Integer>();
 		Vector<Integer> temp2 = new Vector<Integer>();
 		for (int iii =0;iii<edges.size();iii++){
-			temp.add(edges.get(iii).jiit.get(0));
-			temp2.add(edges.get(iii).jiit.get(0));
+			Integer first = edges.get(iii).edge.getJ(0);	//Box once, temp2 is searched by reference below
+			temp.add(first);
+			temp2.add(first);
 		}
 		Collections.sort(temp);
 		int counter=0;
@@ -555,8 +560,9 @@ public abstract class RoiSelector{
 		Vector<Integer> temp = new Vector<Integer>();
 		Vector<Integer> temp2 = new Vector<Integer>();
 		for (int iii =0;iii<edges.size();iii++){
-			temp.add(edges.get(iii).jiit.get(0));
-			temp2.add(edges.get(iii).jiit.get(0));
+			Integer first = edges.get(iii).edge.getJ(0);	//Box once, temp2 is searched by reference below
+			temp.add(first);
+			temp2.add(first);
 		}
 		Collections.sort(temp);
 		int counter=0;
@@ -571,8 +577,9 @@ public abstract class RoiSelector{
 		Vector<Integer> temp = new Vector<Integer>();
 		Vector<Integer> temp2 = new Vector<Integer>();
 		for (int iii =0;iii<edges.size();iii++){
-			temp.add(edges.get(iii).jiit.get(0));
-			temp2.add(edges.get(iii).jiit.get(0));
+			Integer first = edges.get(iii).edge.getJ(0);	//Box once, temp2 is searched by reference below
+			temp.add(first);
+			temp2.add(first);
 		}
 		Collections.sort(temp);
 		int counter=0;
@@ -644,9 +651,10 @@ public abstract class RoiSelector{
 		/*Find the centres of circumference of the bones*/
 		double[] distanceFromCentreOfLimb = new double[edges.size()];
 		for (int i=0;i<edges.size();++i){
-			for (int j = 0;j < edges.get(i).iit.size();j++){
-				bones.get(i)[0]+=edges.get(i).iit.get(j);
-				bones.get(i)[1]+=edges.get(i).jiit.get(j);
+			IntPairBuffer edge = edges.get(i).edge;
+			for (int j = 0;j < edge.size();j++){
+				bones.get(i)[0]+=edge.getI(j);
+				bones.get(i)[1]+=edge.getJ(j);
 				bones.get(i)[2]+=1;
 			}
 			bones.get(i)[0]/=bones.get(i)[2];
@@ -679,17 +687,17 @@ public abstract class RoiSelector{
 		return dilated;
 	}
 	
-	public byte[] fillSieve(Vector<Integer> roiI, Vector<Integer> roiJ,int width,int height,double[] scaledImage,double threshold){	
-		//Fill the area enclosed by the traced edge contained in roiI,roiJ
+	public byte[] fillSieve(IntPairBuffer roi,int width,int height,double[] scaledImage,double threshold){	
+		//Fill the area enclosed by the traced edge contained in roi
 		//beginning needs to be within the traced edge
 		byte[] sieveTemp = new byte[width*height];
 		int z=0;
 		int i,j;
 		//IJ.error("Coordinates");
 		//TextWindow tw = new TextWindow("coordinates","I\tJ\tr\tno","",200,200);
-		for(z = 0;z<roiI.size();++z){
-			sieveTemp[roiI.get(z)+roiJ.get(z)*width]=1;
-			//tw.append(roiI.get(z)+"\t"+roiJ.get(z));
+		for(z = 0;z<roi.size();++z){
+			sieveTemp[roi.getI(z)+roi.getJ(z)*width]=1;
+			//tw.append(roi.getI(z)+"\t"+roi.getJ(z));
 		}
 		
 		/*Determine the flood fill init*/
@@ -697,24 +705,21 @@ public abstract class RoiSelector{
 		int tempC = 0;
 		while (true){
 			
-			tempCoordinates = findFillInit(sieveTemp, roiI, roiJ,scaledImage,threshold);
+			tempCoordinates = findFillInit(sieveTemp, roi,scaledImage,threshold);
 			if (tempCoordinates == null){return sieveTemp;}
 			//tw.append(tempCoordinates[0]+"\t"+tempCoordinates[1]+"\t"+"round"+(++tempC));
 			i = tempCoordinates[0];
 			j = tempCoordinates[1];
 
-			Vector<Integer> initialI = new Vector<Integer>();
-			Vector<Integer> initialJ = new Vector<Integer>();
-			initialI.add(i);
-			initialJ.add(j);
+			IntPairBuffer initial = new IntPairBuffer();
+			initial.add(i,j);
 			sieveTemp[i+j*width] = 1;
 			byte[] sieveTemp2 = (byte[]) sieveTemp.clone();
 			boolean noLeak = true;
-			while (initialI.size()>0){
-				i =initialI.lastElement();
-				j =initialJ.lastElement();
-				initialI.remove(initialI.size()-1);
-				initialJ.remove(initialJ.size()-1);
+			while (initial.size()>0){
+				i =initial.lastI();
+				j =initial.lastJ();
+				initial.removeLast();
 			
 				if (sieveTemp2[i+j*width] == 0){
 					sieveTemp2[i+j*width] = 1;
@@ -726,23 +731,19 @@ public abstract class RoiSelector{
 				}
 				//check whether the neighbour to the left should be added to the queue
 				if (sieveTemp2[i-1+j*width] == 0) {
-				initialI.add(i-1);
-				initialJ.add(j);
+				initial.add(i-1,j);
 				}
 				//check whether the neighbour to the right should be added to the queue
 				if (sieveTemp2[i+1+j*width] == 0) {
-				initialI.add(i+1);
-				initialJ.add(j);
+				initial.add(i+1,j);
 				}
 				//check whether the neighbour below should be added to the queue
 				if (sieveTemp2[i+(j-1)*width] == 0) {
-				initialI.add(i);
-				initialJ.add(j-1);
+				initial.add(i,j-1);
 				}
 				//check whether the neighbour above should be added to the queue
 				if (sieveTemp2[i+(j+1)*width] == 0) {
-				initialI.add(i);
-				initialJ.add(j+1);
+				initial.add(i,j+1);
 				}			
 			}
 			if (noLeak){
@@ -762,10 +763,8 @@ public abstract class RoiSelector{
 		The paper traced continent edges on map/satellite image
 	*/
 	Vector<Object> traceEdge(double[] scaledImage,byte[] result,double threshold,int i,int j){
-		Vector<Integer> iit 	= new Vector<Integer>();
-		Vector<Integer> jiit	= new Vector<Integer>();
-		iit.add(i);
-		jiit.add(j);
+		IntPairBuffer edge = new IntPairBuffer();
+		edge.add(i,j);
 		double direction = 0; //begin by advancing right. Positive angles rotate the direction clockwise.
 		double previousDirection;
 		boolean done = false;
@@ -816,8 +815,7 @@ public abstract class RoiSelector{
 				}
 				Vector<Object> returnVector = new Vector<Object>();
 				returnVector.add(result);
-				returnVector.add(iit);
-				returnVector.add(jiit);
+				returnVector.add(edge);
 				/*tempImage.close();*/
 				return returnVector;
 			}else{
@@ -826,8 +824,7 @@ public abstract class RoiSelector{
 				}else if (result[i+j*width] != 1){
 					result[i+j*width]++;
 				}
-				iit.add(i);
-				jiit.add(j);
+				edge.add(i,j);
 
 			}
 			direction -=Math.PI/2.0; //Keep steering counter clockwise not to miss single pixel structs...
@@ -835,16 +832,13 @@ public abstract class RoiSelector{
 	}
 	
 	Vector<Object> resultFill(int i, int j, byte[] tempResult){	
-		Vector<Integer> initialI = new Vector<Integer>();
-		Vector<Integer> initialJ= new Vector<Integer>();
-		initialI.add(i);
-		initialJ.add(j);
+		IntPairBuffer initial = new IntPairBuffer();
+		initial.add(i,j);
 		int pixelsFilled = 0;
-		while (initialI.size() >0 && initialI.lastElement() > 0 &&  initialI.lastElement() < width-1 && initialJ.lastElement() > 0 && initialJ.lastElement() < height-1){
-			i =initialI.lastElement();
-			j = initialJ.lastElement();
-			initialI.remove( initialI.size()-1);
-			initialJ.remove( initialJ.size()-1);
+		while (initial.size() >0 && initial.lastI() > 0 &&  initial.lastI() < width-1 && initial.lastJ() > 0 && initial.lastJ() < height-1){
+			i = initial.lastI();
+			j = initial.lastJ();
+			initial.removeLast();
 
 			if (tempResult[i+j*width] == 0 ){
 				tempResult[i+j*width] = 1;
@@ -852,28 +846,24 @@ public abstract class RoiSelector{
 			}
 
 			if (tempResult[i-1+j*width] == 0) {
-			initialI.add(i-1);
-			initialJ.add(j);
+			initial.add(i-1,j);
 			}
 
 			if (tempResult[i+1+j*width] == 0) {
-			initialI.add(i+1);
-			initialJ.add(j);
+			initial.add(i+1,j);
 			}
 			
 			if (tempResult[i+(j-1)*width] == 0) {
-			initialI.add(i);
-			initialJ.add(j-1);
+			initial.add(i,j-1);
 			}
 			
 			if (tempResult[i+(j+1)*width] == 0) {
-			initialI.add(i);
-			initialJ.add(j+1);
+			initial.add(i,j+1);
 			}
 
 		}
 		Vector<Object> returnValue = new Vector<Object>();
-		if (initialI.size() > 0 || initialJ.size()>0) {
+		if (initial.size() > 0) {
 			returnValue.add(new Boolean(false));
 		}else{
 			returnValue.add(new Boolean(true));
@@ -931,28 +921,24 @@ public abstract class RoiSelector{
 			/*Tracing algorithm DetectedEdge*/
 			Vector<Object> returned = traceEdge(scaledImage,result,threshold,i,j);
 			result = (byte[]) returned.get(0);
-			Vector<Integer> newIit = (Vector<Integer>) returned.get(1);
-			Vector<Integer> newJiit = (Vector<Integer>) returned.get(2);
-			len = newIit.size();
+			IntPairBuffer newEdge = (IntPairBuffer) returned.get(1);
+			len = newEdge.size();
 			/*Tracing algorithm done...*/
 
-			Vector<Vector<Vector<Integer>>>  returnedVectors = null;
+			Vector<IntPairBuffer>  returnedEdges = null;
 			if (allowCleaving){
-				returnedVectors = cleaveEdge(result,newIit,newJiit,3.0,6.0);
+				returnedEdges = cleaveEdge(result,newEdge,3.0,6.0);
 				byte[] tempRes = new byte[width*height];
-				for (int iii = 0;iii<returnedVectors.size();++iii){	/*Go through all returned edges*/
+				for (int iii = 0;iii<returnedEdges.size();++iii){	/*Go through all returned edges*/
 					/*Fill edge within result..*/
-					Vector<Integer> iit = new Vector<Integer>();
-					Vector<Integer> jiit = new Vector<Integer>();
-					for (int ii = 0; ii<returnedVectors.get(iii).get(0).size();++ii){
-						iit.add(returnedVectors.get(iii).get(0).get(ii));
-						jiit.add(returnedVectors.get(iii).get(1).get(ii));
-						tempRes[iit.lastElement()+jiit.lastElement()*width] = 1;
+					IntPairBuffer edge = returnedEdges.get(iii);
+					for (int ii = 0; ii<edge.size();++ii){
+						tempRes[edge.getI(ii)+edge.getJ(ii)*width] = 1;
 					}
-					Vector<Object> results = fillResultEdge(result,iit,jiit,scaledImage,threshold);
+					Vector<Object> results = fillResultEdge(result,edge,scaledImage,threshold);
 					if (results != null){
 						result = (byte[]) results.get(0);
-						edges.add(new DetectedEdge((Vector<Integer>) results.get(1),(Vector<Integer>) results.get(2),(Integer) results.get(3)));
+						edges.add(new DetectedEdge((IntPairBuffer) results.get(1),(Integer) results.get(2)));
 					}
 					//IJ.error("begs "+beginnings.size()+" lengths "+length.size()+"retVects"+returnedVectors.size());
 					/*
@@ -972,16 +958,10 @@ public abstract class RoiSelector{
 				
 			}else{
 				/*Fill edge within result..*/
-				Vector<Integer> iit = new Vector<Integer>();
-				Vector<Integer> jiit = new Vector<Integer>();
-				for (int ii = 0; ii<newIit.size();++ii){
-					iit.add(newIit.get(ii));
-					jiit.add(newJiit.get(ii));
-				}
-				Vector<Object> results = fillResultEdge(result,iit,jiit,scaledImage,threshold);
+				Vector<Object> results = fillResultEdge(result,newEdge,scaledImage,threshold);
 				if (results != null){
 					result = (byte[]) results.get(0);
-					edges.add(new DetectedEdge((Vector<Integer>) results.get(1),(Vector<Integer>) results.get(2),(Integer) results.get(3)));
+					edges.add(new DetectedEdge((IntPairBuffer) results.get(1),(Integer) results.get(2)));
 				}
 			}
 			//Find next empty spot
@@ -1003,14 +983,14 @@ public abstract class RoiSelector{
 	}
 
 	/*DetectedEdge. Find fill init by steering clockwise from next to previous*/
-	int [] findFillInit(byte[] result, Vector<Integer> iit, Vector<Integer> jiit,double[] scaledImage,double threshold){
+	int [] findFillInit(byte[] result, IntPairBuffer edge,double[] scaledImage,double threshold){
 		int[] returnCoordinates = new int[2];
 		int[][] pixelNeigbourhood = {{0,-1,-1,-1,-1,0,1,1,1},{1,1,0,-1,-1,-1,0,1}};
 		int[] steer = new int[2];
-		for (int j = 0; j< iit.size()-1; ++j){
-			returnCoordinates[0] = iit.get(j);
-			returnCoordinates[1] = jiit.get(j);
-			double direction = Math.atan2(jiit.get(j+1)-returnCoordinates[1],iit.get(j+1)-returnCoordinates[0]);
+		for (int j = 0; j< edge.size()-1; ++j){
+			returnCoordinates[0] = edge.getI(j);
+			returnCoordinates[1] = edge.getJ(j);
+			double direction = Math.atan2(edge.getJ(j+1)-returnCoordinates[1],edge.getI(j+1)-returnCoordinates[0]);
 			for (int i = 0; i< 8; ++i){
 				direction+=Math.PI/4.0;
 				steer[0] = (int) Math.round(Math.cos(direction));
@@ -1038,16 +1018,16 @@ public abstract class RoiSelector{
 	}
 	
 	/*DetectedEdge version*/
-	Vector<Object> fillResultEdge(byte[] result,Vector<Integer> iit, Vector<Integer> jiit,double[] scaledImage,double threshold){
+	Vector<Object> fillResultEdge(byte[] result,IntPairBuffer edge,double[] scaledImage,double threshold){
 		int pixelsFilled = 0;
-		if (iit.size() > 0){
+		if (edge.size() > 0){
 			int kai,kaj;
 			/*Set initial fill pixel to the first pixel above threshold not on the border*/
 			/*Select the first pixel found*/
 			boolean possible = true;
 			byte[] tempResult = (byte[]) result.clone();
 
-			int[] tempCoordinates = findFillInit(tempResult, iit, jiit,scaledImage,threshold);
+			int[] tempCoordinates = findFillInit(tempResult, edge,scaledImage,threshold);
 			if (tempCoordinates == null){
 				possible = false;
 			}
@@ -1059,15 +1039,14 @@ public abstract class RoiSelector{
 					possible = (Boolean) returned.get(0);
 					pixelsFilled+= (Integer) returned.get(1);
 				}
-				tempCoordinates = findFillInit(tempResult, iit, jiit,scaledImage,threshold);
+				tempCoordinates = findFillInit(tempResult, edge,scaledImage,threshold);
 			}
 
 			if (possible){
 				result = (byte[]) tempResult.clone();
 				Vector<Object> results = new Vector<Object>();
 				results.add(result);
-				results.add(iit);
-				results.add(jiit);
+				results.add(edge);
 				results.add(new Integer(pixelsFilled));
 				return results;
 
@@ -1083,21 +1062,21 @@ public abstract class RoiSelector{
 	line and the edge with higher indices will be removed. E.g. 
 	for a circle, the maximum ratio is (pi/2)/d ~= 1.57 and for square
 	it is 2/sqrt(2) = sqrt(2) ~= 1.41.*/	
-	Vector<Vector<Vector<Integer>>> cleaveEdge(byte[] result,Vector<Integer> fatRoiI,Vector<Integer> fatRoiJ,double minRatio,double minLength){
+	Vector<IntPairBuffer> cleaveEdge(byte[] result,IntPairBuffer fatRoi,double minRatio,double minLength){
 		double distanceAlongTheEdge = 0;
 		double distance = 0;
 		double ratio;
-		double minEdge = (double) fatRoiI.size()/minLength;
+		double minEdge = (double) fatRoi.size()/minLength;
 		int[] cleavingIndices = new int[2];
 		boolean nextLoop = true;
-		Vector<Vector<Vector<Integer>>> returnVectorVectorPointer = new Vector<Vector<Vector<Integer>>>();
+		Vector<IntPairBuffer> returnVectorPointer = new Vector<IntPairBuffer>();
 		while (nextLoop){
 			double highestRatio = minRatio-0.1;
 			/*Go through all point pairs*/
-			for (int i=0;i<fatRoiI.size()-11;++i){
-				for (int j=i+10;j<fatRoiI.size();++j){
-					distance = Math.sqrt(Math.pow((double) (fatRoiI.get(j)-fatRoiI.get(i)),2.0)+Math.pow((double) (fatRoiJ.get(j)-fatRoiJ.get(i)),2.0));
-					distanceAlongTheEdge = min((double)(j-i),(double) fatRoiI.size()-j+i);
+			for (int i=0;i<fatRoi.size()-11;++i){
+				for (int j=i+10;j<fatRoi.size();++j){
+					distance = Math.sqrt(Math.pow((double) (fatRoi.getI(j)-fatRoi.getI(i)),2.0)+Math.pow((double) (fatRoi.getJ(j)-fatRoi.getJ(i)),2.0));
+					distanceAlongTheEdge = min((double)(j-i),(double) fatRoi.size()-j+i);
 					ratio = distanceAlongTheEdge/distance;
 					if (ratio>highestRatio && distanceAlongTheEdge > minEdge){
 						highestRatio = ratio;
@@ -1110,71 +1089,52 @@ public abstract class RoiSelector{
 			//IJ.error("Highest ratio "+highestRatio);
 			/*If ratio is high enough, cleave at the highest ratio point pair*/
 			if (highestRatio >= minRatio){
-				returnVectorVectorPointer.add(cleave(result,fatRoiI,fatRoiJ,cleavingIndices));
+				returnVectorPointer.add(cleave(result,fatRoi,cleavingIndices));
 			} else {
 				nextLoop = false;
 			}
 		}
 		/*Insert the last retained part to first index.*/
-		Vector<Vector<Integer>> returnVectorPair = new Vector<Vector<Integer>>();
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.get(0).addAll(fatRoiI);
-		returnVectorPair.get(1).addAll(fatRoiJ);
-		if (returnVectorVectorPointer.size() < 1){
-			returnVectorVectorPointer.add(returnVectorPair);
+		IntPairBuffer retained = new IntPairBuffer(fatRoi);
+		if (returnVectorPointer.size() < 1){
+			returnVectorPointer.add(retained);
 		}else{
-			returnVectorVectorPointer.insertElementAt(returnVectorPair, 0);
+			returnVectorPointer.insertElementAt(retained, 0);
 		}
-		return returnVectorVectorPointer;
+		return returnVectorPointer;
 	}
 	/*	Remove the extra part from vectors and replace with a straight line	*/
-	Vector<Vector<Integer>> cleave(byte[] result,Vector<Integer> fatRoiI,Vector<Integer> fatRoiJ,int[] cleavingIndices){
-		int initialLength = fatRoiI.size();
-		int initI = fatRoiI.get(cleavingIndices[0]);
-		int initJ = fatRoiJ.get(cleavingIndices[0]);
-		int targetI = fatRoiI.get(cleavingIndices[1]);
-		int targetJ = fatRoiJ.get(cleavingIndices[1]);
+	IntPairBuffer cleave(byte[] result,IntPairBuffer fatRoi,int[] cleavingIndices){
+		int initialLength = fatRoi.size();
+		int initI = fatRoi.getI(cleavingIndices[0]);
+		int initJ = fatRoi.getJ(cleavingIndices[0]);
+		int targetI = fatRoi.getI(cleavingIndices[1]);
+		int targetJ = fatRoi.getJ(cleavingIndices[1]);
 		/*remove cleaved elements*/
-		int replacementI = fatRoiI.get(cleavingIndices[0]);
-		int replacementJ = fatRoiJ.get(cleavingIndices[0]);
-		Vector<Integer> cleavedI = new Vector<Integer>(fatRoiI.subList(cleavingIndices[0]+1,cleavingIndices[1]+1)); /*the elements to be cleaved*/
-		Vector<Integer> cleavedJ = new Vector<Integer>(fatRoiJ.subList(cleavingIndices[0]+1,cleavingIndices[1]+1)); /*the elements to be cleaved*/
-		for (int i = cleavingIndices[0]; i <cleavingIndices[1];++i){
-			fatRoiI.removeElementAt(cleavingIndices[0]);	/*Remove the elements to be cleaved*/
-			fatRoiJ.removeElementAt(cleavingIndices[0]);	/*Remove the elements to be cleaved*/
-		}
+		int replacementI = fatRoi.getI(cleavingIndices[0]);
+		int replacementJ = fatRoi.getJ(cleavingIndices[0]);
+		IntPairBuffer cleaved = fatRoi.copy(cleavingIndices[0]+1,cleavingIndices[1]+1); /*the elements to be cleaved*/
+		fatRoi.removeRange(cleavingIndices[0],cleavingIndices[1]);	/*Remove the elements to be cleaved*/
 		/*Insert replacement line*/
 		double replacementLength = (double)(cleavingIndices[1]-cleavingIndices[0]);
 		double repILength = (double)(targetI-initI);
 		double repJLength = (double)(targetJ-initJ);
 		double relativeLength;
-		Vector<Integer> insertionI = new Vector<Integer>();
-		Vector<Integer> insertionJ = new Vector<Integer>();
-		insertionI.add(replacementI);
-		insertionJ.add(replacementJ);
+		IntPairBuffer insertion = new IntPairBuffer();
+		insertion.add(replacementI,replacementJ);
 		for (int k = cleavingIndices[0];k<cleavingIndices[1];++k){
 			relativeLength = ((double)k)-((double)cleavingIndices[0]);
 			replacementI = ((int) (repILength*(relativeLength/replacementLength)))+initI;
 			replacementJ = ((int) (repJLength*(relativeLength/replacementLength)))+initJ;
-			if (replacementI !=insertionI.lastElement() || replacementJ !=insertionJ.lastElement()){
-				insertionI.add(replacementI);
-				insertionJ.add(replacementJ);
+			if (replacementI !=insertion.lastI() || replacementJ !=insertion.lastJ()){
+				insertion.add(replacementI,replacementJ);
 				result[replacementI+replacementJ*width] = 1;
 			}
 		}
-		fatRoiI.addAll(cleavingIndices[0],insertionI);
-		fatRoiJ.addAll(cleavingIndices[0],insertionJ);
-		Collections.reverse(insertionI);
-		Collections.reverse(insertionJ);
-		cleavedI.addAll(0,insertionI);
-		cleavedJ.addAll(0,insertionJ);
-		Vector<Vector<Integer>> returnVectorPair = new Vector<Vector<Integer>>();
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.get(0).addAll(cleavedI);
-		returnVectorPair.get(1).addAll(cleavedJ);
-		return  returnVectorPair;
+		fatRoi.insert(cleavingIndices[0],insertion);
+		insertion.reverse();
+		cleaved.insert(0,insertion);
+		return  cleaved;
 	}
 	
 	double min(double a,double b){
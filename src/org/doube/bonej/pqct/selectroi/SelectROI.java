@@ -39,12 +39,15 @@ public class SelectROI extends RoiSelector{
 		
 		/*Select ROI and set everything else than the roi to minimum*/
 		cortexROI = new double[width*height];	//Make a new copy of the image with only the ROI remaining
-		cortexRoiI = new Vector<Integer>();
-		cortexRoiJ = new Vector<Integer>();
-		cortexAreaRoiI = new Vector<Integer>();
-		cortexAreaRoiJ = new Vector<Integer>();
-		boneMarrowRoiI = new Vector<Integer>();
-		boneMarrowRoiJ = new Vector<Integer>();
+		cortexRoi = new IntPairBuffer();
+		cortexAreaRoi = new IntPairBuffer();
+		boneMarrowRoi = new IntPairBuffer();
+		cortexRoiI = cortexRoi.iList();
+		cortexRoiJ = cortexRoi.jList();
+		cortexAreaRoiI = cortexAreaRoi.iList();
+		cortexAreaRoiJ = cortexAreaRoi.jList();
+		boneMarrowRoiI = boneMarrowRoi.iList();
+		boneMarrowRoiJ = boneMarrowRoi.jList();
 		Roi ijROI = imp.getRoi();
 		double[] tempScaledImage = (double[]) scaledImage.clone();
 		if (ijROI != null && details.manualRoi){	/*Set pixels outside the manually selected ROI to zero*/
@@ -73,36 +76,29 @@ public class SelectROI extends RoiSelector{
 		selection						= (Integer)	 boneMasks.get(3);
 		/*Add the roi to the image*/
 		if (setRoi){
-			int[] xcoordinates = new int[boneEdges.get(selection).iit.size()];
-			int[] ycoordinates = new int[boneEdges.get(selection).iit.size()];
-			for (int i = 0;i<boneEdges.get(selection).iit.size();++i){
-				xcoordinates[i] = boneEdges.get(selection).iit.get(i);
-				ycoordinates[i] = boneEdges.get(selection).jiit.get(i);
-			}
+			int[] xcoordinates = boneEdges.get(selection).edge.toIArray();
+			int[] ycoordinates = boneEdges.get(selection).edge.toJArray();
 			/*Flip the original image prior to adding the ROI, if scaled image is flipped*/
 			if ((details.flipHorizontal || details.flipVertical) && imp.getRoi() != null){
 				IJ.run(imp,"Select None","");	//Remove existing ROIs in order to flip the whole image...
 			}
 			if (details.flipHorizontal){imp.getProcessor().flipVertical(); imp.updateAndDraw();}
 			if (details.flipVertical){imp.getProcessor().flipHorizontal(); imp.updateAndDraw();}
-			ijROI = new PolygonRoi(xcoordinates,ycoordinates,boneEdges.get(selection).iit.size(),Roi.POLYGON);
+			ijROI = new PolygonRoi(xcoordinates,ycoordinates,xcoordinates.length,Roi.POLYGON);
 			imp.setRoi(ijROI);
 		}
 		
 		for (int j = 0;j< height;j++){
 			for (int i = 0; i < width;i++){
 				if (scaledImage[i+j*width]<areaThreshold && sieve[i+j*width] > 0){
-					boneMarrowRoiI.add(i);
-					boneMarrowRoiJ.add(j);
+					boneMarrowRoi.add(i,j);
 				}
 				if (scaledImage[i+j*width]>=areaThreshold && sieve[i+j*width] > 0){
-					cortexAreaRoiI.add(i);
-					cortexAreaRoiJ.add(j);
+					cortexAreaRoi.add(i,j);
 				}
 				if (scaledImage[i+j*width]>=BMDthreshold && sieve[i+j*width] > 0){
 					cortexROI[i+j*width] = scaledImage[i+j*width];				
-					cortexRoiI.add(i);
-					cortexRoiJ.add(j);
+					cortexRoi.add(i,j);
 				} else {
 					cortexROI[i+j*width] = minimum;
 				}
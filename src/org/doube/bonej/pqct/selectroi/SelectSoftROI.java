@@ -112,7 +112,7 @@ public class SelectSoftROI extends RoiSelector{
 			int areaToAdd=0;
 			/*Include areas that contribute more than 1% on top of what is already included*/
 			while (areaToAdd< muscleEdges.size() && tempMuscleArea*0.01 < muscleEdges.get(areaToAdd).area){
-				byte[] tempMuscleSieve = fillSieve(muscleEdges.get(areaToAdd).iit, muscleEdges.get(areaToAdd).jiit,width,height,muscleImage,details.muscleThreshold);
+				byte[] tempMuscleSieve = fillSieve(muscleEdges.get(areaToAdd).edge,width,height,muscleImage,details.muscleThreshold);
 				for (int i = 0; i<tempMuscleSieve.length;++i){
 					if (tempMuscleSieve[i] > 0){muscleSieve[i] = tempMuscleSieve[i];}
 				}
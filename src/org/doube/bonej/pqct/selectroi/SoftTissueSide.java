@@ -128,9 +128,8 @@ public class SoftTissueSide{
 	double[][] getCoordinates(SelectROI tempRoi, int[] consideredBones){
 		double[][] coordinates = new double[consideredBones.length][2];
 		for (int j = 0; j<consideredBones.length;++j){
-			Vector<Integer> sRoiI = tempRoi.edges.get(consideredBones[j]).iit;
-			Vector<Integer> sRoiJ =  tempRoi.edges.get(consideredBones[j]).jiit;
-			byte[] returnedSieve = tempRoi.fillSieve(sRoiI, sRoiJ, tempRoi.width,tempRoi.height,tempRoi.scaledImage,tempRoi.details.rotationThreshold);
+			IntPairBuffer sRoi = tempRoi.edges.get(consideredBones[j]).edge;
+			byte[] returnedSieve = tempRoi.fillSieve(sRoi, tempRoi.width,tempRoi.height,tempRoi.scaledImage,tempRoi.details.rotationThreshold);
 			int counter  = 0;
 			coordinates[j][0] = 0;
 			coordinates[j][1] = 0;
@@ -35,6 +35,13 @@ public class ResultsWriter{
 	}
 	
 	public void writeHeader(TextPanel textPanel,ImageAndAnalysisDetails imageAndAnalysisDetails){
+		textPanel.setColumnHeadings(getHeader(imageAndAnalysisDetails));
+	}
+	
+	/**
+		@return tab separated column headings for the analyses selected in imageAndAnalysisDetails
+	*/
+	public String getHeader(ImageAndAnalysisDetails imageAndAnalysisDetails){
 		String[] propertyNames = {"File Name","Patient's Name","Patient ID","Patient's Birth Date","Acquisition Date","Pixel Spacing","Object Length"};
 		String[] parameterNames = {"Air Threshold","Fat Threshold","Muscle Threshold","Marrow Threshold","Soft Threshold","Rotation Threshold","Area Threshold","BMD Threshold","Scaling Coefficient","Scaling Constant"};
 		String[] dHeadings = {"Manual Rotation","Flip Distribution","Guess right","Guess larger"
@@ -120,7 +127,7 @@ public class ResultsWriter{
 			}
 
 		}
-		textPanel.setColumnHeadings(headings);
+		return headings;
 	}
 	
 	public String printResults(String results,ImageAndAnalysisDetails imageAndAnalysisDetails, ImagePlus imp){
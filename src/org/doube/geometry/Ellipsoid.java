@@ -24,6 +24,18 @@ public class Ellipsoid {
 	 */
 	private double ra, rb, rc;
 
+	/**
+	 * Radii sorted in ascending order, cached whenever the radii change so that
+	 * containment tests need not sort or allocate
+	 */
+	private double rMin, rMid, rMax;
+
+	/**
+	 * Half-widths of the axis-aligned bounding box in x, y and z, cached
+	 * whenever the radii or rotation change
+	 */
+	private double xHalfWidth, yHalfWidth, zHalfWidth;
+
 	/** Volume of ellipsoid, calculated as 4 * PI * ra * rb * rc / 3 */
 	private double volume;
 
@@ -73,6 +85,7 @@ public class Ellipsoid {
 		setRotation((double[][]) ellipsoid[2]);
 		setEigenvalues();
 		setVolume();
+		setSortedRadii();
 	}
 
 	/**
@@ -102,6 +115,7 @@ public class Ellipsoid {
 		setRotation(eigenVectors);
 		setEigenvalues();
 		setVolume();
+		setSortedRadii();
 	}
 
 	/**
@@ -148,12 +162,9 @@ public class Ellipsoid {
 		final double vy = y - cy;
 		final double vz = z - cz;
 
-		double[] radii = getSortedRadii();
-		final double maxRadius = radii[2];
-
-		// if further than maximal sphere's bounding box, must be outside
-		if (Math.abs(vx) > maxRadius || Math.abs(vy) > maxRadius
-				|| Math.abs(vz) > maxRadius)
+		// if outside the axis-aligned bounding box, must be outside
+		if (Math.abs(vx) > xHalfWidth || Math.abs(vy) > yHalfWidth
+				|| Math.abs(vz) > zHalfWidth)
 			return false;
 
 		// calculate distance from centroid
@@ -161,12 +172,12 @@ public class Ellipsoid {
 
 		// if further from centroid than major semiaxis length
 		// must be outside
-		if (length > maxRadius)
+		if (length > rMax)
 			return false;
 
 		// if length closer than minor semiaxis length
 		// must be inside
-		if (length <= radii[0])
+		if (length <= rMin)
 			return true;
 
 		final double[][] h = eh;
@@ -190,7 +201,15 @@ public class Ellipsoid {
 	 * @return radii in ascending order
 	 */
 	public double[] getSortedRadii() {
+		double[] sortedRadii = { rMin, rMid, rMax };
+		return sortedRadii;
+	}
 
+	/**
+	 * Sort the radii into ascending order and cache the result. Needs to be run
+	 * any time the radii change.
+	 */
+	private void setSortedRadii() {
 		double a = this.ra;
 		double b = this.rb;
 		double c = this.rc;
@@ -212,9 +231,28 @@ public class Ellipsoid {
 			b = temp;
 		}
 
-		double[] sortedRadii = { a, b, c };
+		this.rMin = a;
+		this.rMid = b;
+		this.rMax = c;
+	}
 
-		return sortedRadii;
+	/**
+	 * Calculate and cache the half-widths of the axis-aligned bounding box.
+	 * Needs to be run any time the radii or eigenvectors change.
+	 */
+	private void setBounds() {
+		final double m11 = ev[0][0] * ra;
+		final double m12 = ev[0][1] * rb;
+		final double m13 = ev[0][2] * rc;
+		final double m21 = ev[1][0] * ra;
+		final double m22 = ev[1][1] * rb;
+		final double m23 = ev[1][2] * rc;
+		final double m31 = ev[2][0] * ra;
+		final double m32 = ev[2][1] * rb;
+		final double m33 = ev[2][2] * rc;
+		xHalfWidth = Math.sqrt(m11 * m11 + m12 * m12 + m13 * m13);
+		yHalfWidth = Math.sqrt(m21 * m21 + m22 * m22 + m23 * m23);
+		zHalfWidth = Math.sqrt(m31 * m31 + m32 * m32 + m33 * m33);
 	}
 
 	public double[] getCentre() {
@@ -249,6 +287,48 @@ public class Ellipsoid {
 		return vectors;
 	}
 
+	/**
+	 * Calculate surface points from unit vectors held in structure-of-arrays
+	 * form, writing the results into caller-supplied buffers. No objects are
+	 * allocated, so this is suitable for use in tight loops.
+	 * 
+	 * @param ux
+	 *            x components of unit vectors
+	 * @param uy
+	 *            y components of unit vectors
+	 * @param uz
+	 *            z components of unit vectors
+	 * @param n
+	 *            number of vectors to use, starting at index 0
+	 * @param px
+	 *            buffer to receive surface point x-coordinates, at least n long
+	 * @param py
+	 *            buffer to receive surface point y-coordinates, at least n long
+	 * @param pz
+	 *            buffer to receive surface point z-coordinates, at least n long
+	 */
+	public void getSurfacePoints(final double[] ux, final double[] uy,
+			final double[] uz, final int n, final double[] px,
+			final double[] py, final double[] pz) {
+		final double e00 = ev[0][0] * ra;
+		final double e01 = ev[0][1] * rb;
+		final double e02 = ev[0][2] * rc;
+		final double e10 = ev[1][0] * ra;
+		final double e11 = ev[1][1] * rb;
+		final double e12 = ev[1][2] * rc;
+		final double e20 = ev[2][0] * ra;
+		final double e21 = ev[2][1] * rb;
+		final double e22 = ev[2][2] * rc;
+		for (int p = 0; p < n; p++) {
+			final double x = ux[p];
+			final double y = uy[p];
+			final double z = uz[p];
+			px[p] = x * e00 + y * e01 + z * e02 + cx;
+			py[p] = x * e10 + y * e11 + z * e12 + cy;
+			pz[p] = x * e20 + y * e21 + z * e22 + cz;
+		}
+	}
+
 	/**
 	 * Dilate all three axes by a fractional increment
 	 * 
@@ -337,6 +417,7 @@ public class Ellipsoid {
 	public void setRotation(double[][] rotation) {
 		this.ev = rotation.clone();
 		update3x3Matrix();
+		setBounds();
 	}
 
 	/**
@@ -367,6 +448,8 @@ public class Ellipsoid {
 		this.rc = c;
 		setEigenvalues();
 		setVolume();
+		setSortedRadii();
+		setBounds();
 	}
 
 	/**
@@ -392,11 +475,7 @@ public class Ellipsoid {
 	 * @return array containing minimal and maximal x values
 	 */
 	public double[] getXMinAndMax() {
-		final double m11 = ev[0][0] * ra;
-		final double m12 = ev[0][1] * rb;
-		final double m13 = ev[0][2] * rc;
-		final double d = Math.sqrt(m11 * m11 + m12 * m12 + m13 * m13);
-		double[] minMax = { cx - d, cx + d };
+		double[] minMax = { cx - xHalfWidth, cx + xHalfWidth };
 		return minMax;
 	}
 
@@ -406,11 +485,7 @@ public class Ellipsoid {
 	 * @return array containing minimal and maximal y values
 	 */
 	public double[] getYMinAndMax() {
-		final double m21 = ev[1][0] * ra;
-		final double m22 = ev[1][1] * rb;
-		final double m23 = ev[1][2] * rc;
-		final double d = Math.sqrt(m21 * m21 + m22 * m22 + m23 * m23);
-		double[] minMax = { cy - d, cy + d };
+		double[] minMax = { cy - yHalfWidth, cy + yHalfWidth };
 		return minMax;
 	}
 
@@ -420,11 +495,7 @@ public class Ellipsoid {
 	 * @return array containing minimal and maximal z values
 	 */
 	public double[] getZMinAndMax() {
-		final double m31 = ev[2][0] * ra;
-		final double m32 = ev[2][1] * rb;
-		final double m33 = ev[2][2] * rc;
-		final double d = Math.sqrt(m31 * m31 + m32 * m32 + m33 * m33);
-		double[] minMax = { cz - d, cz + d };
+		double[] minMax = { cz - zHalfWidth, cz + zHalfWidth };
 		return minMax;
 	}
 
@@ -21,6 +21,7 @@ package org.doube.geometry;
 
 import org.doube.jama.EigenvalueDecomposition;
 import org.doube.jama.Matrix;
+import org.doube.util.RandomStream;
 
 /**
  * Ellipsoid fitting methods. Both rely on eigenvalue decomposition, which fails
@@ -67,12 +68,32 @@ public class FitEllipsoid {
 	 * @deprecated until debugged
 	 */
 	public static double[] liGriffiths(double[][] coOrdinates, int maxPoints) {
+		return liGriffiths(coOrdinates, maxPoints, new RandomStream());
+	}
+
+	/**
+	 * Calculate the best-fit ellipsoid by least squares, drawing the random
+	 * subsample from the supplied random stream so that the fit is repeatable.
+	 * 
+	 * @param coOrdinates
+	 *            n x 3 array containing 3D coordinates
+	 * @param maxPoints
+	 *            maximum number of points to use in the fit
+	 * @param random
+	 *            source of random numbers for subsampling
+	 * @return 10 x 1 array containing constants for the ellipsoid equation
+	 * @see #liGriffiths(double[][], int)
+	 * @deprecated until debugged
+	 */
+	@Deprecated
+	public static double[] liGriffiths(double[][] coOrdinates, int maxPoints,
+			RandomStream random) {
 		final int nPoints = coOrdinates.length;
 		double[][] coOrd = new double[maxPoints][3];
 		if (nPoints > maxPoints) {
 			// randomly subsample
 			for (int n = 0; n < maxPoints; n++) {
-				final int point = (int) Math.floor(Math.random() * nPoints);
+				final int point = random.nextInt(nPoints);
 				coOrd[n][0] = coOrdinates[point][0];
 			}
 		}
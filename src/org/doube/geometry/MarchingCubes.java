@@ -0,0 +1,469 @@
+package org.doube.geometry;
+
+/**
+ * MarchingCubes
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Point3f;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.measure.Calibration;
+
+import org.doube.util.Multithreader;
+
+/**
+ * <p>
+ * Marching cubes isosurface of an image stack, producing an {@link IndexedMesh}
+ * in which vertices on cube edges are shared by the triangles around them.
+ * </p>
+ * <p>
+ * The stack is treated as though surrounded by background, so surfaces are
+ * closed where foreground touches the stack sides. Cube layers are meshed in
+ * z-slabs in parallel; each slab creates the vertices on its own upper plane
+ * and refers to the vertices on its lower plane that were made by the slab
+ * below, which are stitched together when the slabs are joined. Vertex and
+ * triangle order do not depend on the number of threads.
+ * </p>
+ * <p>
+ * The triangles for each cube configuration are generated by walking the cube
+ * faces rather than read from a published table. On faces with two diagonal
+ * foreground corners the foreground corners are kept apart, and as adjacent
+ * cubes make the same choice for the face they share, the surface has no holes.
+ * Triangles are wound in the same sense as the 3D Viewer's MCTriangulator, that
+ * is, clockwise when seen from the background.
+ * </p>
+ *
+ * @see <p>
+ *      Lorensen WE, Cline HE (1987) Marching cubes: a high resolution 3D
+ *      surface construction algorithm. SIGGRAPH Comput Graph 21: 163-169. <a
+ *      href="http://dx.doi.org/10.1145/37402.37422"
+ *      >doi:10.1145/37402.37422</a>
+ *      </p>
+ *
+ * @author Michael Doube
+ */
+public class MarchingCubes {
+
+	/** Corner pairs of the 12 cube edges; corner bits are x, y and z */
+	private static final int[][] EDGES = { { 0, 1 }, { 2, 3 }, { 4, 5 },
+			{ 6, 7 }, { 0, 2 }, { 1, 3 }, { 4, 6 }, { 5, 7 }, { 0, 4 },
+			{ 1, 5 }, { 2, 6 }, { 3, 7 } };
+
+	/**
+	 * Corners of the 6 cube faces, in order anticlockwise when seen from
+	 * outside the cube
+	 */
+	private static final int[][] FACES = { { 0, 4, 6, 2 }, { 1, 3, 7, 5 },
+			{ 0, 1, 5, 4 }, { 2, 6, 7, 3 }, { 0, 2, 3, 1 }, { 4, 5, 7, 6 } };
+
+	/**
+	 * Edges of the triangles for each of the 256 cube configurations, 3 per
+	 * triangle
+	 */
+	private static final int[][] TRIANGLES = new int[256][];
+
+	static {
+		int[][] edgeOf = new int[8][8];
+		for (int e = 0; e < 12; e++) {
+			edgeOf[EDGES[e][0]][EDGES[e][1]] = e;
+			edgeOf[EDGES[e][1]][EDGES[e][0]] = e;
+		}
+		for (int config = 0; config < 256; config++)
+			TRIANGLES[config] = triangulate(config, edgeOf);
+	}
+
+	/**
+	 * Find the polygons separating the foreground corners of a cube from the
+	 * background corners, and split them into triangle fans
+	 */
+	private static int[] triangulate(int config, int[][] edgeOf) {
+		// on each face, the surface runs from the edge where the face's
+		// outline enters a run of foreground corners to the edge where it
+		// leaves
+		int[] next = new int[12];
+		Arrays.fill(next, -1);
+		for (int[] face : FACES) {
+			for (int m = 0; m < 4; m++) {
+				final int a = face[m];
+				final int b = face[(m + 1) % 4];
+				if (isSet(config, a) || !isSet(config, b))
+					continue;
+				int n = (m + 1) % 4;
+				while (isSet(config, face[(n + 1) % 4]))
+					n = (n + 1) % 4;
+				next[edgeOf[a][b]] = edgeOf[face[n]][face[(n + 1) % 4]];
+			}
+		}
+		// the runs on adjacent faces join up into closed loops
+		List<Integer> triangles = new ArrayList<Integer>();
+		boolean[] used = new boolean[12];
+		for (int e = 0; e < 12; e++) {
+			if (next[e] < 0 || used[e])
+				continue;
+			List<Integer> loop = new ArrayList<Integer>();
+			for (int f = e; !used[f]; f = next[f]) {
+				used[f] = true;
+				loop.add(f);
+			}
+			// the loops run anticlockwise seen from the background, so the
+			// fans are wound the other way
+			for (int i = 1; i < loop.size() - 1; i++) {
+				triangles.add(loop.get(0));
+				triangles.add(loop.get(i + 1));
+				triangles.add(loop.get(i));
+			}
+		}
+		int[] t = new int[triangles.size()];
+		for (int i = 0; i < t.length; i++)
+			t[i] = triangles.get(i);
+		return t;
+	}
+
+	private static boolean isSet(int config, int corner) {
+		return (config & (1 << corner)) != 0;
+	}
+
+	private final ImageStack stack;
+
+	private final int bitDepth;
+
+	/** Stack dimensions */
+	private final int w, h, d;
+
+	/** Resampled grid dimensions */
+	private final int gw, gh, gd;
+
+	/** Width and size of a grid plane padded with background */
+	private final int pw, planeSize;
+
+	private final int threshold, resampling;
+
+	private final double vW, vH, vD;
+
+	/**
+	 * Make the isosurface of an image
+	 *
+	 * @param imp
+	 *            8-, 16- or 32-bit image, or RGB, of which the red channel is
+	 *            used
+	 * @param threshold
+	 *            pixels with values &gt;= threshold are foreground
+	 * @param resampling
+	 *            size of the cubes of pixels which are averaged into each grid
+	 *            point; 1 meshes every pixel
+	 * @return calibrated surface mesh
+	 */
+	public static IndexedMesh getMesh(ImagePlus imp, int threshold,
+			int resampling) {
+		return new MarchingCubes(imp, threshold, resampling).mesh();
+	}
+
+	/**
+	 * Make the isosurface of an image as a list of points, 3 per triangle, as
+	 * a replacement for MCTriangulator.getTriangles()
+	 *
+	 * @see #getMesh(ImagePlus, int, int)
+	 */
+	public static List<Point3f> getTriangles(ImagePlus imp, int threshold,
+			int resampling) {
+		return getMesh(imp, threshold, resampling).getTriangles();
+	}
+
+	private MarchingCubes(ImagePlus imp, int threshold, int resampling) {
+		this.stack = imp.getImageStack();
+		this.bitDepth = imp.getBitDepth();
+		this.w = imp.getWidth();
+		this.h = imp.getHeight();
+		this.d = imp.getImageStackSize();
+		this.resampling = Math.max(1, resampling);
+		this.gw = (w + this.resampling - 1) / this.resampling;
+		this.gh = (h + this.resampling - 1) / this.resampling;
+		this.gd = (d + this.resampling - 1) / this.resampling;
+		this.pw = gw + 2;
+		this.planeSize = pw * (gh + 2);
+		this.threshold = threshold;
+		Calibration cal = imp.getCalibration();
+		this.vW = cal.pixelWidth;
+		this.vH = cal.pixelHeight;
+		this.vD = cal.pixelDepth;
+	}
+
+	/** Vertices and triangles of a slab of cube layers */
+	private final class Slab {
+		final int k0, k1;
+
+		float[] vertices = new float[3 * 1024];
+
+		int nVertices;
+
+		/** Local vertex indices, or references to the slab below */
+		int[] indices = new int[3 * 2048];
+
+		int nIndices;
+
+		/** Vertices on the x and y edges of the upper plane */
+		int[] topX, topY;
+
+		Slab(int k0, int k1) {
+			this.k0 = k0;
+			this.k1 = k1;
+		}
+	}
+
+	private IndexedMesh mesh() {
+		// cube layer k lies between grid planes k and k + 1; planes -1 and gd
+		// are background
+		final int nLayers = gd + 1;
+		final int nSlabs = Math.min(nLayers, Prefs.getThreads() * 4);
+		final Slab[] slabs = new Slab[nSlabs];
+		for (int s = 0; s < nSlabs; s++)
+			slabs[s] = new Slab(-1 + s * nLayers / nSlabs, -1 + (s + 1)
+					* nLayers / nSlabs);
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int s = ai.getAndIncrement(); s < nSlabs; s = ai
+							.getAndIncrement())
+						meshSlab(slabs[s]);
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return join(slabs);
+	}
+
+	private void meshSlab(Slab slab) {
+		float[] lower = plane(slab.k0);
+		float[] upper = new float[planeSize];
+		int[] lowX = new int[planeSize];
+		int[] lowY = new int[planeSize];
+		int[] upX = new int[planeSize];
+		int[] upY = new int[planeSize];
+		int[] edgeZ = new int[planeSize];
+		Arrays.fill(lowX, -1);
+		Arrays.fill(lowY, -1);
+		final int[] ids = new int[12];
+		for (int k = slab.k0; k < slab.k1; k++) {
+			upper = plane(k + 1);
+			Arrays.fill(upX, -1);
+			Arrays.fill(upY, -1);
+			Arrays.fill(edgeZ, -1);
+			// vertices on the lower plane of the slab belong to the slab below
+			final boolean borrowed = k == slab.k0;
+			for (int gy = 0; gy < gh + 1; gy++) {
+				for (int gx = 0; gx < gw + 1; gx++) {
+					final int g = gx + gy * pw;
+					int config = 0;
+					for (int c = 0; c < 8; c++) {
+						final float[] p = (c & 4) == 0 ? lower : upper;
+						if (p[g + (c & 1) + ((c >> 1) & 1) * pw] >= threshold)
+							config |= 1 << c;
+					}
+					final int[] triangles = TRIANGLES[config];
+					if (triangles.length == 0)
+						continue;
+					Arrays.fill(ids, -1);
+					for (int t : triangles) {
+						if (ids[t] == -1)
+							ids[t] = vertex(slab, t, gx, gy, k, lower, upper,
+									lowX, lowY, upX, upY, edgeZ, borrowed);
+						addIndex(slab, ids[t]);
+					}
+				}
+			}
+			float[] swap = lower;
+			lower = upper;
+			upper = swap;
+			int[] swapX = lowX;
+			lowX = upX;
+			upX = swapX;
+			int[] swapY = lowY;
+			lowY = upY;
+			upY = swapY;
+		}
+		slab.topX = lowX;
+		slab.topY = lowY;
+	}
+
+	/**
+	 * Get the index of the vertex on a cube edge, making the vertex if this is
+	 * the first cube to use it
+	 */
+	private int vertex(Slab slab, int e, int gx, int gy, int k,
+			float[] lower, float[] upper, int[] lowX, int[] lowY, int[] upX,
+			int[] upY, int[] edgeZ, boolean borrowed) {
+		final int c0 = EDGES[e][0];
+		final int c1 = EDGES[e][1];
+		final int bx = gx + (c0 & 1);
+		final int by = gy + ((c0 >> 1) & 1);
+		final boolean up = (c0 & 4) != 0;
+		final int g = bx + by * pw;
+		final int axis = c0 ^ c1;
+		int[] ids;
+		int g1;
+		if (axis == 1) {
+			ids = up ? upX : lowX;
+			g1 = g + 1;
+		} else if (axis == 2) {
+			ids = up ? upY : lowY;
+			g1 = g + pw;
+		} else {
+			ids = edgeZ;
+			g1 = g;
+		}
+		if (ids[g] != -1)
+			return ids[g];
+		if (borrowed && axis != 4 && !up) {
+			ids[g] = -2 - ((axis == 1 ? 0 : planeSize) + g);
+			return ids[g];
+		}
+		final float v0 = (up ? upper : lower)[g];
+		final float v1 = (axis == 4 || up ? upper : lower)[g1];
+		final double t = (threshold - v0) / (v1 - v0);
+		double x = bx - 1;
+		double y = by - 1;
+		double z = up ? k + 1 : k;
+		if (axis == 1)
+			x += t;
+		else if (axis == 2)
+			y += t;
+		else
+			z += t;
+		final double offset = (resampling - 1) / 2.0;
+		if (slab.nVertices * 3 + 3 > slab.vertices.length) {
+			float[] grown = new float[slab.vertices.length * 2];
+			System.arraycopy(slab.vertices, 0, grown, 0, slab.vertices.length);
+			slab.vertices = grown;
+		}
+		final int v = slab.nVertices++;
+		slab.vertices[v * 3] = (float) ((x * resampling + offset) * vW);
+		slab.vertices[v * 3 + 1] = (float) ((y * resampling + offset) * vH);
+		slab.vertices[v * 3 + 2] = (float) ((z * resampling + offset) * vD);
+		ids[g] = v;
+		return v;
+	}
+
+	private static void addIndex(Slab slab, int index) {
+		if (slab.nIndices == slab.indices.length) {
+			int[] grown = new int[slab.indices.length * 2];
+			System.arraycopy(slab.indices, 0, grown, 0, slab.indices.length);
+			slab.indices = grown;
+		}
+		slab.indices[slab.nIndices++] = index;
+	}
+
+	/**
+	 * Get the values of a grid plane, padded with a border of background. Each
+	 * grid point is the mean of a cube of resampling<sup>3</sup> pixels, or
+	 * fewer at the stack edges.
+	 */
+	private float[] plane(int k) {
+		float[] plane = new float[planeSize];
+		if (k < 0 || k >= gd)
+			return plane;
+		final int zStart = k * resampling;
+		final int zEnd = Math.min(d, zStart + resampling);
+		int[] counts = resampling == 1 ? null : new int[planeSize];
+		for (int z = zStart; z < zEnd; z++) {
+			final Object pixels = stack.getPixels(z + 1);
+			for (int y = 0; y < h; y++) {
+				final int row = (y / resampling + 1) * pw + 1;
+				for (int x = 0; x < w; x++) {
+					final int g = row + x / resampling;
+					plane[g] += value(pixels, y * w + x);
+					if (counts != null)
+						counts[g]++;
+				}
+			}
+		}
+		if (counts != null)
+			for (int g = 0; g < planeSize; g++)
+				if (counts[g] > 0)
+					plane[g] /= counts[g];
+		return plane;
+	}
+
+	private float value(Object pixels, int i) {
+		switch (bitDepth) {
+		case 8:
+			return ((byte[]) pixels)[i] & 0xff;
+		case 16:
+			return ((short[]) pixels)[i] & 0xffff;
+		case 24:
+			return (((int[]) pixels)[i] >> 16) & 0xff;
+		default:
+			return ((float[]) pixels)[i];
+		}
+	}
+
+	/**
+	 * Join the slabs' vertices and triangles, replacing references to the
+	 * vertices of the slab below with their indices
+	 */
+	private IndexedMesh join(final Slab[] slabs) {
+		final int nSlabs = slabs.length;
+		final int[] vertexOffset = new int[nSlabs + 1];
+		final int[] indexOffset = new int[nSlabs + 1];
+		for (int s = 0; s < nSlabs; s++) {
+			vertexOffset[s + 1] = vertexOffset[s] + slabs[s].nVertices;
+			indexOffset[s + 1] = indexOffset[s] + slabs[s].nIndices;
+		}
+		final float[] vertices = new float[vertexOffset[nSlabs] * 3];
+		final int[] indices = new int[indexOffset[nSlabs]];
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int s = ai.getAndIncrement(); s < nSlabs; s = ai
+							.getAndIncrement()) {
+						final Slab slab = slabs[s];
+						System.arraycopy(slab.vertices, 0, vertices,
+								vertexOffset[s] * 3, slab.nVertices * 3);
+						final int offset = vertexOffset[s];
+						final int i0 = indexOffset[s];
+						for (int i = 0; i < slab.nIndices; i++) {
+							final int id = slab.indices[i];
+							if (id >= 0) {
+								indices[i0 + i] = offset + id;
+								continue;
+							}
+							final int key = -2 - id;
+							final Slab below = slabs[s - 1];
+							final int local = key < planeSize ? below.topX[key]
+									: below.topY[key - planeSize];
+							indices[i0 + i] = vertexOffset[s - 1] + local;
+						}
+						slab.vertices = null;
+						slab.indices = null;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return new IndexedMesh(vertices, indices);
+	}
+}
@@ -2,6 +2,8 @@ package org.doube.geometry;
 
 import javax.vecmath.Point3f;
 
+import org.doube.util.RandomStream;
+
 public class Vectors {
 	/**
 	 * Calculate the cross product of 3 Point3f's, which describe two vectors
@@ -159,6 +161,42 @@ public class Vectors {
 		return new double[]{x, y, z};
 	}
 
+	/**
+	 * Generate an array of randomly-oriented 3D unit vectors drawn from the
+	 * supplied random stream, so that results are repeatable for a given seed
+	 * 
+	 * @param nVectors
+	 *            number of vectors to generate
+	 * @param random
+	 *            source of random numbers
+	 * @return 2D array (nVectors x 3) containing unit vectors
+	 */
+	public static double[][] randomVectors(int nVectors, RandomStream random) {
+		double[][] randomVectors = new double[nVectors][3];
+
+		for (int n = 0; n < nVectors; n++)
+			randomVectors[n] = randomVector(random);
+
+		return randomVectors;
+	}
+
+	/**
+	 * Generate a single randomly-oriented vector on the unit sphere, drawing
+	 * from the supplied random stream
+	 * 
+	 * @param random
+	 *            source of random numbers
+	 * @return 3-element double array containing [x y z]^T
+	 */
+	public static double[] randomVector(RandomStream random) {
+		final double z = 2 * random.nextDouble() - 1;
+		final double rho = Math.sqrt(1 - z * z);
+		final double phi = Math.PI * (2 * random.nextDouble() - 1);
+		final double x = rho * Math.cos(phi);
+		final double y = rho * Math.sin(phi);
+		return new double[] { x, y, z };
+	}
+
 	/**
 	 * Generate an array of regularly-spaced 3D unit vectors. The vectors aren't
 	 * equally spaced in all directions, but there is no clustering around the
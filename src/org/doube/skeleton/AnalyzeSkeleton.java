@@ -1,11 +1,15 @@
 package org.doube.skeleton;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.ListIterator;
+import java.util.Map;
 
+import org.bonej.io.ChunkedVolume;
 import org.doube.util.ImageCheck;
 import org.doube.util.UsageReporter;
 
@@ -244,6 +248,7 @@ public class AnalyzeSkeleton implements PlugInFilter
 		gd.addCheckbox("Prune ends", pruneEnds);
 		gd.addCheckbox("Calculate largest shortest path", calculateShortestPath);
 		gd.addCheckbox("Show detailed info", AnalyzeSkeleton.verbose);
+		gd.addStringField("Save_intermediates_to", "", 30);
 		gd.addHelp("http://fiji.sc/wiki/index.php/AnalyzeSkeleton");
 		gd.showDialog();
 		
@@ -254,6 +259,7 @@ public class AnalyzeSkeleton implements PlugInFilter
 		pruneEnds = gd.getNextBoolean();
 		calculateShortestPath = gd.getNextBoolean();
 		AnalyzeSkeleton.verbose = gd.getNextBoolean();
+		final String saveDirectory = gd.getNextString().trim();
 		
 		// pre-checking if another image is needed and also setting bPruneCycles
 		ImagePlus origIP = null;
@@ -310,6 +316,9 @@ public class AnalyzeSkeleton implements PlugInFilter
 		if(debug)
 			IJ.log("num of skeletons = " + this.numOfTrees);
 
+		if (saveDirectory.length() > 0)
+			saveTaggedImage(saveDirectory);
+
 		// Show results table
 		showResults();
 		UsageReporter.reportEvent(this).send();
@@ -1271,6 +1280,36 @@ public class AnalyzeSkeleton implements PlugInFilter
 		this.junctionVertex  = new Vertex[this.numOfTrees][];
 	}// end method initializeTrees
 	
+	// -----------------------------------------------------------------------
+	/**
+	 * Save the tagged skeleton as a chunked volume, named after the input
+	 * image.
+	 *
+	 * @param directory directory to save to
+	 */
+	private void saveTaggedImage(String directory)
+	{
+		final int depth = this.taggedImage.getSize();
+		Object[] slices = new Object[depth];
+		for (int z = 0; z < depth; z++)
+			slices[z] = this.taggedImage.getPixels(z + 1);
+		Map<String, String> metadata = ChunkedVolume.provenance(
+				"AnalyzeSkeleton", this.imRef);
+		metadata.put("prune", pruneCyclesModes[pruneIndex]);
+		metadata.put("pruneEnds", "" + pruneEnds);
+		File file = new File(directory, this.imRef.getShortTitle()
+				+ "_tagged" + ChunkedVolume.EXTENSION);
+		IJ.showStatus("Saving " + file.getName());
+		try {
+			ChunkedVolume.write(file, slices, this.taggedImage.getWidth(),
+					this.taggedImage.getHeight(), this.imRef.getCalibration(),
+					metadata);
+		} catch (IOException e) {
+			IJ.error("Analyze Skeleton", "Could not save " + file.getName()
+					+ ": " + e.getMessage());
+		}
+	}// end method saveTaggedImage
+
 	// -----------------------------------------------------------------------
 	/**
 	 * Show results table.
@@ -205,7 +205,7 @@ public class ImageCheck {
 	 * 
 	 * @return false if the IJ version is too old or blacklisted
 	 */
-	private static boolean checkIJVersion() {
+	public static boolean checkIJVersion() {
 		if (isIJVersionBlacklisted()) {
 			IJ.error(
 					"Bad ImageJ version",
@@ -0,0 +1,121 @@
+package org.doube.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImageStack;
+
+/**
+ * Immutable, bit-packed copy of the foreground of a binary image stack. Each
+ * pixel occupies a single bit, so the whole stack takes 1/8 of the memory of
+ * the original 8-bit stack and can be built once and shared by all the threads
+ * of an analysis. Each row is padded to a whole number of 64-bit words.
+ *
+ * @author Michael Doube
+ */
+public class PackedBinaryStack {
+
+	/** Bits, indexed as [z][y * wordsPerRow + x / 64] */
+	private final long[][] bits;
+
+	private final int width, height, depth;
+
+	/** Number of 64-bit words used to store each row */
+	private final int wordsPerRow;
+
+	/**
+	 * Pack the foreground (pixel value 255) of a binary 8-bit stack
+	 *
+	 * @param stack
+	 *            binary 8-bit stack
+	 */
+	public PackedBinaryStack(final ImageStack stack) {
+		this.width = stack.getWidth();
+		this.height = stack.getHeight();
+		this.depth = stack.getSize();
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.bits = new long[depth][height * wordsPerRow];
+
+		final int w = this.width;
+		final int h = this.height;
+		final int d = this.depth;
+		final int wpr = this.wordsPerRow;
+		final long[][] b = this.bits;
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int z = ai.getAndIncrement(); z < d; z = ai
+							.getAndIncrement()) {
+						final byte[] pixels = (byte[]) stack.getPixels(z + 1);
+						final long[] slice = b[z];
+						for (int y = 0; y < h; y++) {
+							final int offset = y * w;
+							final int wordOffset = y * wpr;
+							for (int x = 0; x < w; x++) {
+								if (pixels[offset + x] == -1)
+									slice[wordOffset + (x >>> 6)] |= 1L << x;
+							}
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+	}
+
+	/**
+	 * Check whether a pixel is foreground. No bounds checking is performed, so
+	 * callers must ensure that (x, y, z) lies within the stack.
+	 *
+	 * @param x
+	 *            pixel x-coordinate, 0 to width - 1
+	 * @param y
+	 *            pixel y-coordinate, 0 to height - 1
+	 * @param z
+	 *            0-based slice index, 0 to depth - 1
+	 * @return true if the pixel is foreground
+	 */
+	public boolean isForeground(final int x, final int y, final int z) {
+		return ((bits[z][y * wordsPerRow + (x >>> 6)] >>> x) & 1L) != 0;
+	}
+
+	/**
+	 * Check whether a pixel lies within the stack
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            0-based slice index
+	 * @return true if (x, y, z) is a valid pixel coordinate
+	 */
+	public boolean isInBounds(final int x, final int y, final int z) {
+		return x >= 0 && x < width && y >= 0 && y < height && z >= 0
+				&& z < depth;
+	}
+
+	/**
+	 * Count the foreground pixels in the stack
+	 *
+	 * @return number of foreground pixels
+	 */
+	public long countForeground() {
+		long count = 0;
+		for (long[] slice : bits)
+			for (long word : slice)
+				count += Long.bitCount(word);
+		return count;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+}
@@ -0,0 +1,134 @@
+package org.doube.util;
+
+/**
+ * <p>
+ * Seedable, splittable pseudorandom number generator based on SplitMix64.
+ * Unlike Math.random(), which draws from a single synchronized Random shared by
+ * the whole JVM, each RandomStream is owned by one thread, so there is no
+ * contention between worker threads.
+ * </p>
+ * <p>
+ * Reproducible parallel results are obtained by giving each unit of work its
+ * own substream, derived from the root seed and the unit's index. The numbers
+ * drawn for each unit are then independent of the number of threads and of the
+ * order in which the units are processed.
+ * </p>
+ * <p>
+ * Not thread safe: instances must not be shared between threads.
+ * </p>
+ *
+ * @see <p>
+ *      Steele GL, Lea D, Flood CH (2014) Fast splittable pseudorandom number
+ *      generators. OOPSLA '14 pp. 453-472. <a
+ *      href="http://dx.doi.org/10.1145/2660193.2660195"
+ *      >doi:10.1145/2660193.2660195</a>
+ *      </p>
+ * @author Michael Doube
+ */
+public class RandomStream {
+
+	/** Odd constant close to 2^64 / golden ratio */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/** Seed this stream was created with, used to derive substreams */
+	private final long rootSeed;
+
+	/** Current state */
+	private long state;
+
+	/**
+	 * Create a stream with a fixed seed. Two streams created with the same seed
+	 * produce identical sequences.
+	 *
+	 * @param seed
+	 */
+	public RandomStream(final long seed) {
+		this.rootSeed = seed;
+		this.state = seed;
+	}
+
+	/**
+	 * Create a stream with an arbitrary seed based on the system clock
+	 */
+	public RandomStream() {
+		this(mix64(System.nanoTime()) ^ mix64(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Get the seed that this stream was created with
+	 *
+	 * @return seed
+	 */
+	public long getSeed() {
+		return rootSeed;
+	}
+
+	/**
+	 * Generate the next pseudorandom long
+	 *
+	 * @return uniformly distributed long
+	 */
+	public long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix64(state);
+	}
+
+	/**
+	 * Generate the next pseudorandom double
+	 *
+	 * @return uniformly distributed double in the range [0, 1)
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Generate the next pseudorandom int between 0 (inclusive) and bound
+	 * (exclusive)
+	 *
+	 * @param bound
+	 *            must be positive
+	 * @return uniformly distributed int in the range [0, bound)
+	 */
+	public int nextInt(final int bound) {
+		if (bound <= 0)
+			throw new IllegalArgumentException("bound must be positive");
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	/**
+	 * Create a new, independent stream seeded from this stream's next value.
+	 * Advances this stream's state.
+	 *
+	 * @return new RandomStream
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextLong());
+	}
+
+	/**
+	 * Get the substream belonging to a unit of work. The result depends only
+	 * on this stream's seed and the index, not on this stream's state, so
+	 * substreams may be requested from any thread in any order.
+	 *
+	 * @param index
+	 *            identifier of the unit of work, e.g. a seed point's index
+	 * @return new RandomStream unique to this seed and index
+	 */
+	public RandomStream substream(final long index) {
+		return new RandomStream(mix64(rootSeed
+				^ mix64((index + 1) * GOLDEN_GAMMA)));
+	}
+
+	/**
+	 * SplitMix64 finalisation function (variant 13 of Stafford's mixers)
+	 *
+	 * @param z
+	 * @return well-mixed bits of z
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,450 @@
+package org.doube.util;
+
+/**
+ * StackAligner
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * <p>
+ * Resamples a stack into a rotated, isotropic target stack. Each target voxel
+ * is mapped back through the inverse rotation to the source stack, and its
+ * value looked up by nearest neighbour or trilinear interpolation.
+ * </p>
+ * <p>
+ * Target slices are divided into square tiles which are shared between
+ * threads. Neighbouring target voxels map to neighbouring source voxels, so
+ * working a tile at a time keeps the source voxels being read in cache, and
+ * pixels are read directly from the source slices' primitive arrays.
+ * </p>
+ * <p>
+ * The whole target stack may be made in memory with {@link #alignStack()}, or
+ * slices can be made one at a time on demand by {@link #getVirtualStack()}, so
+ * that the aligned image can be viewed or saved without holding it all in
+ * memory.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+public class StackAligner {
+
+	/** Use the value of the source voxel containing the mapped point */
+	public static final int NEAREST_NEIGHBOUR = 0;
+
+	/** Interpolate between the 8 source voxels surrounding the mapped point */
+	public static final int TRILINEAR = 1;
+
+	/** Side length of a tile in pixels */
+	private static final int TILE = 32;
+
+	private final Object[] sourcePixels;
+
+	private final int width, bitDepth;
+
+	private final int rX, rY, rW, rH, startSlice, endSlice;
+
+	private final double vW, vH, vD, vS;
+
+	private final int wT, hT, dT;
+
+	private final int tilesX, tilesPerSlice;
+
+	/** Calibrated centre of the target stack */
+	private final double xTc, yTc, zTc;
+
+	/** Offset from the target centre to the source centroid */
+	private final double dXc, dYc, dZc;
+
+	/**
+	 * Shift from a target voxel's corner to its centre, in source pixels.
+	 * Nearest neighbour samples at the corner, as Moments always has;
+	 * interpolation samples at the centre, so that an identity alignment is
+	 * exact.
+	 */
+	private final double hX, hY, hZ;
+
+	/** Inverse rotation matrix elements */
+	private final double e00, e01, e02, e10, e11, e12, e20, e21, e22;
+
+	private int interpolation = NEAREST_NEIGHBOUR;
+
+	private boolean doAxes = false;
+
+	/**
+	 * Set up an alignment
+	 *
+	 * @param imp
+	 *            source image
+	 * @param roi
+	 *            rectangle outside which source pixels are ignored
+	 * @param startSlice
+	 *            first source slice to use
+	 * @param endSlice
+	 *            last source slice to use
+	 * @param eigenVecInv
+	 *            inverse rotation matrix (target to source)
+	 * @param centroid
+	 *            calibrated source coordinates of the point which maps to the
+	 *            centre of the target
+	 * @param wT
+	 *            target width
+	 * @param hT
+	 *            target height
+	 * @param dT
+	 *            target depth
+	 */
+	public StackAligner(ImagePlus imp, Rectangle roi, int startSlice,
+			int endSlice, double[][] eigenVecInv, double[] centroid, int wT,
+			int hT, int dT) {
+		final ImageStack stack = imp.getImageStack();
+		this.width = stack.getWidth();
+		this.bitDepth = imp.getBitDepth();
+		this.rX = roi.x;
+		this.rY = roi.y;
+		this.rW = roi.x + roi.width;
+		this.rH = roi.y + roi.height;
+		this.startSlice = startSlice;
+		this.endSlice = endSlice;
+		// cache the source slices, which may be expensive to get
+		this.sourcePixels = new Object[stack.getSize() + 1];
+		for (int z = startSlice; z <= endSlice; z++)
+			sourcePixels[z] = stack.getPixels(z);
+
+		Calibration cal = imp.getCalibration();
+		this.vW = cal.pixelWidth;
+		this.vH = cal.pixelHeight;
+		this.vD = cal.pixelDepth;
+		this.vS = Math.min(vW, Math.min(vH, vD));
+		this.wT = wT;
+		this.hT = hT;
+		this.dT = dT;
+		this.tilesX = (wT + TILE - 1) / TILE;
+		this.tilesPerSlice = tilesX * ((hT + TILE - 1) / TILE);
+
+		this.xTc = wT * vS / 2;
+		this.yTc = hT * vS / 2;
+		this.zTc = dT * vS / 2;
+		this.dXc = centroid[0] - xTc;
+		this.dYc = centroid[1] - yTc;
+		this.dZc = centroid[2] - zTc;
+		this.e00 = eigenVecInv[0][0];
+		this.e01 = eigenVecInv[0][1];
+		this.e02 = eigenVecInv[0][2];
+		this.e10 = eigenVecInv[1][0];
+		this.e11 = eigenVecInv[1][1];
+		this.e12 = eigenVecInv[1][2];
+		this.e20 = eigenVecInv[2][0];
+		this.e21 = eigenVecInv[2][1];
+		this.e22 = eigenVecInv[2][2];
+		this.hX = vS / 2 * (e00 + e10 + e20) / vW;
+		this.hY = vS / 2 * (e01 + e11 + e21) / vH;
+		this.hZ = vS / 2 * (e02 + e12 + e22) / vD;
+	}
+
+	/**
+	 * @param interpolation
+	 *            {@link #NEAREST_NEIGHBOUR} or {@link #TRILINEAR}. RGB images
+	 *            always use nearest neighbour.
+	 */
+	public void setInterpolation(int interpolation) {
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * @param doAxes
+	 *            if true, draw axes through the centre of the target
+	 */
+	public void setAxes(boolean doAxes) {
+		this.doAxes = doAxes;
+	}
+
+	/**
+	 * Make the whole target stack in memory
+	 *
+	 * @return aligned stack
+	 */
+	public ImageStack alignStack() {
+		final Object[] targetPixels = new Object[dT + 1];
+		for (int z = 1; z <= dT; z++)
+			targetPixels[z] = newPixels();
+		final int nTasks = dT * tilesPerSlice;
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int t = ai.getAndIncrement(); t < nTasks; t = ai
+							.getAndIncrement()) {
+						IJ.showStatus("Aligning image stack...");
+						IJ.showProgress(t, nTasks);
+						final int z = t / tilesPerSlice + 1;
+						alignTile(targetPixels[z], z, t % tilesPerSlice);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		ImageStack targetStack = new ImageStack(wT, hT);
+		for (int z = 1; z <= dT; z++) {
+			drawAxes(targetPixels[z], z);
+			targetStack.addSlice("", targetPixels[z]);
+		}
+		return targetStack;
+	}
+
+	/**
+	 * Make a single slice of the target stack, with the slice's tiles shared
+	 * between threads
+	 *
+	 * @param z
+	 *            target slice number, 1-based
+	 * @return pixel array of the aligned slice
+	 */
+	public Object alignSlice(final int z) {
+		final Object pixels = newPixels();
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int t = ai.getAndIncrement(); t < tilesPerSlice; t = ai
+							.getAndIncrement()) {
+						alignTile(pixels, z, t);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		drawAxes(pixels, z);
+		return pixels;
+	}
+
+	/**
+	 * Get a virtual stack whose slices are aligned when they are accessed.
+	 * Slices are not cached, so only the source stack and the slices in use
+	 * are held in memory, and saving the stack writes one slice at a time.
+	 *
+	 * @return virtual aligned stack
+	 */
+	public VirtualStack getVirtualStack() {
+		return new AlignedStack(this);
+	}
+
+	/**
+	 * Fill one tile of a target slice
+	 *
+	 * @param pixels
+	 *            target slice pixel array
+	 * @param z
+	 *            target slice number, 1-based
+	 * @param tile
+	 *            tile index within the slice
+	 */
+	private void alignTile(final Object pixels, final int z, final int tile) {
+		final int xStart = (tile % tilesX) * TILE;
+		final int yStart = (tile / tilesX) * TILE;
+		final int xEnd = Math.min(xStart + TILE, wT);
+		final int yEnd = Math.min(yStart + TILE, hT);
+		final boolean trilinear = interpolation == TRILINEAR
+				&& bitDepth != 24;
+		final double zD = z * vS - zTc;
+		final double zD0 = zD * e20;
+		final double zD1 = zD * e21;
+		final double zD2 = zD * e22;
+		for (int y = yStart; y < yEnd; y++) {
+			final double yD = y * vS - yTc;
+			final double yD0 = yD * e10;
+			final double yD1 = yD * e11;
+			final double yD2 = yD * e12;
+			int index = y * wT + xStart;
+			for (int x = xStart; x < xEnd; x++, index++) {
+				// rotate about the target centre, then move to the centroid
+				final double xD = x * vS - xTc;
+				double xS = (xD * e00 + yD0 + zD0 + xTc + dXc) / vW;
+				double yS = (xD * e01 + yD1 + zD1 + yTc + dYc) / vH;
+				double zS = (xD * e02 + yD2 + zD2 + zTc + dZc) / vD;
+				if (trilinear) {
+					xS += hX;
+					yS += hY;
+					zS += hZ;
+				}
+				final int xA = (int) Math.floor(xS);
+				final int yA = (int) Math.floor(yS);
+				final int zA = (int) Math.floor(zS);
+				if (xA < rX || xA >= rW || yA < rY || yA >= rH
+						|| zA < startSlice || zA > endSlice)
+					continue;
+				if (trilinear)
+					setValue(pixels, index, interpolate(xS, yS, zS));
+				else
+					copyValue(sourcePixels[zA], yA * width + xA, pixels, index);
+			}
+		}
+	}
+
+	/**
+	 * Trilinear interpolation between voxel centres. Voxel (i, j, k) covers
+	 * [i, i+1) x [j, j+1) x [k, k+1) in source pixel units, so its centre is at
+	 * (i + 0.5, j + 0.5, k + 0.5). Neighbours outside the source ROI and slice
+	 * range are replaced by the nearest voxel inside them.
+	 */
+	private double interpolate(double xS, double yS, double zS) {
+		final double xU = xS - 0.5;
+		final double yU = yS - 0.5;
+		final double zU = zS - 0.5;
+		final int xF = (int) Math.floor(xU);
+		final int yF = (int) Math.floor(yU);
+		final int zF = (int) Math.floor(zU);
+		final double fx = xU - xF;
+		final double fy = yU - yF;
+		final double fz = zU - zF;
+		final int xa = clamp(xF, rX, rW - 1);
+		final int xb = clamp(xF + 1, rX, rW - 1);
+		final int ya = clamp(yF, rY, rH - 1) * width;
+		final int yb = clamp(yF + 1, rY, rH - 1) * width;
+		final Object pa = sourcePixels[clamp(zF, startSlice, endSlice)];
+		final Object pb = sourcePixels[clamp(zF + 1, startSlice, endSlice)];
+		final double a = lerp(lerp(getValue(pa, ya + xa),
+				getValue(pa, ya + xb), fx), lerp(getValue(pa, yb + xa),
+				getValue(pa, yb + xb), fx), fy);
+		final double b = lerp(lerp(getValue(pb, ya + xa),
+				getValue(pb, ya + xb), fx), lerp(getValue(pb, yb + xa),
+				getValue(pb, yb + xb), fx), fy);
+		return lerp(a, b, fz);
+	}
+
+	private static double lerp(double a, double b, double f) {
+		return a + (b - a) * f;
+	}
+
+	private static int clamp(int i, int min, int max) {
+		return i < min ? min : (i > max ? max : i);
+	}
+
+	private static double getValue(Object pixels, int i) {
+		if (pixels instanceof byte[])
+			return ((byte[]) pixels)[i] & 0xff;
+		if (pixels instanceof short[])
+			return ((short[]) pixels)[i] & 0xffff;
+		return ((float[]) pixels)[i];
+	}
+
+	private static void setValue(Object pixels, int i, double value) {
+		if (pixels instanceof byte[])
+			((byte[]) pixels)[i] = (byte) (int) (value + 0.5);
+		else if (pixels instanceof short[])
+			((short[]) pixels)[i] = (short) (int) (value + 0.5);
+		else
+			((float[]) pixels)[i] = (float) value;
+	}
+
+	private static void copyValue(Object source, int i, Object target, int j) {
+		if (source instanceof byte[])
+			((byte[]) target)[j] = ((byte[]) source)[i];
+		else if (source instanceof short[])
+			((short[]) target)[j] = ((short[]) source)[i];
+		else if (source instanceof float[])
+			((float[]) target)[j] = ((float[]) source)[i];
+		else
+			((int[]) target)[j] = ((int[]) source)[i];
+	}
+
+	private Object newPixels() {
+		switch (bitDepth) {
+		case 8:
+			return new byte[wT * hT];
+		case 16:
+			return new short[wT * hT];
+		case 24:
+			return new int[wT * hT];
+		default:
+			return new float[wT * hT];
+		}
+	}
+
+	private ImageProcessor getProcessor(Object pixels) {
+		switch (bitDepth) {
+		case 8:
+			return new ByteProcessor(wT, hT, (byte[]) pixels, null);
+		case 16:
+			return new ShortProcessor(wT, hT, (short[]) pixels, null);
+		case 24:
+			return new ColorProcessor(wT, hT, (int[]) pixels);
+		default:
+			return new FloatProcessor(wT, hT, (float[]) pixels, null);
+		}
+	}
+
+	/**
+	 * Draw the target z axis as a point on every slice, and the x and y axes
+	 * as lines on the central slice
+	 */
+	private void drawAxes(Object pixels, int z) {
+		if (!doAxes)
+			return;
+		final int xCent = (int) Math.floor(xTc / vS);
+		final int yCent = (int) Math.floor(yTc / vS);
+		final int zCent = (int) Math.floor(zTc / vS);
+		final int axisColour = Integer.MAX_VALUE;
+		ImageProcessor axisIP = getProcessor(pixels);
+		axisIP.set(xCent, yCent, axisColour);
+		if (z == zCent) {
+			axisIP.setColor(axisColour);
+			axisIP.drawLine(0, yCent, wT, yCent);
+			axisIP.drawLine(xCent, 0, xCent, hT);
+		}
+	}
+
+	/**
+	 * Virtual stack which aligns each slice as it is requested
+	 */
+	private static class AlignedStack extends VirtualStack {
+
+		private final StackAligner aligner;
+
+		AlignedStack(StackAligner aligner) {
+			super(aligner.wT, aligner.hT, null, null);
+			this.aligner = aligner;
+			setBitDepth(aligner.bitDepth);
+		}
+
+		public ImageProcessor getProcessor(int n) {
+			return aligner.getProcessor(aligner.alignSlice(n));
+		}
+
+		public int getSize() {
+			return aligner.dT;
+		}
+
+		public String getSliceLabel(int n) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package org.doube.util;
+
+/**
+ * StackMoments
+ * Copyright 2015 Michael Doube
+ *
+ *This program is free software: you can redistribute it and/or modify
+ *it under the terms of the GNU General Public License as published by
+ *the Free Software Foundation, either version 3 of the License, or
+ *(at your option) any later version.
+ *
+ *This program is distributed in the hope that it will be useful,
+ *but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *GNU General Public License for more details.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * <p>
+ * Parallel, compensated calculation of the zeroth, first and second moments of
+ * the thresholded voxels in a stack. For each voxel with a pixel value between
+ * min and max, a weight w is summed along with w.x, w.y, w.z, w.x^2, w.y^2,
+ * w.z^2, w.xy, w.xz and w.yz, where (x, y, z) is the voxel's calibrated
+ * position relative to an origin. The weight is 1, or the voxel's mass if a density
+ * calibration is set. These sums are the basis of centroids, inertia tensors
+ * and covariance matrices.
+ * </p>
+ * <p>
+ * Slices are shared between threads and pixels are read directly from the
+ * slices' primitive arrays. Each row is summed in double precision, rows are
+ * added to their slice's sums with Kahan-Babuska (Neumaier) compensation, and
+ * slices are combined by pairwise summation. The result is accurate for stacks
+ * of billions of voxels and identical for any number of threads.
+ * </p>
+ *
+ * @author Michael Doube
+ */
+public class StackMoments {
+
+	/** Index of the sum of weights */
+	public static final int W = 0;
+	/** Index of the sum of w.x */
+	public static final int X = 1;
+	/** Index of the sum of w.y */
+	public static final int Y = 2;
+	/** Index of the sum of w.z */
+	public static final int Z = 3;
+	/** Index of the sum of w.x^2 */
+	public static final int XX = 4;
+	/** Index of the sum of w.y^2 */
+	public static final int YY = 5;
+	/** Index of the sum of w.z^2 */
+	public static final int ZZ = 6;
+	/** Index of the sum of w.xy */
+	public static final int XY = 7;
+	/** Index of the sum of w.xz */
+	public static final int XZ = 8;
+	/** Index of the sum of w.yz */
+	public static final int YZ = 9;
+	/** Index of the number of voxels */
+	public static final int COUNT = 10;
+	/** Number of sums */
+	public static final int N_SUMS = 11;
+
+	private final ImageStack stack;
+
+	private final Rectangle roi;
+
+	private final int startSlice, endSlice;
+
+	private final double min, max;
+
+	private final double vW, vH, vD;
+
+	private double oX = 0, oY = 0, oZ = 0;
+
+	private boolean isWeighted = false;
+
+	private double m, c, factor, voxVol;
+
+	/**
+	 * Set up a moment calculation. Positions are calibrated, with x = column
+	 * * pixel width, y = row * pixel height and z = slice number * pixel depth.
+	 *
+	 * @param imp
+	 *            image
+	 * @param roi
+	 *            rectangle containing the voxels to measure
+	 * @param startSlice
+	 *            first slice to measure, 1-based
+	 * @param endSlice
+	 *            last slice to measure, inclusive
+	 * @param min
+	 *            minimum pixel value to include
+	 * @param max
+	 *            maximum pixel value to include
+	 */
+	public StackMoments(ImagePlus imp, Rectangle roi, int startSlice,
+			int endSlice, double min, double max) {
+		this.stack = imp.getImageStack();
+		this.roi = roi;
+		this.startSlice = startSlice;
+		this.endSlice = endSlice;
+		this.min = min;
+		this.max = max;
+		Calibration cal = imp.getCalibration();
+		this.vW = cal.pixelWidth;
+		this.vH = cal.pixelHeight;
+		this.vD = cal.pixelDepth;
+	}
+
+	/**
+	 * Measure positions relative to a point instead of the image origin.
+	 * Centring on the centroid before summing avoids the loss of precision in
+	 * subtracting the large, nearly-equal terms of uncentred second moments.
+	 *
+	 * @param origin
+	 *            calibrated (x, y, z) coordinates
+	 */
+	public void setOrigin(double[] origin) {
+		this.oX = origin[0];
+		this.oY = origin[1];
+		this.oZ = origin[2];
+	}
+
+	/**
+	 * Weight each voxel by its mass, density * voxel volume, where density =
+	 * (m * pixel value + c) / factor and negative densities are set to 0
+	 *
+	 * @param m
+	 *            slope of density equation
+	 * @param c
+	 *            constant in density equation
+	 * @param factor
+	 *            unit conversion factor
+	 */
+	public void setDensity(double m, double c, double factor) {
+		this.isWeighted = true;
+		this.m = m;
+		this.c = c;
+		this.factor = factor;
+		this.voxVol = vW * vH * vD;
+	}
+
+	/**
+	 * Calculate the sums for each slice in parallel
+	 *
+	 * @return array of sums indexed by [slice - startSlice][sum index]
+	 */
+	public double[][] getSliceSums() {
+		final int nSlices = Math.max(0, endSlice - startSlice + 1);
+		final double[][] sliceSums = new double[nSlices][];
+		final AtomicInteger ai = new AtomicInteger(startSlice);
+		final AtomicInteger counter = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int z = ai.getAndIncrement(); z <= endSlice; z = ai
+							.getAndIncrement()) {
+						sliceSums[z - startSlice] = sumSlice(z);
+						IJ.showProgress(counter.incrementAndGet(), nSlices);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return sliceSums;
+	}
+
+	/**
+	 * Calculate the sums over all slices
+	 *
+	 * @return array of sums, indexed by the sum index constants
+	 */
+	public double[] getSums() {
+		return sum(getSliceSums());
+	}
+
+	/**
+	 * Calculate the sums for a single slice on the calling thread, for callers
+	 * which distribute slices between their own threads
+	 *
+	 * @param slice
+	 *            slice number, 1-based
+	 * @return array of sums, indexed by the sum index constants
+	 */
+	public double[] getSums(int slice) {
+		return sumSlice(slice);
+	}
+
+	/**
+	 * Combine slice sums by pairwise summation
+	 *
+	 * @param sliceSums
+	 *            sums from {@link #getSliceSums()}
+	 * @return array of sums, indexed by the sum index constants
+	 */
+	public static double[] sum(double[][] sliceSums) {
+		if (sliceSums.length == 0)
+			return new double[N_SUMS];
+		return sum(sliceSums, 0, sliceSums.length);
+	}
+
+	private static double[] sum(double[][] sliceSums, int from, int to) {
+		if (to - from == 1)
+			return sliceSums[from].clone();
+		final int mid = (from + to) >>> 1;
+		final double[] a = sum(sliceSums, from, mid);
+		final double[] b = sum(sliceSums, mid, to);
+		for (int i = 0; i < N_SUMS; i++)
+			a[i] += b[i];
+		return a;
+	}
+
+	/**
+	 * Sum a single slice, accumulating row sums with compensation
+	 *
+	 * @param z
+	 *            slice number, 1-based
+	 * @return sums for the slice
+	 */
+	private double[] sumSlice(final int z) {
+		final Object pixels = stack.getPixels(z);
+		final int width = stack.getWidth();
+		final int rX = roi.x;
+		final int rW = roi.x + roi.width;
+		final int rY = roi.y;
+		final int rH = roi.y + roi.height;
+		final double dz = z * vD - oZ;
+		final double[] sums = new double[N_SUMS];
+		final double[] compensation = new double[N_SUMS];
+		final double[] row = new double[N_SUMS];
+		final double[] values = new double[roi.width];
+
+		for (int y = rY; y < rH; y++) {
+			final double dy = y * vH - oY;
+			getRow(pixels, y * width + rX, values);
+			double sw = 0, swx = 0, swxx = 0;
+			int count = 0;
+			for (int x = rX; x < rW; x++) {
+				final double pixel = values[x - rX];
+				if (pixel < min || pixel > max)
+					continue;
+				final double w = isWeighted ? voxelMass(pixel) : 1;
+				final double dx = x * vW - oX;
+				final double wdx = w * dx;
+				sw += w;
+				swx += wdx;
+				swxx += wdx * dx;
+				count++;
+			}
+			if (count == 0)
+				continue;
+			// y and z are constant along the row, so only sums in x are needed
+			row[W] = sw;
+			row[X] = swx;
+			row[Y] = sw * dy;
+			row[Z] = sw * dz;
+			row[XX] = swxx;
+			row[YY] = sw * dy * dy;
+			row[ZZ] = sw * dz * dz;
+			row[XY] = swx * dy;
+			row[XZ] = swx * dz;
+			row[YZ] = sw * dy * dz;
+			row[COUNT] = count;
+			for (int i = 0; i < N_SUMS; i++) {
+				final double s = sums[i];
+				final double t = s + row[i];
+				if (Math.abs(s) >= Math.abs(row[i]))
+					compensation[i] += (s - t) + row[i];
+				else
+					compensation[i] += (row[i] - t) + s;
+				sums[i] = t;
+			}
+		}
+		for (int i = 0; i < N_SUMS; i++)
+			sums[i] += compensation[i];
+		return sums;
+	}
+
+	private double voxelMass(double pixel) {
+		final double density = (m * pixel + c) / factor;
+		return density < 0 ? 0 : density * voxVol;
+	}
+
+	/**
+	 * Copy pixel values from a primitive pixel array, treating 8- and 16-bit
+	 * pixels as unsigned
+	 *
+	 * @param pixels
+	 *            byte[], short[], float[] or int[] array
+	 * @param offset
+	 *            index of the first pixel
+	 * @param values
+	 *            receives values.length pixel values
+	 */
+	public static void getRow(Object pixels, int offset, double[] values) {
+		final int n = values.length;
+		if (pixels instanceof byte[]) {
+			final byte[] p = (byte[]) pixels;
+			for (int i = 0; i < n; i++)
+				values[i] = p[offset + i] & 0xff;
+		} else if (pixels instanceof short[]) {
+			final short[] p = (short[]) pixels;
+			for (int i = 0; i < n; i++)
+				values[i] = p[offset + i] & 0xffff;
+		} else if (pixels instanceof float[]) {
+			final float[] p = (float[]) pixels;
+			for (int i = 0; i < n; i++)
+				values[i] = p[offset + i];
+		} else {
+			final int[] p = (int[]) pixels;
+			for (int i = 0; i < n; i++)
+				values[i] = p[offset + i];
+		}
+	}
+}
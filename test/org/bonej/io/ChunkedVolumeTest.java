@@ -0,0 +1,180 @@
+package org.bonej.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import org.junit.Test;
+
+public class ChunkedVolumeTest {
+
+	/** Not a multiple of the chunk size, so edge chunks are clipped */
+	private static final int WIDTH = 70, HEIGHT = 130, DEPTH = 67;
+
+	private static File tempFile() throws IOException {
+		File file = File.createTempFile("volume", ChunkedVolume.EXTENSION);
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testIntRoundTrip() throws IOException {
+		int[][] labels = new int[DEPTH][WIDTH * HEIGHT];
+		for (int z = 0; z < DEPTH; z++)
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				labels[z][i] = (i % WIDTH < 20) ? 0 : z * 100000 + i - 50000;
+		Calibration cal = new Calibration();
+		cal.pixelWidth = 0.5;
+		cal.pixelHeight = 0.25;
+		cal.pixelDepth = 2;
+		cal.zOrigin = 3;
+		cal.setUnit("mm");
+		Map<String, String> metadata = new LinkedHashMap<String, String>();
+		metadata.put("plugin", "ParticleCounter");
+		metadata.put("minVol", "0.0");
+		File file = tempFile();
+		ChunkedVolume.write(file, labels, WIDTH, HEIGHT, cal, metadata);
+
+		ChunkedVolume volume = ChunkedVolume.open(file);
+		assertEquals(ChunkedVolume.INT, volume.getType());
+		assertEquals(WIDTH, volume.getWidth());
+		assertEquals(HEIGHT, volume.getHeight());
+		assertEquals(DEPTH, volume.getDepth());
+		assertEquals(metadata, volume.getMetadata());
+		Calibration read = volume.getCalibration();
+		assertEquals(0.5, read.pixelWidth, 0);
+		assertEquals(0.25, read.pixelHeight, 0);
+		assertEquals(2, read.pixelDepth, 0);
+		assertEquals(3, read.zOrigin, 0);
+		assertEquals("mm", read.getUnit());
+		// out of order, to assemble slices from disk and from the cache
+		for (int z : new int[] { 66, 0, 64, 63, 1, 66 })
+			assertArrayEquals(labels[z], (int[]) volume.getSlice(z));
+
+		// a clipped corner chunk
+		int[] chunk = (int[]) volume.getChunk(1, 2, 1);
+		assertEquals(6 * 2 * 3, chunk.length);
+		assertEquals(labels[65][129 * WIDTH + 64], chunk[(1 * 2 + 1) * 6]);
+	}
+
+	@Test
+	public void testImageRoundTrip() throws IOException {
+		ImageStack floats = new ImageStack(WIDTH, HEIGHT);
+		ImageStack bytes = new ImageStack(WIDTH, HEIGHT);
+		for (int z = 0; z < DEPTH; z++) {
+			float[] f = new float[WIDTH * HEIGHT];
+			byte[] b = new byte[WIDTH * HEIGHT];
+			for (int i = 0; i < f.length; i++) {
+				f[i] = (float) Math.sin(i * 0.01 + z);
+				b[i] = (byte) ((i + z) % 3 == 0 ? 255 : 0);
+			}
+			f[z] = Float.NaN;
+			floats.addSlice(null, f);
+			bytes.addSlice(null, b);
+		}
+		for (ImageStack stack : new ImageStack[] { floats, bytes }) {
+			ImagePlus imp = new ImagePlus("map", stack);
+			File file = tempFile();
+			ChunkedVolume.write(file, imp, null);
+			ImagePlus virtual = ChunkedVolume.open(file).getImagePlus();
+			ImageStack virtualStack = virtual.getImageStack();
+			assertTrue(virtualStack.isVirtual());
+			assertEquals(imp.getBitDepth(), virtual.getBitDepth());
+			assertEquals(DEPTH, virtualStack.getSize());
+			for (int z = 1; z <= DEPTH; z++) {
+				if (stack == floats)
+					assertArrayEquals((float[]) stack.getPixels(z),
+							(float[]) virtualStack.getPixels(z), 0);
+				else
+					assertArrayEquals((byte[]) stack.getPixels(z),
+							(byte[]) virtualStack.getPixels(z));
+			}
+		}
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+		int[][] labels = new int[DEPTH][WIDTH * HEIGHT];
+		for (int z = 0; z < DEPTH; z++)
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				labels[z][i] = (z / 10) * 7 + i / 1000;
+		File file = tempFile();
+		ChunkedVolume.write(file, labels, WIDTH, HEIGHT, null, null);
+		assertTrue(file.length() < WIDTH * HEIGHT * DEPTH * 4 / 50);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAVolume() throws IOException {
+		File file = tempFile();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.writeInt(0x12345678);
+		raf.close();
+		ChunkedVolume.open(file);
+	}
+
+	@Test(timeout = 10000)
+	public void testTruncatedChunk() throws IOException {
+		int[][] labels = new int[DEPTH][WIDTH * HEIGHT];
+		for (int z = 0; z < DEPTH; z++)
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				labels[z][i] = z * i;
+		File file = tempFile();
+		ChunkedVolume.write(file, labels, WIDTH, HEIGHT, null, null);
+		// halve the first chunk's length in the index, which follows the
+		// header and points to the chunks that follow it
+		final int nChunks = 2 * 3 * 2;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		long indexStart = 0;
+		raf.seek(indexStart);
+		while (raf.readLong() != indexStart + nChunks * 12)
+			raf.seek(++indexStart);
+		final int length = raf.readInt();
+		raf.seek(indexStart + 8);
+		raf.writeInt(length / 2);
+		raf.close();
+
+		ChunkedVolume volume = ChunkedVolume.open(file);
+		try {
+			volume.getChunk(0, 0, 0);
+			fail("A truncated chunk was read");
+		} catch (IOException e) {
+			// expected
+		}
+		// the stack shows the unreadable slice blank
+		ImageStack stack = volume.getImagePlus().getImageStack();
+		assertArrayEquals(new float[WIDTH * HEIGHT],
+				(float[]) stack.getPixels(1), 0);
+		assertArrayEquals(new float[WIDTH * HEIGHT],
+				(float[]) stack.getProcessor(1).getPixels(), 0);
+	}
+
+	@Test
+	public void testDeleteSlice() throws IOException {
+		int[][] labels = new int[DEPTH][WIDTH * HEIGHT];
+		for (int z = 0; z < DEPTH; z++)
+			labels[z][z] = z + 1;
+		File file = tempFile();
+		ChunkedVolume.write(file, labels, WIDTH, HEIGHT, null, null);
+		ImageStack stack = ChunkedVolume.open(file).getImagePlus()
+				.getImageStack();
+		stack.deleteSlice(1);
+		stack.deleteSlice(DEPTH - 1);
+		assertEquals(DEPTH - 2, stack.getSize());
+		for (int n = 1; n <= DEPTH - 2; n++)
+			assertEquals(n + 1, ((float[]) stack.getPixels(n))[n], 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMixedTypes() throws IOException {
+		Object[] slices = { new int[4], new float[4] };
+		ChunkedVolume.write(tempFile(), slices, 2, 2, null, null);
+	}
+}
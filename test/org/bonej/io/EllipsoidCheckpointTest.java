@@ -0,0 +1,143 @@
+package org.bonej.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.doube.geometry.Ellipsoid;
+import org.junit.Test;
+
+public class EllipsoidCheckpointTest {
+
+	private final double[][] rotation = { { 0, 0, 1 }, { 0, 1, 0 },
+			{ 1, 0, 0 } };
+
+	private static EllipsoidCheckpoint.Settings settings(int skipRatio) {
+		return new EllipsoidCheckpoint.Settings(42, 100, skipRatio, 1, 100,
+				0.435, 1.73205, false, 0.005);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File file = File.createTempFile("checkpoint", ".efcp");
+		file.deleteOnExit();
+		EllipsoidCheckpoint checkpoint = EllipsoidCheckpoint.create(file, 64,
+				32, 16, 10, settings(2), new int[] { 0, 2, 4, 6, 8 });
+		checkpoint.add(0, new Ellipsoid(1, 2, 3, 4, 5, 6, rotation));
+		checkpoint.add(4, null);
+		checkpoint.add(8, new Ellipsoid(7, 8, 9, 10, 11, 12, rotation));
+		checkpoint.close();
+
+		EllipsoidCheckpoint resumed = EllipsoidCheckpoint.open(file);
+		assertEquals(64, resumed.getWidth());
+		assertEquals(32, resumed.getHeight());
+		assertEquals(16, resumed.getDepth());
+		assertEquals(10, resumed.getNPoints());
+		assertEquals(2, resumed.getSkipRatio());
+		assertNull(resumed.getSettings().difference(settings(2)));
+		assertEquals(3, resumed.countDone());
+		assertTrue(resumed.isDone(0));
+		assertTrue(resumed.isDone(4));
+		assertTrue(!resumed.isDone(2));
+		assertNull(resumed.getEllipsoid(4));
+		Ellipsoid e = resumed.getEllipsoid(8);
+		assertArrayEquals(new double[] { 7, 8, 9 }, e.getRadii(), 0);
+		assertArrayEquals(new double[] { 10, 11, 12 }, e.getCentre(), 0);
+		assertTrue(!resumed.isComplete());
+
+		resumed.add(2, null);
+		resumed.add(6, null);
+		resumed.close();
+		EllipsoidCheckpoint complete = EllipsoidCheckpoint.open(file);
+		assertTrue(complete.isComplete());
+		complete.close();
+	}
+
+	@Test
+	public void testTruncatedRecordDiscarded() throws IOException {
+		File file = File.createTempFile("checkpoint", ".efcp");
+		file.deleteOnExit();
+		EllipsoidCheckpoint checkpoint = EllipsoidCheckpoint.create(file, 8,
+				8, 8, 4, settings(1), new int[] { 0, 1, 2, 3 });
+		checkpoint.add(0, new Ellipsoid(1, 2, 3, 4, 5, 6, rotation));
+		checkpoint.add(1, new Ellipsoid(1, 2, 3, 4, 5, 6, rotation));
+		checkpoint.close();
+
+		// simulate a crash part way through writing the last record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 20);
+		raf.close();
+
+		EllipsoidCheckpoint resumed = EllipsoidCheckpoint.open(file);
+		assertEquals(1, resumed.countDone());
+		resumed.add(1, null);
+		resumed.close();
+
+		EllipsoidCheckpoint reread = EllipsoidCheckpoint.open(file);
+		assertEquals(2, reread.countDone());
+		assertNull(reread.getEllipsoid(1));
+		reread.close();
+	}
+
+	@Test
+	public void testSettingsDifference() {
+		assertNull(settings(2).difference(settings(2)));
+		String difference = settings(2).difference(
+				new EllipsoidCheckpoint.Settings(7, 100, 2, 1, 100, 0.435,
+						1.73205, false, 0.01));
+		assertNotNull(difference);
+		assertTrue(difference.contains("random seed"));
+		assertTrue(!difference.contains("vectors"));
+		// tolerance only matters to adaptive sampling
+		assertTrue(!difference.contains("tolerance"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidStatus() throws IOException {
+		File file = File.createTempFile("checkpoint", ".efcp");
+		file.deleteOnExit();
+		EllipsoidCheckpoint checkpoint = EllipsoidCheckpoint.create(file, 8,
+				8, 8, 4, settings(1), new int[] { 0, 1, 2, 3 });
+		checkpoint.add(0, null);
+		checkpoint.close();
+
+		// corrupt the status byte of the only record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() - 1);
+		raf.writeByte(7);
+		raf.close();
+
+		EllipsoidCheckpoint.open(file);
+	}
+
+	@Test
+	public void testAdaptiveComplete() throws IOException {
+		File file = File.createTempFile("checkpoint", ".efcp");
+		file.deleteOnExit();
+		EllipsoidCheckpoint.Settings adaptive =
+				new EllipsoidCheckpoint.Settings(42, 100, 2, 1, 100, 0.435,
+						1.73205, true, 0.005);
+		int[] seeds = { 7, 3, 9, 1, 5 };
+		EllipsoidCheckpoint checkpoint = EllipsoidCheckpoint.create(file, 8,
+				8, 8, 10, adaptive, seeds);
+		checkpoint.add(7, null);
+		checkpoint.add(3, new Ellipsoid(1, 2, 3, 4, 5, 6, rotation));
+		checkpoint.close();
+
+		EllipsoidCheckpoint resumed = EllipsoidCheckpoint.open(file);
+		assertArrayEquals(seeds, resumed.getSeeds());
+		assertTrue(resumed.getSettings().adaptive);
+		assertTrue(!resumed.isComplete());
+		// converged after the first 3 seeds
+		resumed.add(9, null);
+		resumed.finish(3);
+		resumed.close();
+
+		EllipsoidCheckpoint finished = EllipsoidCheckpoint.open(file);
+		assertTrue(finished.isComplete());
+		assertEquals(3, finished.countDone());
+		finished.close();
+	}
+}
@@ -0,0 +1,292 @@
+package org.bonej.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+
+import org.junit.Test;
+
+public class ISQReaderTest {
+
+	private static final int WIDTH = 40, HEIGHT = 30, DEPTH = 12;
+
+	/** Signed value of a pixel in the test file; some are negative */
+	private static short value(int x, int y, int z) {
+		return (short) (x + 100 * y + 5000 * z - 2000);
+	}
+
+	/**
+	 * Write a minimal ISQ file: a 512 byte header followed by the pixel data
+	 */
+	static File makeISQ() throws IOException {
+		return makeISQ(File.createTempFile("test", ".isq"));
+	}
+
+	static File makeISQ(File file) throws IOException {
+		file.deleteOnExit();
+		ByteBuffer header = ByteBuffer.allocate(512);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.put("CTDATA-HEADER_V1".getBytes("US-ASCII"));
+		header.putInt(44, WIDTH);
+		header.putInt(48, HEIGHT);
+		header.putInt(52, DEPTH);
+		// 10 um pixels
+		header.putInt(56, WIDTH * 10);
+		header.putInt(60, HEIGHT * 10);
+		header.putInt(64, DEPTH * 10);
+		header.putInt(88, 4096);
+		header.putInt(508, 0);
+		ByteBuffer data = ByteBuffer.allocate(WIDTH * HEIGHT * DEPTH * 2);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		for (int z = 0; z < DEPTH; z++)
+			for (int y = 0; y < HEIGHT; y++)
+				for (int x = 0; x < WIDTH; x++)
+					data.putShort(value(x, y, z));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.write(header.array());
+		raf.write(data.array());
+		raf.close();
+		return file;
+	}
+
+	@Test
+	public void testOpenScancoISQRoi() throws IOException {
+		String path = makeISQ().getPath();
+		ISQReader reader = new ISQReader();
+		assertTrue(reader.isScancoISQ(path));
+		ImagePlus imp = reader.openScancoISQ(path, false, 5, 3, 24, 20, 2,
+				7);
+		assertEquals(20, imp.getWidth());
+		assertEquals(18, imp.getHeight());
+		assertEquals(7, imp.getStackSize());
+		assertEquals(0.01, imp.getCalibration().pixelWidth, 1e-9);
+		ImageStack stack = imp.getImageStack();
+		for (int z = 0; z < 7; z++)
+			for (int y = 0; y < 18; y++)
+				for (int x = 0; x < 20; x++)
+					assertEquals(Math.max(0, value(x + 5, y + 3, z + 2)),
+							stack.getProcessor(z + 1).get(x, y));
+	}
+
+	@Test
+	public void testOpenScancoISQFullWidth() throws IOException {
+		String path = makeISQ().getPath();
+		ImagePlus imp = new ISQReader().openScancoISQ(path, false, 0, 4,
+				WIDTH - 1, 9, 0, DEPTH);
+		ImageStack stack = imp.getImageStack();
+		assertEquals(DEPTH, stack.getSize());
+		for (int z = 0; z < DEPTH; z++)
+			for (int y = 0; y < 6; y++)
+				for (int x = 0; x < WIDTH; x++)
+					assertEquals(Math.max(0, value(x, y + 4, z)), stack
+							.getProcessor(z + 1).get(x, y));
+	}
+
+	@Test
+	public void testOpenScancoISQVirtual() throws IOException {
+		String path = makeISQ().getPath();
+		ISQReader reader = new ISQReader();
+		ImagePlus imp = reader.openScancoISQ(path, false, 5, 3, 24, 20, 2,
+				7, false);
+		ImagePlus virtual = reader.openScancoISQ(path, false, 5, 3, 24, 20,
+				2, 7, true);
+		ImageStack stack = imp.getImageStack();
+		ImageStack virtualStack = virtual.getImageStack();
+		assertTrue(virtualStack.isVirtual());
+		assertEquals(stack.getSize(), virtualStack.getSize());
+		// out of order, to read slices both from disk and from the cache
+		for (int z : new int[] { 7, 1, 4, 4, 2, 3, 7, 5, 6 })
+			assertArrayEquals((short[]) stack.getPixels(z),
+					(short[]) virtualStack.getPixels(z));
+		assertEquals(imp.getDisplayRangeMin(), virtual.getDisplayRangeMin(),
+				0);
+		assertEquals(imp.getDisplayRangeMax(), virtual.getDisplayRangeMax(),
+				0);
+	}
+
+	@Test
+	public void testVirtualDeleteSlice() throws IOException {
+		String path = makeISQ().getPath();
+		ISQReader reader = new ISQReader();
+		ImageStack stack = reader.openScancoISQ(path, false, 5, 3, 24, 20, 2,
+				7, false).getImageStack();
+		ImageStack virtualStack = reader.openScancoISQ(path, false, 5, 3, 24,
+				20, 2, 7, true).getImageStack();
+		virtualStack.deleteSlice(2);
+		virtualStack.deleteLastSlice();
+		assertEquals(5, virtualStack.getSize());
+		int[] remaining = { 1, 3, 4, 5, 6 };
+		for (int n = 1; n <= 5; n++) {
+			assertArrayEquals((short[]) stack.getPixels(remaining[n - 1]),
+					(short[]) virtualStack.getPixels(n));
+			assertEquals(stack.getSliceLabel(remaining[n - 1]),
+					virtualStack.getSliceLabel(n));
+		}
+	}
+
+	@Test
+	public void testVirtualTruncatedFile() throws IOException {
+		File file = makeISQ();
+		ImageStack virtualStack = new ISQReader().openScancoISQ(file.getPath(),
+				false, 0, 0, WIDTH - 1, HEIGHT - 1, 0, DEPTH, true)
+				.getImageStack();
+		// cut the file off part way through the last slice
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - WIDTH * 2);
+		raf.close();
+		short[] pixels = (short[]) virtualStack.getPixels(DEPTH);
+		assertArrayEquals(new short[WIDTH * HEIGHT], pixels);
+		assertNotNull(virtualStack.getProcessor(DEPTH));
+	}
+
+	@Test
+	public void testHeaderCache() throws IOException {
+		File file = makeISQ();
+		String path = file.getPath();
+		ISQHeader header = ISQHeader.get(path);
+		assertSame(header, ISQHeader.get(path));
+		assertArrayEquals(new int[] { WIDTH, HEIGHT, DEPTH },
+				header.getImageSize());
+		assertEquals(0.01, header.getPixelSize()[2], 1e-9);
+		assertEquals(4096, new ISQReader().getMuScaling(path));
+		// a changed file is read again
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(88);
+		raf.write(new byte[] { 0, 8, 0, 0 });
+		raf.setLength(raf.length() + 2);
+		raf.close();
+		ISQHeader changed = ISQHeader.get(path);
+		assertNotSame(header, changed);
+		assertEquals(2048, changed.getMuScaling());
+	}
+
+	@Test
+	public void testScan() throws IOException {
+		File directory = File.createTempFile("isqs", "");
+		directory.delete();
+		File subdirectory = new File(directory, "sub");
+		subdirectory.mkdirs();
+		directory.deleteOnExit();
+		subdirectory.deleteOnExit();
+		File a = makeISQ(new File(directory, "a.isq"));
+		File b = makeISQ(new File(subdirectory, "b.isq"));
+		File other = new File(directory, "other.txt");
+		other.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(other, "rw");
+		raf.setLength(1024);
+		raf.close();
+		List<ISQHeader> headers = ISQHeader.scan(directory);
+		assertEquals(2, headers.size());
+		assertEquals(a.getPath(), headers.get(0).getPath());
+		assertEquals(b.getPath(), headers.get(1).getPath());
+	}
+
+	@Test
+	public void testOpenScancoISQThreads() throws IOException {
+		String path = makeISQ().getPath();
+		ISQReader reader = new ISQReader();
+		final int threads = Prefs.getThreads();
+		Prefs.setThreads(1);
+		ImagePlus imp1 = reader.openScancoISQ(path, true, 1, 2, 36, 27, 0,
+				DEPTH);
+		Prefs.setThreads(5);
+		ImagePlus imp5 = reader.openScancoISQ(path, true, 1, 2, 36, 27, 0,
+				DEPTH);
+		Prefs.setThreads(threads);
+		assertEquals(DEPTH, imp5.getStackSize());
+		for (int z = 1; z <= DEPTH; z++)
+			assertArrayEquals((short[]) imp1.getImageStack().getPixels(z),
+					(short[]) imp5.getImageStack().getPixels(z));
+		assertEquals(imp1.getDisplayRangeMax(), imp5.getDisplayRangeMax(), 0);
+	}
+
+	@Test
+	public void testOpenScancoISQTruncated() throws IOException {
+		File file = makeISQ();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		// end half way through the 6th slice
+		raf.setLength(512 + WIDTH * HEIGHT * 2 * 5 + WIDTH * HEIGHT);
+		raf.close();
+		ImagePlus imp = new ISQReader().openScancoISQ(file.getPath(), false,
+				0, 0, WIDTH - 1, HEIGHT - 1, 0, DEPTH);
+		assertEquals(5, imp.getStackSize());
+	}
+
+	@Test
+	public void testOpenScancoISQBlocks() throws IOException {
+		String path = makeISQ().getPath();
+		ISQReader reader = new ISQReader();
+		final int startX = 3, startY = 2, startZ = 1;
+		// incomplete blocks at the far edges are dropped
+		int[] factors = { 2, 3, 2 };
+		for (boolean max : new boolean[] { false, true }) {
+			ImagePlus imp = reader.openScancoISQ(path, startX, startY, 14,
+					20, startZ, 9, factors, max, false);
+			assertEquals(6, imp.getWidth());
+			assertEquals(6, imp.getHeight());
+			assertEquals(4, imp.getStackSize());
+			ImageStack stack = imp.getImageStack();
+			for (int z = 0; z < 4; z++) {
+				short[] pixels = (short[]) stack.getPixels(z + 1);
+				for (int y = 0; y < 6; y++) {
+					for (int x = 0; x < 6; x++) {
+						long sum = 0;
+						int blockMax = 0;
+						for (int k = 0; k < 2; k++)
+							for (int j = 0; j < 3; j++)
+								for (int i = 0; i < 2; i++) {
+									int v = Math.max(0, value(startX + x * 2
+											+ i, startY + y * 3 + j, startZ
+											+ z * 2 + k));
+									sum += v;
+									blockMax = Math.max(blockMax, v);
+								}
+						int expected = max ? blockMax
+								: (int) Math.round(sum / 12.0);
+						assertEquals(expected,
+								pixels[y * 6 + x] & 0xffff);
+					}
+				}
+			}
+			// pixels are 10 um in the file
+			assertEquals(0.02, imp.getCalibration().pixelWidth, 1e-9);
+			assertEquals(0.03, imp.getCalibration().pixelHeight, 1e-9);
+			assertEquals(0.02, imp.getCalibration().pixelDepth, 1e-9);
+			assertEquals(-1.5, imp.getCalibration().xOrigin, 1e-9);
+		}
+	}
+
+	@Test
+	public void testOpenScancoISQBlocksVirtual() throws IOException {
+		String path = makeISQ().getPath();
+		ISQReader reader = new ISQReader();
+		int[] factors = { 3, 3, 3 };
+		ImagePlus imp = reader.openScancoISQ(path, 0, 0, WIDTH - 1,
+				HEIGHT - 1, 0, DEPTH, factors, false, false);
+		ImagePlus virtual = reader.openScancoISQ(path, 0, 0, WIDTH - 1,
+				HEIGHT - 1, 0, DEPTH, factors, false, true);
+		ImageStack stack = imp.getImageStack();
+		ImageStack virtualStack = virtual.getImageStack();
+		assertEquals(4, virtualStack.getSize());
+		for (int z = 1; z <= stack.getSize(); z++)
+			assertArrayEquals((short[]) stack.getPixels(z),
+					(short[]) virtualStack.getPixels(z));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOpenScancoISQBlocksTooLarge() throws IOException {
+		String path = makeISQ().getPath();
+		int[] factors = { 1, 1, 4 };
+		new ISQReader().openScancoISQ(path, 0, 0, WIDTH - 1, HEIGHT - 1, 0,
+				3, factors, false, false);
+	}
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 import ij.ImagePlus;
 
 import org.doube.geometry.TestDataMaker;
+import org.doube.util.PackedBinaryStack;
 import org.junit.Test;
 
 public class AnisotropyTest {
@@ -28,6 +29,23 @@ public class AnisotropyTest {
 		assertEquals(1, da, 1e-12);
 	}
 
+	@Test
+	public void testSeededRunRepeatable() {
+		ImagePlus imp = TestDataMaker.binaryNoise(64, 64, 64, 0.25);
+		double[] da = new double[3];
+		int[] blockSizes = { 1, 3, 7 };
+		for (int i = 0; i < blockSizes.length; i++) {
+			Anisotropy a = new Anisotropy();
+			a.setRandomSeed(42);
+			a.setSpheresPerBlock(blockSizes[i]);
+			Object[] result = a.runToStableResult(imp, 10, 40, 500, 16, 2.3,
+					0.005, false);
+			da[i] = ((double[]) result[0])[0];
+		}
+		assertEquals(da[0], da[1], 0);
+		assertEquals(da[0], da[2], 0);
+	}
+
 	@Test
 	public void testCalculateSingleSphereIsotropy() {
 		ImagePlus imp = TestDataMaker.binaryNoise(256, 256, 256, 0.25);
@@ -48,4 +66,21 @@ public class AnisotropyTest {
 		assertEquals(1, da, 1e-2);
 	}
 
+	@Test
+	public void testWalkIntercepts() {
+		ImagePlus imp = TestDataMaker.plates(64, 64, 64, 8);
+		PackedBinaryStack volume = new PackedBinaryStack(imp.getImageStack());
+		// plates at 0-based slices 8, 16, 24 and 32 are entered and exited
+		assertEquals(8, Anisotropy.walkIntercepts(volume, 32, 32, 4, 0, 0, 1,
+				32));
+		// oblique line crosses the same plates
+		final double r = Math.sqrt(2);
+		assertEquals(8, Anisotropy.walkIntercepts(volume, 4, 32, 4, 1 / r, 0,
+				1 / r, 32 * r));
+		// lines within a plate or between plates never change phase
+		assertEquals(0, Anisotropy.walkIntercepts(volume, 0, 32, 8, 1, 0, 0,
+				63));
+		assertEquals(0, Anisotropy.walkIntercepts(volume, 0, 32, 12, 1, 0, 0,
+				63));
+	}
 }
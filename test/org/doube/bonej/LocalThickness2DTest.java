@@ -0,0 +1,63 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+import org.junit.Test;
+
+public class LocalThickness2DTest {
+
+	/** Random overlapping discs, some touching the image edges */
+	private ByteProcessor discs(Random random, int w, int h) {
+		ByteProcessor bp = new ByteProcessor(w, h);
+		for (int n = 0; n < 8; n++) {
+			final double cx = random.nextDouble() * w;
+			final double cy = random.nextDouble() * h;
+			final double r = 2 + random.nextDouble() * 20;
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < r * r)
+						bp.set(x, y, 255);
+		}
+		return bp;
+	}
+
+	@Test
+	public void testMatchesThickness() {
+		Random random = new Random(1);
+		for (int trial = 0; trial < 8; trial++) {
+			final int w = 30 + random.nextInt(70);
+			final int h = 30 + random.nextInt(70);
+			final boolean doMask = trial % 2 == 0;
+			ByteProcessor bp = discs(random, w, h);
+			ImagePlus imp = new ImagePlus("discs", bp);
+			imp.getCalibration().pixelWidth = 0.7;
+			imp.getCalibration().pixelHeight = 0.7;
+			imp.getCalibration().pixelDepth = 0.7;
+			float[] expected = (float[]) new Thickness()
+					.getLocalThickness(imp, false, doMask).getProcessor()
+					.getPixels();
+			float[] result = new LocalThickness2D(w, h).getLocalThickness(
+					(byte[]) bp.getPixels(), 0.7, doMask);
+			assertArrayEquals(expected, result, 0);
+		}
+	}
+
+	@Test
+	public void testEngineIsReusable() {
+		Random random = new Random(2);
+		LocalThickness2D engine = new LocalThickness2D(64, 48);
+		ByteProcessor first = discs(random, 64, 48);
+		float[] expected = engine.getLocalThickness(
+				(byte[]) first.getPixels(), 1, true).clone();
+		engine.getLocalThickness((byte[]) discs(random, 64, 48).getPixels(),
+				1, true);
+		assertArrayEquals(expected,
+				engine.getLocalThickness((byte[]) first.getPixels(), 1, true),
+				0);
+	}
+}
@@ -0,0 +1,84 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.*;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+import org.doube.geometry.TestDataMaker;
+import org.junit.Test;
+
+public class OctantHistogramTest {
+
+	@Test
+	public void testGetHistogram() {
+		ImagePlus imp = TestDataMaker.brick(10, 20, 30);
+		long[] histogram = OctantHistogram.getHistogram(imp);
+		long nOctants = 0;
+		for (long count : histogram)
+			nOctants += count;
+		assertEquals(13 * 23 * 33, nOctants);
+		// interior vertices of the brick
+		assertEquals(9 * 19 * 29, histogram[255]);
+		// brick corners
+		assertEquals(1, histogram[1]);
+		assertEquals(1, histogram[128]);
+		assertEquals(10 * 20 * 30, OctantHistogram.getVolume(histogram), 0);
+	}
+
+	@Test
+	public void testSphere() {
+		final int r = 64;
+		long[] histogram = OctantHistogram.getHistogram(TestDataMaker
+				.sphere(r));
+		assertEquals(4 * Math.PI * r * r,
+				OctantHistogram.getSurfaceArea(histogram), 4 * Math.PI * r
+						* r * 0.05);
+		assertEquals(4 * Math.PI * r,
+				OctantHistogram.getIntegralMeanCurvature(histogram), 4
+						* Math.PI * r * 0.05);
+	}
+
+	@Test
+	public void testGetHistogramThresholds() {
+		ImagePlus imp = TestDataMaker.brick(10, 20, 30);
+		long[] histogram = OctantHistogram.getHistogram(imp);
+		ImageStack stack = imp.getImageStack();
+		ImageStack stack16 = new ImageStack(imp.getWidth(), imp.getHeight());
+		for (int z = 1; z <= stack.getSize(); z++)
+			stack16.addSlice("", stack.getProcessor(z).convertToShort(false));
+		// above the threshold range, so still background
+		ImageProcessor ip = stack16.getProcessor(1);
+		ip.setValue(1000);
+		ip.fill();
+		imp.setStack(stack16);
+		assertArrayEquals(histogram,
+				OctantHistogram.getHistogram(imp, 200, 300));
+	}
+
+	@Test
+	public void testGetSurfaceAreaCalibrated() {
+		ImagePlus imp = TestDataMaker.sphere(32);
+		long[] histogram = OctantHistogram.getHistogram(imp);
+		Calibration cal = new Calibration();
+		cal.pixelWidth = 0.5;
+		cal.pixelHeight = 0.5;
+		cal.pixelDepth = 0.5;
+		assertEquals(OctantHistogram.getSurfaceArea(histogram) / 4,
+				OctantHistogram.getSurfaceArea(histogram, cal), 1e-6);
+		// a thin plate scanned with voxels twice as deep
+		final int d = 256;
+		long[] cubic = OctantHistogram.getHistogram(TestDataMaker.brick(d,
+				d, 16));
+		long[] deep = OctantHistogram.getHistogram(TestDataMaker.brick(d,
+				d, 8));
+		cal.pixelWidth = 1;
+		cal.pixelHeight = 1;
+		cal.pixelDepth = 2;
+		double area = OctantHistogram.getSurfaceArea(cubic);
+		assertEquals(area, OctantHistogram.getSurfaceArea(deep, cal),
+				area * 0.05);
+	}
+}
@@ -0,0 +1,60 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import org.junit.Test;
+
+public class SliceGeometryTest {
+
+	/**
+	 * 20 x 20 x 3 stack with a 6 pixel square inside (5, 5, 15, 15) and a 2
+	 * pixel wide bar along its left edge, outside that rectangle
+	 */
+	private static ImagePlus squareAndBar() {
+		ImageStack stack = new ImageStack(20, 20);
+		for (int z = 0; z < 3; z++) {
+			ByteProcessor bp = new ByteProcessor(20, 20);
+			for (int y = 8; y < 14; y++)
+				for (int x = 9; x < 15; x++)
+					bp.set(x, y, 255);
+			for (int y = 0; y < 20; y++)
+				for (int x = 0; x < 2; x++)
+					bp.set(x, y, 255);
+			stack.addSlice(null, bp);
+		}
+		return new ImagePlus("square and bar", stack);
+	}
+
+	/** A ROI reaching the right edge of the image is measured to its end */
+	@Test
+	public void testOffsetRoi() {
+		ImagePlus imp = squareAndBar();
+		imp.getImageStack().setRoi(new Rectangle(5, 5, 15, 15));
+		double[][] results = new SliceGeometry().measureStack(imp, 255, 255);
+		for (int s = 1; s <= 3; s++)
+			assertEquals(36, results[0][s], 0);
+	}
+
+	/** 2D thickness is summarised over the whole slice, not only the ROI */
+	@Test
+	public void testThickness2DWholeSlice() {
+		ImagePlus imp = squareAndBar();
+		double[][] whole = new SliceGeometry().measureStack(imp, 255, 255);
+		imp.getImageStack().setRoi(new Rectangle(5, 5, 15, 15));
+		double[][] roi = new SliceGeometry().measureStack(imp, 255, 255);
+		for (int s = 1; s <= 3; s++)
+			for (int i = 1; i <= 3; i++)
+				assertEquals(whole[i][s], roi[i][s], 0);
+		// the bar outside the ROI is thinner than the square, so it lowers
+		// the mean and spreads the values
+		assertEquals(6, whole[1][1], 0);
+		assertTrue(whole[2][1] < 5.5);
+		assertTrue(whole[3][1] > 0.5);
+	}
+}
@@ -28,4 +28,26 @@ public class StructureModelIndexTest {
 		double smi = StructureModelIndex.hildRueg(imp, 6, 0.5f);
 		assertEquals(4.0, smi, 0.01);
 	}
+
+	@Test
+	public void testMeshFreeRod() {
+		ImagePlus imp = TestDataMaker.rod(1024, 64);
+		double smi = StructureModelIndex.meshFree(imp);
+		assertEquals(3.0, smi, 0.24);
+	}
+
+	@Test
+	public void testMeshFreeSphere() {
+		ImagePlus imp = TestDataMaker.sphere(64);
+		double smi = StructureModelIndex.meshFree(imp);
+		assertEquals(4.0, smi, 0.32);
+	}
+
+	@Test
+	public void testMeshFreePlate() {
+		ImagePlus imp = TestDataMaker.brick(512, 512, 6);
+		double smi = StructureModelIndex.meshFree(imp);
+		// analytic SMI of the brick, including its edges, is 0.212
+		assertEquals(0.212, smi, 0.03);
+	}
 }
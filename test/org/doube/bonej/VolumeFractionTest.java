@@ -117,4 +117,16 @@ public class VolumeFractionTest {
 		roiMan.close();
 	}
 
+	@Test
+	public void testGetSurfaceArea() {
+		// no ROI: counted directly on the image
+		double area = vf.getSurfaceArea(brick, 1, 255, false);
+		// lattice-aligned faces are underestimated by the Crofton formula
+		final double boxArea = 2 * (32 * 64 + 64 * 96 + 96 * 32);
+		assertEquals(boxArea, area, boxArea * 0.1);
+		// ROI covering the whole image: counted on a foreground template
+		brick.setRoi(new Rectangle(0, 0, brick.getWidth(), brick.getHeight()));
+		assertEquals(area, vf.getSurfaceArea(brick, 1, 255, false), 0);
+		brick.deleteRoi();
+	}
 }
@@ -0,0 +1,68 @@
+package org.doube.bonej.pqct.io;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ScaledImageDataTest {
+
+	private static final int WIDTH = 53, HEIGHT = 41;
+
+	private static int[] randomData(int range, long seed) {
+		Random random = new Random(seed);
+		int[] data = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < data.length; i++)
+			data[i] = random.nextInt(range) - range / 2;
+		return data;
+	}
+
+	/** Compare the filtered images with medianFilter on the scaled data */
+	private static void assertSortedMedians(int[] data, double scalingFactor,
+			double constant) {
+		ScaledImageData scaled = new ScaledImageData(data, WIDTH, HEIGHT,
+				0.5, scalingFactor, constant, 3, false, false, false);
+		double[] unFiltered = new double[data.length];
+		for (int i = 0; i < data.length; i++)
+			unFiltered[i] = ((double) data[i]) * scalingFactor + constant;
+		assertArrayEquals(scaled.medianFilter(unFiltered, WIDTH, HEIGHT, 3),
+				scaled.scaledImage, 0);
+		assertArrayEquals(scaled.medianFilter(unFiltered, WIDTH, HEIGHT, 7),
+				scaled.softScaledImage, 0);
+		// as Batch Distribution Analysis filters, one image per thread
+		ScaledImageData single = new ScaledImageData(data, WIDTH, HEIGHT,
+				0.5, scalingFactor, constant, 3, false, false, false, 1);
+		assertArrayEquals(scaled.scaledImage, single.scaledImage, 0);
+		assertArrayEquals(scaled.softScaledImage, single.softScaledImage, 0);
+	}
+
+	@Test
+	public void testHistogramMedian() {
+		assertSortedMedians(randomData(4000, 1), 1.724, -322);
+		// few values, so the median often repeats
+		assertSortedMedians(randomData(5, 2), 0.8281, -200);
+	}
+
+	@Test
+	public void testNegativeScaling() {
+		assertSortedMedians(randomData(4000, 3), -0.5, 10);
+	}
+
+	@Test
+	public void testWideRange() {
+		int[] data = randomData(1 << 20, 4);
+		assertSortedMedians(data, 1.0, 0);
+	}
+
+	@Test
+	public void testMinMax() {
+		int[] data = randomData(4000, 5);
+		data[77] = -5000;
+		data[78] = 6000;
+		ScaledImageData scaled = new ScaledImageData(data, WIDTH, HEIGHT,
+				0.5, 2, 1, 3, false, false, true);
+		assertEquals(-9999, scaled.minimum, 0);
+		assertEquals(12001, scaled.maximum, 0);
+	}
+}
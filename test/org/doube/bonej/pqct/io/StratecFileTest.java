@@ -0,0 +1,119 @@
+package org.doube.bonej.pqct.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.activation.UnsupportedDataTypeException;
+
+import org.junit.Test;
+
+public class StratecFileTest {
+
+	private static final int WIDTH = 5, HEIGHT = 3;
+
+	private static void putString(ByteBuffer buffer, int offset, String s) {
+		buffer.put(offset, (byte) s.length());
+		for (int i = 0; i < s.length(); i++)
+			buffer.put(offset + 1 + i, (byte) s.charAt(i));
+	}
+
+	private static File writeFile(String device, short[] values)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(StratecFile.HEADER_LENGTH + 2
+				* values.length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putDouble(12, 0.5);
+		buffer.putDouble(318, 140.0);
+		putString(buffer, 662, "tibia 4%");
+		buffer.putInt(986, 20150704);
+		putString(buffer, 1050, device);
+		buffer.putShort(1085, (short) 3);
+		buffer.putInt(1087, 1234);
+		buffer.putInt(1091, 19800101);
+		putString(buffer, 1099, "Doe, J");
+		putString(buffer, 1282, "ID42");
+		buffer.putShort(1525, (short) 10);
+		buffer.putShort(1527, (short) 20);
+		buffer.putShort(1529, (short) WIDTH);
+		buffer.putShort(1531, (short) HEIGHT);
+		for (int i = 0; i < values.length; i++)
+			buffer.putShort(StratecFile.HEADER_LENGTH + 2 * i, values[i]);
+		File file = File.createTempFile("I0000001", ".M01");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(buffer.array());
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void testHeaderAndPixels() throws IOException {
+		short[] values = new short[WIDTH * HEIGHT];
+		for (int i = 0; i < values.length; i++)
+			values[i] = (short) (i * 4000 - 30000);
+		values[0] = Short.MIN_VALUE;
+		values[1] = Short.MAX_VALUE;
+		values[2] = 0;
+		StratecFile stratecFile = StratecFile.open(writeFile("1010I00.TYP",
+				values));
+		assertEquals("1010I00.TYP", stratecFile.getDevice());
+		assertEquals(0.5, stratecFile.getVoxelSize(), 0);
+		assertEquals(140.0, stratecFile.getObjLen(), 0);
+		assertEquals("tibia 4%", stratecFile.getMeasInfo());
+		assertEquals(20150704, stratecFile.getMeasDate());
+		assertEquals(3, stratecFile.getPatMeasNo());
+		assertEquals(1234, stratecFile.getPatNo());
+		assertEquals("Doe, J", stratecFile.getPatName());
+		assertEquals("ID42", stratecFile.getPatID());
+		assertEquals(10, stratecFile.getPicX0());
+		assertEquals(20, stratecFile.getPicY0());
+		assertEquals(WIDTH, stratecFile.getWidth());
+		assertEquals(HEIGHT, stratecFile.getHeight());
+		assertTrue(stratecFile.getProperties().contains(
+				"Device: 1010I00.TYP\n"));
+
+		// decoded as Read_Stratec_File stores them in a 16-bit image
+		short[] pixels = stratecFile.getPixels();
+		for (int i = 0; i < values.length; i++) {
+			int expected = values[i] >= 0 ? values[i] - 32768
+					: 32767 + values[i];
+			assertEquals((short) expected, pixels[i]);
+		}
+		int[] signed = StratecFile.toSigned(pixels);
+		for (int i = 0; i < values.length; i++)
+			assertEquals((pixels[i] & 0xFFFF) - 32768, signed[i]);
+	}
+
+	@Test(expected = UnsupportedDataTypeException.class)
+	public void testNoDevice() throws IOException {
+		StratecFile.open(writeFile("not a device", new short[WIDTH * HEIGHT]));
+	}
+
+	@Test(expected = UnsupportedDataTypeException.class)
+	public void testTooShort() throws IOException {
+		File file = File.createTempFile("I0000002", ".M01");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[StratecFile.HEADER_LENGTH]);
+		out.close();
+		StratecFile.open(file);
+	}
+
+	/** A Stratec file with a short image is an error, not another format */
+	@Test
+	public void testTruncated() throws IOException {
+		try {
+			StratecFile.open(writeFile("1010I00.TYP", new short[WIDTH]));
+			fail("A truncated file was opened");
+		} catch (UnsupportedDataTypeException e) {
+			fail("A truncated Stratec file was taken for another format");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
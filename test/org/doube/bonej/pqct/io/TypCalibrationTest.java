@@ -0,0 +1,36 @@
+package org.doube.bonej.pqct.io;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TypCalibrationTest {
+
+	@Test
+	public void testGetCoefficients() {
+		assertArrayEquals(new double[] { -200.0, 0.8281 },
+				TypCalibration.getCoefficients("1010I00.TYP"), 1e-12);
+	}
+
+	@Test
+	public void testUnknownDevice() {
+		assertArrayEquals(new double[] { 0, 1 },
+				TypCalibration.getCoefficients("no such device.TYP"), 0);
+		assertArrayEquals(new double[] { 0, 1 },
+				TypCalibration.getCoefficients(null), 0);
+	}
+
+	@Test
+	public void testGetTypFileIsCached() {
+		Map<String, String> typFile = TypCalibration.getTypFile("1010I00.TYP");
+		assertEquals("XCT-Research M", typFile.get("DeviceName"));
+		assertSame(typFile, TypCalibration.getTypFile("1010I00.TYP"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testGetTypFileIsImmutable() {
+		TypCalibration.getTypFile("1010I00.TYP").put("XSlope", "1000");
+	}
+}
@@ -0,0 +1,73 @@
+package org.doube.bonej.pqct.selectroi;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IntPairBufferTest {
+
+	private static IntPairBuffer sequence(int n) {
+		IntPairBuffer buffer = new IntPairBuffer(1);
+		for (int k = 0; k < n; k++)
+			buffer.add(k, -k);
+		return buffer;
+	}
+
+	@Test
+	public void testAddGrows() {
+		IntPairBuffer buffer = sequence(1000);
+		assertEquals(1000, buffer.size());
+		assertEquals(999, buffer.lastI());
+		assertEquals(-999, buffer.lastJ());
+		assertEquals(500, buffer.getI(500));
+		assertEquals(-500, buffer.getJ(500));
+	}
+
+	@Test
+	public void testStack() {
+		IntPairBuffer buffer = sequence(3);
+		buffer.removeLast();
+		assertEquals(1, buffer.lastI());
+		buffer.removeLast();
+		buffer.removeLast();
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void testEditing() {
+		IntPairBuffer buffer = sequence(6);
+		IntPairBuffer middle = buffer.copy(2, 4);
+		buffer.removeRange(1, 5);
+		assertArrayEquals(new int[] { 0, 5 }, buffer.toIArray());
+		middle.reverse();
+		buffer.insert(1, middle);
+		assertArrayEquals(new int[] { 0, 3, 2, 5 }, buffer.toIArray());
+		assertArrayEquals(new int[] { 0, -3, -2, -5 }, buffer.toJArray());
+		buffer.insert(0, buffer);
+		assertArrayEquals(new int[] { 0, 3, 2, 5, 0, 3, 2, 5 },
+				buffer.toIArray());
+	}
+
+	@Test
+	public void testViews() {
+		IntPairBuffer buffer = sequence(2);
+		List<Integer> i = buffer.iList();
+		List<Integer> j = buffer.jList();
+		buffer.add(7, 8);
+		assertEquals(Arrays.asList(0, 1, 7), i);
+		assertEquals(Arrays.asList(0, -1, 8), j);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewsAreReadOnly() {
+		sequence(2).iList().add(3);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetBeyondSize() {
+		sequence(2).getI(2);
+	}
+}
@@ -212,6 +212,30 @@ public class EllipsoidTest {
 		}
 	}
 
+	@Test
+	public void testGetSurfacePointsBuffers() {
+		final int n = 1000;
+		double[][] vectors = Vectors.regularVectors(n);
+		double[] ux = new double[n];
+		double[] uy = new double[n];
+		double[] uz = new double[n];
+		for (int i = 0; i < n; i++) {
+			ux[i] = vectors[i][0];
+			uy[i] = vectors[i][1];
+			uz[i] = vectors[i][2];
+		}
+		double[] px = new double[n];
+		double[] py = new double[n];
+		double[] pz = new double[n];
+		rotated.getSurfacePoints(ux, uy, uz, n, px, py, pz);
+		double[][] points = rotated.getSurfacePoints(n);
+		for (int i = 0; i < n; i++) {
+			assertEquals(points[i][0], px[i], 1E-9);
+			assertEquals(points[i][1], py[i], 1E-9);
+			assertEquals(points[i][2], pz[i], 1E-9);
+		}
+	}
+
 	@Test
 	public void testDilate() {
 		unitSphere.dilate(1);
@@ -243,6 +267,19 @@ public class EllipsoidTest {
 		}
 	}
 
+	@Test
+	public void testCachedBoundsAfterMutation() {
+		Ellipsoid e = unitSphere.copy();
+		e.setRadii(2, 7, 3);
+		assertArrayEquals(new double[] { 2, 3, 7 }, e.getSortedRadii(), 1E-9);
+		assertArrayEquals(new double[] { -3, 3 }, e.getXMinAndMax(), 1E-9);
+		assertTrue(e.contains(2.9, 0, 0));
+		assertTrue(!e.contains(3.1, 0, 0));
+		e.rotate(new double[][] { { 0, 0, 1 }, { 0, 1, 0 }, { 1, 0, 0 } });
+		assertArrayEquals(new double[] { -2, 2 }, e.getXMinAndMax(), 1E-9);
+		assertTrue(!e.contains(2.9, 0, 0));
+	}
+
 	@Test
 	public void testGetEquation() {
 
@@ -0,0 +1,61 @@
+package org.doube.geometry;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+import org.doube.bonej.MeasureSurface;
+import org.junit.Test;
+
+public class IndexedMeshTest {
+
+	/** Octahedron with radius 1, with a new Point3f for each corner */
+	private List<Point3f> octahedron() {
+		float[][] v = { { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 },
+				{ 0, 0, 1 }, { 0, 0, -1 } };
+		int[] t = { 0, 2, 4, 2, 1, 4, 1, 3, 4, 3, 0, 4, 2, 0, 5, 1, 2, 5, 3,
+				1, 5, 0, 3, 5 };
+		List<Point3f> triangles = new ArrayList<Point3f>();
+		for (int i : t)
+			triangles.add(new Point3f(v[i]));
+		// -0 and 0 are the same coordinate
+		triangles.set(t.length - 1, new Point3f(-0f, 0, -1));
+		triangles.set(15, new Point3f(-1, -0f, 0));
+		return triangles;
+	}
+
+	@Test
+	public void testFromTriangles() {
+		List<Point3f> triangles = octahedron();
+		IndexedMesh mesh = IndexedMesh.fromTriangles(triangles);
+		assertEquals(6, mesh.getVertexCount());
+		assertEquals(8, mesh.getTriangleCount());
+		assertEquals(triangles, mesh.getTriangles());
+	}
+
+	@Test
+	public void testGetVertexNormals() {
+		IndexedMesh mesh = IndexedMesh.fromTriangles(octahedron());
+		float[] vertices = mesh.getVertices();
+		float[] normals = mesh.getVertexNormals();
+		// the octahedron is convex and centred on the origin, and its triangles
+		// are wound anticlockwise seen from outside, so the normal of each
+		// vertex points towards the origin
+		for (int i = 0; i < vertices.length; i++)
+			assertEquals(vertices[i], -normals[i], 1e-6);
+	}
+
+	@Test
+	public void testDisplaceAndArea() {
+		List<Point3f> triangles = octahedron();
+		IndexedMesh mesh = IndexedMesh.fromTriangles(triangles);
+		assertEquals(MeasureSurface.getSurfaceArea(triangles),
+				mesh.getSurfaceArea(), 0);
+		assertEquals(4 * Math.sqrt(3), mesh.getSurfaceArea(), 1e-6);
+		IndexedMesh moved = mesh.displace(mesh.getVertexNormals(), -1);
+		assertEquals(16 * Math.sqrt(3), moved.getSurfaceArea(), 1e-5);
+	}
+}
@@ -0,0 +1,64 @@
+package org.doube.geometry;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import ij.ImagePlus;
+import ij.Prefs;
+
+import org.junit.Test;
+
+public class MarchingCubesTest {
+
+	@Test
+	public void testGetMeshSphere() {
+		final int r = 64;
+		ImagePlus imp = TestDataMaker.sphere(r);
+		IndexedMesh mesh = MarchingCubes.getMesh(imp, 128, 4);
+		double area = mesh.getSurfaceArea();
+		assertEquals(4 * Math.PI * r * r, area, area * 0.05);
+		double volume = mesh.getVolume();
+		// clockwise triangles seen from outside give a negative volume
+		assertTrue(volume < 0);
+		assertEquals(4 * Math.PI * r * r * r / 3, -volume, -volume * 0.02);
+	}
+
+	@Test
+	public void testGetMeshBox() {
+		final int d = 128;
+		ImagePlus imp = TestDataMaker.brick(d, d, d);
+		IndexedMesh mesh = MarchingCubes.getMesh(imp, 128, 4);
+		double area = mesh.getSurfaceArea();
+		assertEquals(6 * d * d, area, area * 0.02);
+	}
+
+	@Test
+	public void testGetMeshClosed() {
+		ImagePlus imp = TestDataMaker.sphere(20);
+		IndexedMesh mesh = MarchingCubes.getMesh(imp, 128, 1);
+		int[] indices = mesh.getIndices();
+		// each directed edge is used once, and by a neighbour in reverse
+		Set<Long> edges = new HashSet<Long>();
+		for (int t = 0; t < indices.length; t += 3)
+			for (int i = 0; i < 3; i++)
+				assertTrue(edges.add(((long) indices[t + i] << 32)
+						| indices[t + (i + 1) % 3]));
+		for (long edge : edges)
+			assertTrue(edges.contains((edge << 32) | (edge >>> 32)));
+	}
+
+	@Test
+	public void testGetMeshThreads() {
+		ImagePlus imp = TestDataMaker.sphere(20);
+		final int threads = Prefs.getThreads();
+		Prefs.setThreads(1);
+		IndexedMesh mesh1 = MarchingCubes.getMesh(imp, 128, 1);
+		Prefs.setThreads(7);
+		IndexedMesh mesh7 = MarchingCubes.getMesh(imp, 128, 1);
+		Prefs.setThreads(threads);
+		assertArrayEquals(mesh1.getVertices(), mesh7.getVertices(), 0);
+		assertArrayEquals(mesh1.getIndices(), mesh7.getIndices());
+	}
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import javax.vecmath.Point3f;
 
 //import org.doube.jama.Matrix;
+import org.doube.util.RandomStream;
 import org.junit.Test;
 
 public class VectorsTest {
@@ -66,6 +67,26 @@ public class VectorsTest {
 		}
 	}
 
+	@Test
+	public void testRandomVectorsSeeded() {
+		final int n = 1000;
+		RandomStream root = new RandomStream(42);
+		double[][] v = Vectors.randomVectors(n, root.substream(7));
+		double[][] w = Vectors.randomVectors(n,
+				new RandomStream(42).substream(7));
+		for (int i = 0; i < n; i++) {
+			final double x = v[i][0];
+			final double y = v[i][1];
+			final double z = v[i][2];
+			final double length = Math.sqrt(x * x + y * y + z * z);
+			assertEquals(1, length, 1e-9);
+			// same seed and index give identical vectors
+			assertArrayEquals(v[i], w[i], 0);
+		}
+		double[][] u = Vectors.randomVectors(n, root.substream(8));
+		assertTrue(u[0][0] != v[0][0]);
+	}
+
 	@Test
 	public void testRegularVectors() {
 		final int n = 1000;
@@ -0,0 +1,88 @@
+package org.doube.util;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ShortProcessor;
+
+import org.junit.Test;
+
+public class StackAlignerTest {
+
+	private final double[][] identity = { { 1, 0, 0 }, { 0, 1, 0 },
+			{ 0, 0, 1 } };
+
+	private final double[][] rotation = { { 0.8, 0.6, 0 }, { -0.6, 0.8, 0 },
+			{ 0, 0, 1 } };
+
+	/** 16-bit stack of random pixel values in unit voxels */
+	private ImagePlus testImage() {
+		java.util.Random random = new java.util.Random(42);
+		ImageStack stack = new ImageStack(40, 36);
+		for (int z = 1; z <= 12; z++) {
+			ShortProcessor sp = new ShortProcessor(40, 36);
+			for (int i = 0; i < 40 * 36; i++)
+				sp.set(i, random.nextInt(4096));
+			stack.addSlice("", sp);
+		}
+		return new ImagePlus("test", stack);
+	}
+
+	@Test
+	public void testIdentityIsExact() {
+		ImagePlus imp = testImage();
+		ImageStack source = imp.getImageStack();
+		// slices run from 1, so slice z covers [z, z + 1) in calibrated z
+		double[] centre = { 20, 18, 7 };
+		final int[] interpolations = { StackAligner.NEAREST_NEIGHBOUR,
+				StackAligner.TRILINEAR };
+		for (int interpolation : interpolations) {
+			StackAligner aligner = new StackAligner(imp, new Rectangle(0, 0,
+					40, 36), 1, 12, identity, centre, 40, 36, 12);
+			aligner.setInterpolation(interpolation);
+			ImageStack target = aligner.alignStack();
+			for (int z = 1; z < 12; z++)
+				assertArrayEquals((short[]) source.getPixels(z + 1),
+						(short[]) target.getPixels(z));
+		}
+	}
+
+	@Test
+	public void testVirtualStackMatchesAlignedStack() {
+		ImagePlus imp = testImage();
+		double[] centre = { 20, 18, 7 };
+		StackAligner aligner = new StackAligner(imp, new Rectangle(4, 3, 30,
+				28), 2, 11, rotation, centre, 52, 48, 14);
+		aligner.setInterpolation(StackAligner.TRILINEAR);
+		aligner.setAxes(true);
+		ImageStack stack = aligner.alignStack();
+		VirtualStack virtual = aligner.getVirtualStack();
+		assertEquals(stack.getSize(), virtual.getSize());
+		assertEquals(16, virtual.getBitDepth());
+		for (int z = 1; z <= stack.getSize(); z++)
+			assertArrayEquals((short[]) stack.getPixels(z),
+					(short[]) virtual.getPixels(z));
+	}
+
+	@Test
+	public void testTrilinearStaysWithinSourceRange() {
+		ImagePlus imp = testImage();
+		double[] centre = { 20, 18, 7 };
+		StackAligner aligner = new StackAligner(imp, new Rectangle(0, 0, 40,
+				36), 1, 12, rotation, centre, 52, 48, 14);
+		aligner.setInterpolation(StackAligner.TRILINEAR);
+		ImageStack stack = aligner.alignStack();
+		int nonZero = 0;
+		for (int z = 1; z <= stack.getSize(); z++)
+			for (short s : (short[]) stack.getPixels(z)) {
+				assertTrue((s & 0xffff) < 4096);
+				if (s != 0)
+					nonZero++;
+			}
+		assertTrue(nonZero > 40 * 36 * 10);
+	}
+}
@@ -0,0 +1,105 @@
+package org.doube.util;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ShortProcessor;
+
+import org.junit.Test;
+
+public class StackMomentsTest {
+
+	/**
+	 * 16-bit stack with a block of pixels of value 1000 and a single pixel of
+	 * value 3000, in anisotropic voxels
+	 */
+	private ImagePlus testImage() {
+		ImageStack stack = new ImageStack(20, 15);
+		for (int z = 1; z <= 10; z++) {
+			ShortProcessor sp = new ShortProcessor(20, 15);
+			for (int y = 3; y < 9; y++)
+				for (int x = 2; x < 14; x++)
+					if (z >= 3 && z <= 7)
+						sp.set(x, y, 1000);
+			if (z == 9)
+				sp.set(17, 12, 3000);
+			stack.addSlice("", sp);
+		}
+		ImagePlus imp = new ImagePlus("test", stack);
+		Calibration cal = imp.getCalibration();
+		cal.pixelWidth = 0.5;
+		cal.pixelHeight = 0.75;
+		cal.pixelDepth = 1.25;
+		return imp;
+	}
+
+	@Test
+	public void testGetSumsMatchesDirectSums() {
+		ImagePlus imp = testImage();
+		final double[] origin = { 3.1, 4.2, 5.3 };
+		final double m = 0.001, c = 0.5, factor = 2;
+		StackMoments stackMoments = new StackMoments(imp, new Rectangle(0,
+				0, 20, 15), 2, 9, 500, 5000);
+		stackMoments.setOrigin(origin);
+		stackMoments.setDensity(m, c, factor);
+		double[] sums = stackMoments.getSums();
+
+		double[] expected = new double[StackMoments.N_SUMS];
+		final double voxVol = 0.5 * 0.75 * 1.25;
+		for (int z = 2; z <= 9; z++) {
+			for (int y = 0; y < 15; y++) {
+				for (int x = 0; x < 20; x++) {
+					final double p = imp.getImageStack().getProcessor(z)
+							.get(x, y);
+					if (p < 500 || p > 5000)
+						continue;
+					final double w = (m * p + c) / factor * voxVol;
+					final double dx = x * 0.5 - origin[0];
+					final double dy = y * 0.75 - origin[1];
+					final double dz = z * 1.25 - origin[2];
+					expected[StackMoments.W] += w;
+					expected[StackMoments.X] += w * dx;
+					expected[StackMoments.Y] += w * dy;
+					expected[StackMoments.Z] += w * dz;
+					expected[StackMoments.XX] += w * dx * dx;
+					expected[StackMoments.YY] += w * dy * dy;
+					expected[StackMoments.ZZ] += w * dz * dz;
+					expected[StackMoments.XY] += w * dx * dy;
+					expected[StackMoments.XZ] += w * dx * dz;
+					expected[StackMoments.YZ] += w * dy * dz;
+					expected[StackMoments.COUNT]++;
+				}
+			}
+		}
+		assertArrayEquals(expected, sums, 1e-9);
+	}
+
+	@Test
+	public void testGetSliceSums() {
+		ImagePlus imp = testImage();
+		StackMoments stackMoments = new StackMoments(imp, new Rectangle(0,
+				0, 20, 15), 1, 10, 1, 65535);
+		double[][] sliceSums = stackMoments.getSliceSums();
+		assertEquals(10, sliceSums.length);
+		assertEquals(0, sliceSums[0][StackMoments.COUNT], 0);
+		assertEquals(72, sliceSums[4][StackMoments.COUNT], 0);
+		assertEquals(1, sliceSums[8][StackMoments.COUNT], 0);
+		assertEquals(17 * 0.5, sliceSums[8][StackMoments.X], 0);
+		assertArrayEquals(StackMoments.sum(sliceSums), stackMoments.getSums(),
+				0);
+	}
+
+	@Test
+	public void testRoi() {
+		ImagePlus imp = testImage();
+		StackMoments stackMoments = new StackMoments(imp, new Rectangle(15,
+				10, 5, 5), 1, 10, 1, 65535);
+		double[] sums = stackMoments.getSums();
+		assertEquals(1, sums[StackMoments.COUNT], 0);
+		assertEquals(9 * 1.25, sums[StackMoments.Z], 1e-12);
+	}
+}